@@ -0,0 +1,36 @@
+package com.gs.rpcsimulate.anno;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标在服务接口的方法上，客户端缓存这个方法的调用结果，key是方法+参数（数组参数按内容比较）
+ * 适合读多写少、允许短时间不一致的方法，例如按id查用户
+ * 1 缓存写入ttlMillis之后过期，最多maxSize个，超出时按W-TinyLFU淘汰（Caffeine），热点key不会被一次扫描冲掉
+ * 2 null结果和抛异常的调用不缓存
+ * 3 服务端数据变了可以通过CacheInvalidator主动推送失效通知，不用等过期
+ * 4 命中时默认返回缓存结果的一份副本，调用方修改拿到的对象不会改坏缓存，见copyOnHit
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcCacheable {
+
+    /**
+     * 缓存写入之后多久过期，毫秒
+     */
+    long ttlMillis() default 60000;
+
+    /**
+     * 这个方法最多缓存多少个结果
+     */
+    long maxSize() default 10000;
+
+    /**
+     * 缓存和调用方是否各用一份结果（放进缓存时、命中时用这个引用的序列化方式复制），否则所有调用方拿到的是缓存里的同一个对象，
+     * 一个调用方改了它，其他调用方拿到的也跟着变了；String、包装类、枚举这些不可变的结果不用复制，本来就不复制。
+     * 调用方保证不修改结果时可以设成false，命中时直接返回缓存里的对象，省掉一次序列化和反序列化
+     */
+    boolean copyOnHit() default true;
+}
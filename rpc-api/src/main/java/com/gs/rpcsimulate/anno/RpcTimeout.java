@@ -0,0 +1,21 @@
+package com.gs.rpcsimulate.anno;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标在服务接口的方法上，单独指定这个方法的调用超时时间
+ * 优先级：方法上的@RpcTimeout > @RpcClientProxyReference(timeout) > 配置文件里的 rpc.timeout-millis
+ * 超时的调用在客户端直接失败（TimeoutException），剩余时间随请求带给服务端，服务端开始处理前已经超时的请求直接丢弃
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcTimeout {
+
+    /**
+     * 超时时间，毫秒，0表示不限时
+     */
+    long value();
+}
@@ -0,0 +1,13 @@
+package com.gs.rpcsimulate.api;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 原样返回收到的数据，压测时用来控制请求、响应的大小，业务逻辑几乎不占时间，测的就是框架和网络本身
+ */
+public interface IEchoService {
+
+    byte[] echo(byte[] payload);
+
+    CompletableFuture<byte[]> echoAsync(byte[] payload);
+}
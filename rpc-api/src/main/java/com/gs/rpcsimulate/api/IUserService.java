@@ -1,7 +1,27 @@
 package com.gs.rpcsimulate.api;
 
+import com.gs.rpcsimulate.anno.RpcCacheable;
 import com.gs.rpcsimulate.pojo.User;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public interface IUserService {
+    // 读多写少，客户端缓存30秒，用户被修改时服务端可以用CacheInvalidator推送失效通知
+    @RpcCacheable(ttlMillis = 30000, maxSize = 10000)
     User getById(int id);
+
+    // 异步方法：客户端调用立刻返回future，不占线程等待
+    CompletableFuture<User> getByIdAsync(int id);
+
+    // 流式方法：导出大量用户，服务端按客户端的消费速度一个一个地发，客户端用完要close
+    Stream<User> exportUsers(int count);
+
+    // 响应式方法：订阅时才调用，不阻塞线程
+    Mono<User> getByIdReactive(int id);
+
+    // 响应式流式方法：订阅者request多少，服务端就发多少
+    Flux<User> streamUsers(int count);
 }
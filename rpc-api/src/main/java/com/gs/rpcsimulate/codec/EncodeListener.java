@@ -0,0 +1,15 @@
+package com.gs.rpcsimulate.codec;
+
+/**
+ * 编码器每写完一个请求、响应或者流式调用的元素回调一次，在IO线程上调用，实现要足够快，不能阻塞
+ * 回调之后消息就被放回对象池了，不能保存消息对象，要用的字段（方法编号等）在回调里取出来
+ */
+public interface EncodeListener {
+
+    /**
+     * @param msg         RpcRequest、RpcResponse，或者类型为STREAM_DATA的StreamFrame
+     * @param frameLength 写出去的整帧字节数，含协议头，压缩过的是压缩后的大小
+     * @param encodeNanos 序列化（和压缩）花的时间
+     */
+    void encoded(Object msg, int frameLength, long encodeNanos);
+}
@@ -0,0 +1,226 @@
+package com.gs.rpcsimulate.codec;
+
+import com.gs.rpcsimulate.common.CacheInvalidation;
+import com.gs.rpcsimulate.common.CallTiming;
+import com.gs.rpcsimulate.common.Heartbeat;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.compress.Compressor;
+import com.gs.rpcsimulate.compress.CompressorFactory;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解码器，服务端和客户端共用
+ * ByteToMessageDecoder内部会把收到的数据累积起来，所以解决了粘包半包：
+ * 数据不够一个协议头或者不够一个完整的消息体，就先不解，等下次数据到了再解；一次收到多帧，就循环解出多个消息。
+ * 注意：ByteToMessageDecoder是有状态的（累积缓冲区），不能共享，每个通道都要new一个
+ */
+public class RpcMessageDecoder extends ByteToMessageDecoder {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        // 1 连协议头都不够，等待更多数据
+        if (in.readableBytes() < RpcProtocol.HEADER_LENGTH) {
+            return;
+        }
+        int start = in.readerIndex();
+        // 2 先用get方法偷看，不移动读指针，校验魔数和长度
+        short magic = in.getShort(start);
+        if (magic != RpcProtocol.MAGIC) {
+            in.skipBytes(in.readableBytes());
+            throw new CorruptedFrameException("非法的协议魔数：" + magic);
+        }
+        int bodyLength = in.getInt(start + RpcProtocol.BODY_LENGTH_OFFSET);
+        if (bodyLength < 0 || bodyLength > RpcProtocol.MAX_BODY_LENGTH) {
+            in.skipBytes(in.readableBytes());
+            throw new TooLongFrameException("非法的消息体长度：" + bodyLength);
+        }
+        // 3 消息体还没收全（半包），等待更多数据
+        if (in.readableBytes() < RpcProtocol.HEADER_LENGTH + bodyLength) {
+            return;
+        }
+        // 4 一帧已经完整了，正式读
+        in.skipBytes(2);
+        byte version = in.readByte();
+        if (version != RpcProtocol.VERSION) {
+            in.skipBytes(in.readableBytes());
+            throw new CorruptedFrameException("不支持的协议版本：" + version);
+        }
+        byte msgType = in.readByte();
+        byte serializerType = in.readByte();
+        byte compress = in.readByte();
+        byte status = in.readByte();
+        long requestId = in.readLong();
+        int timeoutMillis = in.readInt();
+        in.skipBytes(4);
+        // 高位是附件、耗时统计的标记，低位才是消息类型
+        int flags = msgType & ~RpcProtocol.TYPE_MASK;
+        msgType = (byte) (msgType & RpcProtocol.TYPE_MASK);
+        // 心跳没有消息体，直接交给心跳处理器
+        if (msgType == RpcProtocol.TYPE_PING || msgType == RpcProtocol.TYPE_PONG) {
+            in.skipBytes(bodyLength);
+            out.add(msgType == RpcProtocol.TYPE_PING ? Heartbeat.PING : Heartbeat.PONG);
+            return;
+        }
+        if (SerializerFactory.getSerializer(serializerType) == null) {
+            in.skipBytes(bodyLength);
+            throw new CorruptedFrameException("不支持的序列化方式：" + serializerType);
+        }
+        byte compressorType = (byte) (compress & RpcProtocol.COMPRESSOR_MASK);
+        // 5 附件和耗时统计在消息体前面，不参与压缩，先读出来
+        ByteBuf frame = in.readSlice(bodyLength);
+        Map<String, String> attachments = (flags & RpcProtocol.ATTACHMENTS_FLAG) != 0 ? readAttachments(frame) : null;
+        CallTiming timing = (flags & RpcProtocol.TIMING_FLAG) != 0 ? readTiming(frame, msgType) : null;
+        // 6 消息体压缩过就先解压到一个池化的缓冲区里，之后从它里面读
+        boolean compressed = (compress & RpcProtocol.COMPRESSED_FLAG) != 0;
+        ByteBuf body;
+        if (compressed) {
+            Compressor compressor = CompressorFactory.getCompressor(compressorType);
+            if (compressor == null) {
+                throw new CorruptedFrameException("不支持的压缩方式：" + compressorType);
+            }
+            body = compressor.decompress(frame, ctx.alloc(), RpcProtocol.MAX_BODY_LENGTH);
+        } else {
+            body = frame;
+        }
+        try {
+            // 对端支持、本端也认识的压缩方式才记下来，不认识的当成不压缩，不影响这一次调用
+            Object msg = decodeMessage(msgType, serializerType,
+                    CompressorFactory.getCompressor(compressorType) == null ? 0 : compressorType, status, requestId,
+                    timeoutMillis, RpcProtocol.HEADER_LENGTH + bodyLength, body);
+            if (msg instanceof RpcRequest) {
+                ((RpcRequest) msg).setAttachments(attachments);
+                ((RpcRequest) msg).setTiming(timing);
+            } else if (msg instanceof RpcResponse) {
+                ((RpcResponse) msg).setAttachments(attachments);
+                ((RpcResponse) msg).setTiming(timing);
+            }
+            out.add(msg);
+        } finally {
+            // 解压出来的缓冲区是新分配的，要释放自己的那一份（消息里的切片各自持有引用）；没压缩的是累积缓冲区的切片，不用管
+            if (compressed) {
+                body.release();
+            }
+        }
+    }
+
+    /**
+     * 附件：count(2 byte)，然后是count个 keyLength(2 byte) + key + valueLength(2 byte) + value
+     */
+    private Map<String, String> readAttachments(ByteBuf frame) {
+        int count = frame.readUnsignedShort();
+        Map<String, String> attachments = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = frame.readCharSequence(frame.readUnsignedShort(), StandardCharsets.UTF_8).toString();
+            String value = frame.readCharSequence(frame.readUnsignedShort(), StandardCharsets.UTF_8).toString();
+            attachments.put(key, value);
+        }
+        return attachments;
+    }
+
+    /**
+     * 请求里只有一个标记，表示要统计耗时；响应里是服务端4个阶段的耗时
+     */
+    private CallTiming readTiming(ByteBuf frame, byte msgType) {
+        CallTiming timing = new CallTiming();
+        timing.setReceivedAtNanos(System.nanoTime());
+        if (msgType == RpcProtocol.TYPE_RESPONSE) {
+            timing.setServerDecodeNanos(frame.readLong());
+            timing.setServerQueueNanos(frame.readLong());
+            timing.setServerExecuteNanos(frame.readLong());
+            timing.setServerEncodeNanos(frame.readLong());
+        }
+        return timing;
+    }
+
+    /**
+     * 7 根据消息类型组装对象，消息体留给知道目标类型的地方去反序列化，不经过String也不拷贝成byte[]，
+     * 直接保留一个body的切片（引用计数+1），由使用方解析完之后release
+     */
+    private Object decodeMessage(byte msgType, byte serializerType, byte compressorType, byte status, long requestId,
+                                 int timeoutMillis, int frameLength, ByteBuf body) {
+        int bodyLength = body.readableBytes();
+        if (msgType == RpcProtocol.TYPE_REQUEST) {
+            if (bodyLength < 4) {
+                throw new CorruptedFrameException("请求缺少方法编号");
+            }
+            RpcRequest rpcRequest = RpcRequest.newInstance();
+            rpcRequest.setRequestId(requestId);
+            rpcRequest.setSerializer(serializerType);
+            rpcRequest.setCompressor(compressorType);
+            rpcRequest.setMethodId(body.readInt());
+            rpcRequest.setFrameLength(frameLength);
+            long now = System.nanoTime();
+            rpcRequest.setReceivedNanos(now);
+            // 调用方剩下的时间换算成本地的截止时间，从收到这一帧开始算
+            if (timeoutMillis > 0) {
+                rpcRequest.setDeadlineNanos(now + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            }
+            // 参数要等服务端找到方法、知道参数类型之后再解
+            if (body.isReadable()) {
+                rpcRequest.setData(body.readRetainedSlice(body.readableBytes()));
+            }
+            return rpcRequest;
+        } else if (msgType == RpcProtocol.TYPE_RESPONSE) {
+            // 响应的结果先不解，这里不知道方法的返回值类型，交给发起调用的地方一次解成目标类型
+            RpcResponse rpcResponse = RpcResponse.newInstance();
+            rpcResponse.setRequestId(requestId);
+            rpcResponse.setSerializer(serializerType);
+            rpcResponse.setCompressor(compressorType);
+            rpcResponse.setFrameLength(frameLength);
+            if (status == RpcProtocol.STATUS_OK) {
+                if (bodyLength > 0) {
+                    rpcResponse.setData(body.readRetainedSlice(bodyLength));
+                }
+            } else {
+                rpcResponse.setStatus(status);
+                rpcResponse.setError(body.readCharSequence(bodyLength, StandardCharsets.UTF_8).toString());
+            }
+            return rpcResponse;
+        } else if (msgType == RpcProtocol.TYPE_INVALIDATE) {
+            if (bodyLength < 4) {
+                throw new CorruptedFrameException("缓存失效通知缺少方法编号");
+            }
+            CacheInvalidation invalidation = new CacheInvalidation();
+            invalidation.setSerializer(serializerType);
+            invalidation.setMethodId(body.readInt());
+            // 参数要等客户端找到方法的参数类型之后再解
+            if (body.isReadable()) {
+                invalidation.setData(body.readRetainedSlice(body.readableBytes()));
+            }
+            return invalidation;
+        } else if (msgType == RpcProtocol.TYPE_STREAM_DATA) {
+            // 元素和响应一样，交给知道元素类型的地方去解
+            StreamFrame frame = StreamFrame.newInstance(msgType, requestId, serializerType);
+            frame.setCompressor(compressorType);
+            if (bodyLength > 0) {
+                frame.setData(body.readRetainedSlice(bodyLength));
+            }
+            return frame;
+        } else if (msgType == RpcProtocol.TYPE_STREAM_CREDIT) {
+            if (bodyLength < 4) {
+                throw new CorruptedFrameException("流式调用的额度缺少个数");
+            }
+            StreamFrame frame = StreamFrame.newInstance(msgType, requestId, serializerType);
+            frame.setCredits(body.readInt());
+            return frame;
+        } else if (msgType == RpcProtocol.TYPE_STREAM_CANCEL) {
+            return StreamFrame.newInstance(msgType, requestId, serializerType);
+        } else {
+            throw new CorruptedFrameException("未知的消息类型：" + msgType);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.gs.rpcsimulate.codec;
+
+import com.gs.rpcsimulate.common.CacheInvalidation;
+import com.gs.rpcsimulate.common.CallTiming;
+import com.gs.rpcsimulate.common.Heartbeat;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.compress.Compressor;
+import com.gs.rpcsimulate.compress.CompressorFactory;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.serializer.Serializer;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编码器，服务端和客户端共用
+ * 把RpcRequest/RpcResponse/StreamFrame按照RpcProtocol的帧格式写成二进制：先写协议头，再写消息体
+ * 消息体由序列化器直接写进out（池化的堆外ByteBuf），写完再回填协议头里的长度，中间没有byte[]，头和体也不用再拼接；
+ * 消息带了压缩方式时，消息体先写到一个池化的临时ByteBuf里，不小于阈值就压缩到out，协议头里打上压缩标记
+ * 编码器本身没有状态，所以可以被多个通道共享
+ * 消息写成字节之后就没用了，编码器负责把它放回对象池，所以交给channel写的消息，调用方不能再碰它
+ */
+@ChannelHandler.Sharable
+public class RpcMessageEncoder extends MessageToByteEncoder<Object> {
+
+    // 消息体不小于这么多字节才压缩
+    private final int compressThreshold;
+
+    // 每写完一个请求、响应或者流式调用的元素通知一次，统计流量和序列化耗时用，可以为null
+    private final EncodeListener encodeListener;
+
+    public RpcMessageEncoder() {
+        this(RpcProtocol.DEFAULT_COMPRESS_THRESHOLD);
+    }
+
+    public RpcMessageEncoder(int compressThreshold) {
+        this(compressThreshold, null);
+    }
+
+    public RpcMessageEncoder(int compressThreshold, EncodeListener encodeListener) {
+        this.compressThreshold = compressThreshold;
+        this.encodeListener = encodeListener;
+    }
+
+    /**
+     * 只处理RpcRequest、RpcResponse、流式调用的帧、心跳和缓存失效通知，其他类型的消息直接往前传
+     */
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof RpcRequest || msg instanceof RpcResponse || msg instanceof StreamFrame
+                || msg instanceof Heartbeat || msg instanceof CacheInvalidation;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        if (msg instanceof Heartbeat) {
+            // 心跳只有协议头，长度就是占位的0
+            writeHeader(out, ((Heartbeat) msg).getType(), (byte) 0, (byte) 0, RpcProtocol.STATUS_OK, 0, 0);
+        } else if (msg instanceof CacheInvalidation) {
+            // 失效通知会发给很多个连接，不是池化对象，不回收
+            writeFrame(ctx, out, msg, RpcProtocol.TYPE_INVALIDATE, ((CacheInvalidation) msg).getSerializer(), (byte) 0,
+                    0, RpcProtocol.STATUS_OK, 0, 0);
+        } else if (msg instanceof StreamFrame) {
+            StreamFrame frame = (StreamFrame) msg;
+            try {
+                if (frame.getType() == RpcProtocol.TYPE_STREAM_DATA) {
+                    // 元素和响应一样，够大就压缩，按方法统计流量
+                    long beginNanos = encodeListener == null ? 0 : System.nanoTime();
+                    int frameLength = writeFrame(ctx, out, msg, RpcProtocol.TYPE_STREAM_DATA, frame.getSerializer(),
+                            frame.getCompressor(), frame.getCompressLevel(), RpcProtocol.STATUS_OK, frame.getRequestId(), 0);
+                    if (encodeListener != null) {
+                        encodeListener.encoded(msg, frameLength, System.nanoTime() - beginNanos);
+                    }
+                } else {
+                    writeFrame(ctx, out, msg, frame.getType(), frame.getSerializer(), (byte) 0, 0, RpcProtocol.STATUS_OK,
+                            frame.getRequestId(), 0);
+                }
+            } finally {
+                frame.recycle();
+            }
+        } else if (msg instanceof RpcRequest) {
+            RpcRequest rpcRequest = (RpcRequest) msg;
+            try {
+                long beginNanos = encodeListener == null ? 0 : System.nanoTime();
+                int frameLength = writeFrame(ctx, out, msg, RpcProtocol.TYPE_REQUEST, rpcRequest.getSerializer(),
+                        rpcRequest.getCompressor(), rpcRequest.getCompressLevel(), RpcProtocol.STATUS_OK,
+                        rpcRequest.getRequestId(), remainingMillis(rpcRequest.getDeadlineNanos()));
+                if (encodeListener != null) {
+                    encodeListener.encoded(msg, frameLength, System.nanoTime() - beginNanos);
+                }
+            } finally {
+                rpcRequest.recycle();
+            }
+        } else {
+            RpcResponse rpcResponse = (RpcResponse) msg;
+            try {
+                byte status = rpcResponse.getError() == null ? RpcProtocol.STATUS_OK
+                        : rpcResponse.getStatus() != RpcProtocol.STATUS_OK ? rpcResponse.getStatus() : RpcProtocol.STATUS_ERROR;
+                long beginNanos = encodeListener == null ? 0 : System.nanoTime();
+                int frameLength = writeFrame(ctx, out, msg, RpcProtocol.TYPE_RESPONSE, rpcResponse.getSerializer(),
+                        rpcResponse.getCompressor(), rpcResponse.getCompressLevel(), status, rpcResponse.getRequestId(), 0);
+                if (encodeListener != null) {
+                    encodeListener.encoded(msg, frameLength, System.nanoTime() - beginNanos);
+                }
+            } finally {
+                rpcResponse.recycle();
+            }
+        }
+    }
+
+    /**
+     * 写消息体：
+     * 请求是 methodId(4 byte) + 参数数组，只序列化参数，方法用编号表示，没有参数就不写；
+     * 响应成功时只序列化结果本身，null就不写，失败时是UTF-8的错误信息；
+     * 缓存失效通知和请求一样；
+     * 流式调用的元素只序列化元素本身，null就不写，额度是4 byte的个数，取消没有消息体
+     */
+    private void writeBody(ByteBuf out, Object msg) {
+        if (msg instanceof StreamFrame) {
+            StreamFrame frame = (StreamFrame) msg;
+            if (frame.getType() == RpcProtocol.TYPE_STREAM_CREDIT) {
+                out.writeInt(frame.getCredits());
+            } else if (frame.getElement() != null) {
+                getSerializer(frame.getSerializer()).serialize(frame.getElement(), out);
+            }
+        } else if (msg instanceof CacheInvalidation) {
+            CacheInvalidation invalidation = (CacheInvalidation) msg;
+            out.writeInt(invalidation.getMethodId());
+            Object[] parameters = invalidation.getParameters();
+            if (parameters != null && parameters.length > 0) {
+                getSerializer(invalidation.getSerializer()).serialize(parameters, out);
+            }
+        } else if (msg instanceof RpcRequest) {
+            RpcRequest rpcRequest = (RpcRequest) msg;
+            out.writeInt(rpcRequest.getMethodId());
+            Object[] parameters = rpcRequest.getParameters();
+            if (parameters != null && parameters.length > 0) {
+                getSerializer(rpcRequest.getSerializer()).serialize(parameters, out);
+            }
+        } else {
+            RpcResponse rpcResponse = (RpcResponse) msg;
+            if (rpcResponse.getError() != null) {
+                ByteBufUtil.writeUtf8(out, rpcResponse.getError());
+            } else if (rpcResponse.getResult() != null) {
+                getSerializer(rpcResponse.getSerializer()).serialize(rpcResponse.getResult(), out);
+            }
+        }
+    }
+
+    /**
+     * 截止时间换算成还剩多少毫秒，向上取整，最少1毫秒（0表示不限时）；写到协议头里的时候时间可能已经到了，服务端会直接丢掉
+     */
+    private int remainingMillis(long deadlineNanos) {
+        if (deadlineNanos == 0) {
+            return 0;
+        }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime() + 999_999);
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining));
+    }
+
+    private Serializer getSerializer(byte type) {
+        Serializer serializer = SerializerFactory.getSerializer(type);
+        if (serializer == null) {
+            throw new EncoderException("不支持的序列化方式：" + type);
+        }
+        return serializer;
+    }
+
+    /**
+     * 写一帧：先写协议头（长度先占位），有附件、耗时统计的话接着写，再写消息体，够大就压缩，最后回填长度
+     * @return 整帧的字节数，含协议头
+     */
+    private int writeFrame(ChannelHandlerContext ctx, ByteBuf out, Object msg, byte msgType, byte serializer,
+                            byte compressorType, int compressLevel, byte status, long requestId, int timeoutMillis) {
+        int headerStart = out.writerIndex();
+        Map<String, String> attachments = msg instanceof RpcRequest ? ((RpcRequest) msg).getAttachments()
+                : msg instanceof RpcResponse ? ((RpcResponse) msg).getAttachments() : null;
+        CallTiming timing = msg instanceof RpcRequest ? ((RpcRequest) msg).getTiming()
+                : msg instanceof RpcResponse ? ((RpcResponse) msg).getTiming() : null;
+        long beginNanos = timing == null ? 0 : System.nanoTime();
+        int flags = msgType;
+        if (attachments != null && !attachments.isEmpty()) {
+            flags |= RpcProtocol.ATTACHMENTS_FLAG;
+        }
+        if (timing != null) {
+            flags |= RpcProtocol.TIMING_FLAG;
+        }
+        writeHeader(out, (byte) flags, serializer, compressorType, status, requestId, timeoutMillis);
+        if ((flags & RpcProtocol.ATTACHMENTS_FLAG) != 0) {
+            writeAttachments(out, attachments);
+        }
+        // 响应要带上服务端的耗时，序列化结果的耗时要等消息体写完才知道，先占位
+        int timingStart = out.writerIndex();
+        if (timing != null && msg instanceof RpcResponse) {
+            out.writeLong(timing.getServerDecodeNanos());
+            out.writeLong(timing.getServerQueueNanos());
+            out.writeLong(timing.getServerExecuteNanos());
+            out.writeLong(0);
+        }
+        int bodyStart = out.writerIndex();
+        Compressor compressor = CompressorFactory.getCompressor(compressorType);
+        if (compressor == null) {
+            writeBody(out, msg);
+        } else {
+            ByteBuf raw = ctx.alloc().buffer();
+            try {
+                writeBody(raw, msg);
+                int rawLength = raw.readableBytes();
+                // 对端解压时最多解出MAX_BODY_LENGTH，超过了压得再小也解不开
+                checkBodyLength(rawLength);
+                if (rawLength >= compressThreshold) {
+                    compressor.compress(raw, out, compressLevel);
+                    if (out.writerIndex() - bodyStart < rawLength) {
+                        out.setByte(headerStart + RpcProtocol.COMPRESS_OFFSET, compressorType | RpcProtocol.COMPRESSED_FLAG);
+                    } else {
+                        // 数据本身压不动（例如已经压缩过的图片），压了反而更大，退回不压缩
+                        out.writerIndex(bodyStart);
+                        out.writeBytes(raw, 0, rawLength);
+                    }
+                } else {
+                    out.writeBytes(raw);
+                }
+            } finally {
+                raw.release();
+            }
+        }
+        int bodyLength = out.writerIndex() - headerStart - RpcProtocol.HEADER_LENGTH;
+        checkBodyLength(bodyLength);
+        out.setInt(headerStart + RpcProtocol.BODY_LENGTH_OFFSET, bodyLength);
+        if (timing != null) {
+            long now = System.nanoTime();
+            if (msg instanceof RpcResponse) {
+                timing.setServerEncodeNanos(now - beginNanos);
+                out.setLong(timingStart + 3 * 8, timing.getServerEncodeNanos());
+            } else {
+                timing.setEncodeNanos(now - beginNanos);
+                timing.setSentAtNanos(now);
+            }
+        }
+        return out.writerIndex() - headerStart;
+    }
+
+    /**
+     * 超过上限的帧发出去，对端解码器会当成坏帧把整个连接上的数据都丢掉，连接上所有的调用都跟着失败；
+     * 在这里抛出，MessageToByteEncoder会释放写了一半的out、让这次写失败，只有这一个调用失败
+     */
+    private void checkBodyLength(int bodyLength) {
+        if (bodyLength > RpcProtocol.MAX_BODY_LENGTH) {
+            throw new EncoderException("消息体太长：" + bodyLength + "，上限是" + RpcProtocol.MAX_BODY_LENGTH);
+        }
+    }
+
+    /**
+     * 附件：count(2 byte)，然后是count个 keyLength(2 byte) + key + valueLength(2 byte) + value，都是UTF-8
+     */
+    private void writeAttachments(ByteBuf out, Map<String, String> attachments) {
+        if (attachments.size() > 0xffff) {
+            throw new EncoderException("附件太多：" + attachments.size());
+        }
+        out.writeShort(attachments.size());
+        for (Map.Entry<String, String> entry : attachments.entrySet()) {
+            writeShortString(out, entry.getKey());
+            writeShortString(out, entry.getValue() == null ? "" : entry.getValue());
+        }
+    }
+
+    private void writeShortString(ByteBuf out, String value) {
+        int length = ByteBufUtil.utf8Bytes(value);
+        if (length > 0xffff) {
+            throw new EncoderException("附件太长：" + length);
+        }
+        out.writeShort(length);
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    /**
+     * bodyLength先写0，消息体写完后回填
+     */
+    private void writeHeader(ByteBuf out, byte msgType, byte serializer, byte compress, byte status, long requestId,
+                             int timeoutMillis) {
+        out.writeShort(RpcProtocol.MAGIC);
+        out.writeByte(RpcProtocol.VERSION);
+        out.writeByte(msgType);
+        out.writeByte(serializer);
+        out.writeByte(compress);
+        out.writeByte(status);
+        out.writeLong(requestId);
+        out.writeInt(timeoutMillis);
+        out.writeInt(0);
+    }
+}
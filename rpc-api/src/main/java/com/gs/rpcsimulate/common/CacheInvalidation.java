@@ -0,0 +1,31 @@
+package com.gs.rpcsimulate.common;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Data;
+
+/**
+ * 缓存失效通知，服务端推给客户端，客户端清掉@RpcCacheable方法的缓存结果
+ * 编码器按字段写：serializer写在协议头，requestId为0，消息体和请求一样是 methodId(4 byte) + 序列化后的参数数组；
+ * 没有参数表示清掉这个方法的全部缓存
+ */
+@Data
+public class CacheInvalidation {
+    private byte serializer;
+    // 方法编号，见MethodId
+    private int methodId;
+    // 服务端：要失效的那个调用的参数，为null时清掉这个方法的全部缓存
+    private Object[] parameters;
+    // 客户端：还没反序列化的参数，是收到的数据的切片，找到方法的参数类型后再解，用完要release
+    private ByteBuf data;
+
+    /**
+     * 释放还没解析的参数数据，可以重复调用
+     */
+    public void release() {
+        ByteBuf data = this.data;
+        if (data != null) {
+            this.data = null;
+            data.release();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.gs.rpcsimulate.common;
+
+import lombok.Data;
+
+/**
+ * 一次被采样的调用各阶段的耗时，只有采样到的调用才有，平时为null，不占任何开销
+ * 客户端：编码器记下序列化的耗时和写完的时间，解码器记下收到响应的时间，服务端的4个耗时从响应里解出来；
+ * 服务端：解码器记下收到请求的时间，处理过程中记下解参数、排队、执行的耗时，编码器写响应时记下序列化的耗时，一起写回客户端
+ * 时间点都是本机的System.nanoTime()，两端的时钟不能直接比较，只比较各自算出来的耗时
+ */
+@Data
+public class CallTiming {
+    // 客户端：序列化请求的耗时
+    private long encodeNanos;
+    // 客户端：请求写完（交给socket之前）的时间点
+    private long sentAtNanos;
+    // 收到对端这一帧的时间点
+    private long receivedAtNanos;
+    // 服务端：解参数的耗时
+    private long serverDecodeNanos;
+    // 服务端：从收到请求到开始处理的时间，主要是业务线程池的排队
+    private long serverQueueNanos;
+    // 服务端：业务方法的执行时间
+    private long serverExecuteNanos;
+    // 服务端：序列化响应的耗时
+    private long serverEncodeNanos;
+
+    /**
+     * @return 服务端各阶段的耗时之和
+     */
+    public long serverNanos() {
+        return serverDecodeNanos + serverQueueNanos + serverExecuteNanos + serverEncodeNanos;
+    }
+}
@@ -0,0 +1,32 @@
+package com.gs.rpcsimulate.common;
+
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+
+/**
+ * 心跳消息，只有协议头没有消息体，requestId固定为0
+ * 客户端一段时间没收到数据就发PING，服务端收到PING回PONG，不经过业务处理器
+ * 没有任何字段，所以只有两个单例
+ */
+public final class Heartbeat {
+
+    public static final Heartbeat PING = new Heartbeat(RpcProtocol.TYPE_PING);
+    public static final Heartbeat PONG = new Heartbeat(RpcProtocol.TYPE_PONG);
+
+    private final byte type;
+
+    private Heartbeat(byte type) {
+        this.type = type;
+    }
+
+    /**
+     * @return 消息类型，RpcProtocol.TYPE_PING或TYPE_PONG
+     */
+    public byte getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return this == PING ? "PING" : "PONG";
+    }
+}
@@ -1,12 +1,113 @@
 package com.gs.rpcsimulate.common;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
+import java.util.Map;
+
+/**
+ * 请求不再整体序列化，编码器按字段写：requestId、serializer、compressor写在协议头，
+ * 消息体是 methodId(4 byte) + 序列化后的参数数组
+ * 每次调用都要一个请求对象，用newInstance()从Netty的对象池里取，用完recycle()放回去，减少年轻代的垃圾；
+ * 直接new出来的对象不属于对象池，recycle()什么也不做
+ */
 @Data
 public class RpcRequest {
-    private String requestId;
-    private String className;
-    private String methodName;
-    private Class<?>[] parameterTypes;
+
+    private static final Recycler<RpcRequest> RECYCLER = new Recycler<RpcRequest>() {
+        @Override
+        protected RpcRequest newObject(Handle<RpcRequest> handle) {
+            return new RpcRequest(handle);
+        }
+    };
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final Recycler.Handle<RpcRequest> handle;
+
+    private long requestId;
+    private byte serializer;
+    // 压缩方式的编号，0表示不压缩；body超过阈值时才真正压缩，服务端也用它压缩响应
+    private byte compressor;
+    // 客户端：压缩级别，不写到协议里
+    private int compressLevel;
+    // 方法编号，见MethodId，服务端按它直接查表找到要调用的方法
+    private int methodId;
+    // 截止时间，System.nanoTime()的值，0表示不限时。客户端：调用方最多等到什么时候；
+    // 服务端：按协议头里的剩余时间换算成的本地截止时间，过了就不用处理了
+    private long deadlineNanos;
+    // 服务端：收到这一帧的时间（System.nanoTime()）和整帧的字节数（含协议头），统计排队时间、流量用
+    private long receivedNanos;
+    private int frameLength;
+    // 附件，调用链的traceId、spanId这些，只有采样到的调用才有，平时为null，协议里也不占字节
+    private Map<String, String> attachments;
+    // 采样到的调用的各阶段耗时，不为null时服务端会统计耗时并写回响应
+    private CallTiming timing;
+    // 客户端：调用参数，由编码器序列化
     private Object[] parameters;
+    // 服务端：还没反序列化的参数，是收到的数据的切片（引用计数+1），不拷贝；
+    // 等找到方法、知道参数类型后在业务线程上直接从它解，解完或者请求被丢弃时要release
+    private ByteBuf data;
+
+    public RpcRequest() {
+        this(null);
+    }
+
+    private RpcRequest(Recycler.Handle<RpcRequest> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * 从对象池里取一个请求对象，字段都是初始值
+     */
+    public static RpcRequest newInstance() {
+        return RECYCLER.get();
+    }
+
+    /**
+     * 放回对象池，之后不能再使用这个对象。客户端由编码器在写完之后调用，服务端在请求处理完之后调用
+     */
+    public void recycle() {
+        release();
+        if (handle != null) {
+            requestId = 0;
+            serializer = 0;
+            compressor = 0;
+            compressLevel = 0;
+            methodId = 0;
+            deadlineNanos = 0;
+            receivedNanos = 0;
+            frameLength = 0;
+            attachments = null;
+            timing = null;
+            parameters = null;
+            handle.recycle(this);
+        }
+    }
+
+    /**
+     * @return 有截止时间并且已经过了
+     */
+    public boolean isExpired() {
+        return deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    /**
+     * 释放还没解析的参数数据，可以重复调用
+     */
+    public void release() {
+        ByteBuf data = this.data;
+        if (data != null) {
+            this.data = null;
+            data.release();
+        }
+    }
 }
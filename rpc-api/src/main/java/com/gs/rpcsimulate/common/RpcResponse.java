@@ -1,10 +1,104 @@
 package com.gs.rpcsimulate.common;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
+import java.util.Map;
+
+/**
+ * 响应不再整体序列化，编码器按字段写：requestId、serializer、compressor写在协议头，error或result写在消息体
+ * 和RpcRequest一样，用newInstance()从对象池里取，用完recycle()放回去
+ */
 @Data
 public class RpcResponse {
-    private String requestId;
+
+    private static final Recycler<RpcResponse> RECYCLER = new Recycler<RpcResponse>() {
+        @Override
+        protected RpcResponse newObject(Handle<RpcResponse> handle) {
+            return new RpcResponse(handle);
+        }
+    };
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final Recycler.Handle<RpcResponse> handle;
+
+    private long requestId;
+    // 和请求用同一种序列化方式
+    private byte serializer;
+    // 压缩方式的编号，服务端用客户端请求里带的那一种，0表示不压缩
+    private byte compressor;
+    // 服务端：压缩级别，按服务配置，不写到协议里
+    private int compressLevel;
+    // 服务端：对应请求的方法编号，不写到协议里，统计时按方法区分
+    private int methodId;
+    // 客户端：整帧的字节数（含协议头），由解码器记下
+    private int frameLength;
+    // 附件，服务端可以带回给客户端的额外信息，平时为null
+    private Map<String, String> attachments;
+    // 请求要求统计耗时时，服务端各阶段的耗时
+    private CallTiming timing;
     private String error;
+    // 有error时的状态：RpcProtocol.STATUS_ERROR（业务异常等），或者STATUS_OVERLOADED（服务端过载，请求没有被处理）
+    private byte status;
+    // 服务端：业务方法的返回值，由编码器序列化
     private Object result;
+    // 客户端：还没反序列化的结果，是收到的数据的切片（引用计数+1），不拷贝；
+    // 等拿到方法的返回值类型再直接从它解，避免解两次，解完或者响应被丢弃时要release
+    private ByteBuf data;
+
+    public RpcResponse() {
+        this(null);
+    }
+
+    private RpcResponse(Recycler.Handle<RpcResponse> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * 从对象池里取一个响应对象，字段都是初始值
+     */
+    public static RpcResponse newInstance() {
+        return RECYCLER.get();
+    }
+
+    /**
+     * 放回对象池，之后不能再使用这个对象。服务端由编码器在写完之后调用，客户端在结果解析完之后调用
+     */
+    public void recycle() {
+        release();
+        if (handle != null) {
+            requestId = 0;
+            serializer = 0;
+            compressor = 0;
+            compressLevel = 0;
+            methodId = 0;
+            frameLength = 0;
+            attachments = null;
+            timing = null;
+            error = null;
+            status = 0;
+            result = null;
+            handle.recycle(this);
+        }
+    }
+
+    /**
+     * 释放还没解析的结果数据，可以重复调用
+     */
+    public void release() {
+        ByteBuf data = this.data;
+        if (data != null) {
+            this.data = null;
+            data.release();
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package com.gs.rpcsimulate.common;
+
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * 流式调用的一帧：元素（STREAM_DATA）、额度（STREAM_CREDIT）、取消（STREAM_CANCEL），requestId是流的编号
+ * 导出几百万条记录时每个元素都是一帧，和RpcRequest/RpcResponse一样从对象池里取，写出去之后由编码器放回去
+ */
+@Data
+public class StreamFrame {
+
+    private static final Recycler<StreamFrame> RECYCLER = new Recycler<StreamFrame>() {
+        @Override
+        protected StreamFrame newObject(Handle<StreamFrame> handle) {
+            return new StreamFrame(handle);
+        }
+    };
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final Recycler.Handle<StreamFrame> handle;
+
+    // RpcProtocol.TYPE_STREAM_DATA、TYPE_STREAM_CREDIT、TYPE_STREAM_CANCEL
+    private byte type;
+    private long requestId;
+    private byte serializer;
+    // 元素用的压缩方式，和响应一样用请求里带的那一种
+    private byte compressor;
+    // 服务端：压缩级别，不写到协议里
+    private int compressLevel;
+    // 服务端：方法编号，不写到协议里，统计时按方法区分
+    private int methodId;
+    // STREAM_CREDIT：客户端又可以接收多少个元素
+    private int credits;
+    // 服务端：要发出去的元素，由编码器序列化
+    private Object element;
+    // 客户端：还没反序列化的元素，是收到的数据的切片，解完要release
+    private ByteBuf data;
+
+    private StreamFrame(Recycler.Handle<StreamFrame> handle) {
+        this.handle = handle;
+    }
+
+    public static StreamFrame newInstance(byte type, long requestId, byte serializer) {
+        StreamFrame frame = RECYCLER.get();
+        frame.type = type;
+        frame.requestId = requestId;
+        frame.serializer = serializer;
+        return frame;
+    }
+
+    public static StreamFrame credit(long requestId, byte serializer, int credits) {
+        StreamFrame frame = newInstance(RpcProtocol.TYPE_STREAM_CREDIT, requestId, serializer);
+        frame.credits = credits;
+        return frame;
+    }
+
+    public static StreamFrame cancel(long requestId, byte serializer) {
+        return newInstance(RpcProtocol.TYPE_STREAM_CANCEL, requestId, serializer);
+    }
+
+    /**
+     * 放回对象池，之后不能再使用这个对象
+     */
+    public void recycle() {
+        release();
+        type = 0;
+        requestId = 0;
+        serializer = 0;
+        compressor = 0;
+        compressLevel = 0;
+        methodId = 0;
+        credits = 0;
+        element = null;
+        handle.recycle(this);
+    }
+
+    /**
+     * 释放还没解析的元素数据，可以重复调用
+     */
+    public void release() {
+        ByteBuf data = this.data;
+        if (data != null) {
+            this.data = null;
+            data.release();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.gs.rpcsimulate.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 调用链的上下文：一条链上所有的调用共用一个traceId，每次调用一个spanId，记下是谁发起的（parentSpanId）
+ * 放在请求的附件里传给服务端；服务端执行业务方法时把它放进线程变量，业务方法里再发起的调用就接在这条链上，
+ * 采样的决定也跟着往下传，一条链要么整条都记，要么都不记
+ */
+public final class TraceContext {
+
+    public static final String TRACE_ID = "traceId";
+    public static final String SPAN_ID = "spanId";
+    public static final String PARENT_SPAN_ID = "parentSpanId";
+
+    private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<>();
+
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+
+    private TraceContext(String traceId, String spanId, String parentSpanId) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+    }
+
+    /**
+     * 开始一条新的调用链
+     */
+    public static TraceContext newTrace() {
+        return new TraceContext(newId(), newId(), null);
+    }
+
+    /**
+     * 在当前调用下面发起一次新的调用
+     */
+    public TraceContext newChild() {
+        return new TraceContext(traceId, newId(), spanId);
+    }
+
+    /**
+     * 从请求的附件里取出上下文，没有带traceId时返回null
+     */
+    public static TraceContext fromAttachments(Map<String, String> attachments) {
+        if (attachments == null || attachments.get(TRACE_ID) == null) {
+            return null;
+        }
+        return new TraceContext(attachments.get(TRACE_ID), attachments.get(SPAN_ID), attachments.get(PARENT_SPAN_ID));
+    }
+
+    /**
+     * 写到请求的附件里
+     */
+    public Map<String, String> toAttachments() {
+        Map<String, String> attachments = new HashMap<>(4);
+        attachments.put(TRACE_ID, traceId);
+        attachments.put(SPAN_ID, spanId);
+        if (parentSpanId != null) {
+            attachments.put(PARENT_SPAN_ID, parentSpanId);
+        }
+        return attachments;
+    }
+
+    /**
+     * @return 当前线程正在处理的调用的上下文，没有返回null
+     */
+    public static TraceContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 设置当前线程的上下文，传null清除
+     */
+    public static void setCurrent(TraceContext context) {
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+    }
+
+    private static String newId() {
+        return Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    @Override
+    public String toString() {
+        return traceId + "/" + spanId + (parentSpanId == null ? "" : "<-" + parentSpanId);
+    }
+}
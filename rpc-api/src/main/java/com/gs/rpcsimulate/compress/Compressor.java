@@ -0,0 +1,36 @@
+package com.gs.rpcsimulate.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * 压缩的SPI接口
+ * 消息体超过阈值时才压缩，协议头里的compress字节记录用的是哪一种、这一帧有没有压缩，小消息不付出任何代价。
+ * 直接在ByteBuf上压缩和解压，不经过byte[]，输入输出都可以是池化的堆外内存。
+ * 自定义实现：实现该接口，并写到 META-INF/services/com.gs.rpcsimulate.compress.Compressor 里，由 {@link CompressorFactory} 通过ServiceLoader加载
+ */
+public interface Compressor {
+
+    /**
+     * @return 压缩方式的编号，写在协议头里，1~127，两端必须一致，不能重复
+     */
+    byte getType();
+
+    /**
+     * @return 压缩方式的名字，用于配置，例如 lz4、snappy
+     */
+    String getName();
+
+    /**
+     * 把in里所有可读的数据压缩后写到out，in的读指针移到末尾
+     * @param level 压缩级别，不同实现含义不同，不支持级别的实现忽略它
+     */
+    void compress(ByteBuf in, ByteBuf out, int level);
+
+    /**
+     * 解压in里所有可读的数据，in的读指针移到末尾
+     * @param maxLength 解压后的最大长度，超过就报错，防止很小的数据解压出很大的内容把内存撑爆
+     * @return 新分配的ByteBuf，调用方用完要release
+     */
+    ByteBuf decompress(ByteBuf in, ByteBufAllocator allocator, int maxLength);
+}
@@ -0,0 +1,60 @@
+package com.gs.rpcsimulate.compress;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * 压缩方式的注册中心
+ * 启动时通过ServiceLoader加载所有的Compressor实现，之后按协议头里的编号或者配置里的名字查找
+ */
+public final class CompressorFactory {
+
+    /** 配置里表示不压缩的名字，对应编号0 */
+    public static final String NONE = "none";
+
+    private static final Compressor[] COMPRESSOR_BY_TYPE = new Compressor[128];
+    private static final Map<String, Compressor> COMPRESSOR_BY_NAME = new HashMap<>();
+
+    static {
+        for (Compressor compressor : ServiceLoader.load(Compressor.class, CompressorFactory.class.getClassLoader())) {
+            byte type = compressor.getType();
+            if (type <= 0) {
+                throw new IllegalStateException("压缩方式编号必须是1~127：" + compressor.getClass().getName());
+            }
+            if (COMPRESSOR_BY_TYPE[type] != null) {
+                throw new IllegalStateException("压缩方式编号重复：" + type + "，"
+                        + COMPRESSOR_BY_TYPE[type].getClass().getName() + " / " + compressor.getClass().getName());
+            }
+            COMPRESSOR_BY_TYPE[type] = compressor;
+            COMPRESSOR_BY_NAME.put(compressor.getName(), compressor);
+        }
+    }
+
+    private CompressorFactory() {
+    }
+
+    /**
+     * 按协议头里的编号查找，找不到（包括0）返回null
+     */
+    public static Compressor getCompressor(byte type) {
+        if (type <= 0) {
+            return null;
+        }
+        return COMPRESSOR_BY_TYPE[type];
+    }
+
+    /**
+     * 按配置里的名字查找编号，none或者空返回0，找不到直接报错，配置写错了要在启动时就暴露出来
+     */
+    public static byte getType(String name) {
+        if (name == null || name.isEmpty() || NONE.equals(name)) {
+            return 0;
+        }
+        Compressor compressor = COMPRESSOR_BY_NAME.get(name);
+        if (compressor == null) {
+            throw new IllegalArgumentException("不支持的压缩方式：" + name + "，可选：" + NONE + "、" + COMPRESSOR_BY_NAME.keySet());
+        }
+        return compressor.getType();
+    }
+}
@@ -0,0 +1,77 @@
+package com.gs.rpcsimulate.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.DecoderException;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LZ4，压缩和解压都非常快，CPU代价小，适合大部分场景
+ * 格式：原始长度(4 byte) + LZ4 block
+ * 级别：小于等于0用快速模式；1~17用LZ4 HC，级别越高压缩率越高、压缩越慢，解压速度不受影响
+ */
+public class Lz4Compressor implements Compressor {
+
+    public static final byte TYPE = 1;
+
+    // 优先用JNI的实现，不可用时退回到纯Java的实现
+    private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+    @Override
+    public byte getType() {
+        return TYPE;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out, int level) {
+        LZ4Compressor compressor = level <= 0 ? FACTORY.fastCompressor() : FACTORY.highCompressor(Math.min(level, 17));
+        int length = in.readableBytes();
+        int maxLength = compressor.maxCompressedLength(length);
+        out.writeInt(length);
+        out.ensureWritable(maxLength);
+        ByteBuffer src = in.nioBuffer(in.readerIndex(), length);
+        ByteBuffer dest = out.nioBuffer(out.writerIndex(), maxLength);
+        int compressedLength = compressor.compress(src, src.position(), length, dest, dest.position(), maxLength);
+        in.skipBytes(length);
+        out.writerIndex(out.writerIndex() + compressedLength);
+    }
+
+    @Override
+    public ByteBuf decompress(ByteBuf in, ByteBufAllocator allocator, int maxLength) {
+        if (in.readableBytes() < 4) {
+            throw new DecoderException("lz4数据不完整");
+        }
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new DecoderException("lz4解压后的长度非法：" + length);
+        }
+        ByteBuf out = allocator.buffer(length);
+        try {
+            // 对端发来的数据不可信，用safe的解压器，它会检查越界
+            LZ4SafeDecompressor decompressor = FACTORY.safeDecompressor();
+            int compressedLength = in.readableBytes();
+            ByteBuffer src = in.nioBuffer(in.readerIndex(), compressedLength);
+            ByteBuffer dest = out.nioBuffer(0, length);
+            int decompressedLength = decompressor.decompress(src, src.position(), compressedLength, dest, dest.position(), length);
+            if (decompressedLength != length) {
+                throw new DecoderException("lz4解压后的长度不对：" + decompressedLength + "，应为" + length);
+            }
+            in.skipBytes(compressedLength);
+            out.writerIndex(length);
+            return out;
+        } catch (LZ4Exception | DecoderException e) {
+            out.release();
+            throw e instanceof DecoderException ? (DecoderException) e : new DecoderException("lz4解压失败", e);
+        }
+    }
+}
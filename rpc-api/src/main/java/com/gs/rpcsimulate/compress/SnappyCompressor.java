@@ -0,0 +1,100 @@
+package com.gs.rpcsimulate.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.compression.Snappy;
+
+/**
+ * Snappy，用Netty自带的纯Java实现，不需要额外的依赖，压缩率和速度和LZ4的快速模式差不多，没有压缩级别
+ * Netty的Snappy一次最多只能压缩32K（哈希表里的偏移量是short），所以按块压缩，格式：
+ * 原始总长度(4 byte) + 若干个块，每个块是 压缩后的长度(4 byte) + Snappy数据（自带该块的原始长度）
+ * Snappy对象有状态，不是线程安全的，每次new一个，它很轻
+ */
+public class SnappyCompressor implements Compressor {
+
+    public static final byte TYPE = 2;
+
+    // 每块的最大原始长度
+    private static final int BLOCK_SIZE = Short.MAX_VALUE;
+
+    @Override
+    public byte getType() {
+        return TYPE;
+    }
+
+    @Override
+    public String getName() {
+        return "snappy";
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out, int level) {
+        Snappy snappy = new Snappy();
+        out.writeInt(in.readableBytes());
+        while (in.isReadable()) {
+            int blockLength = Math.min(in.readableBytes(), BLOCK_SIZE);
+            // 先占位，压完再回填这一块的长度
+            int lengthIndex = out.writerIndex();
+            out.writeInt(0);
+            snappy.encode(in.readSlice(blockLength), out, blockLength);
+            out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+            snappy.reset();
+        }
+    }
+
+    @Override
+    public ByteBuf decompress(ByteBuf in, ByteBufAllocator allocator, int maxLength) {
+        if (in.readableBytes() < 4) {
+            throw new DecoderException("snappy数据不完整");
+        }
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new DecoderException("snappy解压后的长度非法：" + length);
+        }
+        ByteBuf out = allocator.buffer(length);
+        try {
+            Snappy snappy = new Snappy();
+            while (in.isReadable()) {
+                int compressedLength = in.readableBytes() >= 4 ? in.readInt() : -1;
+                if (compressedLength < 0 || compressedLength > in.readableBytes()) {
+                    throw new DecoderException("snappy数据块长度非法：" + compressedLength);
+                }
+                ByteBuf block = in.readSlice(compressedLength);
+                // 每块开头是该块的原始长度，先检查，解完超过总长度的数据不能写出去
+                int blockLength = readPreamble(block);
+                if (blockLength < 0 || blockLength > BLOCK_SIZE || blockLength > length - out.writerIndex()) {
+                    throw new DecoderException("snappy数据块的原始长度非法：" + blockLength);
+                }
+                snappy.decode(block, out);
+                snappy.reset();
+            }
+            if (out.readableBytes() != length) {
+                throw new DecoderException("snappy解压后的长度不对：" + out.readableBytes() + "，应为" + length);
+            }
+            return out;
+        } catch (RuntimeException e) {
+            out.release();
+            throw e instanceof DecoderException ? (DecoderException) e : new DecoderException("snappy解压失败", e);
+        }
+    }
+
+    /**
+     * 不移动读指针，读出varint格式的原始长度，最多5个字节
+     */
+    private int readPreamble(ByteBuf in) {
+        int length = 0;
+        int index = in.readerIndex();
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (index >= in.writerIndex()) {
+                return -1;
+            }
+            int b = in.getUnsignedByte(index++);
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return length;
+            }
+        }
+        return -1;
+    }
+}
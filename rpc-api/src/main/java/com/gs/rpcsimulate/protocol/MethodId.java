@@ -0,0 +1,57 @@
+package com.gs.rpcsimulate.protocol;
+
+import java.lang.reflect.Method;
+
+/**
+ * 方法编号
+ * 原来每个请求都要带上类名、方法名和参数类型数组，服务端每次还要按名字去找方法。
+ * 现在两端用同样的规则，把 接口名#方法名(参数类型,...) 这个签名算成一个int，请求里只带这个编号，
+ * 服务端启动时把所有方法按编号建好表，收到请求直接查表调用，不需要握手。
+ * 编号冲突的概率很小，服务端建表时会检查，冲突了直接启动失败。
+ */
+public final class MethodId {
+
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private MethodId() {
+    }
+
+    /**
+     * @param serviceName 服务接口的全限定名，用代理的接口而不是method.getDeclaringClass()，继承来的方法也能对上
+     * @param method      接口上的方法
+     */
+    public static int of(String serviceName, Method method) {
+        return hash(signature(serviceName, method));
+    }
+
+    /**
+     * 方法签名，例如 com.gs.rpcsimulate.api.IUserService#getById(int)
+     */
+    public static String signature(String serviceName, Method method) {
+        StringBuilder signature = new StringBuilder(serviceName).append('#').append(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            signature.append(parameterTypes[i].getName());
+        }
+        return signature.append(')').toString();
+    }
+
+    /**
+     * FNV-1a 32位哈希，比String.hashCode分布更均匀，两端算出来一定一样
+     */
+    private static int hash(String signature) {
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < signature.length(); i++) {
+            char c = signature.charAt(i);
+            hash ^= (c & 0xff);
+            hash *= FNV_PRIME;
+            hash ^= (c >>> 8);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
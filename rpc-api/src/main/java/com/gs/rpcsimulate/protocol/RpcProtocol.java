@@ -0,0 +1,101 @@
+package com.gs.rpcsimulate.protocol;
+
+/**
+ * 自定义RPC协议的帧格式
+ * 原来直接用StringDecoder/StringEncoder，TCP是流式的，没有边界，高并发下多个消息会粘在一起（粘包）或被拆开（半包），json就会解析出错。
+ * 所以要有一个定长的协议头，协议头里写明消息体的长度，解码时先读头，再按长度读体。
+ * <pre>
+ * +--------+---------+----------+------------+----------+--------+-------------+-------------+-------------+
+ * | magic  | version | msgType  | serializer | compress | status |  requestId  |  timeout    | bodyLength  |
+ * | 2 byte | 1 byte  | 1 byte   | 1 byte     | 1 byte   | 1 byte |  8 byte     |  4 byte     |  4 byte     |
+ * +--------+---------+----------+------------+----------+--------+-------------+-------------+-------------+
+ * |                                        body (bodyLength byte)                                        |
+ * +------------------------------------------------------------------------------------------------------+
+ * </pre>
+ * timeout：请求发出时调用方还剩多少毫秒，0表示不限时。传的是剩余时间而不是绝对时间点，两台机器的时钟不用对齐；
+ * 服务端收到时加上本地时间算出截止时间，开始处理前已经过了截止时间的请求直接丢弃，调用方早就不等了。
+ * compress：最高位表示这一帧的body是否压缩过，低7位是压缩方式的编号（0表示不压缩）。
+ * 请求里即使body太小没有压缩，低7位也带着客户端配置的压缩方式，服务端就用它来压缩响应，这样每一帧各自协商，小消息不付出任何代价。
+ * 请求的body是 methodId(4 byte) + 序列化后的参数数组（没有参数时只有methodId）；
+ * 响应的body只有结果本身：status为成功时是序列化后的result（result为null时body为空），失败时是UTF-8的错误信息。
+ * 这样客户端可以拿着方法的泛型返回值类型，一次就把结果反序列化出来。
+ * 心跳（PING/PONG）只有协议头，requestId为0，bodyLength为0。
+ * 缓存失效通知（INVALIDATE）由服务端主动推给客户端，requestId为0，body和请求一样是 methodId + 参数数组（可以没有参数）。
+ * 流式调用（返回值是Iterator、Stream的方法）：请求和普通调用一样，requestId同时是流的编号；
+ * 服务端每个元素发一帧STREAM_DATA，body是序列化后的这一个元素，全部发完（或者出错）再发一个普通的RESPONSE结束这个流；
+ * 客户端用STREAM_CREDIT告诉服务端还能再发多少个元素（body是4 byte的个数），服务端手里没有额度了就停下来，不再从Iterator里取；
+ * 客户端不要了就发STREAM_CANCEL（没有body），服务端关掉Iterator，不再回RESPONSE。
+ */
+public final class RpcProtocol {
+
+    private RpcProtocol() {
+    }
+
+    /** 魔数，"gs"，不是这个开头的数据直接拒绝，防止非本协议的连接 */
+    public static final short MAGIC = 0x6773;
+
+    /** 协议版本 */
+    public static final byte VERSION = 1;
+
+    /** 协议头的总长度 */
+    public static final int HEADER_LENGTH = 2 + 1 + 1 + 1 + 1 + 1 + 8 + 4 + 4;
+
+    /** compress字段在协议头中的偏移量 */
+    public static final int COMPRESS_OFFSET = 5;
+
+    /** bodyLength字段在协议头中的偏移量 */
+    public static final int BODY_LENGTH_OFFSET = HEADER_LENGTH - 4;
+
+    /** 单帧消息体的最大长度，超过就认为是非法数据，避免对端乱发导致内存被撑爆 */
+    public static final int MAX_BODY_LENGTH = 16 * 1024 * 1024;
+
+    /** compress字节的最高位：body已压缩 */
+    public static final int COMPRESSED_FLAG = 0x80;
+
+    /** compress字节的低7位：压缩方式的编号 */
+    public static final int COMPRESSOR_MASK = 0x7f;
+
+    /** 默认的压缩阈值，body不小于这么多字节才压缩，太小的数据压缩不划算 */
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 2048;
+
+    /** msgType字段在协议头中的偏移量 */
+    public static final int MSG_TYPE_OFFSET = 3;
+
+    /** msgType字节的低4位：消息类型 */
+    public static final int TYPE_MASK = 0x0f;
+
+    /**
+     * msgType字节的最高位：协议头后面先是附件，再是消息体
+     * 附件：count(2 byte)，然后是count个 keyLength(2 byte) + key + valueLength(2 byte) + value，都是UTF-8
+     */
+    public static final int ATTACHMENTS_FLAG = 0x80;
+
+    /**
+     * msgType字节的次高位：耗时统计。请求带这个标记表示要求服务端统计各阶段的耗时；
+     * 响应带这个标记时，附件后面是服务端的 解参数、排队、执行、序列化结果 4个耗时，各8 byte，纳秒
+     * 附件和耗时都算在bodyLength里，都不参与压缩
+     */
+    public static final int TIMING_FLAG = 0x40;
+
+    /** 响应里耗时统计的长度 */
+    public static final int SERVER_TIMING_LENGTH = 4 * 8;
+
+    /*================== 消息类型 ==================*/
+    public static final byte TYPE_REQUEST = 1;
+    public static final byte TYPE_RESPONSE = 2;
+    public static final byte TYPE_PING = 3;
+    public static final byte TYPE_PONG = 4;
+    public static final byte TYPE_INVALIDATE = 5;
+    /** 流式调用的一个元素，服务端 -> 客户端 */
+    public static final byte TYPE_STREAM_DATA = 6;
+    /** 流式调用的额度，客户端 -> 服务端 */
+    public static final byte TYPE_STREAM_CREDIT = 7;
+    /** 取消流式调用，客户端 -> 服务端 */
+    public static final byte TYPE_STREAM_CANCEL = 8;
+
+    /*================== 响应状态 ==================*/
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+    /** 服务端过载，请求没有被处理，客户端可以换一个提供者重试 */
+    public static final byte STATUS_OVERLOADED = 2;
+}
@@ -0,0 +1,36 @@
+package com.gs.rpcsimulate.protocol;
+
+import reactor.core.publisher.Flux;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * 流式方法：接口方法的返回值声明成 Iterator&lt;T&gt;、Stream&lt;T&gt; 或者 Flux&lt;T&gt;
+ * 和MethodId一样，两端用同样的规则判断，服务端按元素一帧一帧地发，客户端一边收一边交给调用方，
+ * 整个结果集不会同时出现在任何一端的内存里
+ */
+public final class StreamingMethod {
+
+    private StreamingMethod() {
+    }
+
+    public static boolean isStreaming(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return returnType == Iterator.class || returnType == Stream.class || returnType == Flux.class;
+    }
+
+    /**
+     * Iterator&lt;User&gt; -> User，没有写泛型时是Object
+     */
+    public static Type elementType(Method method) {
+        Type genericReturnType = method.getGenericReturnType();
+        if (genericReturnType instanceof ParameterizedType) {
+            return ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
+        }
+        return Object.class;
+    }
+}
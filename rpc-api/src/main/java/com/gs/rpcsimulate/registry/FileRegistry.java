@@ -0,0 +1,171 @@
+package com.gs.rpcsimulate.registry;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于本机文件目录的注册中心，开发调试用，同一台机器上的服务端和客户端都能看到
+ * 目录结构：根目录/服务接口名/host_port，一个文件代表一个服务提供者，文件内容是权重
+ * 没有ZooKeeper那样的临时节点，所以服务端定时更新文件的修改时间当作心跳，
+ * 客户端只认最近还有心跳的文件，服务端进程被强杀后它的文件过一会儿就会被忽略
+ */
+public class FileRegistry implements ServiceRegistry, ServiceDiscovery {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileRegistry.class);
+
+    static final long HEARTBEAT_INTERVAL_MILLIS = 3000;
+    static final long EXPIRE_MILLIS = HEARTBEAT_INTERVAL_MILLIS * 3;
+    static final long REFRESH_INTERVAL_MILLIS = 2000;
+
+    private final File root;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("rpc-file-registry", true));
+
+    // 本进程注册的文件
+    private final Set<File> registeredFiles = ConcurrentHashMap.newKeySet();
+    // 服务名 -> 本地缓存的提供者列表
+    private final Map<String, List<ServiceInstance>> instanceCache = new ConcurrentHashMap<>();
+
+    public FileRegistry(String directory) {
+        if (directory == null || directory.isEmpty()) {
+            directory = System.getProperty("java.io.tmpdir") + File.separator + "rpc-registry";
+        }
+        this.root = new File(directory);
+        scheduler.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_INTERVAL_MILLIS, HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::refresh, REFRESH_INTERVAL_MILLIS, REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /*=========================== 服务注册 ===========================*/
+
+    @Override
+    public void register(String serviceName, ServiceInstance instance) {
+        File file = fileOf(serviceName, instance);
+        file.getParentFile().mkdirs();
+        // 文件内容是权重
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(String.valueOf(instance.getWeight()).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("注册服务失败：" + file, e);
+        }
+        file.deleteOnExit();
+        registeredFiles.add(file);
+    }
+
+    @Override
+    public void unregister(String serviceName, ServiceInstance instance) {
+        File file = fileOf(serviceName, instance);
+        registeredFiles.remove(file);
+        file.delete();
+    }
+
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (File file : registeredFiles) {
+            file.setLastModified(now);
+        }
+    }
+
+    private File fileOf(String serviceName, ServiceInstance instance) {
+        return new File(new File(root, serviceName), instance.getHost() + "_" + instance.getPort());
+    }
+
+    /*=========================== 服务发现 ===========================*/
+
+    @Override
+    public void subscribe(String serviceName) {
+        if (!instanceCache.containsKey(serviceName)) {
+            instanceCache.put(serviceName, load(serviceName));
+        }
+    }
+
+    @Override
+    public List<ServiceInstance> getInstances(String serviceName) {
+        List<ServiceInstance> instances = instanceCache.get(serviceName);
+        return instances == null ? Collections.emptyList() : instances;
+    }
+
+    /**
+     * 定时重新扫描订阅过的服务
+     */
+    private void refresh() {
+        for (String serviceName : instanceCache.keySet()) {
+            List<ServiceInstance> instances = load(serviceName);
+            if (!sameInstances(instances, instanceCache.get(serviceName))) {
+                logger.info("服务提供者列表变化：{} -> {}", serviceName, instances);
+                instanceCache.put(serviceName, instances);
+            }
+        }
+    }
+
+    /**
+     * ServiceInstance的equals只比较地址，权重变了也要更新
+     */
+    private boolean sameInstances(List<ServiceInstance> a, List<ServiceInstance> b) {
+        if (b == null || a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).equals(b.get(i)) || a.get(i).getWeight() != b.get(i).getWeight()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<ServiceInstance> load(String serviceName) {
+        File[] files = new File(root, serviceName).listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        long expireBefore = System.currentTimeMillis() - EXPIRE_MILLIS;
+        List<ServiceInstance> instances = new ArrayList<>(files.length);
+        for (File file : files) {
+            String name = file.getName();
+            int index = name.lastIndexOf('_');
+            if (index <= 0 || file.lastModified() < expireBefore) {
+                continue;
+            }
+            try {
+                instances.add(new ServiceInstance(name.substring(0, index), Integer.parseInt(name.substring(index + 1)),
+                        ServiceInstance.parseWeight(readContent(file))));
+            } catch (NumberFormatException e) {
+                // 不是注册文件，忽略
+            }
+        }
+        instances.sort((a, b) -> a.toString().compareTo(b.toString()));
+        return Collections.unmodifiableList(instances);
+    }
+
+    private String readContent(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (File file : registeredFiles) {
+            file.delete();
+        }
+        registeredFiles.clear();
+    }
+}
@@ -0,0 +1,36 @@
+package com.gs.rpcsimulate.registry;
+
+/**
+ * 按配置创建注册中心
+ * type：
+ * 1 file：基于本机文件目录，开发调试用，不需要装任何东西，address是目录，为空时用临时目录下的rpc-registry
+ * 2 zookeeper：基于ZooKeeper/Curator，address是zk的连接串，例如 127.0.0.1:2181
+ */
+public final class RegistryFactory {
+
+    public static final String TYPE_FILE = "file";
+    public static final String TYPE_ZOOKEEPER = "zookeeper";
+
+    private RegistryFactory() {
+    }
+
+    public static ServiceRegistry createRegistry(String type, String address) {
+        if (TYPE_FILE.equals(type)) {
+            return new FileRegistry(address);
+        }
+        if (TYPE_ZOOKEEPER.equals(type)) {
+            return new ZookeeperRegistry(address);
+        }
+        throw new IllegalArgumentException("不支持的注册中心类型：" + type);
+    }
+
+    public static ServiceDiscovery createDiscovery(String type, String address) {
+        if (TYPE_FILE.equals(type)) {
+            return new FileRegistry(address);
+        }
+        if (TYPE_ZOOKEEPER.equals(type)) {
+            return new ZookeeperRegistry(address);
+        }
+        throw new IllegalArgumentException("不支持的注册中心类型：" + type);
+    }
+}
@@ -0,0 +1,26 @@
+package com.gs.rpcsimulate.registry;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * 服务发现，客户端使用
+ * 先订阅，订阅后在本地缓存服务提供者列表，注册中心有变化时更新缓存；
+ * 调用时只读本地缓存，查找地址不会出现在调用路径上
+ */
+public interface ServiceDiscovery extends Closeable {
+
+    /**
+     * 订阅一个服务，第一次订阅会同步拉取一次列表，之后由监听更新，重复订阅没有影响
+     */
+    void subscribe(String serviceName);
+
+    /**
+     * 从本地缓存中取服务提供者列表，没有订阅或者没有提供者时返回空列表
+     * 返回的列表不能修改
+     */
+    List<ServiceInstance> getInstances(String serviceName);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,68 @@
+package com.gs.rpcsimulate.registry;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.net.InetSocketAddress;
+
+/**
+ * 一个服务提供者实例，就是一个服务端地址，以及它的权重
+ */
+@Getter
+@EqualsAndHashCode(of = {"host", "port"})
+public class ServiceInstance {
+
+    public static final int DEFAULT_WEIGHT = 100;
+
+    private final String host;
+    private final int port;
+    // 权重，加权轮询时按权重分配流量，机器配置高的可以调大
+    private final int weight;
+    // 连接用的地址，提前建好，调用时不用每次new
+    private final InetSocketAddress address;
+
+    public ServiceInstance(String host, int port) {
+        this(host, port, DEFAULT_WEIGHT);
+    }
+
+    public ServiceInstance(String host, int port, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("权重必须大于0：" + weight);
+        }
+        this.host = host;
+        this.port = port;
+        this.weight = weight;
+        this.address = InetSocketAddress.createUnresolved(host, port);
+    }
+
+    /**
+     * 解析 host:port 格式的字符串
+     */
+    public static ServiceInstance parse(String hostAndPort, int weight) {
+        int index = hostAndPort.lastIndexOf(':');
+        if (index <= 0) {
+            throw new IllegalArgumentException("非法的服务地址：" + hostAndPort);
+        }
+        return new ServiceInstance(hostAndPort.substring(0, index), Integer.parseInt(hostAndPort.substring(index + 1)), weight);
+    }
+
+    /**
+     * 解析注册中心里保存的权重，没有或者不合法时用默认权重
+     */
+    public static int parseWeight(String weight) {
+        if (weight == null || weight.trim().isEmpty()) {
+            return DEFAULT_WEIGHT;
+        }
+        try {
+            int value = Integer.parseInt(weight.trim());
+            return value > 0 ? value : DEFAULT_WEIGHT;
+        } catch (NumberFormatException e) {
+            return DEFAULT_WEIGHT;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,24 @@
+package com.gs.rpcsimulate.registry;
+
+import java.io.Closeable;
+
+/**
+ * 服务注册，服务端使用
+ * 服务端启动后，把自己对外暴露的每个服务接口和地址注册上去；服务端下线（包括进程挂掉）后，注册信息要能自动消失
+ */
+public interface ServiceRegistry extends Closeable {
+
+    /**
+     * @param serviceName 服务接口的全限定名
+     * @param instance    本服务端的地址
+     */
+    void register(String serviceName, ServiceInstance instance);
+
+    void unregister(String serviceName, ServiceInstance instance);
+
+    /**
+     * 关闭时注销所有注册过的服务
+     */
+    @Override
+    void close();
+}
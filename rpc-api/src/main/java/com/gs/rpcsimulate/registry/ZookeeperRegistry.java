@@ -0,0 +1,206 @@
+package com.gs.rpcsimulate.registry;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于ZooKeeper的注册中心，用Curator客户端
+ * 节点结构：/rpc/服务接口名/providers/host:port，节点数据是权重，服务端注册的是临时节点，会话断了节点自动删除
+ * 客户端对每个订阅的服务用PathChildrenCache监听providers下的子节点，变化时更新本地缓存
+ * 单元测试可以用curator-test的TestingServer，把它的getConnectString()传进来即可
+ */
+public class ZookeeperRegistry implements ServiceRegistry, ServiceDiscovery {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZookeeperRegistry.class);
+
+    static final String ROOT = "/rpc";
+    private static final int CONNECT_TIMEOUT_SECONDS = 10;
+
+    private final CuratorFramework client;
+
+    // 本进程注册的节点路径 -> 节点数据（权重），会话过期重连后要重新注册
+    private final Map<String, byte[]> registeredPaths = new ConcurrentHashMap<>();
+    // 上次注册时的会话id，重连后会话id变了说明原来的会话已经过期，临时节点没了
+    private volatile long sessionId;
+    // 收到过LOST：会话已经过期（或者Curator认为已经过期），重连上的一定是新会话
+    private volatile boolean sessionLost;
+    private final Map<String, PathChildrenCache> childrenCaches = new ConcurrentHashMap<>();
+    // 服务名 -> 本地缓存的提供者列表
+    private final Map<String, List<ServiceInstance>> instanceCache = new ConcurrentHashMap<>();
+
+    public ZookeeperRegistry(String connectString) {
+        if (connectString == null || connectString.isEmpty()) {
+            throw new IllegalArgumentException("没有配置ZooKeeper的地址");
+        }
+        client = CuratorFrameworkFactory.newClient(connectString, new ExponentialBackoffRetry(1000, 3));
+        // 会话过期后临时节点就没了，重新连上后把自己注册的节点再建一遍
+        // 只是网络抖了一下（SUSPENDED后RECONNECTED，会话还在），临时节点都还在，什么都不做，
+        // 否则每次抖动都会删掉重建节点，所有订阅的客户端都会看到这个提供者下线又上线
+        client.getConnectionStateListenable().addListener((c, newState) -> {
+            if (newState == ConnectionState.LOST) {
+                sessionLost = true;
+            } else if (newState == ConnectionState.RECONNECTED) {
+                long currentSessionId = currentSessionId();
+                if (sessionLost || currentSessionId != sessionId) {
+                    sessionLost = false;
+                    sessionId = currentSessionId;
+                    for (Map.Entry<String, byte[]> entry : registeredPaths.entrySet()) {
+                        createEphemeral(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        });
+        client.start();
+        try {
+            if (!client.blockUntilConnected(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                client.close();
+                throw new IllegalStateException("连接ZooKeeper超时：" + connectString);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            client.close();
+            throw new IllegalStateException("连接ZooKeeper被中断：" + connectString, e);
+        }
+        sessionId = currentSessionId();
+    }
+
+    private long currentSessionId() {
+        try {
+            return client.getZookeeperClient().getZooKeeper().getSessionId();
+        } catch (Exception e) {
+            // 拿不到就当成会话变了，重新注册一遍不会出错
+            return 0;
+        }
+    }
+
+    CuratorFramework getClient() {
+        return client;
+    }
+
+    /*=========================== 服务注册 ===========================*/
+
+    @Override
+    public void register(String serviceName, ServiceInstance instance) {
+        String path = providerPath(serviceName, instance);
+        byte[] data = String.valueOf(instance.getWeight()).getBytes(StandardCharsets.UTF_8);
+        registeredPaths.put(path, data);
+        createEphemeral(path, data);
+    }
+
+    @Override
+    public void unregister(String serviceName, ServiceInstance instance) {
+        String path = providerPath(serviceName, instance);
+        registeredPaths.remove(path);
+        try {
+            client.delete().guaranteed().forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            // 已经没有了
+        } catch (Exception e) {
+            throw new IllegalStateException("注销服务失败：" + path, e);
+        }
+    }
+
+    private void createEphemeral(String path, byte[] data) {
+        try {
+            // 之前的会话留下的同名节点可能还没过期，先删掉再建，保证节点属于当前会话；已经属于当前会话就不用动了
+            Stat stat = client.checkExists().forPath(path);
+            if (stat != null) {
+                if (stat.getEphemeralOwner() == currentSessionId()) {
+                    return;
+                }
+                client.delete().forPath(path);
+            }
+            client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, data);
+        } catch (KeeperException.NodeExistsException | KeeperException.NoNodeException e) {
+            // 并发重建，忽略
+        } catch (Exception e) {
+            throw new IllegalStateException("注册服务失败：" + path, e);
+        }
+    }
+
+    private static String providersPath(String serviceName) {
+        return ROOT + "/" + serviceName + "/providers";
+    }
+
+    private static String providerPath(String serviceName, ServiceInstance instance) {
+        return providersPath(serviceName) + "/" + instance;
+    }
+
+    /*=========================== 服务发现 ===========================*/
+
+    @Override
+    public void subscribe(String serviceName) {
+        if (childrenCaches.containsKey(serviceName)) {
+            return;
+        }
+        synchronized (this) {
+            if (childrenCaches.containsKey(serviceName)) {
+                return;
+            }
+            // 节点数据是权重，要缓存下来
+            PathChildrenCache cache = new PathChildrenCache(client, providersPath(serviceName), true);
+            cache.getListenable().addListener((c, event) -> refresh(serviceName, cache));
+            try {
+                // 同步建好初始缓存，订阅完就能拿到列表
+                cache.start(PathChildrenCache.StartMode.BUILD_INITIAL_CACHE);
+            } catch (Exception e) {
+                throw new IllegalStateException("订阅服务失败：" + serviceName, e);
+            }
+            childrenCaches.put(serviceName, cache);
+            refresh(serviceName, cache);
+        }
+    }
+
+    private void refresh(String serviceName, PathChildrenCache cache) {
+        List<ChildData> children = cache.getCurrentData();
+        List<ServiceInstance> instances = new ArrayList<>(children.size());
+        for (ChildData child : children) {
+            String path = child.getPath();
+            String weight = child.getData() == null ? null : new String(child.getData(), StandardCharsets.UTF_8);
+            instances.add(ServiceInstance.parse(path.substring(path.lastIndexOf('/') + 1), ServiceInstance.parseWeight(weight)));
+        }
+        instances.sort((a, b) -> a.toString().compareTo(b.toString()));
+        List<ServiceInstance> old = instanceCache.put(serviceName, Collections.unmodifiableList(instances));
+        if (old != null) {
+            logger.info("服务提供者列表变化：{} -> {}", serviceName, instances);
+        }
+    }
+
+    @Override
+    public List<ServiceInstance> getInstances(String serviceName) {
+        List<ServiceInstance> instances = instanceCache.get(serviceName);
+        return instances == null ? Collections.emptyList() : instances;
+    }
+
+    @Override
+    public void close() {
+        for (PathChildrenCache cache : childrenCaches.values()) {
+            try {
+                cache.close();
+            } catch (Exception e) {
+                logger.warn("关闭服务提供者列表的监听失败", e);
+            }
+        }
+        childrenCaches.clear();
+        // 临时节点会随着会话关闭而删除
+        registeredPaths.clear();
+        client.close();
+    }
+}
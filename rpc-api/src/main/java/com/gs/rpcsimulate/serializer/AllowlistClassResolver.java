@@ -0,0 +1,92 @@
+package com.gs.rpcsimulate.serializer;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Kryo的类白名单
+ * 不要求提前注册类时，反序列化会按数据里写的类名加载类、不调构造方法就创建对象再填字段，
+ * 对方发来什么类就能造出什么对象，这就是反序列化漏洞的入口（gadget链）。
+ * 所以没注册过的类第一次出现时（写和读都会走到registerImplicit）先检查白名单，不在白名单里直接报错：
+ * 1 rpc-api自己的包：接口参数、返回值都定义在这里
+ * 2 基本类型、包装类型、String，以及由这些组成的数组
+ * 3 常用的JDK集合、日期时间、BigDecimal这些值类型
+ * 读的时候类是用Class.forName(name, false, loader)加载的，不会执行静态代码块，检查在创建对象之前
+ */
+class AllowlistClassResolver extends DefaultClassResolver {
+
+    private static final String[] ALLOWED_PACKAGES = {
+            "com.gs.rpcsimulate.",
+            "java.time.",
+    };
+
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.Object",
+            "java.lang.String",
+            "java.lang.Boolean",
+            "java.lang.Byte",
+            "java.lang.Character",
+            "java.lang.Short",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Float",
+            "java.lang.Double",
+            "java.math.BigInteger",
+            "java.math.BigDecimal",
+            "java.util.Date",
+            "java.util.UUID",
+            "java.util.ArrayList",
+            "java.util.LinkedList",
+            "java.util.ArrayDeque",
+            "java.util.HashMap",
+            "java.util.LinkedHashMap",
+            "java.util.TreeMap",
+            "java.util.HashSet",
+            "java.util.LinkedHashSet",
+            "java.util.TreeSet",
+            "java.util.Arrays$ArrayList",
+            "java.util.Collections$EmptyList",
+            "java.util.Collections$EmptySet",
+            "java.util.Collections$EmptyMap",
+            "java.util.Collections$SingletonList",
+            "java.util.Collections$SingletonSet",
+            "java.util.Collections$SingletonMap",
+            "java.util.Collections$UnmodifiableCollection",
+            "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList",
+            "java.util.Collections$UnmodifiableSet",
+            "java.util.Collections$UnmodifiableMap"
+    ));
+
+    @Override
+    public Registration registerImplicit(Class type) {
+        if (!isAllowed(type)) {
+            throw new KryoException("类不在Kryo序列化的白名单里：" + type.getName());
+        }
+        return super.registerImplicit(type);
+    }
+
+    static boolean isAllowed(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) {
+            return true;
+        }
+        String name = type.getName();
+        if (ALLOWED_CLASSES.contains(name)) {
+            return true;
+        }
+        for (String allowedPackage : ALLOWED_PACKAGES) {
+            if (name.startsWith(allowedPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,100 @@
+package com.gs.rpcsimulate.serializer;
+
+import com.alibaba.fastjson.JSON;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.handler.codec.EncoderException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 基于fastjson的序列化，可读性好，方便调试，但体积大、速度一般
+ * json里不带类型信息，所以反序列化时必须给出目标类型
+ * ByteBuf版本：写的时候直接输出到ByteBuf（fastjson内部用线程本地的缓冲区），
+ * 读的时候堆内的ByteBuf直接用它的数组，堆外的拷到线程本地的数组里再解析，不再为每条消息new byte[]；
+ * 但fastjson 1.x的解析器内部总会把字符转成一个String，这一次是省不掉的，要完全没有中间对象请用kryo
+ */
+public class JsonSerializer implements Serializer {
+
+    public static final byte TYPE = 1;
+
+    // 超过这个大小的临时数组用完就丢，不留在线程里占内存
+    private static final int MAX_CACHED_BYTES = 128 * 1024;
+
+    private static final ThreadLocal<byte[]> BYTES_CACHE = new ThreadLocal<>();
+
+    @Override
+    public byte getType() {
+        return TYPE;
+    }
+
+    @Override
+    public String getName() {
+        return "json";
+    }
+
+    @Override
+    public byte[] serialize(Object obj) {
+        return JSON.toJSONBytes(obj);
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Type type) {
+        return JSON.parseObject(bytes, type);
+    }
+
+    /**
+     * 参数是一个json数组，按方法声明的参数类型逐个解析，User、List&lt;User&gt;都能解成正确的类型
+     */
+    @Override
+    public Object[] deserializeArguments(byte[] bytes, Type[] types) {
+        List<Object> arguments = JSON.parseArray(new String(bytes, StandardCharsets.UTF_8), types);
+        return arguments.toArray();
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        try {
+            JSON.writeJSONString(new ByteBufOutputStream(out), obj);
+        } catch (IOException e) {
+            throw new EncoderException(e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Type type) {
+        int length = in.readableBytes();
+        T result;
+        // fastjson按整个数组的长度（不是要解析的长度）分配字符缓冲区，池化的堆内ByteBuf的数组是整个内存块（16MB），
+        // 直接用它每次都要分配几十MB，所以只有数组本身不大时才直接用，否则和堆外的一样拷到线程本地的数组里
+        if (in.hasArray() && in.array().length <= MAX_CACHED_BYTES) {
+            result = JSON.parseObject(in.array(), in.arrayOffset() + in.readerIndex(), length, StandardCharsets.UTF_8, type);
+        } else {
+            result = JSON.parseObject(copyToCache(in, length), 0, length, StandardCharsets.UTF_8, type);
+        }
+        in.skipBytes(length);
+        return result;
+    }
+
+    @Override
+    public Object[] deserializeArguments(ByteBuf in, Type[] types) {
+        // fastjson没有从byte[]解析带类型数组的方法，参数一般不大，按字符串解
+        List<Object> arguments = JSON.parseArray(in.readCharSequence(in.readableBytes(), StandardCharsets.UTF_8).toString(), types);
+        return arguments.toArray();
+    }
+
+    private byte[] copyToCache(ByteBuf in, int length) {
+        byte[] bytes = BYTES_CACHE.get();
+        if (bytes == null || bytes.length < length) {
+            bytes = new byte[Math.max(length, 1024)];
+            if (length <= MAX_CACHED_BYTES) {
+                BYTES_CACHE.set(bytes);
+            }
+        }
+        in.getBytes(in.readerIndex(), bytes, 0, length);
+        return bytes;
+    }
+}
@@ -0,0 +1,127 @@
+package com.gs.rpcsimulate.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
+import com.esotericsoftware.kryo.util.Pool;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.nio.ByteBuffer;
+
+import java.lang.reflect.Type;
+
+/**
+ * 基于Kryo的二进制序列化，体积小、速度快，适合User这种小对象的高频调用
+ * Kryo会把类型信息一起写进去，所以反序列化不需要目标类型，List&lt;User&gt;这样的泛型结果也能原样还原
+ * 能反序列化的类限定在AllowlistClassResolver的白名单里：rpc-api的包和常用的JDK集合、值类型
+ * 注意：Kryo对象不是线程安全的，所以用池子，每次用的时候借一个，用完还回去
+ * ByteBuf版本：写的时候池化的Output攒满一段就直接刷进ByteBuf；读的时候ByteBufferInput直接读ByteBuf的nioBuffer视图，
+ * 堆外内存也不用先拷出来，整个过程没有按消息分配的byte[]
+ */
+public class KryoSerializer implements Serializer {
+
+    public static final byte TYPE = 2;
+
+    private static final Pool<Kryo> KRYO_POOL = new Pool<Kryo>(true, false, 64) {
+        @Override
+        protected Kryo create() {
+            // 不要求提前注册类，两端不用维护一样的注册顺序；但没注册的类要在白名单里，不能对方发什么类就造什么对象
+            Kryo kryo = new Kryo(new AllowlistClassResolver(), null);
+            kryo.setRegistrationRequired(false);
+            // 没有无参构造的类（比如Arrays.asList返回的那种）也能创建出来
+            kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+            return kryo;
+        }
+    };
+
+    private static final Pool<Output> OUTPUT_POOL = new Pool<Output>(true, false, 64) {
+        @Override
+        protected Output create() {
+            return new Output(512, -1);
+        }
+    };
+
+    // 还回池子前换成空的，池子里的Input不能还引用着ByteBuf的内存
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private static final Pool<ByteBufferInput> INPUT_POOL = new Pool<ByteBufferInput>(true, false, 64) {
+        @Override
+        protected ByteBufferInput create() {
+            return new ByteBufferInput();
+        }
+    };
+
+    @Override
+    public byte getType() {
+        return TYPE;
+    }
+
+    @Override
+    public String getName() {
+        return "kryo";
+    }
+
+    @Override
+    public byte[] serialize(Object obj) {
+        Kryo kryo = KRYO_POOL.obtain();
+        Output output = OUTPUT_POOL.obtain();
+        try {
+            output.reset();
+            kryo.writeClassAndObject(output, obj);
+            return output.toBytes();
+        } finally {
+            OUTPUT_POOL.free(output);
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T deserialize(byte[] bytes, Type type) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try {
+            return (T) kryo.readClassAndObject(new Input(bytes));
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        Kryo kryo = KRYO_POOL.obtain();
+        Output output = OUTPUT_POOL.obtain();
+        try {
+            output.setOutputStream(new ByteBufOutputStream(out));
+            kryo.writeClassAndObject(output, obj);
+            output.flush();
+        } finally {
+            // 不能让池子里的Output还引用着这个ByteBuf
+            output.setOutputStream(null);
+            OUTPUT_POOL.free(output);
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T deserialize(ByteBuf in, Type type) {
+        Kryo kryo = KRYO_POOL.obtain();
+        ByteBufferInput input = INPUT_POOL.obtain();
+        try {
+            ByteBuffer buffer = in.nioBuffer(in.readerIndex(), in.readableBytes());
+            int start = buffer.position();
+            input.setBuffer(buffer);
+            T result = (T) kryo.readClassAndObject(input);
+            in.skipBytes(input.position() - start);
+            return result;
+        } finally {
+            input.setBuffer(EMPTY_BUFFER);
+            INPUT_POOL.free(input);
+            KRYO_POOL.free(kryo);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.gs.rpcsimulate.serializer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.lang.reflect.Type;
+
+/**
+ * 序列化的SPI接口
+ * 原来客户端和服务端都是直接调用fastjson，换一种序列化方式就得改一堆代码。
+ * 抽象出这个接口之后，协议头里的serializer字段记录用的是哪一种，两端按编号找到对应的实现来编解码。
+ * 编解码器走的是ByteBuf版本的方法，直接写进/读自池化的ByteBuf，每条消息不再有中间的byte[]；
+ * byte[]版本是最基本的实现，ByteBuf版本默认通过它转一次，实现类可以覆盖成真正不拷贝的写法。
+ * 自定义实现：实现该接口，并写到 META-INF/services/com.gs.rpcsimulate.serializer.Serializer 里，由 {@link SerializerFactory} 通过ServiceLoader加载
+ */
+public interface Serializer {
+
+    /**
+     * @return 序列化方式的编号，写在协议头里，两端必须一致，不能重复
+     */
+    byte getType();
+
+    /**
+     * @return 序列化方式的名字，用于配置，例如 json、kryo
+     */
+    String getName();
+
+    /**
+     * 对象 -> 字节
+     */
+    byte[] serialize(Object obj);
+
+    /**
+     * 字节 -> 对象
+     * @param bytes 字节
+     * @param type  目标类型，可以是带泛型的类型（例如方法的getGenericReturnType），自带类型信息的序列化方式可以忽略它
+     */
+    <T> T deserialize(byte[] bytes, Type type);
+
+    /**
+     * 反序列化调用参数，types是方法的泛型参数类型
+     * 自带类型信息的序列化方式直接解成Object[]就行；json这种不带类型的要按types逐个转换
+     */
+    default Object[] deserializeArguments(byte[] bytes, Type[] types) {
+        return deserialize(bytes, Object[].class);
+    }
+
+    /**
+     * 对象 -> 直接写进out
+     */
+    default void serialize(Object obj, ByteBuf out) {
+        out.writeBytes(serialize(obj));
+    }
+
+    /**
+     * 直接从in里读，in里所有可读的字节就是一个对象
+     */
+    default <T> T deserialize(ByteBuf in, Type type) {
+        return deserialize(ByteBufUtil.getBytes(in), type);
+    }
+
+    /**
+     * 直接从in里读调用参数
+     */
+    default Object[] deserializeArguments(ByteBuf in, Type[] types) {
+        return deserialize(in, Object[].class);
+    }
+}
@@ -0,0 +1,54 @@
+package com.gs.rpcsimulate.serializer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * 序列化方式的注册中心
+ * 启动时通过ServiceLoader加载所有的Serializer实现，之后按协议头里的编号或者配置里的名字查找
+ */
+public final class SerializerFactory {
+
+    private static final Serializer[] SERIALIZER_BY_TYPE = new Serializer[128];
+    private static final Map<String, Serializer> SERIALIZER_BY_NAME = new HashMap<>();
+
+    static {
+        for (Serializer serializer : ServiceLoader.load(Serializer.class, SerializerFactory.class.getClassLoader())) {
+            byte type = serializer.getType();
+            if (type <= 0) {
+                throw new IllegalStateException("序列化编号必须是正数：" + serializer.getClass().getName());
+            }
+            if (SERIALIZER_BY_TYPE[type] != null) {
+                throw new IllegalStateException("序列化编号重复：" + type + "，"
+                        + SERIALIZER_BY_TYPE[type].getClass().getName() + " / " + serializer.getClass().getName());
+            }
+            SERIALIZER_BY_TYPE[type] = serializer;
+            SERIALIZER_BY_NAME.put(serializer.getName(), serializer);
+        }
+    }
+
+    private SerializerFactory() {
+    }
+
+    /**
+     * 按协议头里的编号查找，找不到返回null
+     */
+    public static Serializer getSerializer(byte type) {
+        if (type <= 0) {
+            return null;
+        }
+        return SERIALIZER_BY_TYPE[type];
+    }
+
+    /**
+     * 按配置里的名字查找，找不到直接报错，配置写错了要在启动时就暴露出来
+     */
+    public static Serializer getSerializer(String name) {
+        Serializer serializer = SERIALIZER_BY_NAME.get(name);
+        if (serializer == null) {
+            throw new IllegalArgumentException("不支持的序列化方式：" + name + "，可选：" + SERIALIZER_BY_NAME.keySet());
+        }
+        return serializer;
+    }
+}
@@ -0,0 +1,43 @@
+package com.gs.rpcsimulate.transport;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.timeout.IdleStateHandler;
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 心跳和空闲检测的配置，服务端和客户端都用，对应application.yml里的 rpc.heartbeat
+ * 客户端：intervalMillis没收到任何数据就发一次PING，连续maxMissed次PING之后还是什么都没收到，就认为连接死了，关闭它，
+ * 上面等待中的请求马上失败，连接池在后台重连；
+ * 服务端：idleTimeoutMillis没收到任何数据（请求和PING都算）就关闭连接，清理掉对端已经不在了的半开连接
+ */
+@Data
+public class HeartbeatConfig {
+
+    private boolean enabled = true;
+
+    // 客户端：多久没收到数据就发一次PING
+    private long intervalMillis = 5000;
+
+    // 客户端：连续多少次PING都没有收到任何数据就关闭连接
+    private int maxMissed = 3;
+
+    // 服务端：多久没收到数据就关闭连接，要比客户端的 intervalMillis 大，否则正常的空闲连接也会被关掉
+    private long idleTimeoutMillis = 60000;
+
+    /**
+     * 在initChannel里、编解码器之后业务处理器之前调用
+     * 空闲检测放在pipeline最前面，收到任何字节都算有数据
+     */
+    public void apply(Channel channel, boolean server) {
+        if (!enabled) {
+            return;
+        }
+        ChannelPipeline pipeline = channel.pipeline();
+        long readerIdle = server ? idleTimeoutMillis : intervalMillis;
+        pipeline.addFirst(new IdleStateHandler(readerIdle, 0, 0, TimeUnit.MILLISECONDS));
+        pipeline.addLast(new HeartbeatHandler(server, maxMissed));
+    }
+}
@@ -0,0 +1,61 @@
+package com.gs.rpcsimulate.transport;
+
+import com.gs.rpcsimulate.common.Heartbeat;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 心跳处理器，配合IdleStateHandler使用，由HeartbeatConfig装到pipeline里
+ * 1 收到PING回PONG，收到PONG什么也不做（收到数据本身就重置了空闲计时），心跳不会传到业务处理器
+ * 2 读空闲：客户端发PING，连续maxMissed次之后还是空闲就关闭连接；服务端直接关闭连接
+ * 客户端记录着连续空闲的次数，每个通道new一个
+ */
+public class HeartbeatHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatHandler.class);
+
+    private final boolean server;
+    private final int maxMissed;
+
+    // 连续发出去但一直没有收到任何数据的PING的个数，只在EventLoop线程上访问
+    private int missed;
+
+    public HeartbeatHandler(boolean server, int maxMissed) {
+        this.server = server;
+        this.maxMissed = maxMissed;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg == Heartbeat.PING) {
+            WriteQueue.write(ctx.channel(), Heartbeat.PONG, null);
+        } else if (msg != Heartbeat.PONG) {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (!(evt instanceof IdleStateEvent) || ((IdleStateEvent) evt).state() != IdleState.READER_IDLE) {
+            ctx.fireUserEventTriggered(evt);
+            return;
+        }
+        if (server) {
+            logger.info("连接空闲超时，关闭：{}", ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        // 中间收到过数据，空闲计时会重新开始，第一次空闲事件的isFirst为true
+        missed = ((IdleStateEvent) evt).isFirst() ? 1 : missed + 1;
+        if (missed > maxMissed) {
+            logger.warn("心跳超时，关闭连接：{}", ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        WriteQueue.write(ctx.channel(), Heartbeat.PING, null);
+    }
+}
@@ -0,0 +1,189 @@
+package com.gs.rpcsimulate.transport;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 传输层的配置，服务端和客户端都用，对应application.yml里的 rpc.transport
+ * 原来两端写死了NIO、默认线程数，也没有设置任何socket参数，现在都可以配置：
+ * 1 传输方式：Linux上自动用epoll（JNI直接调用epoll，边缘触发，比JDK的NIO少一层Selector的开销和垃圾），其他系统用NIO
+ * 2 EventLoop线程数
+ * 3 socket参数：TCP_NODELAY（RPC的小包不能等Nagle攒包）、收发缓冲区、backlog、连接超时
+ * 4 写缓冲区高低水位：待发送的数据超过高水位时通道变成不可写，低于低水位时恢复
+ * 5 ByteBuf分配器：池化/非池化，堆外/堆内
+ * 6 SO_REUSEPORT（只有epoll支持）：服务端同一个端口绑定多个监听通道，每个用一个acceptor线程，由内核分配新连接
+ */
+@Data
+public class TransportConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransportConfig.class);
+
+    public static final String TYPE_AUTO = "auto";
+    public static final String TYPE_EPOLL = "epoll";
+    public static final String TYPE_NIO = "nio";
+
+    public static final String ALLOCATOR_POOLED = "pooled";
+    public static final String ALLOCATOR_UNPOOLED = "unpooled";
+
+    // 传输方式：auto、epoll、nio
+    private String type = TYPE_AUTO;
+
+    // 服务端接收连接的线程数，开启reusePort时也是监听通道的个数
+    private int bossThreads = 1;
+
+    // IO线程数，0表示用Netty的默认值（CPU核数*2）
+    private int workerThreads = 0;
+
+    private boolean tcpNoDelay = true;
+
+    private boolean keepAlive = true;
+
+    // socket发送、接收缓冲区大小，0表示用操作系统的默认值（默认值会自动调整）
+    private int sendBufferSize = 0;
+
+    private int receiveBufferSize = 0;
+
+    // 服务端等待accept的连接队列长度
+    private int backlog = 1024;
+
+    // 客户端连接超时
+    private int connectTimeoutMillis = 3000;
+
+    private int writeBufferLowWaterMark = 32 * 1024;
+
+    private int writeBufferHighWaterMark = 64 * 1024;
+
+    // ByteBuf分配器：pooled、unpooled
+    private String allocator = ALLOCATOR_POOLED;
+
+    // 是否优先分配堆外内存，写socket时不用再拷贝一次
+    private boolean preferDirect = true;
+
+    // 服务端是否开启SO_REUSEPORT，只有epoll支持
+    private boolean reusePort = false;
+
+    /**
+     * 按配置和当前系统决定是否用epoll
+     */
+    public boolean useEpoll() {
+        if (TYPE_NIO.equals(type)) {
+            return false;
+        }
+        if (TYPE_EPOLL.equals(type)) {
+            if (!Epoll.isAvailable()) {
+                throw new IllegalStateException("配置了epoll，但当前系统不支持", Epoll.unavailabilityCause());
+            }
+            return true;
+        }
+        if (TYPE_AUTO.equals(type)) {
+            return Epoll.isAvailable();
+        }
+        throw new IllegalArgumentException("不支持的传输方式：" + type + "，可选：auto、epoll、nio");
+    }
+
+    /**
+     * @param threads 0表示用Netty的默认值
+     * @param name    线程名前缀，方便看线程栈
+     */
+    public EventLoopGroup newEventLoopGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+        return useEpoll() ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return useEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * 客户端的通道类型，返回值不限定是SocketChannel，基准测试可以换成LocalChannel
+     */
+    public Class<? extends Channel> channelClass() {
+        return useEpoll() ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * 服务端监听通道的个数：开启reusePort并且用epoll时，每个acceptor线程一个，否则只有一个
+     */
+    public int acceptorCount() {
+        return reusePort && useEpoll() ? Math.max(bossThreads, 1) : 1;
+    }
+
+    public void applyServerOptions(ServerBootstrap serverBootstrap) {
+        ByteBufAllocator byteBufAllocator = newAllocator();
+        serverBootstrap.option(ChannelOption.SO_BACKLOG, backlog)
+                .option(ChannelOption.ALLOCATOR, byteBufAllocator)
+                .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay)
+                .childOption(ChannelOption.SO_KEEPALIVE, keepAlive)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, newWaterMark())
+                .childOption(ChannelOption.ALLOCATOR, byteBufAllocator);
+        if (sendBufferSize > 0) {
+            serverBootstrap.childOption(ChannelOption.SO_SNDBUF, sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            // 接收缓冲区大于64K时要在监听通道上设置，accept出来的连接才能在握手时通告更大的窗口
+            serverBootstrap.option(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        }
+        if (reusePort) {
+            if (useEpoll()) {
+                serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            } else {
+                logger.warn("SO_REUSEPORT只有epoll支持，已忽略");
+            }
+        }
+    }
+
+    public void applyClientOptions(Bootstrap bootstrap) {
+        bootstrap.option(ChannelOption.TCP_NODELAY, tcpNoDelay)
+                .option(ChannelOption.SO_KEEPALIVE, keepAlive)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, newWaterMark())
+                .option(ChannelOption.ALLOCATOR, newAllocator());
+        if (sendBufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        }
+    }
+
+    private WriteBufferWaterMark newWaterMark() {
+        return new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark);
+    }
+
+    private ByteBufAllocator newAllocator() {
+        if (ALLOCATOR_POOLED.equals(allocator)) {
+            return preferDirect ? PooledByteBufAllocator.DEFAULT : new PooledByteBufAllocator(false);
+        }
+        if (ALLOCATOR_UNPOOLED.equals(allocator)) {
+            return new UnpooledByteBufAllocator(preferDirect);
+        }
+        throw new IllegalArgumentException("不支持的ByteBuf分配器：" + allocator + "，可选：pooled、unpooled");
+    }
+
+    @Override
+    public String toString() {
+        return (useEpoll() ? TYPE_EPOLL : TYPE_NIO) + "，IO线程数：" + (workerThreads == 0 ? "默认" : workerThreads)
+                + "，allocator：" + allocator + (preferDirect ? "/direct" : "/heap")
+                + (acceptorCount() > 1 ? "，SO_REUSEPORT acceptor数：" + acceptorCount() : "");
+    }
+}
@@ -0,0 +1,36 @@
+package com.gs.rpcsimulate.transport;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import lombok.Data;
+
+/**
+ * 写合并的配置，服务端和客户端都用，对应application.yml里的 rpc.write
+ */
+@Data
+public class WriteConfig {
+
+    // 是否启用写队列，启用后同一个EventLoop tick里的写只flush一次
+    private boolean batch = true;
+
+    // 写队列一次最多连续write多少条消息就flush一次，攒太多会占内存、拖慢第一条消息
+    private int maxBatch = 128;
+
+    // 大于0时在pipeline最前面加FlushConsolidationHandler：EventLoop线程上（例如读事件里直接写回）的flush，
+    // 每这么多次才真正flush一次，读完一批数据时也会flush；0表示不加
+    private int flushConsolidation = 0;
+
+    /**
+     * 在initChannel里调用，按配置给通道装上写合并
+     */
+    public void apply(Channel channel) {
+        ChannelPipeline pipeline = channel.pipeline();
+        if (flushConsolidation > 0) {
+            pipeline.addFirst(new FlushConsolidationHandler(flushConsolidation, true));
+        }
+        if (batch) {
+            WriteQueue.install(channel, maxBatch);
+        }
+    }
+}
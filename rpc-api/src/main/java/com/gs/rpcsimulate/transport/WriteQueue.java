@@ -0,0 +1,141 @@
+package com.gs.rpcsimulate.transport;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.AttributeKey;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 通道的写队列，把多次写合并成一次flush
+ * 原来每条消息都是writeAndFlush，一次flush就是一次write系统调用，小消息多的时候系统调用的次数成了瓶颈；
+ * 而且从业务线程调用writeAndFlush，Netty每条消息都要往EventLoop提交一个任务。
+ * 现在：任意线程都只是把消息放进这个队列，队列从空变成非空时才往EventLoop提交一次drain任务，
+ * drain在EventLoop上把队列里的消息全部write出去，最后只flush一次（每maxBatch条也flush一次，避免攒太多）。
+ * 1 连接空闲时队列里只有一条消息，drain马上就执行，马上flush，不会增加延迟
+ * 2 连接繁忙时，EventLoop处理上一批读写的这段时间里，新消息都攒在队列里，下一次drain一起发出去，一个tick一批
+ * 参考了gRPC的WriteQueue
+ */
+public final class WriteQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteQueue.class);
+
+    private static final AttributeKey<WriteQueue> WRITE_QUEUE_KEY = AttributeKey.valueOf("rpcWriteQueue");
+
+    private final Channel channel;
+    private final int maxBatch;
+    // 多个业务线程写，只有EventLoop线程读
+    private final Queue<Object> queue = PlatformDependent.newMpscQueue();
+    // 是否已经提交了drain任务
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+
+    private WriteQueue(Channel channel, int maxBatch) {
+        this.channel = channel;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * 在initChannel里调用，给通道装上写队列；不装的话 {@link #write} 就是普通的writeAndFlush
+     * @param maxBatch 一次drain最多连续write多少条就flush一次
+     */
+    public static void install(Channel channel, int maxBatch) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("maxBatch必须大于0：" + maxBatch);
+        }
+        channel.attr(WRITE_QUEUE_KEY).set(new WriteQueue(channel, maxBatch));
+    }
+
+    /**
+     * 写一条消息，任意线程都可以调用，不阻塞
+     * @param listener 写完（成功或失败）时回调，不关心结果可以传null
+     */
+    public static void write(Channel channel, Object msg, ChannelFutureListener listener) {
+        WriteQueue writeQueue = channel.attr(WRITE_QUEUE_KEY).get();
+        if (writeQueue != null) {
+            writeQueue.enqueue(msg, listener);
+            return;
+        }
+        ChannelFuture future = channel.writeAndFlush(msg);
+        if (listener != null) {
+            future.addListener(listener);
+        }
+    }
+
+    private void enqueue(Object msg, ChannelFutureListener listener) {
+        queue.add(listener == null ? msg : new PendingWrite(msg, listener));
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                channel.eventLoop().execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                // EventLoop已经关闭，通道也早就不能用了，把队列里的都当成写失败
+                scheduled.set(false);
+                failAll(e);
+            }
+        }
+    }
+
+    /**
+     * 在EventLoop线程上执行
+     */
+    private void drain() {
+        int written = 0;
+        for (;;) {
+            Object item;
+            while ((item = queue.poll()) != null) {
+                if (item instanceof PendingWrite) {
+                    PendingWrite pendingWrite = (PendingWrite) item;
+                    channel.write(pendingWrite.msg).addListener(pendingWrite.listener);
+                } else {
+                    channel.write(item);
+                }
+                if (++written == maxBatch) {
+                    channel.flush();
+                    written = 0;
+                }
+            }
+            if (written > 0) {
+                channel.flush();
+                written = 0;
+            }
+            // 先放开标志再检查一次队列：放开之前别的线程放进来的消息，它们没有提交任务，要在这里接着处理
+            scheduled.set(false);
+            if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void failAll(Throwable cause) {
+        Object item;
+        while ((item = queue.poll()) != null) {
+            if (item instanceof PendingWrite) {
+                ChannelFutureListener listener = ((PendingWrite) item).listener;
+                try {
+                    listener.operationComplete(channel.newFailedFuture(cause));
+                } catch (Exception e) {
+                    logger.warn("通知写失败的回调出错：{}", channel, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 需要写完回调的消息
+     */
+    private static final class PendingWrite {
+        final Object msg;
+        final ChannelFutureListener listener;
+
+        PendingWrite(Object msg, ChannelFutureListener listener) {
+            this.msg = msg;
+            this.listener = listener;
+        }
+    }
+}
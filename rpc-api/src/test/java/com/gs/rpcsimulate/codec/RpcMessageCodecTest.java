@@ -0,0 +1,310 @@
+package com.gs.rpcsimulate.codec;
+
+import com.gs.rpcsimulate.common.CallTiming;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.TraceContext;
+import com.gs.rpcsimulate.compress.Lz4Compressor;
+import com.gs.rpcsimulate.compress.SnappyCompressor;
+import com.gs.rpcsimulate.pojo.User;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.serializer.KryoSerializer;
+import com.gs.rpcsimulate.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 编码器写出来的帧交给解码器，解出来的消息和写进去的一样
+ */
+public class RpcMessageCodecTest {
+
+    private final Serializer serializer = new KryoSerializer();
+
+    private EmbeddedChannel encoder;
+    // 压缩阈值调小的编码器
+    private EmbeddedChannel compressing;
+    private EmbeddedChannel decoder;
+
+    @Before
+    public void setUp() {
+        encoder = new EmbeddedChannel(new RpcMessageEncoder());
+        compressing = new EmbeddedChannel(new RpcMessageEncoder(64));
+        decoder = new EmbeddedChannel(new RpcMessageDecoder());
+    }
+
+    @After
+    public void tearDown() {
+        encoder.finishAndReleaseAll();
+        compressing.finishAndReleaseAll();
+        decoder.finishAndReleaseAll();
+    }
+
+    @Test
+    public void requestRoundTrip() {
+        RpcRequest rpcRequest = RpcRequest.newInstance();
+        rpcRequest.setRequestId(42);
+        rpcRequest.setSerializer(serializer.getType());
+        rpcRequest.setMethodId(7);
+        rpcRequest.setParameters(new Object[]{1, "张三"});
+        rpcRequest.setDeadlineNanos(System.nanoTime() + TimeUnit.SECONDS.toNanos(3));
+
+        RpcRequest decoded = roundTrip(rpcRequest);
+        try {
+            assertEquals(42, decoded.getRequestId());
+            assertEquals(serializer.getType(), decoded.getSerializer());
+            assertEquals(7, decoded.getMethodId());
+            assertTrue(decoded.getDeadlineNanos() > System.nanoTime());
+            assertNull(decoded.getAttachments());
+            assertNull(decoded.getTiming());
+            Object[] parameters = serializer.deserialize(decoded.getData(), Object[].class);
+            assertArrayEquals(new Object[]{1, "张三"}, parameters);
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    @Test
+    public void responseRoundTrip() {
+        User user = new User();
+        user.setId(1);
+        user.setName("张三");
+        RpcResponse rpcResponse = RpcResponse.newInstance();
+        rpcResponse.setRequestId(42);
+        rpcResponse.setSerializer(serializer.getType());
+        rpcResponse.setResult(user);
+
+        RpcResponse decoded = roundTrip(rpcResponse);
+        try {
+            assertEquals(42, decoded.getRequestId());
+            assertNull(decoded.getError());
+            assertEquals(user, serializer.deserialize(decoded.getData(), User.class));
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    @Test
+    public void errorResponseRoundTrip() {
+        RpcResponse rpcResponse = RpcResponse.newInstance();
+        rpcResponse.setRequestId(42);
+        rpcResponse.setSerializer(serializer.getType());
+        rpcResponse.setStatus(RpcProtocol.STATUS_OVERLOADED);
+        rpcResponse.setError("服务端过载");
+
+        RpcResponse decoded = roundTrip(rpcResponse);
+        try {
+            assertEquals(RpcProtocol.STATUS_OVERLOADED, decoded.getStatus());
+            assertEquals("服务端过载", decoded.getError());
+            assertNull(decoded.getData());
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * 消息体超过上限的只让这一次写失败，什么都不会发出去，同一个连接上之后的消息照常编码
+     */
+    @Test
+    public void rejectsOversizedBodyWithoutBreakingTheChannel() {
+        RpcRequest tooLarge = RpcRequest.newInstance();
+        tooLarge.setSerializer(serializer.getType());
+        tooLarge.setMethodId(7);
+        tooLarge.setParameters(new Object[]{new byte[RpcProtocol.MAX_BODY_LENGTH]});
+        try {
+            encoder.writeOutbound(tooLarge);
+            fail("消息体超过上限应该编码失败");
+        } catch (EncoderException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(String.valueOf(RpcProtocol.MAX_BODY_LENGTH)));
+        }
+        assertNull(encoder.readOutbound());
+
+        RpcRequest rpcRequest = RpcRequest.newInstance();
+        rpcRequest.setRequestId(43);
+        rpcRequest.setSerializer(serializer.getType());
+        rpcRequest.setMethodId(7);
+        RpcRequest decoded = roundTrip(rpcRequest);
+        try {
+            assertEquals(43, decoded.getRequestId());
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * 采样到的请求带着附件和耗时标记，附件原样解出来，请求里的耗时只是一个标记，编码器记下序列化耗时和发出的时间
+     */
+    @Test
+    public void requestWithAttachmentsAndTimingRoundTrip() {
+        Map<String, String> attachments = new HashMap<>();
+        attachments.put(TraceContext.TRACE_ID, "trace-1");
+        attachments.put(TraceContext.SPAN_ID, "span-1");
+        attachments.put("空值", null);
+        CallTiming timing = new CallTiming();
+        RpcRequest rpcRequest = RpcRequest.newInstance();
+        rpcRequest.setRequestId(42);
+        rpcRequest.setSerializer(serializer.getType());
+        rpcRequest.setMethodId(7);
+        rpcRequest.setParameters(new Object[]{1});
+        rpcRequest.setAttachments(attachments);
+        rpcRequest.setTiming(timing);
+
+        RpcRequest decoded = roundTrip(rpcRequest);
+        try {
+            assertTrue(timing.getSentAtNanos() > 0);
+            assertEquals("trace-1", decoded.getAttachments().get(TraceContext.TRACE_ID));
+            assertEquals("span-1", decoded.getAttachments().get(TraceContext.SPAN_ID));
+            // null写成空字符串
+            assertEquals("", decoded.getAttachments().get("空值"));
+            assertNotNull(decoded.getTiming());
+            assertTrue(decoded.getTiming().getReceivedAtNanos() > 0);
+            assertEquals(7, decoded.getMethodId());
+            assertArrayEquals(new Object[]{1}, serializer.deserialize(decoded.getData(), Object[].class));
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * 响应带回服务端各阶段的耗时，序列化耗时是编码器写完消息体之后回填的；附件和耗时不参与压缩
+     */
+    @Test
+    public void responseWithTimingRoundTrip() {
+        for (EmbeddedChannel channel : new EmbeddedChannel[]{encoder, compressing}) {
+            CallTiming timing = new CallTiming();
+            timing.setServerDecodeNanos(1);
+            timing.setServerQueueNanos(2);
+            timing.setServerExecuteNanos(3);
+            String result = repeat("张三", 1000);
+            RpcResponse rpcResponse = response(Lz4Compressor.TYPE, result);
+            rpcResponse.setAttachments(Collections.singletonMap("k", "v"));
+            rpcResponse.setTiming(timing);
+
+            ByteBuf frame = encode(channel, rpcResponse);
+            assertTrue(timing.getServerEncodeNanos() > 0);
+            RpcResponse decoded = decode(frame);
+            try {
+                assertEquals(Collections.singletonMap("k", "v"), decoded.getAttachments());
+                CallTiming decodedTiming = decoded.getTiming();
+                assertEquals(1, decodedTiming.getServerDecodeNanos());
+                assertEquals(2, decodedTiming.getServerQueueNanos());
+                assertEquals(3, decodedTiming.getServerExecuteNanos());
+                assertEquals(timing.getServerEncodeNanos(), decodedTiming.getServerEncodeNanos());
+                assertEquals(result, serializer.deserialize(decoded.getData(), String.class));
+            } finally {
+                decoded.recycle();
+            }
+        }
+    }
+
+    /**
+     * 消息体不小于阈值就压缩，协议头打上压缩标记，解码器解压后和原来的一样
+     */
+    @Test
+    public void compressedResponseRoundTrip() {
+        for (byte compressor : new byte[]{Lz4Compressor.TYPE, SnappyCompressor.TYPE}) {
+            String result = repeat("张三李四王五", 1000);
+            ByteBuf frame = encode(compressing, response(compressor, result));
+            int rawLength = serializer.serialize(result).length;
+            assertEquals(compressor | RpcProtocol.COMPRESSED_FLAG, frame.getByte(RpcProtocol.COMPRESS_OFFSET) & 0xff);
+            assertTrue(frame.readableBytes() - RpcProtocol.HEADER_LENGTH < rawLength);
+
+            RpcResponse decoded = decode(frame);
+            try {
+                assertEquals(compressor, decoded.getCompressor());
+                assertEquals(result, serializer.deserialize(decoded.getData(), String.class));
+            } finally {
+                decoded.recycle();
+            }
+        }
+    }
+
+    /**
+     * 消息体小于阈值不压缩，协议头里只有压缩方式，没有压缩标记，服务端照样用这种方式压缩它的响应
+     */
+    @Test
+    public void smallBodyIsNotCompressed() {
+        ByteBuf frame = encode(compressing, response(Lz4Compressor.TYPE, "张三"));
+        assertEquals(Lz4Compressor.TYPE, frame.getByte(RpcProtocol.COMPRESS_OFFSET));
+
+        RpcResponse decoded = decode(frame);
+        try {
+            assertEquals(Lz4Compressor.TYPE, decoded.getCompressor());
+            assertEquals("张三", serializer.deserialize(decoded.getData(), String.class));
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * 随机数据压不动，压了反而更大，退回不压缩
+     */
+    @Test
+    public void incompressibleBodyFallsBackToRaw() {
+        byte[] payload = new byte[4096];
+        new Random(1).nextBytes(payload);
+        ByteBuf frame = encode(compressing, response(Lz4Compressor.TYPE, payload));
+        assertEquals(Lz4Compressor.TYPE, frame.getByte(RpcProtocol.COMPRESS_OFFSET));
+
+        RpcResponse decoded = decode(frame);
+        try {
+            assertArrayEquals(payload, (byte[]) serializer.deserialize(decoded.getData(), byte[].class));
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    private RpcResponse response(byte compressor, Object result) {
+        RpcResponse rpcResponse = RpcResponse.newInstance();
+        rpcResponse.setRequestId(42);
+        rpcResponse.setSerializer(serializer.getType());
+        rpcResponse.setCompressor(compressor);
+        rpcResponse.setResult(result);
+        return rpcResponse;
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder sb = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 编码成一帧，再交给解码器解出来
+     */
+    private <T> T roundTrip(Object msg) {
+        return decode(encode(encoder, msg));
+    }
+
+    private ByteBuf encode(EmbeddedChannel channel, Object msg) {
+        assertTrue(channel.writeOutbound(msg));
+        ByteBuf frame = channel.readOutbound();
+        assertNull(channel.readOutbound());
+        return frame;
+    }
+
+    private <T> T decode(ByteBuf frame) {
+        assertTrue(decoder.writeInbound(frame));
+        T decoded = decoder.readInbound();
+        assertNull(decoder.readInbound());
+        return decoded;
+    }
+}
@@ -0,0 +1,127 @@
+package com.gs.rpcsimulate.registry;
+
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.test.KillSession;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZookeeperRegistryTest {
+
+    private static final String SERVICE = "com.gs.rpcsimulate.api.IUserService";
+
+    private TestingServer server;
+    private ZookeeperRegistry provider;
+    private ZookeeperRegistry consumer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestingServer(true);
+        provider = new ZookeeperRegistry(server.getConnectString());
+        consumer = new ZookeeperRegistry(server.getConnectString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        consumer.close();
+        provider.close();
+        server.close();
+    }
+
+    @Test
+    public void registerAndDiscover() throws Exception {
+        ServiceInstance instance = new ServiceInstance("127.0.0.1", 9000, 50);
+        provider.register(SERVICE, instance);
+        consumer.subscribe(SERVICE);
+
+        assertEquals(Collections.singletonList(instance), consumer.getInstances(SERVICE));
+        assertEquals(50, consumer.getInstances(SERVICE).get(0).getWeight());
+
+        provider.unregister(SERVICE, instance);
+        await(() -> consumer.getInstances(SERVICE).isEmpty());
+    }
+
+    /**
+     * 会话过期后临时节点属于已经没了的会话，重连上新会话后要用新会话重新建节点，订阅方最后还能看到这个提供者
+     */
+    @Test
+    public void reRegistersAfterSessionExpiry() throws Exception {
+        ServiceInstance instance = new ServiceInstance("127.0.0.1", 9001);
+        provider.register(SERVICE, instance);
+        consumer.subscribe(SERVICE);
+        String path = ZookeeperRegistry.ROOT + "/" + SERVICE + "/providers/" + instance;
+        long oldSessionId = sessionId(provider);
+
+        KillSession.kill(provider.getClient().getZookeeperClient().getZooKeeper());
+
+        await(() -> {
+            long newSessionId = sessionId(provider);
+            Stat stat = stat(consumer, path);
+            return newSessionId != oldSessionId && stat != null && stat.getEphemeralOwner() == newSessionId;
+        });
+        await(() -> consumer.getInstances(SERVICE).equals(Collections.singletonList(instance)));
+    }
+
+    /**
+     * 服务端重启得很快，会话没有过期，重连后节点还是原来那个，不能删掉重建
+     */
+    @Test
+    public void keepsNodeWhenSessionSurvivesReconnect() throws Exception {
+        ServiceInstance instance = new ServiceInstance("127.0.0.1", 9002);
+        provider.register(SERVICE, instance);
+        String path = ZookeeperRegistry.ROOT + "/" + SERVICE + "/providers/" + instance;
+        Stat before = stat(provider, path);
+        assertNotNull(before);
+        long oldSessionId = sessionId(provider);
+
+        // 注册中心自己的监听器先加的，同一个线程上按顺序回调，这里收到时它已经处理完了
+        CountDownLatch reconnected = new CountDownLatch(1);
+        provider.getClient().getConnectionStateListenable().addListener((c, newState) -> {
+            if (newState == ConnectionState.RECONNECTED) {
+                reconnected.countDown();
+            }
+        });
+        server.restart();
+        assertTrue("没有重连上ZooKeeper", reconnected.await(30, TimeUnit.SECONDS));
+
+        assertEquals(oldSessionId, sessionId(provider));
+        Stat after = stat(provider, path);
+        assertNotNull(after);
+        assertEquals(before.getCzxid(), after.getCzxid());
+    }
+
+    private static long sessionId(ZookeeperRegistry registry) {
+        try {
+            return registry.getClient().getZookeeperClient().getZooKeeper().getSessionId();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static Stat stat(ZookeeperRegistry registry, String path) {
+        try {
+            return registry.getClient().checkExists().forPath(path);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            assertTrue("等待超时", System.nanoTime() < deadline);
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.gs.rpcsimulate.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Output;
+import com.gs.rpcsimulate.pojo.User;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KryoSerializerTest {
+
+    private final KryoSerializer serializer = new KryoSerializer();
+
+    @Test
+    public void roundTripsAllowedTypes() {
+        User user = new User();
+        user.setId(1);
+        user.setName("张三");
+        List<User> users = new ArrayList<>(Collections.singletonList(user));
+        Map<String, Long> map = new HashMap<>();
+        map.put("a", 1L);
+
+        assertEquals(user, roundTrip(user));
+        assertEquals(users, roundTrip(users));
+        assertEquals(Arrays.asList(1, 2), roundTrip(Arrays.asList(1, 2)));
+        assertEquals(Collections.emptyList(), roundTrip(Collections.emptyList()));
+        assertEquals(map, roundTrip(map));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) roundTrip(new byte[]{1, 2, 3}));
+        assertArrayEquals(new Object[]{1, "a", user}, (Object[]) roundTrip(new Object[]{1, "a", user}));
+    }
+
+    @Test
+    public void rejectsClassOutsideAllowlistOnWrite() {
+        try {
+            serializer.serialize(new Object[]{new AtomicInteger(1)});
+            fail("不在白名单里的类不能序列化");
+        } catch (KryoException e) {
+            assertTrue(e.getMessage().contains(AtomicInteger.class.getName()));
+        }
+    }
+
+    /**
+     * 对方用没有白名单的Kryo写了一个任意类，这边读的时候要拒绝，不能把对象造出来
+     */
+    @Test
+    public void rejectsClassOutsideAllowlistOnRead() {
+        Kryo unrestricted = new Kryo();
+        unrestricted.setRegistrationRequired(false);
+        Output output = new Output(256, -1);
+        unrestricted.writeClassAndObject(output, new AtomicInteger(1));
+        byte[] bytes = output.toBytes();
+
+        try {
+            serializer.deserialize(bytes, Object.class);
+            fail("不在白名单里的类不能反序列化");
+        } catch (KryoException e) {
+            assertTrue(e.getMessage().contains(AtomicInteger.class.getName()));
+        }
+        ByteBuf in = Unpooled.wrappedBuffer(bytes);
+        try {
+            serializer.deserialize(in, Object.class);
+            fail("不在白名单里的类不能反序列化");
+        } catch (KryoException e) {
+            assertTrue(e.getMessage().contains(AtomicInteger.class.getName()));
+        } finally {
+            in.release();
+        }
+    }
+
+    private Object roundTrip(Object value) {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            serializer.serialize(value, buf);
+            Object fromByteBuf = serializer.deserialize(buf, Object.class);
+            Object fromBytes = serializer.deserialize(serializer.serialize(value), Object.class);
+            if (value instanceof Object[] || value instanceof byte[]) {
+                return fromBytes;
+            }
+            assertEquals(fromBytes, fromByteBuf);
+            return fromByteBuf;
+        } finally {
+            buf.release();
+        }
+    }
+}
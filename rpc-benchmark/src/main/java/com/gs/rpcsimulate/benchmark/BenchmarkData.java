@@ -0,0 +1,89 @@
+package com.gs.rpcsimulate.benchmark;
+
+import com.gs.rpcsimulate.api.IUserService;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.pojo.User;
+import com.gs.rpcsimulate.protocol.MethodId;
+import com.gs.rpcsimulate.provider.proxy.ServerSkeleton;
+import com.gs.rpcsimulate.provider.service.UserServiceImpl;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 各个基准测试共用的数据：示例服务的方法编号、结果类型，按大小造的用户列表
+ * 用户列表用来模拟大小不同的结果，1个用户是几十字节的小消息，1000个用户是几十KB、会被压缩的大消息
+ */
+final class BenchmarkData {
+
+    static final String SERVICE_NAME = IUserService.class.getName();
+
+    // IUserService.getById(int)，同步方法
+    static final int GET_BY_ID;
+
+    // List<User>，从一个方法的泛型返回值类型上取，和客户端解结果时用的类型一样
+    static final Type USER_LIST_TYPE;
+
+    static {
+        try {
+            GET_BY_ID = MethodId.of(SERVICE_NAME, IUserService.class.getMethod("getById", int.class));
+            USER_LIST_TYPE = BenchmarkData.class.getDeclaredMethod("users", int.class).getGenericReturnType();
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 造count个用户，名字长短不一，中文英文都有
+     */
+    static List<User> users(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setId(i);
+            user.setName((i % 2 == 0 ? "张三" : "user-") + i);
+            users.add(user);
+        }
+        return users;
+    }
+
+    /**
+     * 和客户端ClientStub一样组装一个getById的请求，从对象池里取
+     */
+    static RpcRequest getByIdRequest(byte serializer, byte compressor, int id) {
+        RpcRequest rpcRequest = RpcRequest.newInstance();
+        rpcRequest.setSerializer(serializer);
+        rpcRequest.setCompressor(compressor);
+        rpcRequest.setMethodId(GET_BY_ID);
+        rpcRequest.setParameters(new Object[]{id});
+        return rpcRequest;
+    }
+
+    /**
+     * 和服务端一样组装一个成功的响应，从对象池里取
+     */
+    static RpcResponse response(long requestId, byte serializer, byte compressor, Object result) {
+        RpcResponse rpcResponse = RpcResponse.newInstance();
+        rpcResponse.setRequestId(requestId);
+        rpcResponse.setSerializer(serializer);
+        rpcResponse.setCompressor(compressor);
+        rpcResponse.setMethodId(GET_BY_ID);
+        rpcResponse.setResult(result);
+        return rpcResponse;
+    }
+
+    /**
+     * 不启动Spring，直接用示例服务建好服务端的调用器表
+     */
+    static ServerSkeleton serverSkeleton() {
+        ServerSkeleton serverSkeleton = new ServerSkeleton();
+        serverSkeleton.init(Collections.singletonMap(SERVICE_NAME, new UserServiceImpl()));
+        return serverSkeleton;
+    }
+}
@@ -0,0 +1,124 @@
+package com.gs.rpcsimulate.benchmark;
+
+import com.gs.rpcsimulate.codec.RpcMessageDecoder;
+import com.gs.rpcsimulate.codec.RpcMessageEncoder;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.compress.CompressorFactory;
+import com.gs.rpcsimulate.pojo.User;
+import com.gs.rpcsimulate.serializer.Serializer;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编解码器在pipeline里的开销，用EmbeddedChannel跑，不经过网络：
+ * encode：请求、响应对象 -> 一整帧（含协议头、序列化、够大时压缩），写完对象放回对象池
+ * decode：一整帧 -> 请求、响应对象，再像服务端、客户端那样把参数、结果解出来，解完放回对象池
+ * 加上 -prof gc 看每次调用分配了多少字节，对象池、直接写ByteBuf这些优化是否生效一看就知道
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"kryo", "json"})
+    String serializerName;
+
+    // none、lz4：消息体超过阈值（默认2048字节）才真正压缩
+    @Param({CompressorFactory.NONE, "lz4"})
+    String compressorName;
+
+    // 响应结果里有多少个用户
+    @Param({"1", "1000"})
+    int users;
+
+    private EmbeddedChannel channel;
+    private Serializer serializer;
+    private byte compressor;
+    private Type[] argumentTypes;
+    private List<User> result;
+    // 提前编码好的请求帧、响应帧，解码时每次传一个引用+1的副本进去
+    private ByteBuf requestFrame;
+    private ByteBuf responseFrame;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        channel = new EmbeddedChannel(new RpcMessageDecoder(), new RpcMessageEncoder());
+        serializer = SerializerFactory.getSerializer(serializerName);
+        compressor = CompressorFactory.getType(compressorName);
+        argumentTypes = new Type[]{int.class};
+        result = BenchmarkData.users(users);
+        channel.writeOutbound(BenchmarkData.getByIdRequest(serializer.getType(), compressor, 1));
+        requestFrame = channel.readOutbound();
+        channel.writeOutbound(BenchmarkData.response(1, serializer.getType(), compressor, result));
+        responseFrame = channel.readOutbound();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        requestFrame.release();
+        responseFrame.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int encodeRequest() {
+        channel.writeOutbound(BenchmarkData.getByIdRequest(serializer.getType(), compressor, 1));
+        return release(channel.readOutbound());
+    }
+
+    @Benchmark
+    public int encodeResponse() {
+        channel.writeOutbound(BenchmarkData.response(1, serializer.getType(), compressor, result));
+        return release(channel.readOutbound());
+    }
+
+    @Benchmark
+    public Object[] decodeRequest() {
+        channel.writeInbound(requestFrame.retainedDuplicate());
+        RpcRequest rpcRequest = channel.readInbound();
+        try {
+            return serializer.deserializeArguments(rpcRequest.getData(), argumentTypes);
+        } finally {
+            rpcRequest.recycle();
+        }
+    }
+
+    @Benchmark
+    public Object decodeResponse() {
+        channel.writeInbound(responseFrame.retainedDuplicate());
+        RpcResponse rpcResponse = channel.readInbound();
+        try {
+            return serializer.deserialize(rpcResponse.getData(), BenchmarkData.USER_LIST_TYPE);
+        } finally {
+            rpcResponse.recycle();
+        }
+    }
+
+    private static int release(ByteBuf frame) {
+        int length = frame.readableBytes();
+        frame.release();
+        return length;
+    }
+}
@@ -0,0 +1,101 @@
+package com.gs.rpcsimulate.benchmark;
+
+import com.gs.rpcsimulate.api.IUserService;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.provider.proxy.ServerSkeleton;
+import com.gs.rpcsimulate.provider.service.UserServiceImpl;
+import com.gs.rpcsimulate.serializer.Serializer;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端ServerSkeleton.process的分发开销：按方法编号查调用器表，用cglib的FastMethod调用服务bean
+ * processDecoded：参数已经解好，只有查表和调用
+ * processFromBytes：和真实请求一样，参数还是收到的字节，要先按方法的参数类型解出来
+ * directCall、reflectiveCall：直接调用、java反射调用同一个方法，作为对照
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"kryo", "json"})
+    String serializerName;
+
+    private ServerSkeleton serverSkeleton;
+    private IUserService userService;
+    private Method method;
+    private Serializer serializer;
+    // 参数已经解好的请求，不放回对象池，反复使用
+    private RpcRequest decodedRequest;
+    // 序列化好的参数，每次传一个引用+1的副本给请求
+    private ByteBuf serializedArguments;
+
+    @Setup(Level.Trial)
+    public void setup() throws NoSuchMethodException {
+        serverSkeleton = BenchmarkData.serverSkeleton();
+        userService = new UserServiceImpl();
+        method = IUserService.class.getMethod("getById", int.class);
+        serializer = SerializerFactory.getSerializer(serializerName);
+        decodedRequest = new RpcRequest();
+        decodedRequest.setSerializer(serializer.getType());
+        decodedRequest.setMethodId(BenchmarkData.GET_BY_ID);
+        decodedRequest.setParameters(new Object[]{1});
+        serializedArguments = ByteBufAllocator.DEFAULT.buffer();
+        serializer.serialize(new Object[]{1}, serializedArguments);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        serializedArguments.release();
+    }
+
+    @Benchmark
+    public Object processDecoded() throws InvocationTargetException {
+        return serverSkeleton.process(decodedRequest);
+    }
+
+    @Benchmark
+    public Object processFromBytes() throws InvocationTargetException {
+        RpcRequest rpcRequest = RpcRequest.newInstance();
+        try {
+            rpcRequest.setSerializer(serializer.getType());
+            rpcRequest.setMethodId(BenchmarkData.GET_BY_ID);
+            rpcRequest.setData(serializedArguments.retainedDuplicate());
+            return serverSkeleton.process(rpcRequest);
+        } finally {
+            rpcRequest.recycle();
+        }
+    }
+
+    @Benchmark
+    public Object directCall() {
+        return userService.getById(1);
+    }
+
+    @Benchmark
+    public Object reflectiveCall() throws ReflectiveOperationException {
+        return method.invoke(userService, 1);
+    }
+}
@@ -0,0 +1,246 @@
+package com.gs.rpcsimulate.benchmark;
+
+import com.gs.rpcsimulate.api.IUserService;
+import com.gs.rpcsimulate.codec.RpcMessageDecoder;
+import com.gs.rpcsimulate.codec.RpcMessageEncoder;
+import com.gs.rpcsimulate.consumer.cache.CacheInvalidationHandler;
+import com.gs.rpcsimulate.consumer.cache.CacheKey;
+import com.gs.rpcsimulate.consumer.cache.ResultCache;
+import com.gs.rpcsimulate.consumer.cache.ResultCacheManager;
+import com.gs.rpcsimulate.consumer.client.NettyRpcClient;
+import com.gs.rpcsimulate.consumer.limit.ConcurrencyLimiterManager;
+import com.gs.rpcsimulate.consumer.metrics.ClientMetrics;
+import com.gs.rpcsimulate.consumer.proxy.ClientStub;
+import com.gs.rpcsimulate.consumer.proxy.ReferenceConfig;
+import com.gs.rpcsimulate.consumer.trace.CallTracer;
+import com.gs.rpcsimulate.pojo.User;
+import com.gs.rpcsimulate.registry.ServiceDiscovery;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+import com.gs.rpcsimulate.transport.HeartbeatConfig;
+import com.gs.rpcsimulate.transport.TransportConfig;
+import com.gs.rpcsimulate.transport.WriteConfig;
+import com.gs.rpcsimulate.transport.WriteQueue;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 业务代码看到的一次调用：通过ClientStub生成的代理调用IUserService，走完客户端的整条链路——
+ * 代理分发、结果缓存、调用指标、采样、负载均衡、并发限制、连接池、未完成请求表、编解码、解结果，
+ * 服务端还是RoundTripBenchmark里的ServerSkeleton分发
+ * RoundTripBenchmark直接往NettyRpcClientHandler里塞请求，量不到代理这一层的开销和垃圾，这里补上
+ * 客户端的bean用一个很小的Spring容器装配（配置项都用默认值，和不写application.yml时一样），注册中心换成固定一个提供者，
+ * 传输换成LocalChannel，没有系统调用，剩下的都是框架自己的开销
+ * 看每次调用分配了多少内存：java -jar target/benchmarks.jar ProxyBenchmark -prof gc
+ * sync：同步方法，getById标了@RpcCacheable，每次调用前清掉这个参数的缓存，保证走网络
+ * async：返回CompletableFuture的方法，等它完成
+ * reactive：返回Mono的方法，订阅并等它完成
+ * cached：同步方法命中本地缓存，不走网络，作为对照；命中时默认用序列化复制一份结果（@RpcCacheable.copyOnHit），这部分开销也在里面
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyBenchmark {
+
+    // 服务端绑定的本地地址，客户端连任何地址都会被LoopbackChannel转到这里
+    static final LocalAddress SERVER_ADDRESS = new LocalAddress("rpc-proxy-benchmark");
+
+    @Param({"kryo", "json"})
+    String serializerName;
+
+    private EventLoopGroup serverGroup;
+    private Channel serverChannel;
+    private AnnotationConfigApplicationContext context;
+    private IUserService userService;
+    private ResultCache getByIdCache;
+    private final CacheKey getByIdKey = new CacheKey(new Object[]{1});
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        RoundTripBenchmark.ServerHandler serverHandler = new RoundTripBenchmark.ServerHandler(BenchmarkData.serverSkeleton());
+        RpcMessageEncoder encoder = new RpcMessageEncoder();
+        serverGroup = new DefaultEventLoopGroup(1);
+        serverChannel = new ServerBootstrap()
+                .group(serverGroup)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.pipeline().addLast(new RpcMessageDecoder()).addLast(encoder).addLast(serverHandler);
+                        WriteQueue.install(channel, 128);
+                    }
+                })
+                .bind(SERVER_ADDRESS).sync().channel();
+
+        context = new AnnotationConfigApplicationContext(ClientConfig.class, NettyRpcClient.class, ClientStub.class,
+                ResultCacheManager.class, CacheInvalidationHandler.class, ConcurrencyLimiterManager.class,
+                ClientMetrics.class, CallTracer.class);
+        ReferenceConfig referenceConfig = new ReferenceConfig();
+        referenceConfig.setSerializer(serializerName);
+        userService = (IUserService) context.getBean(ClientStub.class).getProxy(IUserService.class, referenceConfig);
+        getByIdCache = context.getBean(ResultCacheManager.class).getOrCreate(BenchmarkData.GET_BY_ID,
+                BenchmarkData.SERVICE_NAME, IUserService.class.getMethod("getById", int.class));
+        // 第一次调用建立连接
+        userService.getByIdAsync(1).get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        context.close();
+        serverChannel.close().sync();
+        serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    @Benchmark
+    public User sync() {
+        getByIdCache.invalidate(getByIdKey);
+        return userService.getById(1);
+    }
+
+    @Benchmark
+    public User async() throws Exception {
+        return userService.getByIdAsync(1).get();
+    }
+
+    @Benchmark
+    public User reactive() {
+        return userService.getByIdReactive(1).block();
+    }
+
+    @Benchmark
+    public User cached() {
+        return userService.getById(1);
+    }
+
+    /**
+     * 客户端容器里除了ClientStub这些组件之外的bean：传输换成LocalChannel，注册中心固定返回一个提供者，指标记在内存里
+     */
+    @Configuration
+    static class ClientConfig {
+
+        // 和Spring Boot一样把"0.5,0.9"这样的配置值转成数组，ClientMetrics的分位数要用
+        @Bean
+        public ConversionService conversionService() {
+            return new DefaultConversionService();
+        }
+
+        @Bean
+        public TransportConfig transportConfig() {
+            return new LocalTransportConfig();
+        }
+
+        @Bean
+        public WriteConfig writeConfig() {
+            return new WriteConfig();
+        }
+
+        @Bean
+        public HeartbeatConfig heartbeatConfig() {
+            return new HeartbeatConfig();
+        }
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        public ServiceDiscovery serviceDiscovery() {
+            return new FixedServiceDiscovery();
+        }
+    }
+
+    /**
+     * 客户端用LocalChannel和不走系统调用的EventLoop，TCP的那些socket参数对LocalChannel没有意义，不设置
+     */
+    static class LocalTransportConfig extends TransportConfig {
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String name) {
+            return new DefaultEventLoopGroup(threads, new DefaultThreadFactory(name));
+        }
+
+        @Override
+        public Class<? extends Channel> channelClass() {
+            return LoopbackChannel.class;
+        }
+
+        @Override
+        public void applyClientOptions(Bootstrap bootstrap) {
+        }
+
+        @Override
+        public String toString() {
+            return "local";
+        }
+    }
+
+    /**
+     * 连接池按注册中心给的InetSocketAddress建连接，LocalChannel只认LocalAddress，连接时换成服务端绑定的地址
+     */
+    public static class LoopbackChannel extends LocalChannel {
+
+        @Override
+        public ChannelFuture connect(SocketAddress remoteAddress, ChannelPromise promise) {
+            return super.connect(SERVER_ADDRESS, promise);
+        }
+    }
+
+    /**
+     * 只有一个提供者，地址是多少都行，反正会被LoopbackChannel换掉
+     */
+    static class FixedServiceDiscovery implements ServiceDiscovery {
+
+        private final List<ServiceInstance> instances = Collections.singletonList(new ServiceInstance("127.0.0.1", 8899));
+
+        @Override
+        public void subscribe(String serviceName) {
+        }
+
+        @Override
+        public List<ServiceInstance> getInstances(String serviceName) {
+            return instances;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.gs.rpcsimulate.benchmark;
+
+import com.gs.rpcsimulate.codec.RpcMessageDecoder;
+import com.gs.rpcsimulate.codec.RpcMessageEncoder;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.compress.CompressorFactory;
+import com.gs.rpcsimulate.consumer.handler.NettyRpcClientHandler;
+import com.gs.rpcsimulate.pojo.User;
+import com.gs.rpcsimulate.provider.proxy.ServerSkeleton;
+import com.gs.rpcsimulate.serializer.Serializer;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import com.gs.rpcsimulate.transport.WriteQueue;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.HashedWheelTimer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次完整的调用：客户端编码发送 -> 服务端解码、分发、执行、编码 -> 客户端解码、按requestId完成future、解结果
+ * 客户端用框架自己的NettyRpcClientHandler（未完成请求表）和WriteQueue，服务端用ServerSkeleton分发，编解码器都是框架的；
+ * 不启动Spring，也不经过注册中心、负载均衡、业务线程池，只看协议和传输本身
+ * transport=local：Netty的LocalChannel，同一个进程里直接传对象引用，没有系统调用，看框架本身的开销
+ * transport=nio：走本机回环的TCP，加上了真实的socket读写
+ * call：一个调用发出去等它回来再发下一个，看延迟；多线程（-t 8）时共用一个连接，看WriteQueue合并flush的效果
+ * pipelined：一次连着发PIPELINE个再一起等，看一个连接的吞吐
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    private static final int PIPELINE = 32;
+
+    @Param({"local", "nio"})
+    String transport;
+
+    @Param({"kryo", "json"})
+    String serializerName;
+
+    private EventLoopGroup serverGroup;
+    private EventLoopGroup clientGroup;
+    private HashedWheelTimer timer;
+    private Channel serverChannel;
+    private Channel clientChannel;
+    private NettyRpcClientHandler clientHandler;
+    private Serializer serializer;
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        serializer = SerializerFactory.getSerializer(serializerName);
+        ServerHandler serverHandler = new ServerHandler(BenchmarkData.serverSkeleton());
+        RpcMessageEncoder encoder = new RpcMessageEncoder();
+        boolean local = "local".equals(transport);
+        serverGroup = local ? new DefaultEventLoopGroup(1) : new NioEventLoopGroup(1);
+        clientGroup = local ? new DefaultEventLoopGroup(1) : new NioEventLoopGroup(1);
+        timer = new HashedWheelTimer();
+        clientHandler = new NettyRpcClientHandler(timer);
+
+        ServerBootstrap serverBootstrap = new ServerBootstrap()
+                .group(serverGroup)
+                .channel(local ? LocalServerChannel.class : NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.pipeline().addLast(new RpcMessageDecoder()).addLast(encoder).addLast(serverHandler);
+                        WriteQueue.install(channel, 128);
+                    }
+                });
+        Bootstrap bootstrap = new Bootstrap()
+                .group(clientGroup)
+                .channel(local ? LocalChannel.class : NioSocketChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.pipeline().addLast(new RpcMessageDecoder()).addLast(encoder).addLast(clientHandler);
+                        WriteQueue.install(channel, 128);
+                    }
+                });
+        if (!local) {
+            serverBootstrap.childOption(ChannelOption.TCP_NODELAY, true);
+            bootstrap.option(ChannelOption.TCP_NODELAY, true);
+        }
+        SocketAddress bindAddress = local ? new LocalAddress("rpc-benchmark-" + System.nanoTime())
+                : new InetSocketAddress("127.0.0.1", 0);
+        serverChannel = serverBootstrap.bind(bindAddress).sync().channel();
+        clientChannel = bootstrap.connect(serverChannel.localAddress()).sync().channel();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        clientChannel.close().sync();
+        serverChannel.close().sync();
+        clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        timer.stop();
+    }
+
+    @Benchmark
+    public User call() throws Exception {
+        return decode(send(1).get());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public User pipelined() throws Exception {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<RpcResponse>[] futures = new CompletableFuture[PIPELINE];
+        for (int i = 0; i < PIPELINE; i++) {
+            futures[i] = send(i % 2 + 1);
+        }
+        User last = null;
+        for (CompletableFuture<RpcResponse> future : futures) {
+            last = decode(future.get());
+        }
+        return last;
+    }
+
+    private CompletableFuture<RpcResponse> send(int id) {
+        return clientHandler.send(BenchmarkData.getByIdRequest(serializer.getType(), CompressorFactory.getType(CompressorFactory.NONE), id));
+    }
+
+    /**
+     * 和ClientStub一样，从收到的数据上直接解出结果，解完响应对象放回对象池
+     */
+    private User decode(RpcResponse rpcResponse) {
+        try {
+            if (rpcResponse.getError() != null) {
+                throw new IllegalStateException(rpcResponse.getError());
+            }
+            return serializer.deserialize(rpcResponse.getData(), User.class);
+        } finally {
+            rpcResponse.recycle();
+        }
+    }
+
+    /**
+     * 服务端：查表分发，直接在IO线程上执行（示例服务只是查一个Map），响应经过写队列写回；ProxyBenchmark也用它
+     */
+    @ChannelHandler.Sharable
+    static class ServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
+
+        private final ServerSkeleton serverSkeleton;
+
+        ServerHandler(ServerSkeleton serverSkeleton) {
+            super(false);
+            this.serverSkeleton = serverSkeleton;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, RpcRequest rpcRequest) {
+            RpcResponse rpcResponse = RpcResponse.newInstance();
+            rpcResponse.setRequestId(rpcRequest.getRequestId());
+            rpcResponse.setSerializer(rpcRequest.getSerializer());
+            rpcResponse.setCompressor(rpcRequest.getCompressor());
+            rpcResponse.setMethodId(rpcRequest.getMethodId());
+            try {
+                Object result = serverSkeleton.process(rpcRequest);
+                // 示例服务的异步、响应式方法返回的是马上就有结果的CompletableFuture、Mono，直接取出结果
+                if (result instanceof CompletableFuture) {
+                    result = ((CompletableFuture<?>) result).join();
+                } else if (result instanceof Mono) {
+                    result = ((Mono<?>) result).block();
+                }
+                rpcResponse.setResult(result);
+            } catch (Exception e) {
+                rpcResponse.setError(e.toString());
+            } finally {
+                rpcRequest.recycle();
+            }
+            WriteQueue.write(ctx.channel(), rpcResponse, null);
+        }
+    }
+}
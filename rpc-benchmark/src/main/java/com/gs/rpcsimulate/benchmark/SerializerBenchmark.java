@@ -0,0 +1,103 @@
+package com.gs.rpcsimulate.benchmark;
+
+import com.gs.rpcsimulate.pojo.User;
+import com.gs.rpcsimulate.serializer.Serializer;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 序列化方式本身的开销：和编解码器一样，直接写进、读自池化的ByteBuf
+ * 请求体是参数数组（getById的一个int），响应体是大小不同的用户列表
+ * 加上 -prof gc 可以看到每次操作分配了多少字节（gc.alloc.rate.norm）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"kryo", "json"})
+    String serializerName;
+
+    // 结果里有多少个用户
+    @Param({"1", "100"})
+    int users;
+
+    private Serializer serializer;
+    private Object[] arguments;
+    private Type[] argumentTypes;
+    private List<User> result;
+    // 提前序列化好的参数和结果，反序列化时每次从头读
+    private ByteBuf serializedArguments;
+    private ByteBuf serializedResult;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        serializer = SerializerFactory.getSerializer(serializerName);
+        arguments = new Object[]{1};
+        argumentTypes = new Type[]{int.class};
+        result = BenchmarkData.users(users);
+        serializedArguments = ByteBufAllocator.DEFAULT.buffer();
+        serializer.serialize(arguments, serializedArguments);
+        serializedResult = ByteBufAllocator.DEFAULT.buffer();
+        serializer.serialize(result, serializedResult);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        serializedArguments.release();
+        serializedResult.release();
+    }
+
+    @Benchmark
+    public int serializeArguments() {
+        ByteBuf out = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            serializer.serialize(arguments, out);
+            return out.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+
+    @Benchmark
+    public Object[] deserializeArguments() {
+        return serializer.deserializeArguments(serializedArguments.duplicate(), argumentTypes);
+    }
+
+    @Benchmark
+    public int serializeResult() {
+        ByteBuf out = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            serializer.serialize(result, out);
+            return out.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+
+    @Benchmark
+    public Object deserializeResult() {
+        return serializer.deserialize(serializedResult.duplicate(), BenchmarkData.USER_LIST_TYPE);
+    }
+}
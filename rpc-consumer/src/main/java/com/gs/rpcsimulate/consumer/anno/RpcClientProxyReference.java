@@ -13,4 +13,36 @@ import java.lang.annotation.Target;
 @Target(ElementType.FIELD) // 作用于字段
 @Retention(RetentionPolicy.RUNTIME) // 在运行时可以获取到
 public @interface RpcClientProxyReference {//客户端代理的引用
+
+    /**
+     * 该服务使用的序列化方式，例如 json、kryo，不填就用配置文件里的 rpc.serializer
+     */
+    String serializer() default "";
+
+    /**
+     * 负载均衡策略：random、round-robin（加权轮询）、least-active（最少活跃）、consistent-hash（一致性哈希）、p2c-ewma，
+     * 不填就用配置文件里的 rpc.load-balance
+     */
+    String loadBalance() default "";
+
+    /**
+     * consistent-hash按第几个参数（从0开始）计算哈希，同一个参数值总是调到同一个提供者
+     */
+    int hashArgument() default 0;
+
+    /**
+     * 压缩方式：none、lz4、snappy，请求超过 rpc.compression.threshold 时才压缩，服务端也用它压缩大的响应；
+     * 不填就用配置文件里的 rpc.compression.compressor
+     */
+    String compressor() default "";
+
+    /**
+     * 请求的压缩级别，lz4：小于等于0是快速模式，1~17是HC模式；默认-1，用 rpc.compression.level
+     */
+    int compressLevel() default -1;
+
+    /**
+     * 调用超时时间，毫秒，0表示不限时；默认-1，用 rpc.timeout-millis。接口方法上的@RpcTimeout优先
+     */
+    long timeout() default -1;
 }
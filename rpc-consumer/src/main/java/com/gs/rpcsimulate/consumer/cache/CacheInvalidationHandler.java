@@ -0,0 +1,25 @@
+package com.gs.rpcsimulate.consumer.cache;
+
+import com.gs.rpcsimulate.common.CacheInvalidation;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 接收服务端推送的缓存失效通知，交给ResultCacheManager清缓存
+ * 没有状态，所有客户端通道共享一个
+ */
+@Component
+@ChannelHandler.Sharable
+public class CacheInvalidationHandler extends SimpleChannelInboundHandler<CacheInvalidation> {
+
+    @Autowired
+    private ResultCacheManager resultCacheManager;
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, CacheInvalidation msg) throws Exception {
+        resultCacheManager.invalidate(msg);
+    }
+}
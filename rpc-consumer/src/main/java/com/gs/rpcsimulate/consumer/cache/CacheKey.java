@@ -0,0 +1,41 @@
+package com.gs.rpcsimulate.consumer.cache;
+
+import java.util.Arrays;
+
+/**
+ * 结果缓存的key：一个方法一个缓存，所以key里只有参数，按内容比较，数组参数也按内容比较
+ */
+public final class CacheKey {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final Object[] args;
+    private final int hash;
+
+    public CacheKey(Object[] args) {
+        this.args = args == null ? NO_ARGS : args;
+        this.hash = Arrays.deepHashCode(this.args);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey other = (CacheKey) o;
+        return hash == other.hash && Arrays.deepEquals(args, other.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.deepToString(args);
+    }
+}
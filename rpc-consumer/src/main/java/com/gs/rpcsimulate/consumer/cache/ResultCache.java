@@ -0,0 +1,106 @@
+package com.gs.rpcsimulate.consumer.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.gs.rpcsimulate.anno.RpcCacheable;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个@RpcCacheable方法的结果缓存
+ * 底层是Caffeine：写入后ttl过期，超过maxSize按W-TinyLFU淘汰，记录命中、未命中、淘汰次数
+ * 远程调用是异步完成的，调用还在路上时可能先收到了失效通知，结果回来再放进去就是旧数据了，
+ * 所以每次失效都把版本号加1，调用发出前记下版本号，结果回来时版本号变了就不放进缓存
+ * 检查版本号和放进缓存要是一个原子操作：在compute里检查，和失效时的删除对同一个key互斥；
+ * 失效是先加版本号再删，compute在删之前执行的会被删掉，在加版本号之后执行的检查不过，旧数据怎么都留不下来
+ */
+public class ResultCache {
+
+    private final String name;
+    // 方法的泛型参数类型，解失效通知里的参数时要用
+    private final Type[] parameterTypes;
+    private final Cache<CacheKey, Object> cache;
+    // 命中时调用方拿到的是不是副本，见RpcCacheable.copyOnHit
+    private final boolean copyOnHit;
+    private final AtomicLong version = new AtomicLong();
+
+    public ResultCache(String name, Type[] parameterTypes, RpcCacheable cacheable) {
+        this.name = name;
+        this.parameterTypes = parameterTypes;
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(cacheable.ttlMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(cacheable.maxSize())
+                .recordStats()
+                .build();
+        this.copyOnHit = cacheable.copyOnHit();
+    }
+
+    /**
+     * @return 缓存的结果，没有就返回null
+     */
+    public Object get(CacheKey key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * 调用发出前取版本号，结果回来后和结果一起传给put
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * 放入调用结果；null不缓存，期间收到过失效通知也不缓存
+     * 版本号变了时保留原来的值：版本号是整个方法一个，别的参数的失效不该把这个key上已有的结果清掉，
+     * 这个key自己的失效紧接着就会把它删掉
+     */
+    public void put(CacheKey key, long version, Object value) {
+        if (value == null || version != this.version.get()) {
+            return;
+        }
+        cache.asMap().compute(key, (k, old) -> version == this.version.get() ? value : old);
+    }
+
+    public void invalidate(CacheKey key) {
+        version.incrementAndGet();
+        cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        version.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * Caffeine的缓存本身，绑定命中率这些指标用
+     */
+    public Cache<CacheKey, Object> getNativeCache() {
+        return cache;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public boolean isCopyOnHit() {
+        return copyOnHit;
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * 命中、未命中、淘汰次数等统计
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,93 @@
+package com.gs.rpcsimulate.consumer.cache;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.gs.rpcsimulate.anno.RpcCacheable;
+import com.gs.rpcsimulate.common.CacheInvalidation;
+import com.gs.rpcsimulate.consumer.metrics.ClientMetrics;
+import com.gs.rpcsimulate.serializer.Serializer;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 管理所有@RpcCacheable方法的结果缓存，按方法编号索引
+ * 同一个接口可能有多个代理（序列化方式、负载均衡配置不同），调的是同一个远程方法，结果也一样，所以共用一个缓存
+ * 服务端推过来的失效通知也按方法编号找到缓存
+ */
+@Component
+public class ResultCacheManager implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultCacheManager.class);
+
+    private final Map<Integer, ResultCache> caches = new ConcurrentHashMap<>();
+
+    @Autowired
+    ClientMetrics clientMetrics;
+
+    /**
+     * 创建代理时调用，方法上没有@RpcCacheable返回null
+     */
+    public ResultCache getOrCreate(int methodId, String serviceName, Method method) {
+        RpcCacheable cacheable = method.getAnnotation(RpcCacheable.class);
+        if (cacheable == null) {
+            return null;
+        }
+        return caches.computeIfAbsent(methodId, key -> {
+            ResultCache cache = new ResultCache(serviceName + "#" + method.getName(), method.getGenericParameterTypes(), cacheable);
+            clientMetrics.bindCache(cache);
+            return cache;
+        });
+    }
+
+    /**
+     * 处理服务端推送的失效通知：带了参数就只清掉这一个调用的结果，没带参数清掉这个方法的全部结果
+     * 在EventLoop线程上调用，参数一般很小，直接在这里解
+     */
+    public void invalidate(CacheInvalidation invalidation) {
+        try {
+            ResultCache cache = caches.get(invalidation.getMethodId());
+            if (cache == null) {
+                return;
+            }
+            if (invalidation.getData() == null) {
+                cache.invalidateAll();
+                return;
+            }
+            Serializer serializer = SerializerFactory.getSerializer(invalidation.getSerializer());
+            Object[] args = serializer.deserializeArguments(invalidation.getData(), cache.getParameterTypes());
+            cache.invalidate(new CacheKey(args));
+        } finally {
+            invalidation.release();
+        }
+    }
+
+    /**
+     * 缓存名（接口名#方法名） -> 命中、未命中、淘汰次数等统计
+     */
+    public Map<String, CacheStats> stats() {
+        Map<String, CacheStats> stats = new TreeMap<>();
+        for (ResultCache cache : caches.values()) {
+            stats.put(cache.getName(), cache.stats());
+        }
+        return stats;
+    }
+
+    public Map<Integer, ResultCache> getCaches() {
+        return caches;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (!caches.isEmpty()) {
+            logger.info("RPC结果缓存统计：{}", stats());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.gs.rpcsimulate.consumer.client;
+
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.consumer.handler.NettyRpcClientHandler;
+import com.gs.rpcsimulate.consumer.stream.StreamReceiver;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 一个服务端地址对应一个连接池，池子里有N个连接
+ * 只有一个连接时，所有的读写都压在两端各自的一个EventLoop线程上，多核机器用不满；
+ * 多个连接会被Netty轮流分配到不同的EventLoop上，两端的多个线程就都能干活了。
+ * 1 连接是懒创建的：用到某个槽位时才去连
+ * 2 连接断了或者连接失败，在后台按指数退避加随机抖动重连，不在调用线程上连；
+ *   重连期间选到这个槽位的请求改用池子里别的可用连接，一个都没有就马上失败，不会卡住调用方
+ * 3 选择连接的策略：轮询，或者选未完成请求最少的
+ */
+public class ChannelPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelPool.class);
+
+    public static final String SELECT_ROUND_ROBIN = "round-robin";
+    public static final String SELECT_LEAST_PENDING = "least-pending";
+
+    private final Bootstrap bootstrap;
+    private final InetSocketAddress address;
+    private final boolean leastPending;
+    // 每个槽位放的是connect返回的future，连接建立的过程中也能选到它，发送会排在连接建立之后
+    private final AtomicReferenceArray<ChannelFuture> slots;
+    private final AtomicInteger roundRobinIndex = new AtomicInteger();
+
+    // 每个槽位连续连接失败的次数，决定下次重连前等多久
+    private final AtomicIntegerArray failures;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    // 最近一次有请求选到了断开的槽位的时间，一直没人用的池子重连失败后就不再后台重连了
+    private volatile long lastDemandNanos = System.nanoTime();
+    private volatile boolean closed;
+
+    public ChannelPool(Bootstrap bootstrap, InetSocketAddress address, int size, String selectStrategy,
+                       long initialBackoffMillis, long maxBackoffMillis) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("连接数必须大于0：" + size);
+        }
+        if (!SELECT_ROUND_ROBIN.equals(selectStrategy) && !SELECT_LEAST_PENDING.equals(selectStrategy)) {
+            throw new IllegalArgumentException("不支持的连接选择策略：" + selectStrategy);
+        }
+        this.bootstrap = bootstrap;
+        this.address = address;
+        this.leastPending = SELECT_LEAST_PENDING.equals(selectStrategy);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.failures = new AtomicIntegerArray(size);
+        this.initialBackoffMillis = Math.max(1, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * 选一个连接把请求发出去；连接还在建立中的话，等连接建好后再发，调用线程不阻塞
+     */
+    public CompletableFuture<RpcResponse> send(RpcRequest rpcRequest) {
+        return send(rpcRequest, null);
+    }
+
+    /**
+     * 流式调用：元素交给stream，返回的future在服务端发完后完成
+     * @param stream 普通调用为null
+     */
+    public CompletableFuture<RpcResponse> send(RpcRequest rpcRequest, StreamReceiver stream) {
+        ChannelFuture connectFuture = acquire();
+        if (connectFuture == null) {
+            rpcRequest.recycle();
+            CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(new IOException("与服务端的连接已断开，正在重连：" + address));
+            return future;
+        }
+        if (connectFuture.isDone()) {
+            return sendOn(connectFuture, rpcRequest, stream);
+        }
+        CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+        connectFuture.addListener(f -> sendOn(connectFuture, rpcRequest, stream).whenComplete((rpcResponse, cause) -> {
+            if (cause != null) {
+                future.completeExceptionally(cause);
+            } else {
+                future.complete(rpcResponse);
+            }
+        }));
+        return future;
+    }
+
+    private CompletableFuture<RpcResponse> sendOn(ChannelFuture connectFuture, RpcRequest rpcRequest, StreamReceiver stream) {
+        if (!connectFuture.isSuccess()) {
+            rpcRequest.recycle();
+            CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(connectFuture.cause());
+            return future;
+        }
+        // 连上过但已经断了：槽位里还是那个成功的future，要等重连才会换掉，而通道关闭后处理器已经从pipeline里移除了
+        NettyRpcClientHandler handler = connectFuture.channel().isActive() ? handlerOf(connectFuture) : null;
+        if (handler == null) {
+            rpcRequest.recycle();
+            CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(new IOException("与服务端的连接已断开，正在重连：" + address));
+            return future;
+        }
+        return handler.send(rpcRequest, stream);
+    }
+
+    /**
+     * 选出一个槽位，槽位还没有连接就新建一个；槽位上的连接断了、正在等待重连，就找池子里别的可用连接
+     * @return 没有可用连接时返回null
+     */
+    ChannelFuture acquire() {
+        int index = leastPending ? selectLeastPending() : selectRoundRobin();
+        ChannelFuture connectFuture = slots.get(index);
+        if (isUsable(connectFuture)) {
+            return connectFuture;
+        }
+        if (connectFuture != null) {
+            lastDemandNanos = System.nanoTime();
+            return findUsable();
+        }
+        // 建连接是冷路径，加锁保证一个槽位只会建一个连接
+        synchronized (this) {
+            connectFuture = slots.get(index);
+            if (isUsable(connectFuture)) {
+                return connectFuture;
+            }
+            if (connectFuture != null || closed) {
+                return findUsable();
+            }
+            return connect(index);
+        }
+    }
+
+    private ChannelFuture findUsable() {
+        for (int i = 0; i < slots.length(); i++) {
+            ChannelFuture connectFuture = slots.get(i);
+            if (isUsable(connectFuture)) {
+                return connectFuture;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在槽位上建一个连接，要在锁里调用
+     */
+    private ChannelFuture connect(int index) {
+        ChannelFuture connectFuture = bootstrap.connect(address);
+        slots.set(index, connectFuture);
+        connectFuture.addListener(f -> {
+            if (f.isSuccess()) {
+                failures.set(index, 0);
+            }
+        });
+        // 连接失败或者连上之后又断了，通道都会关闭，在后台安排重连
+        connectFuture.channel().closeFuture().addListener(f -> scheduleReconnect(index, connectFuture));
+        return connectFuture;
+    }
+
+    /**
+     * 连上过的连接断了，很可能只是网络抖了一下，很快就重连；连接失败了，每失败一次等待时间翻倍
+     */
+    private void scheduleReconnect(int index, ChannelFuture connectFuture) {
+        if (closed || slots.get(index) != connectFuture) {
+            return;
+        }
+        int attempt = connectFuture.isSuccess() ? 0 : failures.incrementAndGet(index);
+        long delay = backoffMillis(attempt);
+        logger.warn("与服务端的连接断开，{}ms后重连：{}", delay, address);
+        bootstrap.config().group().schedule(() -> reconnect(index, connectFuture), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect(int index, ChannelFuture connectFuture) {
+        synchronized (this) {
+            if (closed || slots.get(index) != connectFuture) {
+                return;
+            }
+            // 已经失败过，而且等待期间没有请求要用这个池子（例如服务端已经下线，不会再被负载均衡选中），
+            // 就不再后台重连了，槽位清空，下次用到时再连
+            if (failures.get(index) > 0
+                    && System.nanoTime() - lastDemandNanos > TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis)) {
+                slots.set(index, null);
+                failures.set(index, 0);
+                return;
+            }
+            connect(index);
+        }
+    }
+
+    /**
+     * 指数退避加随机抖动：上限是 initial * 2^attempt（不超过max），实际在上限的一半到上限之间随机取，
+     * 避免很多客户端在服务端恢复的同一时刻一起重连
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = initialBackoffMillis << Math.min(attempt, 20);
+        if (ceiling <= 0 || ceiling > maxBackoffMillis) {
+            ceiling = maxBackoffMillis;
+        }
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    /**
+     * 正在连接中，或者已经连上且没断，都算可用
+     */
+    private boolean isUsable(ChannelFuture connectFuture) {
+        if (connectFuture == null) {
+            return false;
+        }
+        if (!connectFuture.isDone()) {
+            return true;
+        }
+        return connectFuture.isSuccess() && connectFuture.channel().isActive();
+    }
+
+    private int selectRoundRobin() {
+        return (roundRobinIndex.getAndIncrement() & Integer.MAX_VALUE) % slots.length();
+    }
+
+    /**
+     * 选未完成请求最少的连接；还没建立的槽位算0个，这样池子会被慢慢填满
+     * 从轮询的位置开始找，请求数一样时不会总是选第一个；断开了、等着重连的槽位跳过
+     */
+    private int selectLeastPending() {
+        int size = slots.length();
+        int start = selectRoundRobin();
+        int best = start;
+        int bestPending = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % size;
+            ChannelFuture connectFuture = slots.get(index);
+            int pending = 0;
+            if (connectFuture != null && connectFuture.isDone()) {
+                NettyRpcClientHandler handler = isUsable(connectFuture) ? handlerOf(connectFuture) : null;
+                if (handler == null) {
+                    continue;
+                }
+                pending = handler.getPendingCount();
+            }
+            if (pending < bestPending) {
+                best = index;
+                bestPending = pending;
+                if (pending == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private NettyRpcClientHandler handlerOf(ChannelFuture connectFuture) {
+        return connectFuture.channel().pipeline().get(NettyRpcClientHandler.class);
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * 关闭池子里所有的连接
+     */
+    public void close() {
+        closed = true;
+        for (int i = 0; i < slots.length(); i++) {
+            ChannelFuture connectFuture = slots.getAndSet(i, null);
+            if (connectFuture != null) {
+                connectFuture.channel().close();
+            }
+        }
+    }
+}
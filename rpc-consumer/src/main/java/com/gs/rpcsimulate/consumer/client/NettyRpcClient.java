@@ -1,25 +1,37 @@
 package com.gs.rpcsimulate.consumer.client;
 
+import com.gs.rpcsimulate.codec.RpcMessageDecoder;
+import com.gs.rpcsimulate.codec.RpcMessageEncoder;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.consumer.cache.CacheInvalidationHandler;
 import com.gs.rpcsimulate.consumer.handler.NettyRpcClientHandler;
+import com.gs.rpcsimulate.consumer.metrics.ClientMetrics;
+import com.gs.rpcsimulate.consumer.stream.StreamReceiver;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.transport.HeartbeatConfig;
+import com.gs.rpcsimulate.transport.TransportConfig;
+import com.gs.rpcsimulate.transport.WriteConfig;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 /*
 afterPropertiesSet这里只针对一个bean对象，做的是连接资源的动作，就好像给这个bean对象画一个连接箭头！这个bean到这步就要连接到其他地方了，这种作用。
 postProcessAfterInitialization，这里是做了一个过滤器，所有的bean都过一遍，找注解。也可以只针对某一个bean，只要让bean实现initializingBean接口就行。
@@ -27,57 +39,94 @@ postProcessAfterInitialization，这里是做了一个过滤器，所有的bean
  */
 /**
  * Netty客户端，需要做哪些事？
- * 1、连接服务端
+ * 1、准备好连接服务端的启动助手，每个服务端地址一个连接池，连接用到时才建立，断了在后台重连
  * 2、关闭资源
  * 3、能提供发送消息的方法
  */
 @Component  // 因为集成了Spring，要加Component注解
 public class NettyRpcClient implements InitializingBean, DisposableBean {
-    // 需求：当创建该类对象的时候，就要去连接Netty的服务端，所以使用Spring底层框架生命周期的接口InitializingBean
+    // 需求：当创建该类对象的时候，就要准备好连接Netty的服务端，所以使用Spring底层框架生命周期的接口InitializingBean
+
+    private static final Logger logger = LoggerFactory.getLogger(NettyRpcClient.class);
 
     EventLoopGroup group = null;
-    Channel channel = null;
+    Bootstrap bootstrap = null;
+    // 请求超时用的时间轮，所有连接共用一个，精度10ms
+    HashedWheelTimer timeoutTimer = null;
+
+    // 服务端地址 -> 连接池
+    private final Map<InetSocketAddress, ChannelPool> channelPools = new ConcurrentHashMap<>();
+
+    // 消息体不小于这么多字节才压缩
+    @Value("${rpc.compression.threshold:" + RpcProtocol.DEFAULT_COMPRESS_THRESHOLD + "}")
+    int compressThreshold;
+
+    @Autowired
+    WriteConfig writeConfig;
+
+    @Autowired
+    TransportConfig transportConfig;
 
     @Autowired
-    NettyRpcClientHandler nettyRpcClientHandler;
+    HeartbeatConfig heartbeatConfig;
+
+    @Autowired
+    CacheInvalidationHandler cacheInvalidationHandler;
+
+    @Autowired
+    ClientMetrics clientMetrics;
+
+    // 连接断开后后台重连的退避时间：第一次等initial左右，之后每失败一次翻倍，最多等max，每次都带随机抖动
+    @Value("${rpc.reconnect.initial-backoff-millis:100}")
+    long reconnectInitialBackoffMillis;
+
+    @Value("${rpc.reconnect.max-backoff-millis:10000}")
+    long reconnectMaxBackoffMillis;
+
+    // 每个服务端地址建立多少个连接
+    @Value("${rpc.connections:1}")
+    int connections;
+
+    // 在连接池中选择连接的策略：round-robin、least-pending
+    @Value("${rpc.channel-select:round-robin}")
+    String channelSelect;
 
     /**
-     * 1、连接服务端
+     * 1、准备启动助手
      * 通常用于在 bean 的属性都被设置完毕后，进行一些初始化操作。
      * 实现 InitializingBean 接口并重写 afterPropertiesSet 方法，可以确保在 bean 被使用之前完成一些必要的初始化工作。
      * @throws Exception
      */
     @Override
     public void afterPropertiesSet() throws Exception {
-
-        // 连接服务器时会有异常，要捕捉，并在异常时释放资源，在catch时，将group和channel都关闭掉
-        try {
-            group = new NioEventLoopGroup();
-            Bootstrap bootstrap = new Bootstrap();
-            bootstrap.group(group)
-                    .channel(NioSocketChannel.class)
-                    .handler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        protected void initChannel(SocketChannel socketChannel) throws Exception {
-                            ChannelPipeline pipeline = socketChannel.pipeline();
-                            pipeline.addLast(new StringDecoder())
-                                    .addLast(new StringEncoder())
-                                    .addLast(nettyRpcClientHandler);
-                        }
-                    });
-
-            channel = bootstrap.connect("127.0.0.1", 8899).sync().channel();
-        } catch (Exception e) {
-            e.printStackTrace();
-            if (channel != null) {
-                channel.close();
-            }
-            if (group != null) {
-                group.shutdownGracefully();
-            }
-            // 关闭资源之后，在Spring工程结束后也要将资源销毁，不然会内存移除，所以也要实现DisposableBean
-        }
-
+        // Linux上用epoll，其他系统用NIO；线程数和socket参数都来自配置
+        group = transportConfig.newEventLoopGroup(transportConfig.getWorkerThreads(), "rpc-client-io");
+        timeoutTimer = new HashedWheelTimer(new DefaultThreadFactory("rpc-client-timeout", true), 10, TimeUnit.MILLISECONDS);
+        bootstrap = new Bootstrap();
+        // 编码器没有状态，所有通道共享一个；每写完一个请求，按方法记下请求大小和序列化耗时
+        RpcMessageEncoder rpcMessageEncoder = new RpcMessageEncoder(compressThreshold, clientMetrics.getEncodeListener());
+        transportConfig.applyClientOptions(bootstrap);
+        bootstrap.group(group)
+                .channel(transportConfig.channelClass())
+                // 通道类型由TransportConfig决定，这里不限定是SocketChannel，ProxyBenchmark换成LocalChannel压整条代理调用链路
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) throws Exception {
+                        ChannelPipeline pipeline = channel.pipeline();
+                        // 自定义二进制协议的编解码器，解决粘包半包，直接解出RpcResponse对象
+                        // 业务处理器里有这个通道的未完成请求表，每个通道new一个
+                        pipeline.addLast(new RpcMessageDecoder())
+                                .addLast(rpcMessageEncoder);
+                        // 空闲时发PING，一直收不到回应就关闭连接，等待中的请求马上失败，连接池后台重连
+                        heartbeatConfig.apply(channel, false);
+                        pipeline.addLast(new NettyRpcClientHandler(timeoutTimer))
+                                // 服务端推过来的缓存失效通知
+                                .addLast(cacheInvalidationHandler);
+                        // 很多业务线程同时往一个连接上发请求，合并成一批再flush，减少系统调用
+                        writeConfig.apply(channel);
+                    }
+                });
+        logger.info("RPC客户端传输层：{}", transportConfig);
     }
 
     /**
@@ -86,38 +135,47 @@ public class NettyRpcClient implements InitializingBean, DisposableBean {
      */
     @Override
     public void destroy() throws Exception {
-        if (channel != null) {
-            channel.close();
+        for (ChannelPool channelPool : channelPools.values()) {
+            channelPool.close();
         }
+        channelPools.clear();
         if (group != null) {
             group.shutdownGracefully();
         }
+        if (timeoutTimer != null) {
+            timeoutTimer.stop();
+        }
     }
 
     /*
-     * handler中虽然有call方法同步发送消息，但外层的client却需要通过线程池来将发消息线程执行。
-     * 因为handler实现的Callable接口是并发的，本身就是需要多个线程来执行handler的。
-     * 为何要多个线程执行handler？因为netty是异步事件驱动的网络应用框架，没有同步机制
-     * 为何要用netty？因为要同时处理多个client，支持高并发，但每个client通道内部却需要同步等待响应！
-     * 线程池.submit(可执行任务)，其实就是线程池.execute(任务中的call方法)！
-     * 通过线程池执行 NettyRpcClientHandler 的 call 方法可以更好地利用系统资源和处理多个并发请求。
-     * 这样可以确保每个消息的发送和处理都是异步的，并且能够有效地管理线程资源。
-     * 在这种情况下，是一个 client 客户端支持同时发送多个消息。通过线程池的方式来执行 NettyRpcClientHandler，
-     * 可以并发地处理多个消息发送和响应处理，但这仅限于一个客户端的操作。
+     * 原来这里是把handler丢进线程池，再submit.get()等结果，每个请求多一次线程切换，还多占一个阻塞的线程，
+     * 而且handler内部是synchronized的，线程再多也只能一个一个发。
+     * 现在handler按requestId管理未完成的请求，发送本身不阻塞，直接把future交给调用方，要不要等、怎么等由调用方决定。
      */
-    ExecutorService executorService = Executors.newCachedThreadPool();
     /**
-     * 定义发送消息的方法
-     * handler是支持并发的，实现了Callable。并且Nio模型底层的事件驱动，监听到什么事件，都会用EventLoop线程池去执行
-     * 所以发消息也用线程池.并发地处理多个消息发送和响应处理，但这仅限于一个客户端的操作
-     * 使用了线程池来执行 NettyRpcClientHandler,可能会导致一些线程安全的问题，这涉及到资源共享
-     * 解决方法是确保 NettyRpcClientHandler 中的状态都是线程安全的，可以使用线程安全的数据结构或者加锁来保护共享资源。
+     * 定义发送消息的方法，发给指定的服务端，服务端的地址由注册中心发现
+     * 可以被任意多个线程同时调用，同一个通道上可以同时有很多个请求在路上
+     * @return 响应回来时完成的future
      */
-    public Object send(String msg) throws ExecutionException, InterruptedException {
-        nettyRpcClientHandler.setRequestMsg(msg);
-        // 线程池的submit里面能放Callable并发接口
-        Future submit = executorService.submit(nettyRpcClientHandler);// 这是代表一个客户端可以同时发很多消息
-        // Future是一种未来的事件，是异步结果类，get能得到异步的计算结果
-        return submit.get();
+    public CompletableFuture<RpcResponse> send(InetSocketAddress address, RpcRequest msg) {
+        return getChannelPool(address).send(msg);
+    }
+
+    /**
+     * 发起流式调用，服务端发来的元素交给stream
+     * @return 服务端发完所有元素（或者出错）时完成的future
+     */
+    public CompletableFuture<RpcResponse> openStream(InetSocketAddress address, RpcRequest msg, StreamReceiver stream) {
+        return getChannelPool(address).send(msg, stream);
+    }
+
+    private ChannelPool getChannelPool(InetSocketAddress address) {
+        ChannelPool channelPool = channelPools.get(address);
+        if (channelPool == null) {
+            channelPool = channelPools.computeIfAbsent(address,
+                    key -> new ChannelPool(bootstrap, key, connections, channelSelect,
+                            reconnectInitialBackoffMillis, reconnectMaxBackoffMillis));
+        }
+        return channelPool;
     }
 }
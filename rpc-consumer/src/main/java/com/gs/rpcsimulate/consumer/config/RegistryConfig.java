@@ -0,0 +1,20 @@
+package com.gs.rpcsimulate.consumer.config;
+
+import com.gs.rpcsimulate.registry.RegistryFactory;
+import com.gs.rpcsimulate.registry.ServiceDiscovery;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 注册中心配置：rpc.registry.type选择file或zookeeper，rpc.registry.address是目录或zk连接串
+ */
+@Configuration
+public class RegistryConfig {
+
+    @Bean
+    public ServiceDiscovery serviceDiscovery(@Value("${rpc.registry.type:file}") String type,
+                                             @Value("${rpc.registry.address:}") String address) {
+        return RegistryFactory.createDiscovery(type, address);
+    }
+}
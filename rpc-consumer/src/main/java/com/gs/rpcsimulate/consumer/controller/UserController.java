@@ -2,9 +2,24 @@ package com.gs.rpcsimulate.consumer.controller;
 
 import com.gs.rpcsimulate.api.IUserService;
 import com.gs.rpcsimulate.consumer.anno.RpcClientProxyReference;
+import com.gs.rpcsimulate.consumer.proxy.RpcAsync;
 import com.gs.rpcsimulate.pojo.User;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/user")
@@ -16,4 +31,67 @@ public class UserController {
     public User getUserById(int id) {
         return userService.getById(id);
     }
+
+    /**
+     * 扇出调用：所有请求一起发出去，再一起等结果，总耗时约等于最慢的那一次，而不是所有调用加起来
+     */
+    @RequestMapping("/getUsersByIds")
+    public CompletableFuture<List<User>> getUsersByIds(int[] ids) {
+        List<CompletableFuture<User>> futures = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            // 偶数下标用异步接口，奇数下标演示同步接口的异步调用，两种写法效果一样
+            if (i % 2 == 0) {
+                futures.add(userService.getByIdAsync(id));
+            } else {
+                futures.add(RpcAsync.call(() -> userService.getById(id)));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    List<User> users = new ArrayList<>(futures.size());
+                    for (CompletableFuture<User> future : futures) {
+                        users.add(future.join());
+                    }
+                    return users;
+                });
+    }
+
+    /**
+     * 流式导出：一边从服务端收一边写给浏览器，HTTP客户端读得慢，服务端就跟着慢，两端都不会把所有用户放在内存里
+     */
+    @RequestMapping(value = "/exportUsers", produces = "text/csv;charset=UTF-8")
+    public StreamingResponseBody exportUsers(int count) {
+        return out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            // 没读完就出错了（比如浏览器断开），close会通知服务端停下来
+            try (Stream<User> users = userService.exportUsers(count)) {
+                writer.write("id,name\n");
+                users.forEach(user -> {
+                    try {
+                        writer.write(user.getId() + "," + user.getName() + "\n");
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            writer.flush();
+        };
+    }
+
+    /**
+     * 直接把Mono返回给Spring，结果回来之前不占用请求线程
+     */
+    @RequestMapping("/getUserByIdReactive")
+    public Mono<User> getUserByIdReactive(int id) {
+        return userService.getByIdReactive(id);
+    }
+
+    /**
+     * 按行输出JSON，Spring写一个request一个，HTTP客户端读得慢，服务端就跟着慢
+     */
+    @RequestMapping(value = "/streamUsers", produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public Flux<User> streamUsers(int count) {
+        return userService.streamUsers(count);
+    }
 }
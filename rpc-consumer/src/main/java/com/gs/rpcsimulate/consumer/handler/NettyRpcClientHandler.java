@@ -1,68 +1,176 @@
 package com.gs.rpcsimulate.consumer.handler;
 
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.consumer.stream.StreamReceiver;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.transport.WriteQueue;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import org.springframework.stereotype.Component;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 
-import java.util.concurrent.Callable;
-/* 在处理器内部写成同步的了。这样client实现并发，但处理器是一个，且在内部使用同步，确保获得响应。
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+/* 原来是Spring单例+synchronized+wait/notify，整个JVM同时只能有一个请求在路上，吞吐被卡死在 1/RTT。
+ * 现在改成：每个请求发出去之前，按requestId在未完成请求表里登记一个future，发完立刻返回；
+ * 响应回来时按协议头里的requestId找到对应的future去完成它。这样一个通道上可以同时跑成千上万个请求，互不干扰。
  */
 /**
  * 客户端业务处理类
  * Netty 使用事件驱动架构，这意味着网络操作（如读、写）是由事件触发的。它采用 Reactor 模式，
  * 核心组件是 EventLoop 和 Channel。EventLoop 负责轮询 I/O 操作，一旦有事件触发，就将事件分发给相应的 Channel 处理。
  * EventLoop线程池就意味着发送线程和接收线程不是同一个
+ * 注意：未完成请求表是跟着通道走的，所以该处理器不再是Spring单例，每个通道new一个
+ * 请求带了截止时间的，在时间轮上登记一个超时任务，到时间还没有响应就让调用方失败（TimeoutException），迟到的响应直接丢弃
+ * 流式调用的元素按requestId交给对应的流，结束的响应和普通调用一样完成future；收到第一个元素就取消超时任务，之后由流自己等
  */
-@Component
-public class NettyRpcClientHandler extends SimpleChannelInboundHandler<String> implements Callable {
+public class NettyRpcClientHandler extends SimpleChannelInboundHandler<RpcResponse> {
 
-    ChannelHandlerContext channelHandlerContext;
-    // 因为netty底层是异步的，发送请求和接收响应不会是一个线程，两个线程之间若是没有通信，那么原请求线程是接收不到响应的。
-    // 所以用线程等待唤醒模型，并且用并发编程接口的call方法来实现伪同步
-    private String requestMsg; // 全局请求
-    private String responseMsg; // 全局响应
+    // 未完成请求表：requestId -> 等待响应的future。发送线程往里放，EventLoop线程从里取，所以要用并发的Map
+    private final Map<Long, PendingCall> pendingRequests = new ConcurrentHashMap<>();
+
+    // 进行中的流式调用：requestId -> 流，结束的响应还是通过pendingRequests里的future交给调用方
+    private final Map<Long, StreamReceiver> streams = new ConcurrentHashMap<>();
+
+    // 所有连接共用的时间轮，登记和取消超时任务都是O(1)的
+    private final Timer timer;
+
+    private volatile Channel channel;
+
+    // 请求id只要在一个连接上唯一就行，每个连接一个计数器，多个连接上发请求的线程不会抢同一个计数器
+    private final AtomicLong requestIdGenerator = new AtomicLong();
+
+    public NettyRpcClientHandler(Timer timer) {
+        this.timer = timer;
+    }
 
     /**
-     * channelActive是通道连接就绪事件，可以在这里写发request（注意，不准确）。
-     * 可现在通道刚刚连接，并不默认连接通道就是发送消息，还不知道发送什么呢
-     * 所以发送的过程是由UserController来完成，当去访问/user/getUserById路径时，才能触发消息的发送
-     * 所以不能在这里写消息发送的过程
-     * 具体如何发送呢？——要借助线程等待和线程唤醒的模型
-     * 消息发送后，要去等待接收，是需要回调的
-     * 不是异步、不是同步，是回调！调用方不会停而是继续往下执行，但在需要的地方等待结果。
-     * netty底层是异步的机制，没有同步的机制，所以将消息发送，再获取结果，netty是不支持的
-     * 所以用线程的等待唤醒来实现上面的过程。——要将该类实现Callable接口——并发编程接口
-     * 怎么发送？用通道上下文来发送。所以要再call方法里面使用ChannelHandlerContext，所以定义全局ChannelHandlerContext
+     * 处理器加入通道时就记录下通道，发送请求时用
+     * 不能等channelActive：连接池是在connect的future完成时就开始发请求的，而Netty是先完成future再触发channelActive的
      * @param ctx
      * @throws Exception
      */
     @Override
-    public void channelActive(ChannelHandlerContext ctx) throws Exception {
-        // 定义全局ChannelHandlerContext，在通道连接好之后，记录它作为全局通道上下文
-        channelHandlerContext = ctx;
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        channel = ctx.channel();
     }
 
     /**
-     * 这是并发下的发送请求的线程
-     * 并发编程要加锁！
+     * 发送请求，不阻塞，返回一个future，响应回来时由channelRead0完成它
+     * 可以被任意多个线程同时调用；请求id在这里按连接分配，请求交出去之后就归编码器了，调用方不能再用它
+     * @param rpcRequest
      * @return
-     * @throws Exception
      */
-    @Override
-    public synchronized Object call() throws Exception {
-        channelHandlerContext.writeAndFlush(requestMsg);// 发送消息需要消息，将消息定义为全局
-        // 发送好消息之后，要等待服务端返回的响应，响应在channelRead0里面了。
-        // 但是call和channelRead0是异步的，所以要借助线程的等待唤醒机制来完成伪同步的操作
-        // 将发送消息的线程处于等待状态
-        wait();
-        // 什么时候被接收响应的线程唤醒，什么时候返回发送结果！结果在全局里面
-        // 线程是唤醒了，若是不加同步锁，该线程会马上返回，可此时读响应线程可能没有处理完，是会出错的。
-        // 所以就算该线程被唤醒了，也得等读响应线程结束才能继续往下执行——这其实就是回调！支部会wait下面没其他过程，所以体现不出异步的好处。
-        return responseMsg;
+    public CompletableFuture<RpcResponse> send(RpcRequest rpcRequest) {
+        return send(rpcRequest, null);
     }
 
-    public void setRequestMsg(String requestMsg) {
-        this.requestMsg = requestMsg;
+    /**
+     * 发送流式调用的请求，请求后面紧跟着给服务端的第一批额度
+     * @param stream 收元素的流，普通调用为null
+     * @return 服务端发完所有元素后的结束响应
+     */
+    public CompletableFuture<RpcResponse> send(RpcRequest rpcRequest, StreamReceiver stream) {
+        long requestId = requestIdGenerator.incrementAndGet();
+        PendingCall future = new PendingCall(requestId);
+        Channel channel = this.channel;
+        if (channel == null || !channel.isActive()) {
+            rpcRequest.recycle();
+            future.completeExceptionally(new IOException("与服务端的连接不可用"));
+            return future;
+        }
+        // 等连接、排队的时候时间已经用完了，就不用发了
+        long deadlineNanos = rpcRequest.getDeadlineNanos();
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (deadlineNanos != 0 && remainingNanos <= 0) {
+            rpcRequest.recycle();
+            future.completeExceptionally(new TimeoutException("调用超时，请求还没有发出：" + channel.remoteAddress()));
+            return future;
+        }
+        // 调用方在连接建好之前就把流关掉了
+        if (stream != null && !stream.attach(this, requestId)) {
+            rpcRequest.recycle();
+            future.completeExceptionally(new CancellationException("流式调用已取消"));
+            return future;
+        }
+        // 先登记再发送，否则响应可能比登记先到
+        rpcRequest.setRequestId(requestId);
+        pendingRequests.put(requestId, future);
+        if (stream != null) {
+            streams.put(requestId, stream);
+        }
+        if (deadlineNanos != 0) {
+            future.timeout = timer.newTimeout(future, remainingNanos, TimeUnit.NANOSECONDS);
+        }
+        // 经过写队列，同一时间很多线程发的请求会合并成一次flush
+        WriteQueue.write(channel, rpcRequest, new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture channelFuture) throws Exception {
+                // 发送失败了，响应肯定不会来了，直接让调用方失败
+                if (!channelFuture.isSuccess()) {
+                    streams.remove(requestId);
+                    PendingCall failed = pendingRequests.remove(requestId);
+                    if (failed != null) {
+                        failed.cancelTimeout();
+                        failed.completeExceptionally(channelFuture.cause());
+                    }
+                }
+            }
+        });
+        if (stream != null) {
+            int credits = stream.open();
+            if (credits > 0) {
+                WriteQueue.write(channel, StreamFrame.credit(requestId, stream.getSerializerType(), credits), null);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * 调用方取走了一些元素，再给服务端这么多额度，任意线程上调用
+     */
+    public void sendCredit(long requestId, byte serializer, int credits) {
+        Channel channel = this.channel;
+        if (streams.containsKey(requestId) && channel != null) {
+            WriteQueue.write(channel, StreamFrame.credit(requestId, serializer, credits), null);
+        }
+    }
+
+    /**
+     * 调用方不要剩下的元素了，通知服务端停止，服务端不会再回响应，所以这里直接让结束的future失败
+     */
+    public void cancelStream(long requestId, byte serializer) {
+        if (streams.remove(requestId) == null) {
+            return;
+        }
+        PendingCall future = pendingRequests.remove(requestId);
+        if (future != null) {
+            future.cancelTimeout();
+            Channel channel = this.channel;
+            if (channel != null && channel.isActive()) {
+                WriteQueue.write(channel, StreamFrame.cancel(requestId, serializer), null);
+            }
+            future.completeExceptionally(new CancellationException("流式调用已取消，requestId=" + requestId));
+        }
+    }
+
+    /**
+     * @return 当前还在等待响应的请求数
+     */
+    public int getPendingCount() {
+        return pendingRequests.size();
     }
 
     /*=================================================================================*/
@@ -70,18 +178,105 @@ public class NettyRpcClientHandler extends SimpleChannelInboundHandler<String> i
     /**
      * 通道读取就绪事件——读取服务端消息，但事情有先来后到，
      * client先发1.request，2.server接消息，3.server发response，4.client接消息
-     * 这个channelRead0是4.client接消息
+     * 这个channelRead0是4.client接消息，按requestId找到发起这个请求的future，完成它
      * @param ctx           the {@link ChannelHandlerContext} which this {@link SimpleChannelInboundHandler}
      *                      belongs to
      * @param msg           the message to handle
      * @throws Exception
      */
     @Override
-    protected synchronized void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
-        responseMsg = msg;
-        // 进入到该方法就意味着响应线程已经就绪了，此时需要唤醒发送请求的线程
-        notify();
-        /*======   用到的等待唤醒机制必须是同步的，需要给锁起来！ synchronize! ======  */
+    protected void channelRead0(ChannelHandlerContext ctx, RpcResponse msg) throws Exception {
+        streams.remove(msg.getRequestId());
+        PendingCall future = pendingRequests.remove(msg.getRequestId());
+        if (future != null) {
+            future.cancelTimeout();
+        }
+        // future为null说明调用方已经不等了（例如已经超时了），响应直接丢弃；消息体是接收缓冲区的切片，丢弃时要释放，对象放回对象池
+        if (future == null || !future.complete(msg)) {
+            msg.recycle();
+        }
+    }
+
+    /**
+     * 流式调用的元素不是RpcResponse，在这里单独处理，其他消息照旧
+     */
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof StreamFrame)) {
+            super.channelRead(ctx, msg);
+            return;
+        }
+        StreamFrame frame = (StreamFrame) msg;
+        try {
+            // 流已经结束了（调用方关掉了、超时了），迟到的元素直接丢弃
+            StreamReceiver stream = frame.getType() == RpcProtocol.TYPE_STREAM_DATA ? streams.get(frame.getRequestId()) : null;
+            if (stream != null) {
+                // 服务端已经开始发了，之后每个元素等多久由流自己控制，不再受整个调用的截止时间限制
+                PendingCall future = pendingRequests.get(frame.getRequestId());
+                if (future != null) {
+                    future.cancelTimeout();
+                }
+                stream.onData(frame);
+            }
+        } finally {
+            frame.recycle();
+        }
+    }
+
+    /**
+     * 通道断开，这个通道上还没回来的请求永远不会回来了，全部让调用方失败，不能让它们一直等下去
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        streams.clear();
+        IOException cause = new IOException("与服务端的连接已断开：" + ctx.channel().remoteAddress());
+        for (Long requestId : pendingRequests.keySet()) {
+            PendingCall future = pendingRequests.remove(requestId);
+            if (future != null) {
+                future.cancelTimeout();
+                future.completeExceptionally(cause);
+            }
+        }
+        super.channelInactive(ctx);
     }
 
+    /**
+     * 一个等待响应的请求：它本身就是交给调用方的future，同时也是时间轮上的超时任务，不用再额外new对象
+     */
+    private final class PendingCall extends CompletableFuture<RpcResponse> implements TimerTask {
+
+        private final long requestId;
+        private volatile Timeout timeout;
+
+        PendingCall(long requestId) {
+            this.requestId = requestId;
+        }
+
+        /**
+         * 到了截止时间还在未完成请求表里，说明响应没回来，让调用方失败；之后响应再回来，表里已经找不到了，直接丢弃
+         */
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (pendingRequests.remove(requestId, this)) {
+                // 流式调用超时了，服务端那边也停下来
+                StreamReceiver stream = streams.remove(requestId);
+                if (stream != null && channel.isActive()) {
+                    WriteQueue.write(channel, StreamFrame.cancel(requestId, stream.getSerializerType()), null);
+                }
+                completeExceptionally(new TimeoutException("调用超时，requestId=" + requestId + "，服务端：" + channel.remoteAddress()));
+            }
+        }
+
+        /**
+         * 响应回来了或者请求失败了，把时间轮上的任务取消掉，不用等它到期
+         */
+        void cancelTimeout() {
+            Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
 }
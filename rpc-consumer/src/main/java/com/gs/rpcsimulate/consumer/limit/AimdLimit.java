@@ -0,0 +1,49 @@
+package com.gs.rpcsimulate.consumer.limit;
+
+/**
+ * AIMD（加性增、乘性减），和TCP拥塞控制一个思路：
+ * 调用成功并且上限确实被用到了一半以上，上限加1；调用失败（超时、服务端过载）上限乘以0.9。
+ * 只看成败不看延迟，简单、稳定，但要等提供者真的开始超时、拒绝了才会退让
+ */
+public class AimdLimit implements LimitAlgorithm {
+
+    public static final String NAME = "aimd";
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private int minLimit;
+    private int maxLimit;
+    private volatile int limit;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void init(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        int current = limit;
+        if (dropped) {
+            limit = Math.max(minLimit, (int) (current * BACKOFF_RATIO));
+        } else if (inFlight * 2 >= current) {
+            limit = Math.min(maxLimit, current + 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "(" + limit + ")";
+    }
+}
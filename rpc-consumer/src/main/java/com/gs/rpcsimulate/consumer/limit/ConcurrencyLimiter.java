@@ -0,0 +1,127 @@
+package com.gs.rpcsimulate.consumer.limit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一个提供者地址的并发限制：进行中的调用数到了算法给出的上限，新的调用短暂排队或者直接失败
+ * 调用结束时把延迟和成败交给算法，算法再调整上限，提供者开始变慢时客户端先退让，而不是继续往上压
+ */
+public class ConcurrencyLimiter {
+
+    private final String name;
+    private final LimitAlgorithm algorithm;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    // 排队等待的调用在这里等，有调用结束时唤醒一个
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private volatile int waiters;
+
+    public ConcurrencyLimiter(String name, LimitAlgorithm algorithm) {
+        this.name = name;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * 申请一个名额，拿到了之后不管调用成败都必须调用release
+     * @param maxWaitNanos 没有名额时最多等多久，0表示马上失败
+     * @return 拿到名额后进行中的调用数（包括自己），没拿到返回0
+     */
+    public int acquire(long maxWaitNanos) throws InterruptedException {
+        int n = tryIncrement();
+        if (n > 0 || maxWaitNanos <= 0) {
+            return reject(n);
+        }
+        long deadline = System.nanoTime() + maxWaitNanos;
+        lock.lock();
+        try {
+            waiters++;
+            try {
+                while ((n = tryIncrement()) == 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    released.awaitNanos(remaining);
+                }
+            } finally {
+                waiters--;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return reject(n);
+    }
+
+    /**
+     * 申请一个名额，没有就马上失败，不阻塞调用线程，异步调用用这个
+     * @return 拿到名额后进行中的调用数（包括自己），没拿到返回0
+     */
+    public int tryAcquire() {
+        return reject(tryIncrement());
+    }
+
+    private int tryIncrement() {
+        int limit = algorithm.getLimit();
+        for (; ; ) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return 0;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    private int reject(int n) {
+        if (n == 0) {
+            rejected.increment();
+        }
+        return n;
+    }
+
+    /**
+     * 调用结束
+     * @param acquired acquire的返回值
+     */
+    public void release(int acquired, long rttNanos, boolean dropped) {
+        inFlight.decrementAndGet();
+        algorithm.onSample(rttNanos, acquired, dropped);
+        // 没人排队时不碰锁，正常情况下释放名额只是一次原子减
+        if (waiters > 0) {
+            lock.lock();
+            try {
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return algorithm.getLimit();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return name + "{" + algorithm + ", inFlight=" + inFlight.get() + ", rejected=" + rejected.sum() + "}";
+    }
+}
@@ -0,0 +1,98 @@
+package com.gs.rpcsimulate.consumer.limit;
+
+import com.gs.rpcsimulate.consumer.metrics.ClientMetrics;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 管理每个提供者地址的并发限制，和InstanceStats一样，同一个地址在所有服务之间共用一个
+ * 提供者扛不扛得住看的是这台机器（这个进程）整体的负载，不是某一个服务
+ */
+@Component
+public class ConcurrencyLimiterManager implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimiterManager.class);
+
+    // 并发限制算法：none（不限制）、aimd、vegas、gradient
+    @Value("${rpc.limit.algorithm:" + LimitAlgorithmFactory.NONE + "}")
+    String algorithm;
+
+    @Value("${rpc.limit.initial-limit:20}")
+    int initialLimit;
+
+    @Value("${rpc.limit.min-limit:1}")
+    int minLimit;
+
+    @Value("${rpc.limit.max-limit:1000}")
+    int maxLimit;
+
+    // 到了上限时同步调用最多排队等多久，0表示马上失败；异步调用总是马上失败
+    @Value("${rpc.limit.max-wait-millis:0}")
+    long maxWaitMillis;
+
+    private long maxWaitNanos;
+
+    @Autowired
+    ClientMetrics clientMetrics;
+
+    private final Map<ServiceInstance, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        // 名字写错了在启动时就报错
+        LimitAlgorithmFactory.check(algorithm);
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("并发限制配置错误，要求 1 <= min-limit <= initial-limit <= max-limit："
+                    + minLimit + "/" + initialLimit + "/" + maxLimit);
+        }
+        maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    public boolean isEnabled() {
+        return !LimitAlgorithmFactory.NONE.equals(algorithm);
+    }
+
+    /**
+     * @return 这个提供者的并发限制，没有开启时返回null
+     */
+    public ConcurrencyLimiter get(ServiceInstance instance) {
+        if (!isEnabled()) {
+            return null;
+        }
+        ConcurrencyLimiter limiter = limiters.get(instance);
+        if (limiter == null) {
+            limiter = limiters.computeIfAbsent(instance, key -> {
+                ConcurrencyLimiter created = new ConcurrencyLimiter(key.toString(),
+                        LimitAlgorithmFactory.create(algorithm, initialLimit, minLimit, maxLimit));
+                clientMetrics.bindLimiter(key, created);
+                return created;
+            });
+        }
+        return limiter;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    public Map<ServiceInstance, ConcurrencyLimiter> getLimiters() {
+        return limiters;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (!limiters.isEmpty()) {
+            logger.info("RPC并发限制：{}", limiters.values());
+        }
+    }
+}
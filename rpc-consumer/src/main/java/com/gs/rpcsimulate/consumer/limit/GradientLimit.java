@@ -0,0 +1,79 @@
+package com.gs.rpcsimulate.consumer.limit;
+
+/**
+ * 梯度算法：比较长期平均延迟和短期平均延迟
+ *   梯度 = 长期延迟 * 容忍系数 / 短期延迟，限制在[0.5, 1]之间
+ *   新上限 = 上限 * 梯度 + sqrt(上限)
+ * 延迟稳定时梯度为1，上限每次多给sqrt(上限)的余量慢慢往上试；延迟开始上升，梯度小于1，上限按比例收缩。
+ * 和Vegas比，不依赖"最小延迟"这个容易被偶然的快请求带偏的值，延迟抖动大的服务更适合。
+ * 新上限和旧上限再做一次平滑，避免一个慢请求就把上限砍一半
+ */
+public class GradientLimit implements LimitAlgorithm {
+
+    public static final String NAME = "gradient";
+
+    // 短期延迟比长期延迟高出这么多倍以内，都认为是正常抖动
+    private static final double TOLERANCE = 1.5;
+
+    // 长期、短期延迟EWMA的权重，大约对应最近600个、10个样本
+    private static final double LONG_WINDOW_WEIGHT = 2D / (600 + 1);
+    private static final double SHORT_WINDOW_WEIGHT = 2D / (10 + 1);
+
+    // 新上限占的比重
+    private static final double SMOOTHING = 0.2;
+
+    private int minLimit;
+    private int maxLimit;
+    private volatile int limit;
+
+    private double estimatedLimit;
+    private double longRttNanos;
+    private double shortRttNanos;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void init(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+            shortRttNanos = rttNanos;
+            return;
+        }
+        shortRttNanos = shortRttNanos * (1 - SHORT_WINDOW_WEIGHT) + rttNanos * SHORT_WINDOW_WEIGHT;
+        longRttNanos = longRttNanos * (1 - LONG_WINDOW_WEIGHT) + rttNanos * LONG_WINDOW_WEIGHT;
+        // 延迟持续偏高时长期平均也会被慢慢拉上去，高出太多就让它快点追上，否则退不回原来的水平
+        if (longRttNanos / shortRttNanos > 2) {
+            longRttNanos *= 0.95;
+        }
+        // 流量本身不大（上限远没用满）时延迟不能说明上限合不合适，不调
+        if (!dropped && inFlight * 2 < estimatedLimit) {
+            return;
+        }
+        double gradient = dropped ? 0.5 : Math.max(0.5, Math.min(1, TOLERANCE * longRttNanos / shortRttNanos));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "(" + limit + ")";
+    }
+}
@@ -0,0 +1,36 @@
+package com.gs.rpcsimulate.consumer.limit;
+
+/**
+ * 自适应并发限制算法的SPI接口：根据每次调用的延迟和成败，不断调整一个提供者最多能同时有多少个调用在进行中
+ * 每个提供者地址new一个自己的实例，onSample会被多个线程同时调用，实现类要自己保证线程安全，getLimit要能无锁读。
+ * 自定义实现：实现该接口（要有无参构造方法），并写到 META-INF/services/com.gs.rpcsimulate.consumer.limit.LimitAlgorithm 里，
+ * 由 {@link LimitAlgorithmFactory} 通过ServiceLoader加载，然后配置 rpc.limit.algorithm=名字
+ */
+public interface LimitAlgorithm {
+
+    /**
+     * @return 算法的名字，用于配置，例如 aimd
+     */
+    String getName();
+
+    /**
+     * 创建后调用一次
+     * @param initialLimit 初始的并发上限
+     * @param minLimit     无论怎么降，上限都不低于它
+     * @param maxLimit     无论怎么涨，上限都不高于它
+     */
+    void init(int initialLimit, int minLimit, int maxLimit);
+
+    /**
+     * @return 当前的并发上限
+     */
+    int getLimit();
+
+    /**
+     * 一次调用结束
+     * @param rttNanos 从发出到结束的时间
+     * @param inFlight 这次调用开始时进行中的调用数（包括它自己），远小于上限时说明流量本身不大，不应该据此调高上限
+     * @param dropped  调用失败了（超时、服务端过载、连接断了），说明提供者已经扛不住了
+     */
+    void onSample(long rttNanos, int inFlight, boolean dropped);
+}
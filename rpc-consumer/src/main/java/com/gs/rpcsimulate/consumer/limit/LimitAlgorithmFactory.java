@@ -0,0 +1,54 @@
+package com.gs.rpcsimulate.consumer.limit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * 并发限制算法的注册中心
+ * 启动时通过ServiceLoader找到所有的LimitAlgorithm实现，记下它们的类，每个提供者地址按名字new一个新的实例
+ */
+public final class LimitAlgorithmFactory {
+
+    // 不做并发限制
+    public static final String NONE = "none";
+
+    private static final Map<String, Class<? extends LimitAlgorithm>> ALGORITHM_BY_NAME = new HashMap<>();
+
+    static {
+        for (LimitAlgorithm algorithm : ServiceLoader.load(LimitAlgorithm.class, LimitAlgorithmFactory.class.getClassLoader())) {
+            Class<? extends LimitAlgorithm> old = ALGORITHM_BY_NAME.put(algorithm.getName(), algorithm.getClass());
+            if (old != null) {
+                throw new IllegalStateException("并发限制算法名字重复：" + algorithm.getName() + "，"
+                        + old.getName() + " / " + algorithm.getClass().getName());
+            }
+        }
+    }
+
+    private LimitAlgorithmFactory() {
+    }
+
+    /**
+     * 名字写错了直接报错，启动时就暴露出来
+     */
+    public static void check(String name) {
+        if (!NONE.equals(name) && !ALGORITHM_BY_NAME.containsKey(name)) {
+            throw new IllegalArgumentException("不支持的并发限制算法：" + name + "，可选：" + NONE + "、" + ALGORITHM_BY_NAME.keySet());
+        }
+    }
+
+    /**
+     * 按名字创建一个新的实例
+     */
+    public static LimitAlgorithm create(String name, int initialLimit, int minLimit, int maxLimit) {
+        check(name);
+        Class<? extends LimitAlgorithm> clazz = ALGORITHM_BY_NAME.get(name);
+        try {
+            LimitAlgorithm algorithm = clazz.newInstance();
+            algorithm.init(initialLimit, minLimit, maxLimit);
+            return algorithm;
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("创建并发限制算法失败：" + clazz.getName(), e);
+        }
+    }
+}
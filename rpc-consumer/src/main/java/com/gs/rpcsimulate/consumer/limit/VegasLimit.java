@@ -0,0 +1,73 @@
+package com.gs.rpcsimulate.consumer.limit;
+
+/**
+ * TCP Vegas的思路：拿见过的最小延迟当作"没有排队时的延迟"，估算提供者那边排了多少个请求
+ *   排队数 = 上限 * (1 - 最小延迟 / 本次延迟)
+ * 排队数小于alpha说明还有余量，上限调高；大于beta说明开始排队了，上限调低；调用失败也调低。
+ * alpha、beta和每次的调整量都按log10(上限)算，上限大时调得快，上限小时调得稳。
+ * 延迟一上升就退让，不用等到超时，提供者的延迟能一直保持在低位
+ */
+public class VegasLimit implements LimitAlgorithm {
+
+    public static final String NAME = "vegas";
+
+    // 每隔这么多个样本忘掉最小延迟重新测，提供者换了机器、网络路径变了，基准也要跟着变
+    private static final int PROBE_SAMPLES = 1000;
+
+    private int minLimit;
+    private int maxLimit;
+    private volatile int limit;
+
+    private long rttNoLoadNanos;
+    private int samples;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void init(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (++samples >= PROBE_SAMPLES) {
+            samples = 0;
+            rttNoLoadNanos = 0;
+        }
+        if (!dropped && (rttNoLoadNanos == 0 || rttNanos < rttNoLoadNanos)) {
+            rttNoLoadNanos = rttNanos;
+            return;
+        }
+        int current = limit;
+        double step = Math.max(1, Math.log10(current));
+        double newLimit;
+        if (dropped) {
+            newLimit = current - step;
+        } else {
+            double queueSize = current * (1 - (double) rttNoLoadNanos / rttNanos);
+            if (queueSize > 6 * step) {
+                newLimit = current - step;
+            } else if (queueSize < 3 * step && inFlight * 2 >= current) {
+                newLimit = current + step;
+            } else {
+                return;
+            }
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, (int) newLimit));
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "(" + limit + ")";
+    }
+}
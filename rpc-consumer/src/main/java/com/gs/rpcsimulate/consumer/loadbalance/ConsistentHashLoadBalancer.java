@@ -0,0 +1,119 @@
+package com.gs.rpcsimulate.consumer.loadbalance;
+
+import com.gs.rpcsimulate.consumer.proxy.ReferenceConfig;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一致性哈希：按某个参数（@RpcClientProxyReference的hashArgument，默认第0个）的值计算哈希，
+ * 同一个参数值总是落到同一个提供者上，提供者那边的本地缓存命中率高。
+ * 每个提供者在哈希环上放 VIRTUAL_NODES * 权重/100 个虚拟节点，让分布更均匀；
+ * 提供者上下线时只有环上相邻的一段key会换节点，其他key不受影响。
+ * 方法没有那个参数时退化成随机
+ */
+public class ConsistentHashLoadBalancer implements LoadBalancer {
+
+    public static final String NAME = "consistent-hash";
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private int hashArgument;
+
+    private volatile Ring ring;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void init(String serviceName, ReferenceConfig config) {
+        if (config.getHashArgument() < 0) {
+            throw new IllegalArgumentException("hashArgument不能是负数：" + serviceName);
+        }
+        this.hashArgument = config.getHashArgument();
+    }
+
+    @Override
+    public ServiceInstance select(List<ServiceInstance> instances, Object[] args) {
+        if (args == null || args.length <= hashArgument) {
+            return instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
+        }
+        Ring ring = this.ring;
+        if (ring == null || ring.instances != instances) {
+            // 列表变了重建一个新的环，并发重建也没关系，结果是一样的
+            ring = new Ring(instances);
+            this.ring = ring;
+        }
+        return ring.select(hash(String.valueOf(args[hashArgument])));
+    }
+
+    /**
+     * 哈希环：排好序的虚拟节点哈希值，和对应的提供者，查找用二分
+     */
+    private static class Ring {
+        final List<ServiceInstance> instances;
+        final int[] hashes;
+        final ServiceInstance[] nodes;
+
+        Ring(List<ServiceInstance> instances) {
+            this.instances = instances;
+            int total = 0;
+            for (ServiceInstance instance : instances) {
+                total += virtualNodes(instance);
+            }
+            long[] entries = new long[total];
+            int n = 0;
+            for (int i = 0; i < instances.size(); i++) {
+                ServiceInstance instance = instances.get(i);
+                for (int j = 0; j < virtualNodes(instance); j++) {
+                    // 高32位放哈希值，低32位放提供者下标，排序后两者一起有序
+                    entries[n++] = ((long) hash(instance + "#" + j) << 32) | i;
+                }
+            }
+            Arrays.sort(entries);
+            hashes = new int[total];
+            nodes = new ServiceInstance[total];
+            for (int i = 0; i < total; i++) {
+                hashes[i] = (int) (entries[i] >> 32);
+                nodes[i] = instances.get((int) entries[i]);
+            }
+        }
+
+        /**
+         * 顺时针找第一个哈希值大于等于key的虚拟节点，超过最后一个就回到环的开头
+         */
+        ServiceInstance select(int hash) {
+            int index = Arrays.binarySearch(hashes, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return nodes[index == hashes.length ? 0 : index];
+        }
+
+        private static int virtualNodes(ServiceInstance instance) {
+            return Math.max(1, VIRTUAL_NODES * instance.getWeight() / ServiceInstance.DEFAULT_WEIGHT);
+        }
+    }
+
+    /**
+     * FNV-1a再加murmur3的fmix32打散，不用String.hashCode，它对相近的字符串分布太集中
+     */
+    static int hash(String key) {
+        int h = 0x811c9dc5;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
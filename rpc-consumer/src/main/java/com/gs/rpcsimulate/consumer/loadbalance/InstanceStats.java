@@ -0,0 +1,89 @@
+package com.gs.rpcsimulate.consumer.loadbalance;
+
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每个提供者地址的调用统计，ClientStub在每次调用前后更新，最少活跃、P2C这些策略按它来选
+ * 1 active：正在进行中（已发出、还没收到响应）的调用数
+ * 2 延迟的EWMA（指数加权移动平均），用的是Peak EWMA：
+ *   新的延迟比平均值大时直接取新值，一个节点突然变慢（GC、机器被别的进程抢占）马上就能反映出来；
+ *   之后按时间衰减，DECAY_NANOS内没有新数据，旧值的影响降到1/e。
+ *   读的时候也按时间衰减，被冷落的慢节点过一会儿成本就降下来，会重新被试探，不会永远没人选
+ */
+public class InstanceStats {
+
+    // 同一个地址的统计在所有服务之间共享，地址不多，不做清理
+    private static final ConcurrentMap<ServiceInstance, InstanceStats> STATS = new ConcurrentHashMap<>();
+
+    // EWMA的衰减时间
+    private static final double DECAY_NANOS = 10_000_000_000D;
+
+    // 调用失败（连接不上、连接断了、服务端过载拒绝）按这么长的延迟记，否则快速失败的坏节点看起来反而最快
+    private static final double FAILURE_PENALTY_NANOS = 1_000_000_000D;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private volatile double ewmaNanos;
+    private volatile long lastUpdateNanos = System.nanoTime();
+
+    public static InstanceStats of(ServiceInstance instance) {
+        InstanceStats stats = STATS.get(instance);
+        if (stats == null) {
+            stats = STATS.computeIfAbsent(instance, k -> new InstanceStats());
+        }
+        return stats;
+    }
+
+    /**
+     * 调用开始，返回开始时间，调用结束时传给end
+     */
+    public long begin() {
+        active.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * 调用结束，不管成功失败都要调用，否则active只增不减
+     */
+    public void end(long beginNanos, boolean success) {
+        active.decrementAndGet();
+        long now = System.nanoTime();
+        double rtt = success ? now - beginNanos : Math.max(now - beginNanos, FAILURE_PENALTY_NANOS);
+        synchronized (this) {
+            double w = decay(now);
+            double ewma = ewmaNanos;
+            ewmaNanos = rtt > ewma ? rtt : ewma * w + rtt * (1 - w);
+            lastUpdateNanos = now;
+        }
+    }
+
+    /**
+     * 按响应结束一次调用：服务端过载时马上回的拒绝响应虽然到得很快，也要按失败记，
+     * 否则过载的提供者延迟EWMA最低，最少活跃、P2C反而往它身上压更多的请求
+     * @param cause 调用失败的异常，有异常时rpcResponse为null
+     */
+    public void end(long beginNanos, RpcResponse rpcResponse, Throwable cause) {
+        end(beginNanos, cause == null && rpcResponse.getStatus() != RpcProtocol.STATUS_OVERLOADED);
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * 当前的延迟EWMA，按距上次更新的时间衰减过
+     */
+    public double getEwmaNanos() {
+        return ewmaNanos * decay(System.nanoTime());
+    }
+
+    private double decay(long now) {
+        return Math.exp(-Math.max(now - lastUpdateNanos, 0) / DECAY_NANOS);
+    }
+}
@@ -0,0 +1,39 @@
+package com.gs.rpcsimulate.consumer.loadbalance;
+
+import com.gs.rpcsimulate.registry.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 最少活跃：选正在进行中的调用最少的提供者，处理得慢的节点请求会积压，自然就少分到新请求
+ * 活跃数一样的有多个时随机选一个，避免总是压在列表前面的节点上
+ */
+public class LeastActiveLoadBalancer implements LoadBalancer {
+
+    public static final String NAME = "least-active";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ServiceInstance select(List<ServiceInstance> instances, Object[] args) {
+        ServiceInstance selected = null;
+        int leastActive = Integer.MAX_VALUE;
+        int sameCount = 0;
+        for (ServiceInstance instance : instances) {
+            int active = InstanceStats.of(instance).getActive();
+            if (active < leastActive) {
+                leastActive = active;
+                selected = instance;
+                sameCount = 1;
+            } else if (active == leastActive && ThreadLocalRandom.current().nextInt(++sameCount) == 0) {
+                // 蓄水池抽样，第n个并列的以1/n的概率替换，最后每个并列的被选中的概率相同
+                selected = instance;
+            }
+        }
+        return selected;
+    }
+}
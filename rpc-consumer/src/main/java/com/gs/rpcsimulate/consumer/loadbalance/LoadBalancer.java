@@ -0,0 +1,34 @@
+package com.gs.rpcsimulate.consumer.loadbalance;
+
+import com.gs.rpcsimulate.consumer.proxy.ReferenceConfig;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+
+import java.util.List;
+
+/**
+ * 客户端负载均衡的SPI接口：一个服务有多个提供者时，每次调用选哪一个
+ * 每个服务引用（代理对象）都会new一个自己的实例，所以实现类可以在里面保存轮询位置、哈希环这些状态，
+ * 不过同一个代理会被多个线程同时调用，状态要自己保证线程安全。
+ * 自定义实现：实现该接口（要有无参构造方法），并写到 META-INF/services/com.gs.rpcsimulate.consumer.loadbalance.LoadBalancer 里，
+ * 由 {@link LoadBalancerFactory} 通过ServiceLoader加载，然后在@RpcClientProxyReference(loadBalance = "名字")上使用
+ */
+public interface LoadBalancer {
+
+    /**
+     * @return 策略的名字，用于配置，例如 round-robin
+     */
+    String getName();
+
+    /**
+     * 创建代理时调用一次
+     */
+    default void init(String serviceName, ReferenceConfig config) {
+    }
+
+    /**
+     * 选一个提供者
+     * @param instances 提供者列表，不为空，列表没有变化时是同一个对象，实现类可以按引用判断是否需要重建状态
+     * @param args      本次调用的参数，可能为null
+     */
+    ServiceInstance select(List<ServiceInstance> instances, Object[] args);
+}
@@ -0,0 +1,42 @@
+package com.gs.rpcsimulate.consumer.loadbalance;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * 负载均衡策略的注册中心
+ * 启动时通过ServiceLoader找到所有的LoadBalancer实现，记下它们的类，每个服务引用按名字new一个新的实例
+ */
+public final class LoadBalancerFactory {
+
+    private static final Map<String, Class<? extends LoadBalancer>> LOAD_BALANCER_BY_NAME = new HashMap<>();
+
+    static {
+        for (LoadBalancer loadBalancer : ServiceLoader.load(LoadBalancer.class, LoadBalancerFactory.class.getClassLoader())) {
+            Class<? extends LoadBalancer> old = LOAD_BALANCER_BY_NAME.put(loadBalancer.getName(), loadBalancer.getClass());
+            if (old != null) {
+                throw new IllegalStateException("负载均衡策略名字重复：" + loadBalancer.getName() + "，"
+                        + old.getName() + " / " + loadBalancer.getClass().getName());
+            }
+        }
+    }
+
+    private LoadBalancerFactory() {
+    }
+
+    /**
+     * 按名字创建一个新的实例，找不到直接报错，配置写错了要在启动时就暴露出来
+     */
+    public static LoadBalancer create(String name) {
+        Class<? extends LoadBalancer> clazz = LOAD_BALANCER_BY_NAME.get(name);
+        if (clazz == null) {
+            throw new IllegalArgumentException("不支持的负载均衡策略：" + name + "，可选：" + LOAD_BALANCER_BY_NAME.keySet());
+        }
+        try {
+            return clazz.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("创建负载均衡策略失败：" + clazz.getName(), e);
+        }
+    }
+}
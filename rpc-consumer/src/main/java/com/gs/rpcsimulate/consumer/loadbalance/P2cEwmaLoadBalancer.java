@@ -0,0 +1,53 @@
+package com.gs.rpcsimulate.consumer.loadbalance;
+
+import com.gs.rpcsimulate.registry.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * P2C（power of two choices）+ 延迟EWMA：
+ * 随机挑两个提供者，比较 延迟EWMA * (活跃数 + 1)，选成本低的那个。
+ * 只比较两个，选择是O(1)的，又不会像"全局选最快"那样所有客户端同时涌向同一个节点；
+ * 某个节点在GC或者所在机器负载高时延迟上升，很快就分不到流量了，p99能压下来
+ */
+public class P2cEwmaLoadBalancer implements LoadBalancer {
+
+    public static final String NAME = "p2c-ewma";
+
+    // 还没有延迟数据的节点，有调用在进行中时按这个成本算，避免新节点刚上线就被一窝蜂打满
+    private static final double PENALTY_NANOS = 1_000_000_000D;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ServiceInstance select(List<ServiceInstance> instances, Object[] args) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(size);
+        // 第二个在剩下的size-1个里选，保证两个不同
+        int b = random.nextInt(size - 1);
+        if (b >= a) {
+            b++;
+        }
+        ServiceInstance first = instances.get(a);
+        ServiceInstance second = instances.get(b);
+        return cost(first) <= cost(second) ? first : second;
+    }
+
+    private double cost(ServiceInstance instance) {
+        InstanceStats stats = InstanceStats.of(instance);
+        int active = stats.getActive();
+        double ewma = stats.getEwmaNanos();
+        if (ewma == 0 && active > 0) {
+            return PENALTY_NANOS + active;
+        }
+        return ewma * (active + 1);
+    }
+}
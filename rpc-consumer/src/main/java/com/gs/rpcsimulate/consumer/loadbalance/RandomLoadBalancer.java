@@ -0,0 +1,24 @@
+package com.gs.rpcsimulate.consumer.loadbalance;
+
+import com.gs.rpcsimulate.registry.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 随机，不看权重也不看负载
+ */
+public class RandomLoadBalancer implements LoadBalancer {
+
+    public static final String NAME = "random";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ServiceInstance select(List<ServiceInstance> instances, Object[] args) {
+        return instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
+    }
+}
@@ -0,0 +1,71 @@
+package com.gs.rpcsimulate.consumer.loadbalance;
+
+import com.gs.rpcsimulate.registry.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 加权轮询，用的是nginx的平滑加权轮询：
+ * 每次选择时每个节点的currentWeight加上自己的权重，选currentWeight最大的，被选中的再减去总权重。
+ * 权重 5:1:1 时选出来是 a a b a c a a 这样分散开的，不会连着把5个请求都打到a上
+ * 权重都一样时就是普通轮询，走无锁的计数器
+ */
+public class RoundRobinLoadBalancer implements LoadBalancer {
+
+    public static final String NAME = "round-robin";
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    // 下面的状态对应的提供者列表，列表变了就重建；volatile并且在rebuild最后赋值，无锁路径读到它就能看到sameWeight
+    private volatile List<ServiceInstance> instances;
+    private boolean sameWeight;
+    private int totalWeight;
+    private int[] currentWeights;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ServiceInstance select(List<ServiceInstance> instances, Object[] args) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances.get(0);
+        }
+        if (instances == this.instances && sameWeight) {
+            return instances.get((counter.getAndIncrement() & Integer.MAX_VALUE) % size);
+        }
+        synchronized (this) {
+            if (instances != this.instances) {
+                rebuild(instances);
+            }
+            if (sameWeight) {
+                return instances.get((counter.getAndIncrement() & Integer.MAX_VALUE) % size);
+            }
+            int selected = 0;
+            for (int i = 0; i < size; i++) {
+                currentWeights[i] += instances.get(i).getWeight();
+                if (currentWeights[i] > currentWeights[selected]) {
+                    selected = i;
+                }
+            }
+            currentWeights[selected] -= totalWeight;
+            return instances.get(selected);
+        }
+    }
+
+    private void rebuild(List<ServiceInstance> instances) {
+        int total = 0;
+        boolean same = true;
+        for (ServiceInstance instance : instances) {
+            total += instance.getWeight();
+            same &= instance.getWeight() == instances.get(0).getWeight();
+        }
+        this.totalWeight = total;
+        this.sameWeight = same;
+        this.currentWeights = new int[instances.size()];
+        this.instances = instances;
+    }
+}
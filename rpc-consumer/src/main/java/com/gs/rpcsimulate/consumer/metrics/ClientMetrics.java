@@ -0,0 +1,127 @@
+package com.gs.rpcsimulate.consumer.metrics;
+
+import com.gs.rpcsimulate.codec.EncodeListener;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.consumer.cache.ResultCache;
+import com.gs.rpcsimulate.consumer.limit.ConcurrencyLimiter;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端的指标，注册到Micrometer的MeterRegistry里，通过 /actuator/metrics 查看，例如：
+ * /actuator/metrics/rpc.client.requests?tag=method:getByIdAsync&amp;tag=outcome:success
+ * /actuator/metrics/rpc.client.requests.percentile?tag=phi:0.99
+ * 除了每个方法的指标（见MethodMetrics），还有结果缓存的命中率（cache.*）和每个提供者的并发限制（rpc.client.limit*）
+ * rpc.metrics.enabled=false时什么都不记，调用路径上也没有额外的开销
+ */
+@Component
+public class ClientMetrics implements EncodeListener, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClientMetrics.class);
+
+    @Autowired
+    MeterRegistry registry;
+
+    @Value("${rpc.metrics.enabled:true}")
+    boolean enabled;
+
+    // 延迟要算哪些百分位数
+    @Value("${rpc.metrics.percentiles:0.5,0.9,0.99,0.999}")
+    double[] percentiles;
+
+    // 方法编号 -> 指标，创建代理时（很少）整表复制一份再替换，IO线程上查表不加锁
+    private volatile IntObjectMap<MethodMetrics> methodMetrics = new IntObjectHashMap<>();
+
+    /**
+     * 创建代理时调用，同一个方法被多个代理引用时共用一份指标
+     * @return 没有开启时返回null
+     */
+    public synchronized MethodMetrics register(int methodId, String serviceName, String methodName) {
+        if (!enabled) {
+            return null;
+        }
+        MethodMetrics metrics = methodMetrics.get(methodId);
+        if (metrics == null) {
+            metrics = new MethodMetrics(registry, serviceName, methodName, percentiles);
+            IntObjectMap<MethodMetrics> copy = new IntObjectHashMap<>(methodMetrics.size() + 1);
+            copy.putAll(methodMetrics);
+            copy.put(methodId, metrics);
+            methodMetrics = copy;
+        }
+        return metrics;
+    }
+
+    /**
+     * @return 给编码器用的回调，没有开启时返回null，编码器就不计时
+     */
+    public EncodeListener getEncodeListener() {
+        return enabled ? this : null;
+    }
+
+    @Override
+    public void encoded(Object msg, int frameLength, long encodeNanos) {
+        if (msg instanceof RpcRequest) {
+            MethodMetrics metrics = methodMetrics.get(((RpcRequest) msg).getMethodId());
+            if (metrics != null) {
+                metrics.encoded(frameLength, encodeNanos);
+            }
+        }
+    }
+
+    /**
+     * 结果缓存的命中、未命中、淘汰次数和大小
+     */
+    public void bindCache(ResultCache cache) {
+        if (enabled) {
+            CaffeineCacheMetrics.monitor(registry, cache.getNativeCache(), cache.getName());
+        }
+    }
+
+    /**
+     * 一个提供者的并发上限、进行中的调用数和被拒绝的调用数
+     */
+    public void bindLimiter(ServiceInstance instance, ConcurrencyLimiter limiter) {
+        if (!enabled) {
+            return;
+        }
+        Tags tags = Tags.of("provider", instance.getHost() + ":" + instance.getPort());
+        Gauge.builder("rpc.client.limit", limiter, ConcurrencyLimiter::getLimit).tags(tags)
+                .description("自适应并发限制算出的上限").register(registry);
+        Gauge.builder("rpc.client.limit.in.flight", limiter, ConcurrencyLimiter::getInFlight).tags(tags)
+                .register(registry);
+        FunctionCounter.builder("rpc.client.limit.rejected", limiter, ConcurrencyLimiter::getRejected).tags(tags)
+                .description("因为并发限制没有发出去的调用数").register(registry);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (MethodMetrics m : methodMetrics.values()) {
+            Timer success = m.getSuccess();
+            if (success.count() == 0) {
+                continue;
+            }
+            sb.append("\n  ").append(m.getName()).append(" count=").append(success.count())
+                    .append(" mean=").append(String.format("%.3f", success.mean(TimeUnit.MILLISECONDS))).append("ms")
+                    .append(" max=").append(String.format("%.3f", success.max(TimeUnit.MILLISECONDS))).append("ms");
+        }
+        if (sb.length() > 0) {
+            logger.info("RPC客户端调用统计（成功的调用）：{}", sb);
+        }
+    }
+}
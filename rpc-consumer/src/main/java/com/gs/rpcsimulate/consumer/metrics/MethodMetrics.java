@@ -0,0 +1,119 @@
+package com.gs.rpcsimulate.consumer.metrics;
+
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个远程方法在客户端的指标，创建代理时建好，调用时直接记，不再按名字查找
+ * rpc.client.requests：端到端的延迟，从发起调用到响应回来（或者失败），按结果分开：
+ *   success、error（业务异常、连接断了）、timeout、overloaded（服务端过载）、rejected（客户端并发限制）
+ * rpc.client.in.flight：进行中的调用数
+ * rpc.client.request.bytes / rpc.client.response.bytes：每次调用请求、响应的整帧字节数
+ * rpc.client.serialization：序列化请求（encode，在IO线程上）和解析结果（decode）的耗时
+ * 延迟减去服务端的执行时间（rpc.server.requests）和排队时间（rpc.server.queue），再减去序列化，剩下的就是网络和IO线程
+ */
+public class MethodMetrics {
+
+    private final String name;
+    private final Timer success;
+    private final Timer error;
+    private final Timer timeout;
+    private final Timer overloaded;
+    private final Timer rejected;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final DistributionSummary requestBytes;
+    private final DistributionSummary responseBytes;
+    private final Timer encode;
+    private final Timer decode;
+
+    MethodMetrics(MeterRegistry registry, String serviceName, String methodName, double[] percentiles) {
+        name = serviceName + "#" + methodName;
+        Tags tags = Tags.of("service", serviceName, "method", methodName);
+        success = requests(registry, tags, "success", percentiles);
+        error = requests(registry, tags, "error", percentiles);
+        timeout = requests(registry, tags, "timeout", percentiles);
+        overloaded = requests(registry, tags, "overloaded", percentiles);
+        rejected = requests(registry, tags, "rejected", percentiles);
+        Gauge.builder("rpc.client.in.flight", inFlight, AtomicInteger::get)
+                .tags(tags).description("进行中的调用数").register(registry);
+        requestBytes = DistributionSummary.builder("rpc.client.request.bytes")
+                .tags(tags).baseUnit("bytes").register(registry);
+        responseBytes = DistributionSummary.builder("rpc.client.response.bytes")
+                .tags(tags).baseUnit("bytes").register(registry);
+        encode = Timer.builder("rpc.client.serialization").tags(tags).tag("phase", "encode")
+                .publishPercentiles(percentiles).register(registry);
+        decode = Timer.builder("rpc.client.serialization").tags(tags).tag("phase", "decode")
+                .publishPercentiles(percentiles).register(registry);
+    }
+
+    /**
+     * 百分位数在本地算，Micrometer内部用的是HdrHistogram，按时间窗口滚动，反映的是最近一两分钟的延迟
+     */
+    private static Timer requests(MeterRegistry registry, Tags tags, String outcome, double[] percentiles) {
+        return Timer.builder("rpc.client.requests").tags(tags).tag("outcome", outcome)
+                .description("客户端端到端的调用延迟")
+                .publishPercentiles(percentiles)
+                .register(registry);
+    }
+
+    /**
+     * 调用开始
+     * @return 开始时间，调用结束时传给end
+     */
+    public long begin() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * 调用结束，在响应对象被解析、放回对象池之前调用；没有发出去就失败了的调用（客户端并发限制）也算，延迟就是排队的时间
+     */
+    public void end(long beginNanos, RpcResponse rpcResponse, Throwable cause) {
+        inFlight.decrementAndGet();
+        long nanos = System.nanoTime() - beginNanos;
+        Timer timer;
+        if (cause != null) {
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            // 调用方没读完就关掉了的流式调用，是调用方自己不要了，不算错误
+            timer = cause instanceof TimeoutException ? timeout
+                    : cause instanceof RejectedExecutionException ? rejected
+                    : cause instanceof CancellationException ? success : error;
+        } else {
+            responseBytes.record(rpcResponse.getFrameLength());
+            timer = rpcResponse.getError() == null ? success
+                    : rpcResponse.getStatus() == RpcProtocol.STATUS_OVERLOADED ? overloaded : error;
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void encoded(int frameLength, long encodeNanos) {
+        requestBytes.record(frameLength);
+        encode.record(encodeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void decoded(long decodeNanos) {
+        decode.record(decodeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Timer getSuccess() {
+        return success;
+    }
+}
@@ -2,6 +2,7 @@ package com.gs.rpcsimulate.consumer.processor;
 
 import com.gs.rpcsimulate.consumer.anno.RpcClientProxyReference;
 import com.gs.rpcsimulate.consumer.proxy.ClientStub;
+import com.gs.rpcsimulate.consumer.proxy.ReferenceConfig;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanPostProcessor;
@@ -34,7 +35,7 @@ public class MyBeanPostProcessor implements BeanPostProcessor {
             RpcClientProxyReference annotation = field.getAnnotation(RpcClientProxyReference.class); // 看看IUserService userService头上有没有注解
             if (annotation != null) {
                 // 3. 想要获取注解特定的代理对象，就得用代理生成类，调用它泛化的获取具体代理的方法，就能得到具体的代理类
-                Object proxy = clientStub.getProxy(field.getType());// eg:IUserService
+                Object proxy = clientStub.getProxy(field.getType(), ReferenceConfig.from(annotation));// eg:IUserService
                 // 4. 属性注入，通过反射机制给一个Bean对象的属性完成赋值
                 field.setAccessible(true);
                 try {
@@ -1,18 +1,67 @@
 package com.gs.rpcsimulate.consumer.proxy;
 
-import com.alibaba.fastjson.JSON;
+import com.gs.rpcsimulate.anno.RpcTimeout;
 import com.gs.rpcsimulate.common.RpcRequest;
 import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.compress.CompressorFactory;
+import com.gs.rpcsimulate.consumer.cache.CacheKey;
+import com.gs.rpcsimulate.consumer.cache.ResultCache;
+import com.gs.rpcsimulate.consumer.cache.ResultCacheManager;
 import com.gs.rpcsimulate.consumer.client.NettyRpcClient;
+import com.gs.rpcsimulate.consumer.limit.ConcurrencyLimiter;
+import com.gs.rpcsimulate.consumer.limit.ConcurrencyLimiterManager;
+import com.gs.rpcsimulate.consumer.loadbalance.InstanceStats;
+import com.gs.rpcsimulate.consumer.loadbalance.LoadBalancer;
+import com.gs.rpcsimulate.consumer.loadbalance.LoadBalancerFactory;
+import com.gs.rpcsimulate.consumer.loadbalance.RoundRobinLoadBalancer;
+import com.gs.rpcsimulate.consumer.metrics.ClientMetrics;
+import com.gs.rpcsimulate.consumer.metrics.MethodMetrics;
+import com.gs.rpcsimulate.consumer.stream.ClientStream;
+import com.gs.rpcsimulate.consumer.stream.FluxStream;
+import com.gs.rpcsimulate.consumer.stream.StreamReceiver;
+import com.gs.rpcsimulate.consumer.trace.CallTracer;
+import com.gs.rpcsimulate.consumer.trace.TracedCall;
+import com.gs.rpcsimulate.protocol.MethodId;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.protocol.StreamingMethod;
+import com.gs.rpcsimulate.registry.ServiceDiscovery;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+import com.gs.rpcsimulate.serializer.Serializer;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cglib.proxy.InvocationHandler;
 import org.springframework.cglib.proxy.Proxy;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 /*
  * 正常内部调用是注入一个服务，然后controller调用该服务的一个接口，装载参数就可以了。
  * 但rpc远程之间因为协议，传递的是message，不能像正常调用一般。所以需要将方法、参数包装成message，通过通道一并发走，才行。
@@ -24,15 +73,89 @@ import java.util.UUID;
  * 现在是调用getUserById方法，需要封装成RpcRequest对象，才能发消息，但不能每调用一个方法都去封装成这样的对象。这不是框架该做的。
  * 所以需要给RpcClient客户端一个代理，代理的是全部服务，每想调用一个方法，就自动封装成RpcRequest对象。
  * 同时可以自动解析服务端返回过来的数据。
+ * 支持三种调用方式：
+ * 1 同步：普通的返回值，调用线程等待响应
+ * 2 异步：接口方法的返回值声明成CompletableFuture&lt;T&gt;，立刻返回future
+ * 3 同步接口异步调用：RpcAsync.call(() -&gt; userService.getById(1))
+ * 4 流式：返回值声明成Iterator&lt;T&gt;或者Stream&lt;T&gt;，服务端一个一个元素地发，调用方边收边处理，用完要close
+ * 5 响应式：返回值声明成Mono&lt;T&gt;（一个结果）或者Flux&lt;T&gt;（流式），订阅时才发请求，不阻塞任何线程，
+ *   WebFlux的控制器可以直接把它们返回出去
  */
 @Component
-public class ClientStub {
+public class ClientStub implements InitializingBean, DisposableBean {
 
-    Map<Class, Object> SERVICE_PROXY = new HashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(ClientStub.class);
+
+    // 缓存命中时不用复制的结果类型，都是不可变的
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(String.class, Boolean.class,
+            Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+            BigInteger.class, BigDecimal.class));
+
+    // 同一个接口配置不同（序列化方式、负载均衡策略），是不同的代理对象，所以key是 接口名:引用配置
+    Map<String, Object> SERVICE_PROXY = new HashMap<>();
 
     @Autowired
     NettyRpcClient nettyRpcClient;
 
+    @Autowired
+    ServiceDiscovery serviceDiscovery;
+
+    @Autowired
+    ResultCacheManager resultCacheManager;
+
+    @Autowired
+    ConcurrencyLimiterManager concurrencyLimiterManager;
+
+    @Autowired
+    ClientMetrics clientMetrics;
+
+    @Autowired
+    CallTracer callTracer;
+
+    // 默认的序列化方式，注解上没有指定时使用
+    @Value("${rpc.serializer:json}")
+    String defaultSerializer;
+
+    // 默认的压缩方式和级别，注解上没有指定时使用
+    @Value("${rpc.compression.compressor:" + CompressorFactory.NONE + "}")
+    String defaultCompressor;
+
+    @Value("${rpc.compression.level:0}")
+    int defaultCompressLevel;
+
+    // 默认的调用超时时间，毫秒，0表示不限时，注解上没有指定时使用
+    @Value("${rpc.timeout-millis:3000}")
+    long defaultTimeoutMillis;
+
+    // 默认的负载均衡策略，注解上没有指定时使用
+    @Value("${rpc.load-balance:" + RoundRobinLoadBalancer.NAME + "}")
+    String defaultLoadBalance;
+
+    // 流式调用一次最多让服务端先发多少个元素，也就是客户端每个流最多缓存多少个元素
+    @Value("${rpc.stream.window:256}")
+    int streamWindow;
+
+    // 异步回调的线程数，0表示直接在Netty的EventLoop线程上解析结果、完成future，不额外切线程
+    @Value("${rpc.async-threads:0}")
+    int asyncThreads;
+
+    // 异步回调线程池，asyncThreads为0时为null
+    ExecutorService asyncExecutor;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (asyncThreads > 0) {
+            asyncExecutor = Executors.newFixedThreadPool(asyncThreads);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+    }
+
     /**
      * 根据一个类型来获取代理对象
      * 该代理对象生成以后，不管是UserController类用，还是其他类用，都不需要再次生成，代理对象只用生成1次，其他再用直接去缓存中拿。
@@ -44,43 +167,462 @@ public class ClientStub {
     没有实现接口的代理用cglib，有实现接口的代理用jdk
      */
     public Object getProxy(Class serviceInterfaceClass) {
-        Object proxy = SERVICE_PROXY.get(serviceInterfaceClass);
+        return getProxy(serviceInterfaceClass, new ReferenceConfig());
+    }
+
+    /**
+     * 根据一个类型和引用配置来获取代理对象
+     * @param serviceInterfaceClass
+     * @param referenceConfig 引用配置，没填的项用配置文件里的默认值
+     * @return
+     */
+    public synchronized Object getProxy(Class serviceInterfaceClass, ReferenceConfig referenceConfig) {
+        ReferenceConfig config = new ReferenceConfig();
+        config.setSerializer(isEmpty(referenceConfig.getSerializer()) ? defaultSerializer : referenceConfig.getSerializer());
+        config.setLoadBalance(isEmpty(referenceConfig.getLoadBalance()) ? defaultLoadBalance : referenceConfig.getLoadBalance());
+        config.setHashArgument(referenceConfig.getHashArgument());
+        config.setCompressor(isEmpty(referenceConfig.getCompressor()) ? defaultCompressor : referenceConfig.getCompressor());
+        config.setCompressLevel(referenceConfig.getCompressLevel() >= 0 ? referenceConfig.getCompressLevel() : defaultCompressLevel);
+        config.setTimeout(referenceConfig.getTimeout() >= 0 ? referenceConfig.getTimeout() : defaultTimeoutMillis);
+        // 名字写错了，在注入的时候就报错
+        Serializer serializer = SerializerFactory.getSerializer(config.getSerializer());
+        byte compressor = CompressorFactory.getType(config.getCompressor());
+        int compressLevel = config.getCompressLevel();
+        String proxyKey = serviceInterfaceClass.getName() + ":" + config;
+        Object proxy = SERVICE_PROXY.get(proxyKey);
         if (proxy == null) {
+            // 接口的方法是固定的，创建代理时就把每个方法的编号算好，调用时直接取
+            String serviceName = serviceInterfaceClass.getName();
+            // 每个代理一个负载均衡实例，轮询位置、哈希环这些状态是按服务引用分开的
+            LoadBalancer loadBalancer = LoadBalancerFactory.create(config.getLoadBalance());
+            loadBalancer.init(serviceName, config);
+            // 创建代理时就订阅服务，之后提供者列表在本地缓存里，调用时不用去查注册中心
+            serviceDiscovery.subscribe(serviceName);
+            // 方法编号、结果类型这些每次调用都一样，也在这里算好，调用时不再反射；标了@RpcCacheable的方法顺便建好结果缓存
+            Map<Method, RemoteMethod> remoteMethods = new HashMap<>();
+            for (Method method : serviceInterfaceClass.getMethods()) {
+                int methodId = MethodId.of(serviceName, method);
+                boolean mono = method.getReturnType() == Mono.class;
+                boolean async = mono || method.getReturnType() == CompletableFuture.class;
+                boolean streaming = StreamingMethod.isStreaming(method);
+                remoteMethods.put(method, new RemoteMethod(methodId, async, mono, streaming ? method.getReturnType() : null,
+                        async ? getFutureResultType(method)
+                                : streaming ? StreamingMethod.elementType(method) : method.getGenericReturnType(),
+                        defaultValue(method.getReturnType()),
+                        resultCacheManager.getOrCreate(methodId, serviceName, method),
+                        TimeUnit.MILLISECONDS.toNanos(timeoutMillis(method, config)),
+                        clientMetrics.register(methodId, serviceName, method.getName())));
+            }
             // 创建代理对象，这里用jdk的动态代理，
             // 需要类加载器、装接口的数组（服务端有接口的实现，客户端调用的就是接口）、提供一个invocationHandler
             proxy = Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class[]{serviceInterfaceClass}, new InvocationHandler() {
                 // 增强
                 @Override
                 public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    RemoteMethod remoteMethod = remoteMethods.get(method);
+                    // toString、hashCode、equals这些Object的方法不是远程方法，在本地处理
+                    if (remoteMethod == null) {
+                        return invokeObjectMethod(proxy, method, args, serviceName);
+                    }
+                    // Mono是冷的：订阅时才调用，每次订阅（retry、repeat）都重新调用一次；调用本身和CompletableFuture的异步调用一样
+                    if (remoteMethod.isMono()) {
+                        return Mono.defer(() -> {
+                            try {
+                                return Mono.fromFuture((CompletableFuture<?>) call(method, remoteMethod, args));
+                            } catch (Throwable e) {
+                                return Mono.error(e);
+                            }
+                        });
+                    }
+                    return call(method, remoteMethod, args);
+                }
+
+                private Object call(Method method, RemoteMethod remoteMethod, Object[] args) throws Throwable {
+                    // 流式方法单独处理：结果不进缓存，元素边收边交给调用方
+                    if (remoteMethod.isStreaming()) {
+                        return invokeStreaming(serviceName, loadBalancer, remoteMethod, args, serializer, compressor, compressLevel);
+                    }
+                    // 0、标了@RpcCacheable的方法先查本地缓存，命中就不走网络了
+                    ResultCache cache = remoteMethod.getCache();
+                    CacheKey cacheKey = null;
+                    long cacheVersion = 0;
+                    if (cache != null) {
+                        cacheKey = new CacheKey(args);
+                        Object cached = cache.get(cacheKey);
+                        if (cached != null) {
+                            return cachedResult(remoteMethod, detach(cache, cached, serializer, remoteMethod));
+                        }
+                        cacheVersion = cache.version();
+                    }
+                    // 调用次数、延迟从这里开始算，缓存命中的不算（缓存有自己的命中率指标）
+                    MethodMetrics metrics = remoteMethod.getMetrics();
+                    long metricsBeginNanos = metrics == null ? 0 : metrics.begin();
                     // 1、装请求对象，将RpcRequest对象封装到invoke里面，只要代理对象一生成，就会触发调用
-                    RpcRequest rpcRequest = new RpcRequest();
-                    rpcRequest.setRequestId(UUID.randomUUID().toString());
-                    rpcRequest.setClassName(method.getDeclaringClass().getName()); // 得到调用服务的名称
-                    rpcRequest.setMethodName(method.getName());
-                    rpcRequest.setParameterTypes(method.getParameterTypes());
-                    rpcRequest.setParameters(args);
-                    // 2、发送消息，要用RpcClient，注入
-                    try {
-                        Object responseMsg = nettyRpcClient.send(JSON.toJSONString(rpcRequest));
-                        // 3、 解析
-                        RpcResponse rpcResponse = JSON.parseObject(responseMsg.toString(), RpcResponse.class);
-                        if (rpcResponse.getError() != null) {
-                            throw new RuntimeException(rpcResponse.getError());
+                    // 只带方法编号和参数，不再带类名、方法名、参数类型这些字符串；
+                    // 请求对象从对象池里取，编码之后放回去，请求id由发送它的连接分配
+                    RpcRequest rpcRequest = newRequest(remoteMethod, args, serializer, compressor, compressLevel);
+                    // 被采样的调用在附件里带上traceId、spanId，服务端把它各阶段的耗时带回来，拼成这次调用的耗时分解
+                    TracedCall traced = callTracer.start(serviceName, method.getName(), rpcRequest);
+                    // 2、从本地缓存的提供者列表中按负载均衡策略选一个，发送消息，要用RpcClient，注入，发送本身不阻塞
+                    CompletableFuture<RpcResponse> responseFuture;
+                    List<ServiceInstance> instances = serviceDiscovery.getInstances(serviceName);
+                    if (instances.isEmpty()) {
+                        rpcRequest.recycle();
+                        responseFuture = new CompletableFuture<>();
+                        responseFuture.completeExceptionally(new IllegalStateException("没有可用的服务提供者：" + serviceName));
+                    } else {
+                        ServiceInstance instance = loadBalancer.select(instances, args);
+                        if (traced != null) {
+                            traced.setProvider(instance);
                         }
-                        if (rpcResponse.getResult() != null) {
-                            return JSON.parseObject(rpcResponse.getResult().toString(), method.getReturnType());
+                        // 自适应并发限制：这个提供者进行中的调用已经到了上限，短暂排队或者直接失败，不再往上压
+                        // 异步调用（CompletableFuture、Mono、RpcAsync）的调用线程可能是EventLoop、Reactor的线程，不能在这里排队，直接失败
+                        ConcurrencyLimiter limiter = concurrencyLimiterManager.get(instance);
+                        int acquired = limiter == null ? 0
+                                : acquire(limiter, remoteMethod.isAsync() || RpcAsync.isAsyncFlagSet());
+                        if (limiter != null && acquired == 0) {
+                            rpcRequest.recycle();
+                            responseFuture = new CompletableFuture<>();
+                            responseFuture.completeExceptionally(new RejectedExecutionException(
+                                    "客户端并发限制，提供者进行中的调用已达上限：" + limiter));
+                        } else {
+                            // 记录进行中的调用数和延迟，最少活跃、P2C这些策略要用
+                            InstanceStats stats = InstanceStats.of(instance);
+                            long beginNanos = stats.begin();
+                            // 统计要在解析响应之前做完（解析完响应对象就放回对象池了），所以用whenComplete返回的新future往下传
+                            responseFuture = nettyRpcClient.send(instance.getAddress(), rpcRequest).whenComplete((rpcResponse, cause) -> {
+                                stats.end(beginNanos, rpcResponse, cause);
+                                if (limiter != null) {
+                                    // 超时、连接断了、服务端过载，都说明这个提供者快扛不住了
+                                    boolean dropped = cause != null || rpcResponse.getStatus() == RpcProtocol.STATUS_OVERLOADED;
+                                    limiter.release(acquired, System.nanoTime() - beginNanos, dropped);
+                                }
+                            });
+                        }
+                    }
+                    if (metrics != null) {
+                        responseFuture = responseFuture.whenComplete((rpcResponse, cause) -> metrics.end(metricsBeginNanos, rpcResponse, cause));
+                    }
+                    if (traced != null) {
+                        responseFuture = responseFuture.whenComplete(traced::responded);
+                    }
+                    // 3、异步：返回值是CompletableFuture<T>，按T解析结果，直接把future交出去
+                    if (remoteMethod.isAsync()) {
+                        return cacheAsync(decodeAsync(responseFuture, serializer, remoteMethod, traced),
+                                cache, cacheKey, cacheVersion, serializer, remoteMethod);
+                    }
+                    // 同步接口异步调用：future放进线程变量，方法本身返回默认值
+                    if (RpcAsync.takeAsyncFlag()) {
+                        RpcAsync.setFuture(cacheAsync(decodeAsync(responseFuture, serializer, remoteMethod, traced),
+                                cache, cacheKey, cacheVersion, serializer, remoteMethod));
+                        return remoteMethod.getDefaultValue();
+                    }
+                    // 4、同步：等待响应再解析
+                    try {
+                        Object result = decode(responseFuture.get(), serializer, remoteMethod, traced);
+                        if (cache != null && result != null) {
+                            // 调用方拿到的这个对象可能被它修改，缓存里放一份副本
+                            cache.put(cacheKey, cacheVersion, detach(cache, result, serializer, remoteMethod));
                         }
-                        return null;
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        throw e;
+                        return result;
+                    } catch (ExecutionException e) {
+                        // future里包着的才是真正的异常；过载、超时在压力大时是常态，每次都打堆栈会把日志刷爆，只在debug级别记
+                        logger.debug("同步调用失败：{}.{}", serviceName, method.getName(), e.getCause());
+                        throw syncFailure(method, e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("等待响应时被中断：" + serviceName + "." + method.getName(), e);
                     }
                 }
             });
-            SERVICE_PROXY.put(serviceInterfaceClass, proxy);
+            SERVICE_PROXY.put(proxyKey, proxy);
             return proxy;
         } else {
             return proxy;
         }
     }
+
+    /**
+     * 同步调用失败时抛给调用方的异常：运行时异常和方法声明了的异常原样抛出；
+     * 超时（TimeoutException）、连接断开（IOException）是受检异常，接口方法一般不声明，原样抛出去JDK代理会包成
+     * UndeclaredThrowableException，调用方看不出是什么错误，所以换成RpcTimeoutException、UncheckedIOException
+     */
+    private static Throwable syncFailure(Method method, Throwable cause) {
+        if (cause instanceof RuntimeException || cause instanceof Error) {
+            return cause;
+        }
+        for (Class<?> exceptionType : method.getExceptionTypes()) {
+            if (exceptionType.isInstance(cause)) {
+                return cause;
+            }
+        }
+        if (cause instanceof TimeoutException) {
+            return new RpcTimeoutException(cause.getMessage(), cause);
+        }
+        if (cause instanceof IOException) {
+            return new UncheckedIOException(cause.getMessage(), (IOException) cause);
+        }
+        return new RuntimeException(cause.getMessage(), cause);
+    }
+
+    /**
+     * 从对象池里取一个请求对象，截止时间从这里开始算，建立连接、排队发送的时间都算在里面
+     */
+    private RpcRequest newRequest(RemoteMethod remoteMethod, Object[] args, Serializer serializer, byte compressor,
+                                  int compressLevel) {
+        RpcRequest rpcRequest = RpcRequest.newInstance();
+        rpcRequest.setSerializer(serializer.getType());
+        rpcRequest.setCompressor(compressor);
+        rpcRequest.setCompressLevel(compressLevel);
+        rpcRequest.setMethodId(remoteMethod.getMethodId());
+        rpcRequest.setParameters(args);
+        if (remoteMethod.getTimeoutNanos() > 0) {
+            rpcRequest.setDeadlineNanos(System.nanoTime() + remoteMethod.getTimeoutNanos());
+        }
+        return rpcRequest;
+    }
+
+    /**
+     * 流式调用：Iterator、Stream发出请求就返回，元素在后台按额度收进ClientStream，调用方迭代时才等；
+     * Flux在订阅时才发请求，订阅者要多少就给服务端多少额度
+     * 超时时间是等第一个元素、之后每等一个元素的最长时间，不是整个流的时间，导出几百万条数据不会因为总时间长而失败
+     * 一个流会占着提供者很久，不参与并发限制和最少活跃、P2C的延迟统计，否则会把提供者误判成很慢；调用耗时分解也不采样
+     */
+    private Object invokeStreaming(String serviceName, LoadBalancer loadBalancer, RemoteMethod remoteMethod, Object[] args,
+                                   Serializer serializer, byte compressor, int compressLevel) {
+        Object result;
+        if (remoteMethod.getStreamType() == Flux.class) {
+            // 每次订阅都是一次新的调用；订阅者一个一个地request（Spring MVC写流就是这样）时，每个元素都要等一次额度的来回，
+            // 所以用limitRate预取一个窗口，服务端看到的是一批一批的额度，客户端最多缓存一个窗口，和Iterator的方式一样
+            result = Flux.create(sink -> openStream(serviceName, loadBalancer, remoteMethod, args, serializer, compressor,
+                    compressLevel, new FluxStream(serializer, remoteMethod.getResultType(), sink)))
+                    .limitRate(streamWindow);
+        } else {
+            ClientStream stream = new ClientStream(serializer, remoteMethod.getResultType(), streamWindow,
+                    remoteMethod.getTimeoutNanos());
+            openStream(serviceName, loadBalancer, remoteMethod, args, serializer, compressor, compressLevel, stream);
+            result = remoteMethod.getStreamType() == Stream.class ? stream.toStream() : stream;
+        }
+        if (RpcAsync.takeAsyncFlag()) {
+            RpcAsync.setFuture(CompletableFuture.completedFuture(result));
+            return remoteMethod.getDefaultValue();
+        }
+        return result;
+    }
+
+    /**
+     * 选一个提供者发出流式调用的请求，元素和结束的响应交给stream
+     */
+    private void openStream(String serviceName, LoadBalancer loadBalancer, RemoteMethod remoteMethod, Object[] args,
+                            Serializer serializer, byte compressor, int compressLevel, StreamReceiver stream) {
+        MethodMetrics metrics = remoteMethod.getMetrics();
+        long metricsBeginNanos = metrics == null ? 0 : metrics.begin();
+        RpcRequest rpcRequest = newRequest(remoteMethod, args, serializer, compressor, compressLevel);
+        CompletableFuture<RpcResponse> responseFuture;
+        List<ServiceInstance> instances = serviceDiscovery.getInstances(serviceName);
+        if (instances.isEmpty()) {
+            rpcRequest.recycle();
+            responseFuture = new CompletableFuture<>();
+            responseFuture.completeExceptionally(new IllegalStateException("没有可用的服务提供者：" + serviceName));
+        } else {
+            ServiceInstance instance = loadBalancer.select(instances, args);
+            responseFuture = nettyRpcClient.openStream(instance.getAddress(), rpcRequest, stream);
+        }
+        if (metrics != null) {
+            // 延迟是整个流的时间，从发请求到最后一个元素
+            responseFuture = responseFuture.whenComplete((rpcResponse, cause) -> metrics.end(metricsBeginNanos, rpcResponse, cause));
+        }
+        responseFuture.whenComplete(stream::complete);
+    }
+
+    /**
+     * 申请并发名额，被中断按没拿到处理
+     * @param async 异步调用不等，没有名额马上失败；同步调用本来就要阻塞等响应，最多排队max-wait-millis
+     */
+    private int acquire(ConcurrencyLimiter limiter, boolean async) {
+        if (async) {
+            return limiter.tryAcquire();
+        }
+        try {
+            return limiter.acquire(concurrencyLimiterManager.getMaxWaitNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    private boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args, String serviceName) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "RpcProxy(" + serviceName + ")";
+            default:
+                throw new UnsupportedOperationException(method.toString());
+        }
+    }
+
+    /**
+     * 方法上的@RpcTimeout优先，没有就用引用的配置
+     */
+    private long timeoutMillis(Method method, ReferenceConfig config) {
+        RpcTimeout rpcTimeout = method.getAnnotation(RpcTimeout.class);
+        return rpcTimeout != null ? rpcTimeout.value() : config.getTimeout();
+    }
+
+    /**
+     * 缓存和调用方不共用同一个结果对象：放进缓存时、命中时都用这个引用的序列化方式复制一份，
+     * 调用方修改拿到的对象不会改到缓存里的那份，也不会影响别的调用方；
+     * 不可变的结果、标了copyOnHit = false的方法不复制，缓存和调用方拿的是同一个对象
+     */
+    private static Object detach(ResultCache cache, Object value, Serializer serializer, RemoteMethod remoteMethod) {
+        if (!cache.isCopyOnHit() || IMMUTABLE_TYPES.contains(value.getClass()) || value.getClass().isEnum()) {
+            return value;
+        }
+        return serializer.deserialize(serializer.serialize(value), remoteMethod.getResultType());
+    }
+
+    /**
+     * 缓存命中时，按调用方式返回结果：异步的包成已完成的future
+     */
+    private Object cachedResult(RemoteMethod remoteMethod, Object cached) {
+        if (remoteMethod.isAsync()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (RpcAsync.takeAsyncFlag()) {
+            RpcAsync.setFuture(CompletableFuture.completedFuture(cached));
+            return remoteMethod.getDefaultValue();
+        }
+        return cached;
+    }
+
+    /**
+     * 异步调用成功后把结果的副本放进缓存，future里的结果交给调用方
+     */
+    private CompletableFuture<Object> cacheAsync(CompletableFuture<Object> resultFuture, ResultCache cache,
+                                                 CacheKey cacheKey, long cacheVersion, Serializer serializer,
+                                                 RemoteMethod remoteMethod) {
+        if (cache != null) {
+            resultFuture.thenAccept(result -> {
+                if (result != null) {
+                    cache.put(cacheKey, cacheVersion, detach(cache, result, serializer, remoteMethod));
+                }
+            });
+        }
+        return resultFuture;
+    }
+
+    /**
+     * 解析响应：有错误就抛出，否则按返回值类型把结果解出来，解完响应对象放回对象池
+     * @param traced 被采样的调用，解完算出耗时分解；没有采样为null
+     */
+    private Object decode(RpcResponse rpcResponse, Serializer serializer, RemoteMethod remoteMethod, TracedCall traced) {
+        long decodeNanos = 0;
+        try {
+            if (rpcResponse.getError() != null) {
+                // 服务端过载是一种单独的错误，请求根本没有被处理，调用方可以换个提供者重试或者降级
+                if (rpcResponse.getStatus() == RpcProtocol.STATUS_OVERLOADED) {
+                    throw new RejectedExecutionException(rpcResponse.getError());
+                }
+                throw new RuntimeException(rpcResponse.getError());
+            }
+            if (rpcResponse.getData() != null) {
+                // 结果只解一次，直接从收到的数据上解成方法的泛型返回值类型，List<User>这种也不会丢类型
+                MethodMetrics metrics = remoteMethod.getMetrics();
+                if (metrics == null && traced == null) {
+                    return serializer.deserialize(rpcResponse.getData(), remoteMethod.getResultType());
+                }
+                long beginNanos = System.nanoTime();
+                Object result = serializer.deserialize(rpcResponse.getData(), remoteMethod.getResultType());
+                decodeNanos = System.nanoTime() - beginNanos;
+                if (metrics != null) {
+                    metrics.decoded(decodeNanos);
+                }
+                return result;
+            }
+            return null;
+        } finally {
+            rpcResponse.recycle();
+            if (traced != null) {
+                traced.finish(decodeNanos);
+            }
+        }
+    }
+
+    /**
+     * 异步解析：不占用任何线程等待，响应回来时在EventLoop线程（或者配置的回调线程池）上解析并完成future
+     */
+    private CompletableFuture<Object> decodeAsync(CompletableFuture<RpcResponse> responseFuture, Serializer serializer,
+                                                  RemoteMethod remoteMethod, TracedCall traced) {
+        CompletableFuture<Object> resultFuture = new CompletableFuture<>();
+        responseFuture.whenComplete((rpcResponse, cause) -> {
+            if (asyncExecutor == null) {
+                completeResult(resultFuture, rpcResponse, cause, serializer, remoteMethod, traced);
+            } else {
+                asyncExecutor.execute(() -> completeResult(resultFuture, rpcResponse, cause, serializer, remoteMethod, traced));
+            }
+        });
+        return resultFuture;
+    }
+
+    private void completeResult(CompletableFuture<Object> resultFuture, RpcResponse rpcResponse, Throwable cause,
+                                Serializer serializer, RemoteMethod remoteMethod, TracedCall traced) {
+        if (cause != null) {
+            resultFuture.completeExceptionally(cause instanceof CompletionException ? cause.getCause() : cause);
+            return;
+        }
+        try {
+            resultFuture.complete(decode(rpcResponse, serializer, remoteMethod, traced));
+        } catch (Throwable e) {
+            resultFuture.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * CompletableFuture<User>、Mono<User> -> User
+     */
+    private Type getFutureResultType(Method method) {
+        Type genericReturnType = method.getGenericReturnType();
+        if (genericReturnType instanceof ParameterizedType) {
+            return ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
+        }
+        return Object.class;
+    }
+
+    /**
+     * 同步接口异步调用时，方法本身的返回值，基本类型不能返回null
+     */
+    private Object defaultValue(Class<?> returnType) {
+        if (!returnType.isPrimitive() || returnType == void.class) {
+            return null;
+        }
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == char.class) {
+            return '\0';
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType == float.class) {
+            return 0F;
+        }
+        if (returnType == double.class) {
+            return 0D;
+        }
+        if (returnType == byte.class) {
+            return (byte) 0;
+        }
+        if (returnType == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
 }
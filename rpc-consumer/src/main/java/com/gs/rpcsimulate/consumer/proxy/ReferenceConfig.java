@@ -0,0 +1,41 @@
+package com.gs.rpcsimulate.consumer.proxy;
+
+import com.gs.rpcsimulate.consumer.anno.RpcClientProxyReference;
+import lombok.Data;
+
+/**
+ * 一个服务引用的配置，来自@RpcClientProxyReference，没填的项由ClientStub用配置文件里的默认值补上
+ * 同一个接口配置不同就是不同的代理对象，所以它也是代理缓存的key，要有equals和hashCode（@Data生成）
+ */
+@Data
+public class ReferenceConfig {
+
+    // 序列化方式的名字，例如 json、kryo
+    private String serializer;
+
+    // 负载均衡策略的名字，例如 round-robin、least-active、consistent-hash、p2c-ewma
+    private String loadBalance;
+
+    // 一致性哈希按第几个参数（从0开始）计算哈希
+    private int hashArgument;
+
+    // 压缩方式的名字，例如 none、lz4、snappy
+    private String compressor;
+
+    // 压缩级别，-1表示用默认值
+    private int compressLevel = -1;
+
+    // 调用超时时间，毫秒，0表示不限时，-1表示用默认值
+    private long timeout = -1;
+
+    public static ReferenceConfig from(RpcClientProxyReference annotation) {
+        ReferenceConfig config = new ReferenceConfig();
+        config.setSerializer(annotation.serializer());
+        config.setLoadBalance(annotation.loadBalance());
+        config.setHashArgument(annotation.hashArgument());
+        config.setCompressor(annotation.compressor());
+        config.setCompressLevel(annotation.compressLevel());
+        config.setTimeout(annotation.timeout());
+        return config;
+    }
+}
@@ -0,0 +1,85 @@
+package com.gs.rpcsimulate.consumer.proxy;
+
+import com.gs.rpcsimulate.consumer.cache.ResultCache;
+import com.gs.rpcsimulate.consumer.metrics.MethodMetrics;
+
+import java.lang.reflect.Type;
+
+/**
+ * 一个远程方法在客户端的元数据，创建代理时算好，调用时直接取
+ * 反射拿方法的返回值类型、参数类型每次都会拷贝数组、解析泛型，放在这里只做一次
+ */
+public class RemoteMethod {
+
+    // 方法编号，见MethodId
+    private final int methodId;
+    // 返回值是不是CompletableFuture或者Mono，是的话就走异步调用
+    private final boolean async;
+    // 返回值是不是Mono，是的话订阅时才调用，调用结果再包成Mono
+    private final boolean mono;
+    // 流式方法的返回值类型，Iterator、Stream或者Flux，不是流式方法为null
+    private final Class<?> streamType;
+    // 结果要解成的类型：同步方法是泛型返回值类型，异步方法是CompletableFuture<T>、Mono<T>里的T，流式方法是每个元素的类型
+    private final Type resultType;
+    // 同步接口异步调用时方法本身的返回值，基本类型不能返回null
+    private final Object defaultValue;
+    // 方法标了@RpcCacheable时的结果缓存，没标为null
+    private final ResultCache cache;
+    // 调用超时时间，纳秒，0表示不限时
+    private final long timeoutNanos;
+    // 调用次数、延迟、流量这些指标，没有开启时为null
+    private final MethodMetrics metrics;
+
+    public RemoteMethod(int methodId, boolean async, boolean mono, Class<?> streamType, Type resultType,
+                        Object defaultValue, ResultCache cache, long timeoutNanos, MethodMetrics metrics) {
+        this.methodId = methodId;
+        this.async = async;
+        this.mono = mono;
+        this.streamType = streamType;
+        this.resultType = resultType;
+        this.defaultValue = defaultValue;
+        this.cache = cache;
+        this.timeoutNanos = timeoutNanos;
+        this.metrics = metrics;
+    }
+
+    public int getMethodId() {
+        return methodId;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public boolean isMono() {
+        return mono;
+    }
+
+    public boolean isStreaming() {
+        return streamType != null;
+    }
+
+    public Class<?> getStreamType() {
+        return streamType;
+    }
+
+    public Type getResultType() {
+        return resultType;
+    }
+
+    public Object getDefaultValue() {
+        return defaultValue;
+    }
+
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public MethodMetrics getMetrics() {
+        return metrics;
+    }
+}
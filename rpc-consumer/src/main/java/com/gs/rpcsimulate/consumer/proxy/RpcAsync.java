@@ -0,0 +1,73 @@
+package com.gs.rpcsimulate.consumer.proxy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 把已有的同步接口当成异步来调用，接口不用改：
+ * <pre>
+ * CompletableFuture&lt;User&gt; future = RpcAsync.call(() -&gt; userService.getById(1));
+ * </pre>
+ * 原理：调用前在当前线程打一个标记，代理看到标记就不等响应，把future放回线程变量里，
+ * 方法本身返回一个默认值（null或者0），再由这里把future取出来交给调用方。
+ * 注意：lambda里只能有一次远程调用
+ */
+public final class RpcAsync {
+
+    private static final ThreadLocal<Boolean> ASYNC_FLAG = new ThreadLocal<>();
+    private static final ThreadLocal<CompletableFuture<?>> FUTURE = new ThreadLocal<>();
+
+    private RpcAsync() {
+    }
+
+    /**
+     * 异步调用一个有返回值的远程方法
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> call(Supplier<T> syncCall) {
+        ASYNC_FLAG.set(Boolean.TRUE);
+        try {
+            syncCall.get();
+            CompletableFuture<?> future = FUTURE.get();
+            if (future == null) {
+                throw new IllegalStateException("RpcAsync.call里没有发生远程调用");
+            }
+            return (CompletableFuture<T>) future;
+        } finally {
+            ASYNC_FLAG.remove();
+            FUTURE.remove();
+        }
+    }
+
+    /**
+     * 异步调用一个没有返回值的远程方法
+     */
+    public static CompletableFuture<Void> run(Runnable syncCall) {
+        return call(() -> {
+            syncCall.run();
+            return null;
+        }).thenApply(result -> null);
+    }
+
+    /**
+     * 代理判断当前调用是否要走异步，判断完就把标记清掉，保证lambda里只有第一次调用是异步的
+     */
+    static boolean takeAsyncFlag() {
+        if (ASYNC_FLAG.get() == null) {
+            return false;
+        }
+        ASYNC_FLAG.remove();
+        return true;
+    }
+
+    /**
+     * 只看不清：当前调用是不是要走异步，这时候调用线程不能阻塞
+     */
+    static boolean isAsyncFlagSet() {
+        return ASYNC_FLAG.get() != null;
+    }
+
+    static void setFuture(CompletableFuture<?> future) {
+        FUTURE.set(future);
+    }
+}
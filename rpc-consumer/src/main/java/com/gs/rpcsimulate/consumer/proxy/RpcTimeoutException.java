@@ -0,0 +1,13 @@
+package com.gs.rpcsimulate.consumer.proxy;
+
+/**
+ * 同步调用超时抛给调用方的异常
+ * 时间轮让future失败用的是TimeoutException，它是受检异常，接口方法一般不声明，
+ * 原样抛出去JDK代理会把它包成UndeclaredThrowableException，调用方看不出是超时，所以换成这个非受检异常，原来的异常是cause
+ */
+public class RpcTimeoutException extends RuntimeException {
+
+    public RpcTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,252 @@
+package com.gs.rpcsimulate.consumer.stream;
+
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.consumer.handler.NettyRpcClientHandler;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.serializer.Serializer;
+
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 客户端的一个流式调用，交给调用方的就是它（或者包着它的Stream）
+ * 1 发请求时先给服务端window个额度，服务端最多先发这么多个元素过来，收到的元素在IO线程上解好放进缓冲区
+ * 2 调用方每取走一半窗口的元素，再给服务端补上这么多额度；调用方不取，服务端就停在那里，缓冲区最多window个元素
+ * 3 服务端发完了回一个普通的响应，正常结束或者带着错误结束，调用方取到这里就结束了
+ * 4 调用方没取完就不要了，close（Stream的close、try-with-resources）给服务端发取消，服务端停止取元素、关掉它那边的资源
+ * 迭代只能在一个线程上进行，和普通的Iterator一样
+ */
+public class ClientStream implements StreamReceiver, Iterator<Object>, AutoCloseable {
+
+    // 缓冲区里的元素是null时放这个，BlockingQueue不能放null
+    private static final Object NULL = new Object();
+    // 正常结束
+    private static final Object END = new Object();
+    // 还没有取下一个元素
+    private static final Object NONE = new Object();
+
+    private final Serializer serializer;
+    private final Type elementType;
+    private final int window;
+    // 等下一个元素最多等多久，纳秒，0表示一直等
+    private final long idleTimeoutNanos;
+
+    // 收到的元素、结束标记，服务端不会发超过额度的元素，所以最多window个元素再加一个结束标记
+    private final BlockingQueue<Object> buffer;
+    // 给了服务端但服务端还没用掉的额度，IO线程收到元素时减，调用方补额度时加
+    private final AtomicInteger credits;
+
+    // 发请求的连接分配了请求id之后设置，取消、补额度时用
+    private NettyRpcClientHandler handler;
+    private long requestId;
+    private boolean closed;
+
+    // 以下只在迭代的线程上用
+    private Object next = NONE;
+    private boolean done;
+    // 取走了还没补额度的元素个数
+    private int consumed;
+
+    /**
+     * @param window           一次最多让服务端先发多少个元素
+     * @param idleTimeoutNanos 等下一个元素最多等多久，纳秒，0表示一直等
+     */
+    public ClientStream(Serializer serializer, Type elementType, int window, long idleTimeoutNanos) {
+        this.serializer = serializer;
+        this.elementType = elementType;
+        this.window = Math.max(1, window);
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.buffer = new LinkedBlockingQueue<>();
+        this.credits = new AtomicInteger(this.window);
+    }
+
+    @Override
+    public synchronized boolean attach(NettyRpcClientHandler handler, long requestId) {
+        if (closed) {
+            return false;
+        }
+        this.handler = handler;
+        this.requestId = requestId;
+        return true;
+    }
+
+    /**
+     * 先给服务端一个窗口的额度，之后调用方取走了再补
+     */
+    @Override
+    public int open() {
+        return window;
+    }
+
+    @Override
+    public byte getSerializerType() {
+        return serializer.getType();
+    }
+
+    /**
+     * 元素在IO线程上就解好，缓冲区里放的都是普通对象，调用方不取也不会漏掉ByteBuf
+     */
+    @Override
+    public void onData(StreamFrame frame) {
+        if (credits.decrementAndGet() < 0) {
+            // 服务端不按额度发，再收下去内存就没有上限了
+            fail(new IllegalStateException("服务端发送的元素超过了额度，requestId=" + frame.getRequestId()));
+            return;
+        }
+        Object element;
+        try {
+            element = frame.getData() == null ? null : serializer.deserialize(frame.getData(), elementType);
+        } catch (Throwable e) {
+            fail(new RuntimeException("流式调用的元素解析失败", e));
+            return;
+        }
+        buffer.offer(element == null ? NULL : element);
+    }
+
+    @Override
+    public void complete(RpcResponse rpcResponse, Throwable cause) {
+        if (cause != null) {
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            buffer.offer(cause instanceof RuntimeException ? cause : new RuntimeException(cause));
+            return;
+        }
+        try {
+            if (rpcResponse.getError() == null) {
+                buffer.offer(END);
+            } else if (rpcResponse.getStatus() == RpcProtocol.STATUS_OVERLOADED) {
+                // 和普通调用一样，服务端过载是一种单独的错误
+                buffer.offer(new RejectedExecutionException(rpcResponse.getError()));
+            } else {
+                buffer.offer(new RuntimeException(rpcResponse.getError()));
+            }
+        } finally {
+            rpcResponse.recycle();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != NONE) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
+        Object item;
+        try {
+            item = idleTimeoutNanos > 0 ? buffer.poll(idleTimeoutNanos, TimeUnit.NANOSECONDS) : buffer.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException("等待流式调用的下一个元素时被中断", e);
+        }
+        if (item == null) {
+            close();
+            throw new RuntimeException("流式调用超时，" + TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) + "ms没有收到下一个元素");
+        }
+        if (item == END) {
+            done = true;
+            return false;
+        }
+        if (item instanceof RuntimeException) {
+            done = true;
+            throw (RuntimeException) item;
+        }
+        next = item;
+        replenish();
+        return true;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object element = next;
+        next = NONE;
+        return element == NULL ? null : element;
+    }
+
+    /**
+     * 每取走半个窗口的元素补一次额度，不用每个元素都发一帧
+     */
+    private void replenish() {
+        if (++consumed < Math.max(1, window / 2)) {
+            return;
+        }
+        int n = consumed;
+        consumed = 0;
+        NettyRpcClientHandler handler;
+        long requestId;
+        synchronized (this) {
+            if (closed || this.handler == null) {
+                return;
+            }
+            handler = this.handler;
+            requestId = this.requestId;
+        }
+        credits.addAndGet(n);
+        handler.sendCredit(requestId, serializer.getType(), n);
+    }
+
+    /**
+     * 没取完就不要了，通知服务端停下来；已经结束了的话什么都不做，可以重复调用
+     */
+    @Override
+    public void close() {
+        NettyRpcClientHandler handler;
+        long requestId;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            handler = this.handler;
+            requestId = this.requestId;
+        }
+        done = true;
+        next = NONE;
+        if (handler != null) {
+            handler.cancelStream(requestId, serializer.getType());
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 出错了，取消服务端那边，调用方取到这里时抛出
+     */
+    private void fail(RuntimeException error) {
+        NettyRpcClientHandler handler;
+        long requestId;
+        synchronized (this) {
+            handler = this.handler;
+            requestId = this.requestId;
+        }
+        buffer.offer(error);
+        if (handler != null) {
+            handler.cancelStream(requestId, serializer.getType());
+        }
+    }
+
+    /**
+     * 包成java.util.stream.Stream，Stream的close会取消这个流式调用
+     */
+    public Stream<Object> toStream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                .onClose(this::close);
+    }
+}
@@ -0,0 +1,159 @@
+package com.gs.rpcsimulate.consumer.stream;
+
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.consumer.handler.NettyRpcClientHandler;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.serializer.Serializer;
+import reactor.core.publisher.FluxSink;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 返回值是Flux的流式调用，每次订阅一个
+ * 背压直接映射到额度：订阅者request(n)，就给服务端n个额度，服务端最多再发n个元素过来，
+ * 订阅者不request，服务端就停下来，中间不需要缓冲区；订阅者取消，给服务端发取消
+ * 元素在IO线程上解好直接交给订阅者，整个过程不阻塞任何线程
+ */
+public class FluxStream implements StreamReceiver {
+
+    private final Serializer serializer;
+    private final Type elementType;
+    private final FluxSink<Object> sink;
+
+    private NettyRpcClientHandler handler;
+    private long requestId;
+    // 请求交给连接之前订阅者要的个数，先攒着，由连接紧跟着请求发出去
+    private long pendingCredits;
+    private boolean opened;
+    private boolean cancelled;
+
+    public FluxStream(Serializer serializer, Type elementType, FluxSink<Object> sink) {
+        this.serializer = serializer;
+        this.elementType = elementType;
+        this.sink = sink;
+        // 注册时会马上把订阅之后已经request的个数交给onRequest，之后每次request再调用
+        sink.onRequest(this::request);
+        sink.onCancel(this::cancel);
+    }
+
+    @Override
+    public synchronized boolean attach(NettyRpcClientHandler handler, long requestId) {
+        if (cancelled) {
+            return false;
+        }
+        this.handler = handler;
+        this.requestId = requestId;
+        return true;
+    }
+
+    @Override
+    public synchronized int open() {
+        opened = true;
+        int credits = toInt(pendingCredits);
+        pendingCredits = 0;
+        return credits;
+    }
+
+    @Override
+    public byte getSerializerType() {
+        return serializer.getType();
+    }
+
+    /**
+     * 订阅者要n个元素，换成给服务端的额度
+     */
+    private void request(long n) {
+        NettyRpcClientHandler handler;
+        long requestId;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            if (!opened) {
+                // 额度不能比请求先到服务端，否则服务端还找不到这个流
+                pendingCredits = pendingCredits + n < 0 ? Long.MAX_VALUE : pendingCredits + n;
+                return;
+            }
+            handler = this.handler;
+            requestId = this.requestId;
+        }
+        handler.sendCredit(requestId, serializer.getType(), toInt(n));
+    }
+
+    /**
+     * 订阅者取消了（take(n)取够了、WebFlux的请求断开了）
+     */
+    private void cancel() {
+        NettyRpcClientHandler handler;
+        long requestId;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            handler = this.handler;
+            requestId = this.requestId;
+        }
+        if (handler != null) {
+            handler.cancelStream(requestId, serializer.getType());
+        }
+    }
+
+    private synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Flux.request是long，Long.MAX_VALUE表示不限；协议里的额度是int，不限就给int的最大值，服务端那边会累加
+     */
+    private int toInt(long n) {
+        return (int) Math.min(n, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void onData(StreamFrame frame) {
+        Object element;
+        try {
+            element = frame.getData() == null ? null : serializer.deserialize(frame.getData(), elementType);
+        } catch (Throwable e) {
+            sink.error(new RuntimeException("流式调用的元素解析失败", e));
+            cancel();
+            return;
+        }
+        if (element == null) {
+            // Reactive Streams里不能有null元素，跳过它，额度还给服务端，订阅者要的个数才对得上
+            request(1);
+            return;
+        }
+        sink.next(element);
+    }
+
+    @Override
+    public void complete(RpcResponse rpcResponse, Throwable cause) {
+        if (isCancelled()) {
+            // 订阅者已经不要了，再发信号Reactor会当成丢掉的错误打日志
+            if (rpcResponse != null) {
+                rpcResponse.recycle();
+            }
+            return;
+        }
+        if (cause != null) {
+            sink.error(cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause);
+            return;
+        }
+        try {
+            if (rpcResponse.getError() == null) {
+                sink.complete();
+            } else if (rpcResponse.getStatus() == RpcProtocol.STATUS_OVERLOADED) {
+                sink.error(new RejectedExecutionException(rpcResponse.getError()));
+            } else {
+                sink.error(new RuntimeException(rpcResponse.getError()));
+            }
+        } finally {
+            rpcResponse.recycle();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.gs.rpcsimulate.consumer.stream;
+
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.consumer.handler.NettyRpcClientHandler;
+
+/**
+ * 流式调用在客户端的接收方，连接按requestId把元素和结束的响应交给它
+ * 1 ClientStream：阻塞的Iterator/Stream，调用方取走元素后补额度
+ * 2 FluxStream：Flux，订阅者request(n)多少就给服务端多少额度
+ */
+public interface StreamReceiver {
+
+    /**
+     * 请求要从某个连接发出去了，记下连接和请求id，之后补额度、取消都发到这个连接上
+     * @return 调用方已经不要了（取消了）就不用发了，返回false
+     */
+    boolean attach(NettyRpcClientHandler handler, long requestId);
+
+    /**
+     * 请求已经交给连接了，之后的额度可以直接发；在这之前攒下的额度由连接紧跟着请求发出去
+     * @return 紧跟着请求发给服务端的额度，0表示先不给
+     */
+    int open();
+
+    byte getSerializerType();
+
+    /**
+     * 收到一个元素，在IO线程上调用，调用完frame就放回对象池了
+     */
+    void onData(StreamFrame frame);
+
+    /**
+     * 服务端回了结束的响应，或者调用失败了（连接断开、第一个元素之前就超时、被取消），只调用一次
+     * 之前的元素都已经交过来了：元素和响应是同一个连接上按顺序收到的
+     */
+    void complete(RpcResponse rpcResponse, Throwable cause);
+}
@@ -0,0 +1,36 @@
+package com.gs.rpcsimulate.consumer.trace;
+
+import lombok.Data;
+
+/**
+ * 一次被采样的调用的耗时分解，单位都是微秒：
+ * total = clientSend + network + serverQueue + serverDecode + serverExecute + serverEncode + clientReceive
+ * clientSend：从发起调用到请求写完，包括选提供者、并发限制排队、写队列等待、序列化（clientEncode）
+ * network：请求写完到响应解码出来的时间，减去服务端的4段，剩下的就是网络、对端IO线程和解码帧的时间
+ * clientReceive：响应解码出来之后到结果解析完，包括切换到调用线程、解析结果（clientDecode）
+ * 调用失败（超时、连接断了）时，拿不到的阶段为0
+ */
+@Data
+public class CallTrace {
+    private String service;
+    private String method;
+    private String provider;
+    private String traceId;
+    private String spanId;
+    private String parentSpanId;
+    // 发起调用的时间，毫秒时间戳
+    private long startTime;
+    // success、error、timeout、overloaded、rejected
+    private String outcome;
+
+    private long totalMicros;
+    private long clientSendMicros;
+    private long clientEncodeMicros;
+    private long networkMicros;
+    private long serverQueueMicros;
+    private long serverDecodeMicros;
+    private long serverExecuteMicros;
+    private long serverEncodeMicros;
+    private long clientReceiveMicros;
+    private long clientDecodeMicros;
+}
@@ -0,0 +1,30 @@
+package com.gs.rpcsimulate.consumer.trace;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * GET /actuator/rpctrace 查看被采样的调用里最慢的那些和它们的耗时分解，DELETE 清空重新开始记
+ */
+@Component
+@Endpoint(id = "rpctrace")
+public class CallTraceEndpoint {
+
+    @Autowired
+    CallTracer callTracer;
+
+    @ReadOperation
+    public List<CallTrace> slowest() {
+        return callTracer.getSlowest();
+    }
+
+    @DeleteOperation
+    public void clear() {
+        callTracer.clear();
+    }
+}
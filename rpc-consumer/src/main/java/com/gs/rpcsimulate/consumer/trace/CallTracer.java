@@ -0,0 +1,99 @@
+package com.gs.rpcsimulate.consumer.trace;
+
+import com.gs.rpcsimulate.common.CallTiming;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.TraceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 按采样率挑出一部分调用，在请求的附件里带上traceId、spanId，让服务端在响应里带回它在各个阶段花的时间，
+ * 和客户端自己的发送、接收时间拼成一次调用的耗时分解（见CallTrace）
+ * 结果有两个去处：比rpc.trace.log-slower-than-millis慢的打印出来；最慢的rpc.trace.slowest个留在内存里，
+ * 通过 /actuator/rpctrace 查看
+ * 没被采样的调用请求里不带附件和时间，协议头和平时一样，调用路径上只多了一次随机数
+ */
+@Component
+public class CallTracer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallTracer.class);
+
+    // 采样率，0~1，0表示只跟踪上游已经在跟踪的调用链
+    @Value("${rpc.trace.sample-rate:0.01}")
+    double sampleRate;
+
+    // 内存里留多少个最慢的调用
+    @Value("${rpc.trace.slowest:100}")
+    int slowest;
+
+    // 比这个慢的调用打印出来，0表示不打印
+    @Value("${rpc.trace.log-slower-than-millis:1000}")
+    long logSlowerThanMillis;
+
+    // 按总耗时从小到大的堆，满了之后新来的比堆顶慢才替换堆顶
+    private final PriorityQueue<CallTrace> slowestCalls = new PriorityQueue<>(Comparator.comparingLong(CallTrace::getTotalMicros));
+
+    /**
+     * 发起调用时决定要不要跟踪：当前线程在处理一条被跟踪的调用链（服务里再调别的服务）时一定跟踪，否则按采样率
+     * 要跟踪的话把上下文写进请求的附件，并让编码器记下编码耗时和写完的时间
+     * @return 不跟踪时返回null
+     */
+    public TracedCall start(String serviceName, String methodName, RpcRequest rpcRequest) {
+        TraceContext current = TraceContext.current();
+        TraceContext context;
+        if (current != null) {
+            context = current.newChild();
+        } else if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            context = TraceContext.newTrace();
+        } else {
+            return null;
+        }
+        CallTiming timing = new CallTiming();
+        rpcRequest.setAttachments(context.toAttachments());
+        rpcRequest.setTiming(timing);
+        return new TracedCall(this, serviceName, methodName, context, timing);
+    }
+
+    void record(CallTrace trace) {
+        if (logSlowerThanMillis > 0 && trace.getTotalMicros() >= logSlowerThanMillis * 1000) {
+            logger.warn("RPC慢调用：{}", trace);
+        }
+        if (slowest <= 0) {
+            return;
+        }
+        synchronized (slowestCalls) {
+            if (slowestCalls.size() < slowest) {
+                slowestCalls.add(trace);
+            } else if (trace.getTotalMicros() > slowestCalls.peek().getTotalMicros()) {
+                slowestCalls.poll();
+                slowestCalls.add(trace);
+            }
+        }
+    }
+
+    /**
+     * @return 目前最慢的那些调用，从慢到快
+     */
+    public List<CallTrace> getSlowest() {
+        List<CallTrace> list;
+        synchronized (slowestCalls) {
+            list = new ArrayList<>(slowestCalls);
+        }
+        list.sort(Comparator.comparingLong(CallTrace::getTotalMicros).reversed());
+        return list;
+    }
+
+    public void clear() {
+        synchronized (slowestCalls) {
+            slowestCalls.clear();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.gs.rpcsimulate.consumer.trace;
+
+import com.gs.rpcsimulate.common.CallTiming;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.TraceContext;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 一次正在进行中的被采样的调用，ClientStub在各个时间点调用它，结束时算出耗时分解交给CallTracer
+ * 请求对象编码之后就被回收了，所以编码器记下的时间放在单独的CallTiming对象里，这里一直拿着
+ */
+public class TracedCall {
+
+    private final CallTracer tracer;
+    private final String serviceName;
+    private final String methodName;
+    private final TraceContext context;
+    private final CallTiming timing;
+    private final long startTime = System.currentTimeMillis();
+    private final long beginNanos = System.nanoTime();
+
+    private volatile ServiceInstance provider;
+    private volatile CallTiming responseTiming;
+    private volatile String outcome;
+
+    TracedCall(CallTracer tracer, String serviceName, String methodName, TraceContext context, CallTiming timing) {
+        this.tracer = tracer;
+        this.serviceName = serviceName;
+        this.methodName = methodName;
+        this.context = context;
+        this.timing = timing;
+    }
+
+    public void setProvider(ServiceInstance provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * 响应回来了（或者失败了），在响应对象被解析、回收之前调用；失败的调用到这里就结束了
+     */
+    public void responded(RpcResponse rpcResponse, Throwable cause) {
+        if (cause != null) {
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            outcome = cause instanceof TimeoutException ? "timeout"
+                    : cause instanceof RejectedExecutionException ? "rejected" : "error";
+            finish(0);
+            return;
+        }
+        responseTiming = rpcResponse.getTiming();
+        outcome = rpcResponse.getError() == null ? "success"
+                : rpcResponse.getStatus() == RpcProtocol.STATUS_OVERLOADED ? "overloaded" : "error";
+    }
+
+    /**
+     * 结果解析完，调用结束
+     * @param decodeNanos 解析结果的耗时
+     */
+    public void finish(long decodeNanos) {
+        long endNanos = System.nanoTime();
+        CallTrace trace = new CallTrace();
+        trace.setService(serviceName);
+        trace.setMethod(methodName);
+        ServiceInstance provider = this.provider;
+        trace.setProvider(provider == null ? null : provider.getHost() + ":" + provider.getPort());
+        trace.setTraceId(context.getTraceId());
+        trace.setSpanId(context.getSpanId());
+        trace.setParentSpanId(context.getParentSpanId());
+        trace.setStartTime(startTime);
+        trace.setOutcome(outcome);
+        trace.setTotalMicros(micros(endNanos - beginNanos));
+        trace.setClientDecodeMicros(micros(decodeNanos));
+        long sentAt = timing.getSentAtNanos();
+        if (sentAt != 0) {
+            trace.setClientSendMicros(micros(sentAt - beginNanos));
+            trace.setClientEncodeMicros(micros(timing.getEncodeNanos()));
+        }
+        CallTiming responseTiming = this.responseTiming;
+        if (sentAt != 0 && responseTiming != null) {
+            long receivedAt = responseTiming.getReceivedAtNanos();
+            trace.setNetworkMicros(micros(receivedAt - sentAt - responseTiming.serverNanos()));
+            trace.setServerQueueMicros(micros(responseTiming.getServerQueueNanos()));
+            trace.setServerDecodeMicros(micros(responseTiming.getServerDecodeNanos()));
+            trace.setServerExecuteMicros(micros(responseTiming.getServerExecuteNanos()));
+            trace.setServerEncodeMicros(micros(responseTiming.getServerEncodeNanos()));
+            trace.setClientReceiveMicros(micros(endNanos - receivedAt));
+        }
+        tracer.record(trace);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+    }
+}
@@ -0,0 +1,138 @@
+package com.gs.rpcsimulate.consumer.cache;
+
+import com.gs.rpcsimulate.anno.RpcCacheable;
+import com.gs.rpcsimulate.api.IUserService;
+import com.gs.rpcsimulate.common.CacheInvalidation;
+import com.gs.rpcsimulate.consumer.metrics.ClientMetrics;
+import com.gs.rpcsimulate.pojo.User;
+import com.gs.rpcsimulate.protocol.MethodId;
+import com.gs.rpcsimulate.serializer.KryoSerializer;
+import com.gs.rpcsimulate.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResultCacheTest {
+
+    private static ResultCache newCache() throws Exception {
+        Method method = IUserService.class.getMethod("getById", int.class);
+        return new ResultCache("getById", method.getGenericParameterTypes(), method.getAnnotation(RpcCacheable.class));
+    }
+
+    private static CacheKey key(int id) {
+        return new CacheKey(new Object[]{id});
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        ResultCache cache = newCache();
+        cache.put(key(1), cache.version(), "张三");
+        assertEquals("张三", cache.get(key(1)));
+        assertNull(cache.get(key(2)));
+
+        // null不缓存
+        cache.put(key(2), cache.version(), null);
+        assertNull(cache.get(key(2)));
+    }
+
+    @Test
+    public void invalidateRemovesOnlyThatKey() throws Exception {
+        ResultCache cache = newCache();
+        cache.put(key(1), cache.version(), "张三");
+        cache.put(key(2), cache.version(), "李四");
+
+        cache.invalidate(key(1));
+        assertNull(cache.get(key(1)));
+        assertEquals("李四", cache.get(key(2)));
+
+        cache.invalidateAll();
+        assertNull(cache.get(key(2)));
+    }
+
+    /**
+     * 调用发出之后收到了失效通知，结果回来时不能再放进缓存
+     */
+    @Test
+    public void resultStartedBeforeInvalidationIsNotCached() throws Exception {
+        ResultCache cache = newCache();
+        long version = cache.version();
+        cache.invalidate(key(1));
+        cache.put(key(1), version, "旧的");
+        assertNull(cache.get(key(1)));
+
+        version = cache.version();
+        cache.invalidateAll();
+        cache.put(key(1), version, "旧的");
+        assertNull(cache.get(key(1)));
+    }
+
+    /**
+     * 失效和放入同时发生：放入用的版本号是失效之前取的，不管两边怎么交错，旧结果都不能留在缓存里
+     */
+    @Test
+    public void concurrentInvalidationNeverLeavesStaleResult() throws Exception {
+        ResultCache cache = newCache();
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        for (int i = 0; i < 2000; i++) {
+            long version = cache.version();
+            CompletableFuture<Void> put = CompletableFuture.runAsync(() -> {
+                await(barrier);
+                cache.put(key(1), version, "旧的");
+            });
+            await(barrier);
+            cache.invalidate(key(1));
+            put.get(5, TimeUnit.SECONDS);
+            assertNull("第" + i + "次：失效之后旧结果又被放进了缓存", cache.get(key(1)));
+        }
+    }
+
+    /**
+     * 服务端推来的失效通知：带参数的按参数清掉一个，不带参数的清掉整个方法
+     */
+    @Test
+    public void managerAppliesPushedInvalidation() throws Exception {
+        ResultCacheManager manager = new ResultCacheManager();
+        manager.clientMetrics = new ClientMetrics();
+        String serviceName = IUserService.class.getName();
+        Method method = IUserService.class.getMethod("getById", int.class);
+        int methodId = MethodId.of(serviceName, method);
+        ResultCache cache = manager.getOrCreate(methodId, serviceName, method);
+        User user = new User();
+        cache.put(key(1), cache.version(), user);
+        cache.put(key(2), cache.version(), user);
+
+        Serializer serializer = new KryoSerializer();
+        ByteBuf data = Unpooled.buffer();
+        serializer.serialize(new Object[]{1}, data);
+        CacheInvalidation invalidation = new CacheInvalidation();
+        invalidation.setSerializer(serializer.getType());
+        invalidation.setMethodId(methodId);
+        invalidation.setData(data);
+        manager.invalidate(invalidation);
+        assertNull(cache.get(key(1)));
+        assertEquals(user, cache.get(key(2)));
+        assertEquals(0, data.refCnt());
+
+        CacheInvalidation all = new CacheInvalidation();
+        all.setSerializer(serializer.getType());
+        all.setMethodId(methodId);
+        manager.invalidate(all);
+        assertNull(cache.get(key(2)));
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.gs.rpcsimulate.consumer.client;
+
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.consumer.handler.NettyRpcClientHandler;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChannelPoolTest {
+
+    private EventLoopGroup group;
+    private HashedWheelTimer timer;
+    private Channel server;
+    private Bootstrap bootstrap;
+
+    @Before
+    public void setUp() throws Exception {
+        group = new NioEventLoopGroup(2);
+        timer = new HashedWheelTimer();
+        server = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter());
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+        bootstrap = new Bootstrap().group(group).channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new NettyRpcClientHandler(timer));
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close().sync();
+        timer.stop();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    /**
+     * 连接断了还没重连时，槽位里还是那个成功的connect future，处理器已经从pipeline里移除了，
+     * 选连接、发请求都要跳过它，调用方拿到IOException而不是NPE
+     */
+    @Test
+    public void deadSlotFailsWithIOException() throws Exception {
+        assertDeadSlotFails(ChannelPool.SELECT_LEAST_PENDING);
+        assertDeadSlotFails(ChannelPool.SELECT_ROUND_ROBIN);
+    }
+
+    private void assertDeadSlotFails(String selectStrategy) throws Exception {
+        // 退避时间很长，测试期间不会重连
+        ChannelPool pool = new ChannelPool(bootstrap, (InetSocketAddress) server.localAddress(), 2, selectStrategy,
+                60000, 60000);
+        try {
+            ChannelFuture first = pool.acquire().sync();
+            ChannelFuture second = pool.acquire().sync();
+            first.channel().close().sync();
+            second.channel().close().sync();
+
+            CompletableFuture<RpcResponse> future = pool.send(RpcRequest.newInstance());
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                fail("连接已断开，调用应该失败");
+            } catch (ExecutionException e) {
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+            }
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.gs.rpcsimulate.consumer.handler;
+
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 未完成请求表：请求按连接分配id，响应按id找到发起它的调用，和响应到达的顺序无关；
+ * 带截止时间的调用到时间没有响应就失败，迟到的响应丢弃
+ */
+public class NettyRpcClientHandlerTest {
+
+    private HashedWheelTimer timer;
+    private NettyRpcClientHandler handler;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        handler = new NettyRpcClientHandler(timer);
+        channel = new EmbeddedChannel(handler);
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        timer.stop();
+    }
+
+    @Test
+    public void responsesCompleteTheMatchingCallInAnyOrder() throws Exception {
+        CompletableFuture<RpcResponse> first = handler.send(request(7));
+        CompletableFuture<RpcResponse> second = handler.send(request(8));
+        long firstId = sentRequestId();
+        long secondId = sentRequestId();
+        assertTrue(firstId != secondId);
+        assertEquals(2, handler.getPendingCount());
+
+        // 后发的先回来
+        channel.writeInbound(response(secondId, "李四"));
+        assertFalse(first.isDone());
+        assertEquals("李四", result(second));
+        channel.writeInbound(response(firstId, "张三"));
+        assertEquals("张三", result(first));
+        assertEquals(0, handler.getPendingCount());
+    }
+
+    /**
+     * 表里没有的requestId（调用方已经不等了）直接丢弃，不影响其他调用
+     */
+    @Test
+    public void unknownResponseIsDropped() throws Exception {
+        CompletableFuture<RpcResponse> call = handler.send(request(7));
+        long requestId = sentRequestId();
+
+        channel.writeInbound(response(requestId + 100, "迟到的"));
+        assertFalse(call.isDone());
+        assertEquals(1, handler.getPendingCount());
+
+        channel.writeInbound(response(requestId, "张三"));
+        assertEquals("张三", result(call));
+    }
+
+    /**
+     * 连接断了，还没回来的调用马上失败，不会一直等下去
+     */
+    @Test
+    public void connectionLossFailsPendingCalls() throws Exception {
+        CompletableFuture<RpcResponse> first = handler.send(request(7));
+        CompletableFuture<RpcResponse> second = handler.send(request(8));
+
+        channel.close();
+        assertFailedWith(IOException.class, first);
+        assertFailedWith(IOException.class, second);
+        assertEquals(0, handler.getPendingCount());
+
+        // 断开之后再发，马上失败，请求也不会写出去
+        CompletableFuture<RpcResponse> afterClose = handler.send(request(9));
+        assertFailedWith(IOException.class, afterClose);
+        assertEquals(0, handler.getPendingCount());
+    }
+
+    /**
+     * 到了截止时间响应还没回来，调用方拿到TimeoutException，之后响应再回来直接丢弃
+     */
+    @Test
+    public void callFailsWhenDeadlinePasses() throws Exception {
+        RpcRequest rpcRequest = request(7);
+        rpcRequest.setDeadlineNanos(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+        CompletableFuture<RpcResponse> call = handler.send(rpcRequest);
+        long requestId = sentRequestId();
+
+        assertFailedWith(TimeoutException.class, call);
+        assertEquals(0, handler.getPendingCount());
+
+        assertFalse(channel.writeInbound(response(requestId, "迟到的")));
+        assertEquals(0, handler.getPendingCount());
+    }
+
+    /**
+     * 等连接、排队时截止时间已经过了，请求不再发出去
+     */
+    @Test
+    public void expiredRequestIsNotSent() throws Exception {
+        RpcRequest rpcRequest = request(7);
+        rpcRequest.setDeadlineNanos(System.nanoTime() - 1);
+        CompletableFuture<RpcResponse> call = handler.send(rpcRequest);
+
+        assertFailedWith(TimeoutException.class, call);
+        assertNull(channel.readOutbound());
+        assertEquals(0, handler.getPendingCount());
+    }
+
+    /**
+     * 截止时间之前回来的响应正常完成调用，时间轮上的超时任务被取消，不会留到到期
+     */
+    @Test
+    public void responseBeforeDeadlineCancelsTimeout() throws Exception {
+        RpcRequest rpcRequest = request(7);
+        rpcRequest.setDeadlineNanos(System.nanoTime() + TimeUnit.SECONDS.toNanos(30));
+        CompletableFuture<RpcResponse> call = handler.send(rpcRequest);
+        long requestId = sentRequestId();
+        assertEquals(1, timer.pendingTimeouts());
+
+        channel.writeInbound(response(requestId, "张三"));
+        assertEquals("张三", result(call));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (timer.pendingTimeouts() != 0) {
+            assertTrue("超时任务没有被取消", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static RpcRequest request(int methodId) {
+        RpcRequest rpcRequest = RpcRequest.newInstance();
+        rpcRequest.setMethodId(methodId);
+        return rpcRequest;
+    }
+
+    private static RpcResponse response(long requestId, String result) {
+        RpcResponse rpcResponse = RpcResponse.newInstance();
+        rpcResponse.setRequestId(requestId);
+        rpcResponse.setResult(result);
+        return rpcResponse;
+    }
+
+    /**
+     * 取出写到通道上的请求，拿到发送时分配的requestId
+     */
+    private long sentRequestId() {
+        RpcRequest rpcRequest = channel.readOutbound();
+        try {
+            return rpcRequest.getRequestId();
+        } finally {
+            rpcRequest.recycle();
+        }
+    }
+
+    private static Object result(CompletableFuture<RpcResponse> future) throws Exception {
+        RpcResponse rpcResponse = future.get(5, TimeUnit.SECONDS);
+        try {
+            return rpcResponse.getResult();
+        } finally {
+            rpcResponse.recycle();
+        }
+    }
+
+    private static void assertFailedWith(Class<? extends Throwable> type, CompletableFuture<RpcResponse> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("应该失败：" + type.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), type.isInstance(e.getCause()));
+        }
+    }
+}
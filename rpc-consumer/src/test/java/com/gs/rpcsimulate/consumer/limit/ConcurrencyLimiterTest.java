@@ -0,0 +1,73 @@
+package com.gs.rpcsimulate.consumer.limit;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimiterTest {
+
+    private static ConcurrencyLimiter limiter(int limit) {
+        AimdLimit algorithm = new AimdLimit();
+        algorithm.init(limit, 1, limit);
+        return new ConcurrencyLimiter("test", algorithm);
+    }
+
+    /**
+     * 异步调用用tryAcquire，名额满了马上失败，不会阻塞调用线程
+     */
+    @Test
+    public void tryAcquireFailsFastWhenFull() {
+        ConcurrencyLimiter limiter = limiter(2);
+        assertEquals(1, limiter.tryAcquire());
+        assertEquals(2, limiter.tryAcquire());
+
+        long begin = System.nanoTime();
+        assertEquals(0, limiter.tryAcquire());
+        assertTrue(System.nanoTime() - begin < TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, limiter.getRejected());
+
+        limiter.release(2, TimeUnit.MILLISECONDS.toNanos(1), false);
+        assertEquals(2, limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void timedAcquireGivesUpAfterMaxWait() throws Exception {
+        ConcurrencyLimiter limiter = limiter(1);
+        assertEquals(1, limiter.acquire(0));
+
+        long begin = System.nanoTime();
+        assertEquals(0, limiter.acquire(TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, limiter.getRejected());
+    }
+
+    /**
+     * 同步调用排队等名额，有调用结束时被唤醒
+     */
+    @Test
+    public void timedAcquireWakesUpOnRelease() throws Exception {
+        ConcurrencyLimiter limiter = limiter(1);
+        int acquired = limiter.acquire(0);
+        assertEquals(1, acquired);
+
+        CompletableFuture<Integer> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.acquire(TimeUnit.SECONDS.toNanos(10));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(waiter.isDone());
+
+        limiter.release(acquired, TimeUnit.MILLISECONDS.toNanos(1), false);
+        assertEquals(1, (int) waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(0, limiter.getRejected());
+    }
+}
@@ -0,0 +1,98 @@
+package com.gs.rpcsimulate.consumer.limit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LimitAlgorithmTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void aimdIncreasesByOneAndBacksOffOnDrop() {
+        LimitAlgorithm aimd = LimitAlgorithmFactory.create(AimdLimit.NAME, 10, 1, 100);
+        aimd.onSample(FAST, 10, false);
+        assertEquals(11, aimd.getLimit());
+
+        aimd.onSample(FAST, 11, true);
+        assertEquals(9, aimd.getLimit());
+    }
+
+    @Test
+    public void aimdIgnoresSamplesWhenLimitIsNotUsed() {
+        LimitAlgorithm aimd = LimitAlgorithmFactory.create(AimdLimit.NAME, 10, 1, 100);
+        aimd.onSample(FAST, 1, false);
+        assertEquals(10, aimd.getLimit());
+    }
+
+    @Test
+    public void aimdStaysWithinBounds() {
+        LimitAlgorithm aimd = LimitAlgorithmFactory.create(AimdLimit.NAME, 3, 2, 4);
+        for (int i = 0; i < 10; i++) {
+            aimd.onSample(FAST, 4, false);
+        }
+        assertEquals(4, aimd.getLimit());
+        for (int i = 0; i < 10; i++) {
+            aimd.onSample(FAST, 4, true);
+        }
+        assertEquals(2, aimd.getLimit());
+    }
+
+    /**
+     * 延迟一直是最小延迟，没有排队，上限往上涨；延迟涨到10倍，排队数很大，上限往下降
+     */
+    @Test
+    public void vegasFollowsQueueing() {
+        LimitAlgorithm vegas = LimitAlgorithmFactory.create(VegasLimit.NAME, 20, 1, 1000);
+        vegas.onSample(FAST, 20, false);
+        for (int i = 0; i < 50; i++) {
+            vegas.onSample(FAST, vegas.getLimit(), false);
+        }
+        int grown = vegas.getLimit();
+        assertTrue("没有排队时上限应该上涨：" + grown, grown > 20);
+
+        for (int i = 0; i < 50; i++) {
+            vegas.onSample(SLOW, vegas.getLimit(), false);
+        }
+        assertTrue("排队时上限应该下降：" + vegas.getLimit(), vegas.getLimit() < grown);
+    }
+
+    @Test
+    public void vegasBacksOffOnDrop() {
+        LimitAlgorithm vegas = LimitAlgorithmFactory.create(VegasLimit.NAME, 20, 1, 1000);
+        vegas.onSample(FAST, 20, false);
+        vegas.onSample(FAST, 20, true);
+        assertTrue(vegas.getLimit() < 20);
+    }
+
+    /**
+     * 延迟稳定时上限慢慢往上试；延迟突然变成10倍，梯度降到0.5，上限收缩
+     */
+    @Test
+    public void gradientGrowsWhenStableAndShrinksWhenLatencyRises() {
+        LimitAlgorithm gradient = LimitAlgorithmFactory.create(GradientLimit.NAME, 20, 1, 1000);
+        for (int i = 0; i < 50; i++) {
+            gradient.onSample(FAST, gradient.getLimit(), false);
+        }
+        int grown = gradient.getLimit();
+        assertTrue("延迟稳定时上限应该上涨：" + grown, grown > 20);
+
+        for (int i = 0; i < 50; i++) {
+            gradient.onSample(SLOW, gradient.getLimit(), false);
+        }
+        assertTrue("延迟上升时上限应该下降：" + gradient.getLimit(), gradient.getLimit() < grown);
+    }
+
+    @Test
+    public void gradientIgnoresLowTraffic() {
+        LimitAlgorithm gradient = LimitAlgorithmFactory.create(GradientLimit.NAME, 20, 1, 1000);
+        for (int i = 0; i < 50; i++) {
+            gradient.onSample(SLOW, 1, false);
+        }
+        assertEquals(20, gradient.getLimit());
+    }
+}
@@ -0,0 +1,258 @@
+package com.gs.rpcsimulate.consumer.loadbalance;
+
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.consumer.proxy.ReferenceConfig;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LoadBalancerTest {
+
+    private static final String SERVICE = "com.gs.rpcsimulate.api.IUserService";
+
+    @Test
+    public void factoryCreatesANewInstancePerName() {
+        for (String name : new String[]{RoundRobinLoadBalancer.NAME, RandomLoadBalancer.NAME, ConsistentHashLoadBalancer.NAME,
+                LeastActiveLoadBalancer.NAME, P2cEwmaLoadBalancer.NAME}) {
+            LoadBalancer loadBalancer = LoadBalancerFactory.create(name);
+            assertEquals(name, loadBalancer.getName());
+            // 轮询位置、哈希环这些状态按服务引用分开，每次都要是新的实例
+            assertNotSame(loadBalancer, LoadBalancerFactory.create(name));
+        }
+        try {
+            LoadBalancerFactory.create("no-such-strategy");
+            fail("名字写错了应该报错");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no-such-strategy"));
+        }
+    }
+
+    @Test
+    public void roundRobinCyclesThroughInstances() {
+        List<ServiceInstance> instances = instances("10.0.1.", 3);
+        LoadBalancer roundRobin = create(RoundRobinLoadBalancer.NAME);
+        for (int i = 0; i < 30; i++) {
+            assertSame(instances.get(i % 3), roundRobin.select(instances, null));
+        }
+    }
+
+    /**
+     * 平滑加权轮询：权重5、1、1，每7次里选中5、1、1次，而且权重大的不会连着被选中一大串
+     */
+    @Test
+    public void weightedRoundRobinIsSmooth() {
+        ServiceInstance a = new ServiceInstance("10.0.2.1", 9000, 500);
+        ServiceInstance b = new ServiceInstance("10.0.2.2", 9000, 100);
+        ServiceInstance c = new ServiceInstance("10.0.2.3", 9000, 100);
+        List<ServiceInstance> instances = Arrays.asList(a, b, c);
+        LoadBalancer roundRobin = create(RoundRobinLoadBalancer.NAME);
+        for (int round = 0; round < 3; round++) {
+            for (ServiceInstance expected : new ServiceInstance[]{a, a, b, a, c, a, a}) {
+                assertSame(expected, roundRobin.select(instances, null));
+            }
+        }
+    }
+
+    /**
+     * 提供者列表变了（换了一个列表对象），只会选到新列表里的
+     */
+    @Test
+    public void roundRobinFollowsListChanges() {
+        List<ServiceInstance> before = Arrays.asList(new ServiceInstance("10.0.3.1", 9000, 200),
+                new ServiceInstance("10.0.3.2", 9000, 100));
+        List<ServiceInstance> after = Arrays.asList(new ServiceInstance("10.0.3.3", 9000, 100),
+                new ServiceInstance("10.0.3.4", 9000, 300));
+        LoadBalancer roundRobin = create(RoundRobinLoadBalancer.NAME);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(before.contains(roundRobin.select(before, null)));
+        }
+        Map<ServiceInstance, Integer> counts = count(roundRobin, after, 40, null);
+        assertEquals(2, counts.size());
+        assertEquals(10, (int) counts.get(after.get(0)));
+        assertEquals(30, (int) counts.get(after.get(1)));
+    }
+
+    @Test
+    public void randomReachesEveryInstance() {
+        List<ServiceInstance> instances = instances("10.0.4.", 4);
+        Map<ServiceInstance, Integer> counts = count(create(RandomLoadBalancer.NAME), instances, 4000, null);
+        assertEquals(4, counts.size());
+        for (int n : counts.values()) {
+            assertTrue("分布太不均匀：" + counts, n > 500);
+        }
+    }
+
+    /**
+     * 同一个参数总是落到同一个提供者上；下线一个提供者，只有原来落在它上面的参数换地方
+     */
+    @Test
+    public void consistentHashIsStickyAndMovesOnlyRemovedKeys() {
+        List<ServiceInstance> instances = instances("10.0.5.", 4);
+        LoadBalancer consistentHash = create(ConsistentHashLoadBalancer.NAME);
+        Map<String, ServiceInstance> placement = new HashMap<>();
+        Map<ServiceInstance, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String key = "user-" + i;
+            ServiceInstance selected = consistentHash.select(instances, new Object[]{key});
+            assertSame(selected, consistentHash.select(instances, new Object[]{key}));
+            placement.put(key, selected);
+            counts.merge(selected, 1, Integer::sum);
+        }
+        for (int n : counts.values()) {
+            assertTrue("虚拟节点分布太不均匀：" + counts, n > 250);
+        }
+
+        ServiceInstance removed = instances.get(1);
+        List<ServiceInstance> remaining = new ArrayList<>(instances);
+        remaining.remove(removed);
+        for (Map.Entry<String, ServiceInstance> entry : placement.entrySet()) {
+            ServiceInstance selected = consistentHash.select(remaining, new Object[]{entry.getKey()});
+            if (entry.getValue() != removed) {
+                assertSame(entry.getKey(), entry.getValue(), selected);
+            }
+        }
+    }
+
+    /**
+     * 按配置的第几个参数计算哈希，参数不够时随机选
+     */
+    @Test
+    public void consistentHashUsesConfiguredArgument() {
+        List<ServiceInstance> instances = instances("10.0.6.", 4);
+        ReferenceConfig config = new ReferenceConfig();
+        config.setHashArgument(1);
+        LoadBalancer consistentHash = LoadBalancerFactory.create(ConsistentHashLoadBalancer.NAME);
+        consistentHash.init(SERVICE, config);
+        ServiceInstance selected = consistentHash.select(instances, new Object[]{0, "user-1"});
+        for (int i = 0; i < 100; i++) {
+            assertSame(selected, consistentHash.select(instances, new Object[]{i, "user-1"}));
+        }
+        assertTrue(instances.contains(consistentHash.select(instances, new Object[]{1})));
+        assertTrue(instances.contains(consistentHash.select(instances, null)));
+    }
+
+    @Test
+    public void leastActivePrefersTheIdlestInstance() {
+        List<ServiceInstance> instances = instances("10.0.7.", 3);
+        LoadBalancer leastActive = create(LeastActiveLoadBalancer.NAME);
+        InstanceStats busy = InstanceStats.of(instances.get(0));
+        InstanceStats lessBusy = InstanceStats.of(instances.get(1));
+        long[] begins = {busy.begin(), busy.begin(), lessBusy.begin()};
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertSame(instances.get(2), leastActive.select(instances, null));
+            }
+        } finally {
+            busy.end(begins[0], true);
+            busy.end(begins[1], true);
+            lessBusy.end(begins[2], true);
+        }
+        // 都空闲时并列的随机选，每个都能选到
+        assertEquals(3, count(leastActive, instances, 300, null).size());
+    }
+
+    /**
+     * 两个提供者时P2C每次比较的就是这两个，延迟EWMA低的总被选中
+     */
+    @Test
+    public void p2cEwmaAvoidsTheSlowInstance() {
+        List<ServiceInstance> instances = instances("10.0.8.", 2);
+        ServiceInstance slow = instances.get(0);
+        ServiceInstance fast = instances.get(1);
+        InstanceStats.of(slow).end(InstanceStats.of(slow).begin() - TimeUnit.MILLISECONDS.toNanos(200), true);
+        InstanceStats.of(fast).end(InstanceStats.of(fast).begin() - TimeUnit.MILLISECONDS.toNanos(2), true);
+        assertTrue(InstanceStats.of(slow).getEwmaNanos() > InstanceStats.of(fast).getEwmaNanos());
+
+        LoadBalancer p2c = create(P2cEwmaLoadBalancer.NAME);
+        for (int i = 0; i < 50; i++) {
+            assertSame(fast, p2c.select(instances, null));
+        }
+    }
+
+    /**
+     * 刚上线还没有延迟数据的提供者，已经有调用在进行中时不会被一窝蜂打满
+     */
+    @Test
+    public void p2cEwmaPenalizesUnmeasuredBusyInstance() {
+        List<ServiceInstance> instances = instances("10.0.9.", 2);
+        ServiceInstance fresh = instances.get(0);
+        ServiceInstance measured = instances.get(1);
+        InstanceStats.of(measured).end(InstanceStats.of(measured).begin() - TimeUnit.MILLISECONDS.toNanos(50), true);
+        long begin = InstanceStats.of(fresh).begin();
+        try {
+            LoadBalancer p2c = create(P2cEwmaLoadBalancer.NAME);
+            for (int i = 0; i < 50; i++) {
+                assertSame(measured, p2c.select(instances, null));
+            }
+        } finally {
+            InstanceStats.of(fresh).end(begin, true);
+        }
+    }
+
+    /**
+     * 过载的提供者马上回拒绝响应，到得再快也不能被当成最快的节点，流量要留在正常处理的提供者上
+     */
+    @Test
+    public void p2cEwmaAvoidsTheRejectingInstance() {
+        List<ServiceInstance> instances = instances("10.0.10.", 2);
+        ServiceInstance rejecting = instances.get(0);
+        ServiceInstance working = instances.get(1);
+        RpcResponse overloaded = RpcResponse.newInstance();
+        RpcResponse ok = RpcResponse.newInstance();
+        try {
+            overloaded.setStatus(RpcProtocol.STATUS_OVERLOADED);
+            for (int i = 0; i < 10; i++) {
+                InstanceStats.of(rejecting).end(InstanceStats.of(rejecting).begin(), overloaded, null);
+                InstanceStats.of(working).end(InstanceStats.of(working).begin() - TimeUnit.MILLISECONDS.toNanos(50), ok, null);
+            }
+        } finally {
+            overloaded.recycle();
+            ok.recycle();
+        }
+        assertTrue(InstanceStats.of(rejecting).getEwmaNanos() > InstanceStats.of(working).getEwmaNanos());
+
+        LoadBalancer p2c = create(P2cEwmaLoadBalancer.NAME);
+        for (int i = 0; i < 50; i++) {
+            assertSame(working, p2c.select(instances, null));
+        }
+    }
+
+    private static LoadBalancer create(String name) {
+        LoadBalancer loadBalancer = LoadBalancerFactory.create(name);
+        loadBalancer.init(SERVICE, new ReferenceConfig());
+        return loadBalancer;
+    }
+
+    /**
+     * InstanceStats是按地址全局共享的，每个测试用自己的网段，互不影响
+     */
+    private static List<ServiceInstance> instances(String subnet, int count) {
+        List<ServiceInstance> instances = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            instances.add(new ServiceInstance(subnet + i, 9000));
+        }
+        return instances;
+    }
+
+    private static Map<ServiceInstance, Integer> count(LoadBalancer loadBalancer, List<ServiceInstance> instances, int times,
+                                                       Object[] args) {
+        Map<ServiceInstance, Integer> counts = new HashMap<>();
+        for (int i = 0; i < times; i++) {
+            counts.merge(loadBalancer.select(instances, args), 1, Integer::sum);
+        }
+        return counts;
+    }
+}
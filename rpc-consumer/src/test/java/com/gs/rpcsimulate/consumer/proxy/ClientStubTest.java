@@ -0,0 +1,269 @@
+package com.gs.rpcsimulate.consumer.proxy;
+
+import com.gs.rpcsimulate.anno.RpcCacheable;
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.consumer.cache.CacheInvalidationHandler;
+import com.gs.rpcsimulate.consumer.cache.ResultCacheManager;
+import com.gs.rpcsimulate.consumer.client.NettyRpcClient;
+import com.gs.rpcsimulate.consumer.limit.ConcurrencyLimiterManager;
+import com.gs.rpcsimulate.consumer.metrics.ClientMetrics;
+import com.gs.rpcsimulate.consumer.trace.CallTracer;
+import com.gs.rpcsimulate.pojo.User;
+import com.gs.rpcsimulate.registry.ServiceDiscovery;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import com.gs.rpcsimulate.transport.HeartbeatConfig;
+import com.gs.rpcsimulate.transport.TransportConfig;
+import com.gs.rpcsimulate.transport.WriteConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * 通过代理调用：调用失败时业务代码拿到的异常，缓存命中时拿到的对象
+ * 连接层换成直接返回失败future的StubRpcClient，其余组件和真实的一样由Spring装配（配置项都用默认值）
+ */
+public class ClientStubTest {
+
+    private AnnotationConfigApplicationContext context;
+    private StubRpcClient rpcClient;
+    private EchoService echoService;
+
+    @Before
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext(ClientConfig.class, ClientStub.class, ResultCacheManager.class,
+                CacheInvalidationHandler.class, ConcurrencyLimiterManager.class, ClientMetrics.class, CallTracer.class);
+        rpcClient = context.getBean(StubRpcClient.class);
+        echoService = (EchoService) context.getBean(ClientStub.class).getProxy(EchoService.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * 同步调用超时：拿到非受检的RpcTimeoutException，不是代理包出来的UndeclaredThrowableException
+     */
+    @Test
+    public void syncTimeoutIsUnchecked() {
+        TimeoutException timeout = new TimeoutException("调用超时");
+        rpcClient.failure = timeout;
+        try {
+            echoService.echo("张三");
+            fail("应该超时");
+        } catch (RpcTimeoutException e) {
+            assertSame(timeout, e.getCause());
+        }
+    }
+
+    /**
+     * 同步调用时连接断了：拿到UncheckedIOException
+     */
+    @Test
+    public void syncConnectionLossIsUnchecked() {
+        IOException closed = new IOException("与服务端的连接已断开");
+        rpcClient.failure = closed;
+        try {
+            echoService.echo("张三");
+            fail("应该失败");
+        } catch (UncheckedIOException e) {
+            assertSame(closed, e.getCause());
+        }
+    }
+
+    /**
+     * 方法自己声明了的受检异常原样抛出
+     */
+    @Test
+    public void declaredCheckedExceptionIsRethrown() throws Exception {
+        IOException closed = new IOException("与服务端的连接已断开");
+        rpcClient.failure = closed;
+        try {
+            echoService.echoOrThrow("张三");
+            fail("应该失败");
+        } catch (IOException e) {
+            assertSame(closed, e);
+        }
+    }
+
+    /**
+     * 异步调用的future里还是原来的TimeoutException，指标、调用方按类型判断超时
+     */
+    @Test
+    public void asyncTimeoutKeepsTheOriginalException() throws Exception {
+        TimeoutException timeout = new TimeoutException("调用超时");
+        rpcClient.failure = timeout;
+        try {
+            echoService.echoAsync("张三").get();
+            fail("应该超时");
+        } catch (ExecutionException e) {
+            assertSame(timeout, e.getCause());
+        }
+    }
+
+    /**
+     * 缓存命中默认返回副本：一个调用方改了拿到的对象，缓存里的和别的调用方拿到的不受影响
+     */
+    @Test
+    public void cacheHitReturnsACopy() {
+        rpcClient.result = user(1, "张三");
+        User first = echoService.findUser(1);
+        first.setName("被调用方改掉了");
+        User second = echoService.findUser(1);
+        User third = echoService.findUser(1);
+        assertEquals("只调用了一次，后面都命中缓存", 1, rpcClient.sent.get());
+        assertEquals("张三", second.getName());
+        assertNotSame(second, third);
+        assertEquals(second, third);
+    }
+
+    /**
+     * copyOnHit = false：命中时直接返回缓存里的同一个对象
+     */
+    @Test
+    public void cacheHitWithoutCopyReturnsTheSameObject() {
+        rpcClient.result = user(2, "李四");
+        User first = echoService.findSharedUser(2);
+        assertSame(first, echoService.findSharedUser(2));
+        assertEquals(1, rpcClient.sent.get());
+    }
+
+    private static User user(int id, String name) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        return user;
+    }
+
+    public interface EchoService {
+
+        String echo(String text);
+
+        String echoOrThrow(String text) throws IOException;
+
+        CompletableFuture<String> echoAsync(String text);
+
+        @RpcCacheable
+        User findUser(int id);
+
+        @RpcCacheable(copyOnHit = false)
+        User findSharedUser(int id);
+    }
+
+    @Configuration
+    static class ClientConfig {
+
+        // 和Spring Boot一样把"0.5,0.9"这样的配置值转成数组，ClientMetrics的分位数要用
+        @Bean
+        public ConversionService conversionService() {
+            return new DefaultConversionService();
+        }
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        // StubRpcClient不建连接，但继承了NettyRpcClient的注入点，传输相关的配置也要有
+        @Bean
+        public TransportConfig transportConfig() {
+            return new TransportConfig();
+        }
+
+        @Bean
+        public WriteConfig writeConfig() {
+            return new WriteConfig();
+        }
+
+        @Bean
+        public HeartbeatConfig heartbeatConfig() {
+            return new HeartbeatConfig();
+        }
+
+        @Bean
+        public StubRpcClient nettyRpcClient() {
+            return new StubRpcClient();
+        }
+
+        @Bean
+        public ServiceDiscovery serviceDiscovery() {
+            return new ServiceDiscovery() {
+
+                private final List<ServiceInstance> instances = Collections.singletonList(new ServiceInstance("10.0.20.1", 9000));
+
+                @Override
+                public void subscribe(String serviceName) {
+                }
+
+                @Override
+                public List<ServiceInstance> getInstances(String serviceName) {
+                    return instances;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /**
+     * 不建连接：设置了failure时每次发送都返回以它失败的future，否则返回序列化好的result
+     */
+    static class StubRpcClient extends NettyRpcClient {
+
+        volatile Throwable failure;
+        volatile Object result;
+        final AtomicInteger sent = new AtomicInteger();
+
+        @Override
+        public void afterPropertiesSet() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public CompletableFuture<RpcResponse> send(InetSocketAddress address, RpcRequest msg) {
+            sent.incrementAndGet();
+            byte serializer = msg.getSerializer();
+            msg.recycle();
+            CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+            if (failure != null) {
+                future.completeExceptionally(failure);
+                return future;
+            }
+            RpcResponse rpcResponse = RpcResponse.newInstance();
+            rpcResponse.setSerializer(serializer);
+            rpcResponse.setData(Unpooled.wrappedBuffer(SerializerFactory.getSerializer(serializer).serialize(result)));
+            future.complete(rpcResponse);
+            return future;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.gs.rpcsimulate.consumer.stream;
+
+import com.gs.rpcsimulate.common.RpcRequest;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.consumer.handler.NettyRpcClientHandler;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.serializer.KryoSerializer;
+import com.gs.rpcsimulate.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 客户端的流式调用：请求后面紧跟一个窗口的额度，调用方每取走半个窗口补一次额度，close通知服务端停下来
+ */
+public class ClientStreamTest {
+
+    private static final int WINDOW = 4;
+
+    private final Serializer serializer = new KryoSerializer();
+
+    private HashedWheelTimer timer;
+    private NettyRpcClientHandler handler;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        handler = new NettyRpcClientHandler(timer);
+        channel = new EmbeddedChannel(handler);
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        timer.stop();
+    }
+
+    @Test
+    public void replenishesCreditsEveryHalfWindow() throws Exception {
+        ClientStream stream = newStream(0);
+        CompletableFuture<RpcResponse> call = open(stream);
+        long requestId = sentRequestId();
+        assertEquals(WINDOW, sentCredits(requestId));
+        assertNull(channel.readOutbound());
+
+        for (int i = 1; i <= WINDOW; i++) {
+            channel.writeInbound(data(requestId, "元素" + i));
+        }
+        assertEquals("元素1", stream.next());
+        assertNull("取走的不到半个窗口，不补额度", channel.readOutbound());
+        assertEquals("元素2", stream.next());
+        assertEquals(WINDOW / 2, sentCredits(requestId));
+        assertEquals("元素3", stream.next());
+        assertEquals("元素4", stream.next());
+        assertEquals(WINDOW / 2, sentCredits(requestId));
+
+        channel.writeInbound(end(requestId));
+        assertFalse(stream.hasNext());
+        assertTrue(call.isDone());
+        assertEquals(0, handler.getPendingCount());
+    }
+
+    /**
+     * 没取完就close：发一个取消帧给服务端，调用结束，之后再到的元素直接丢弃
+     */
+    @Test
+    public void closeCancelsTheCall() throws Exception {
+        ClientStream stream = newStream(0);
+        CompletableFuture<RpcResponse> call = open(stream);
+        long requestId = sentRequestId();
+        sentCredits(requestId);
+        channel.writeInbound(data(requestId, "元素1"));
+        assertEquals("元素1", stream.next());
+
+        stream.close();
+        StreamFrame cancel = channel.readOutbound();
+        try {
+            assertEquals(RpcProtocol.TYPE_STREAM_CANCEL, cancel.getType());
+            assertEquals(requestId, cancel.getRequestId());
+        } finally {
+            cancel.recycle();
+        }
+        assertFailedWith(CancellationException.class, call);
+        assertEquals(0, handler.getPendingCount());
+        assertFalse(stream.hasNext());
+
+        channel.writeInbound(data(requestId, "迟到的"));
+        assertFalse(stream.hasNext());
+        // 重复close什么都不做
+        stream.close();
+        assertNull(channel.readOutbound());
+    }
+
+    /**
+     * 发请求之前调用方就不要了，请求不发出去
+     */
+    @Test
+    public void closedBeforeSendIsNotSent() throws Exception {
+        ClientStream stream = newStream(0);
+        stream.close();
+        CompletableFuture<RpcResponse> call = open(stream);
+        assertFailedWith(CancellationException.class, call);
+        assertNull(channel.readOutbound());
+        assertEquals(0, handler.getPendingCount());
+    }
+
+    /**
+     * 服务端不按额度发，超出的那个元素让流失败，并且通知服务端停下来；之前收到的元素照样能取到
+     */
+    @Test
+    public void elementBeyondCreditsFailsTheStream() throws Exception {
+        ClientStream stream = newStream(0);
+        CompletableFuture<RpcResponse> call = open(stream);
+        long requestId = sentRequestId();
+        sentCredits(requestId);
+
+        for (int i = 1; i <= WINDOW + 1; i++) {
+            channel.writeInbound(data(requestId, "元素" + i));
+        }
+        StreamFrame cancel = channel.readOutbound();
+        try {
+            assertEquals(RpcProtocol.TYPE_STREAM_CANCEL, cancel.getType());
+        } finally {
+            cancel.recycle();
+        }
+        assertFailedWith(CancellationException.class, call);
+        for (int i = 1; i <= WINDOW; i++) {
+            assertEquals("元素" + i, stream.next());
+        }
+        try {
+            stream.hasNext();
+            fail("超过额度的元素应该让流失败");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("额度"));
+        }
+    }
+
+    /**
+     * 等下一个元素超过了空闲超时，调用方失败，服务端那边也停下来
+     */
+    @Test
+    public void idleTimeoutCancelsTheCall() throws Exception {
+        ClientStream stream = newStream(TimeUnit.MILLISECONDS.toNanos(50));
+        CompletableFuture<RpcResponse> call = open(stream);
+        long requestId = sentRequestId();
+        sentCredits(requestId);
+
+        try {
+            stream.hasNext();
+            fail("应该超时");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("超时"));
+        }
+        StreamFrame cancel = channel.readOutbound();
+        try {
+            assertEquals(RpcProtocol.TYPE_STREAM_CANCEL, cancel.getType());
+        } finally {
+            cancel.recycle();
+        }
+        assertFailedWith(CancellationException.class, call);
+    }
+
+    private ClientStream newStream(long idleTimeoutNanos) {
+        return new ClientStream(serializer, String.class, WINDOW, idleTimeoutNanos);
+    }
+
+    /**
+     * 和ClientStub一样：经过连接发出请求，结束的响应交给流
+     */
+    private CompletableFuture<RpcResponse> open(ClientStream stream) {
+        RpcRequest rpcRequest = RpcRequest.newInstance();
+        rpcRequest.setSerializer(serializer.getType());
+        rpcRequest.setMethodId(7);
+        CompletableFuture<RpcResponse> call = handler.send(rpcRequest, stream);
+        call.whenComplete(stream::complete);
+        return call;
+    }
+
+    private long sentRequestId() {
+        RpcRequest rpcRequest = channel.readOutbound();
+        try {
+            return rpcRequest.getRequestId();
+        } finally {
+            rpcRequest.recycle();
+        }
+    }
+
+    /**
+     * 取出发给服务端的额度帧
+     */
+    private int sentCredits(long requestId) {
+        StreamFrame frame = channel.readOutbound();
+        try {
+            assertEquals(RpcProtocol.TYPE_STREAM_CREDIT, frame.getType());
+            assertEquals(requestId, frame.getRequestId());
+            return frame.getCredits();
+        } finally {
+            frame.recycle();
+        }
+    }
+
+    /**
+     * 解码器解出来的元素帧，数据还是序列化后的字节
+     */
+    private StreamFrame data(long requestId, String element) {
+        ByteBuf data = Unpooled.buffer();
+        serializer.serialize(element, data);
+        StreamFrame frame = StreamFrame.newInstance(RpcProtocol.TYPE_STREAM_DATA, requestId, serializer.getType());
+        frame.setData(data);
+        return frame;
+    }
+
+    private RpcResponse end(long requestId) {
+        RpcResponse rpcResponse = RpcResponse.newInstance();
+        rpcResponse.setRequestId(requestId);
+        rpcResponse.setSerializer(serializer.getType());
+        return rpcResponse;
+    }
+
+    private static void assertFailedWith(Class<? extends Throwable> type, CompletableFuture<RpcResponse> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("应该失败：" + type.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), type.isInstance(e.getCause()));
+        } catch (CancellationException e) {
+            // CompletableFuture.get遇到CancellationException直接抛出，不包成ExecutionException
+            assertTrue(e.toString(), type.isInstance(e));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.gs.rpcsimulate.loadgen;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 压测参数，都从命令行传，例如 --loadgen.mode=open --loadgen.rate=5000；
+ * 框架本身的配置（注册中心、序列化、超时、连接数这些）和消费者一样是 rpc.*
+ */
+@Component
+public class LoadGenConfig implements InitializingBean {
+
+    public static final String CLOSED = "closed";
+    public static final String OPEN = "open";
+
+    // closed：concurrency个调用方，每个发完一个等它回来再发下一个；open：按rate固定的到达速率发，不管之前的回没回来
+    @Value("${loadgen.mode:" + CLOSED + "}")
+    String mode;
+
+    // closed模式的调用方个数
+    @Value("${loadgen.concurrency:16}")
+    int concurrency;
+
+    // 每秒发多少个请求。open模式必须大于0；closed模式大于0时每个调用方按 rate/concurrency 的节奏发（wrk2的做法），0表示不限速
+    @Value("${loadgen.rate:0}")
+    double rate;
+
+    // open模式下最多有多少个还没回来的调用，再多的直接算失败（overflow），防止压垮的时候把自己的内存撑爆
+    @Value("${loadgen.max-outstanding:10000}")
+    int maxOutstanding;
+
+    // 预热多少秒，这段时间的结果不算
+    @Value("${loadgen.warmup-seconds:10}")
+    int warmupSeconds;
+
+    // 正式测量多少秒
+    @Value("${loadgen.duration-seconds:30}")
+    int durationSeconds;
+
+    // 方法和权重，例如 getByIdAsync:8,echo:2；可用的方法见LoadTarget
+    @Value("${loadgen.mix:getByIdAsync:1}")
+    String mix;
+
+    // echo的请求和响应的字节数
+    @Value("${loadgen.payload-bytes:1024}")
+    int payloadBytes;
+
+    // getById的id在1~idRange里随机取，示例服务只有1和2
+    @Value("${loadgen.id-range:2}")
+    int idRange;
+
+    // 报告文件的前缀，生成 前缀.json、前缀.csv（每秒一行）、前缀.hgrm（HdrHistogram的百分位分布）；none表示不写文件
+    @Value("${loadgen.report:loadgen-report}")
+    String report;
+
+    public static final String NO_REPORT = "none";
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!CLOSED.equals(mode) && !OPEN.equals(mode)) {
+            throw new IllegalArgumentException("loadgen.mode只能是closed或open：" + mode);
+        }
+        if (OPEN.equals(mode) && rate <= 0) {
+            throw new IllegalArgumentException("open模式必须指定loadgen.rate");
+        }
+        if (CLOSED.equals(mode) && concurrency <= 0) {
+            throw new IllegalArgumentException("loadgen.concurrency必须大于0：" + concurrency);
+        }
+        if (durationSeconds <= 0) {
+            throw new IllegalArgumentException("loadgen.duration-seconds必须大于0：" + durationSeconds);
+        }
+    }
+
+    /**
+     * 写进报告里，结果是在什么条件下测出来的
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("mode", mode);
+        if (CLOSED.equals(mode)) {
+            map.put("concurrency", concurrency);
+        } else {
+            map.put("maxOutstanding", maxOutstanding);
+        }
+        map.put("rate", rate);
+        map.put("warmupSeconds", warmupSeconds);
+        map.put("durationSeconds", durationSeconds);
+        map.put("mix", mix);
+        map.put("payloadBytes", payloadBytes);
+        map.put("idRange", idRange);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
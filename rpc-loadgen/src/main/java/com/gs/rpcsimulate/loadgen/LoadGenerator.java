@@ -0,0 +1,237 @@
+package com.gs.rpcsimulate.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 压测的主流程：预热 -> 测量 -> 等还没回来的调用 -> 出报告，每秒打印一行进度
+ *
+ * 协调遗漏（coordinated omission）：服务端卡住的时候，closed模式的调用方也跟着停下来不发了，
+ * 卡住期间"本该发出去"的那些请求根本没被测到，百分位数看起来比真实情况好得多。
+ * 所以有固定节奏的时候（open模式，或者closed模式指定了rate），延迟都从"按计划应该发出的时间"开始算，
+ * 而不是从真正发出去的时间算：落后于计划的请求，落后的那段时间也算进它的延迟里（和wrk2的做法一样）。
+ * closed模式不限速时没有"计划"，记的就是每次调用本身的耗时，报告里会标明没有校正
+ */
+@Component
+public class LoadGenerator {
+
+    @Autowired
+    LoadGenConfig config;
+
+    @Autowired
+    LoadTarget target;
+
+    // 成功的调用的延迟，微秒，多线程记录不加锁，主线程每秒取一次这一秒的分布
+    private final Recorder recorder = new Recorder(3);
+    private final LongAdder intervalErrors = new LongAdder();
+    // 以下只在测量阶段记
+    private LongAdder[] successByMethod;
+    private LongAdder[] errorsByMethod;
+    private final Map<String, LongAdder> errorsByType = new ConcurrentHashMap<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+
+    public LoadReport run() throws InterruptedException {
+        String[] names = target.getNames();
+        successByMethod = newAdders(names.length);
+        errorsByMethod = newAdders(names.length);
+        boolean corrected = LoadGenConfig.OPEN.equals(config.mode) || config.rate > 0;
+        System.out.println("开始压测：" + config + (corrected ? "，延迟按计划发送时间计算（已校正协调遗漏）" : "，closed模式不限速，延迟未校正"));
+
+        List<Thread> threads = start();
+        LoadReport report = new LoadReport();
+        Histogram total = new Histogram(3);
+        Histogram interval = null;
+        long phaseStart = System.nanoTime();
+        long next = phaseStart;
+        for (int second = 1; second <= config.warmupSeconds + config.durationSeconds; second++) {
+            next += TimeUnit.SECONDS.toNanos(1);
+            sleepUntil(next);
+            boolean warmup = second <= config.warmupSeconds;
+            interval = recorder.getIntervalHistogram(interval);
+            long errors = intervalErrors.sumThenReset();
+            printProgress(warmup ? "预热" : "测量", warmup ? second : second - config.warmupSeconds, interval, errors);
+            if (warmup) {
+                if (second == config.warmupSeconds) {
+                    // 预热结束，从下一秒开始算
+                    measuring = true;
+                    phaseStart = System.nanoTime();
+                }
+                continue;
+            }
+            total.add(interval);
+            report.addSecond(second - config.warmupSeconds, interval, errors);
+        }
+        long measureNanos = System.nanoTime() - phaseStart;
+        stopped = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 等还没回来的调用，最多等10秒（超时时间一般比这短，超时的会算成失败）
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (outstanding.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        measuring = false;
+        intervalErrors.reset();
+
+        report.setConfig(config.toMap());
+        report.setCoordinatedOmissionCorrected(corrected);
+        report.setMeasureSeconds(measureNanos / 1e9);
+        report.setHistogram(total);
+        for (int i = 0; i < names.length; i++) {
+            report.addMethod(names[i], successByMethod[i].sum(), errorsByMethod[i].sum());
+        }
+        for (Map.Entry<String, LongAdder> entry : errorsByType.entrySet()) {
+            report.getErrors().put(entry.getKey(), entry.getValue().sum());
+        }
+        report.setUnfinished(outstanding.get());
+        return report;
+    }
+
+    private List<Thread> start() {
+        List<Thread> threads = new ArrayList<>();
+        if (LoadGenConfig.OPEN.equals(config.mode)) {
+            threads.add(new Thread(this::dispatch, "loadgen-dispatcher"));
+        } else {
+            for (int i = 0; i < config.concurrency; i++) {
+                threads.add(new Thread(this::callLoop, "loadgen-caller-" + i));
+            }
+        }
+        measuring = config.warmupSeconds == 0;
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return threads;
+    }
+
+    /**
+     * closed模式：发一个，等它回来，再发下一个；指定了rate时每个调用方按 concurrency/rate 的间隔排好计划
+     */
+    private void callLoop() {
+        long intervalNanos = config.rate > 0 ? (long) (config.concurrency * 1e9 / config.rate) : 0;
+        // 错开各个调用方的起点，不要一起发
+        long intended = System.nanoTime() + (intervalNanos > 0 ? (long) (Math.random() * intervalNanos) : 0);
+        while (!stopped) {
+            if (intervalNanos > 0) {
+                sleepUntil(intended);
+            } else {
+                intended = System.nanoTime();
+            }
+            int method = target.pick();
+            outstanding.incrementAndGet();
+            try {
+                target.call(method).get();
+                success(method, intended);
+            } catch (ExecutionException e) {
+                error(method, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                error(method, e);
+            } finally {
+                outstanding.decrementAndGet();
+            }
+            intended += intervalNanos;
+        }
+    }
+
+    /**
+     * open模式：一个线程按固定间隔发，只管发不等结果，结果回来时在回调里记；
+     * 发的线程自己落后了（一次发不完），后面的请求会连着发出去追上计划，落后的时间都算进延迟
+     */
+    private void dispatch() {
+        long intervalNanos = (long) (1e9 / config.rate);
+        long start = System.nanoTime();
+        for (long i = 0; !stopped; i++) {
+            long intended = start + i * intervalNanos;
+            sleepUntil(intended);
+            int method = target.pick();
+            if (outstanding.get() >= config.maxOutstanding) {
+                error(method, "overflow");
+                continue;
+            }
+            outstanding.incrementAndGet();
+            CompletableFuture<?> future;
+            try {
+                future = target.call(method);
+            } catch (RuntimeException e) {
+                outstanding.decrementAndGet();
+                error(method, e);
+                continue;
+            }
+            future.whenComplete((result, cause) -> {
+                outstanding.decrementAndGet();
+                if (cause == null) {
+                    success(method, intended);
+                } else {
+                    error(method, cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause);
+                }
+            });
+        }
+    }
+
+    private void success(int method, long intendedNanos) {
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos));
+        if (measuring) {
+            successByMethod[method].increment();
+        }
+    }
+
+    private void error(int method, Throwable cause) {
+        error(method, cause.getClass().getSimpleName());
+    }
+
+    /**
+     * @param type 失败的原因，按它分类计数，一般是异常的类名
+     */
+    private void error(int method, String type) {
+        intervalErrors.increment();
+        if (measuring) {
+            errorsByMethod[method].increment();
+            errorsByType.computeIfAbsent(type, key -> new LongAdder()).increment();
+        }
+    }
+
+    private void printProgress(String phase, int second, Histogram interval, long errors) {
+        System.out.println(String.format("[%s %3ds] %8d 次/秒  失败 %6d  p50 %8.3fms  p99 %8.3fms  p99.9 %8.3fms  max %8.3fms  进行中 %d",
+                phase, second, interval.getTotalCount(), errors,
+                interval.getValueAtPercentile(50) / 1000.0, interval.getValueAtPercentile(99) / 1000.0,
+                interval.getValueAtPercentile(99.9) / 1000.0, interval.getMaxValue() / 1000.0, outstanding.get()));
+    }
+
+    private static void sleepUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,48 @@
+package com.gs.rpcsimulate.loadgen;
+
+import com.gs.rpcsimulate.consumer.ClientBootStrapApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+
+/**
+ * 压测工具：一个不带web的消费者，通过注册中心找到提供者，用ClientStub的代理按设定的方式发请求，
+ * 用来找提供者的饱和点：逐步加大loadgen.rate，看延迟从哪里开始陡升、失败从哪里开始出现
+ * 例如：
+ * java -jar rpc-loadgen-1.0-SNAPSHOT.jar --loadgen.mode=closed --loadgen.concurrency=64
+ * java -jar rpc-loadgen-1.0-SNAPSHOT.jar --loadgen.mode=open --loadgen.rate=20000 --loadgen.mix=getByIdAsync:8,echoAsync:2
+ * 注册中心、序列化、连接数等和消费者一样用 rpc.* 配置，默认值来自消费者的application.yml
+ */
+@SpringBootApplication
+// 消费者的组件都要（ClientStub、NettyRpcClient、注册中心……），但不要它的Spring Boot入口和controller
+@ComponentScan(basePackages = {"com.gs.rpcsimulate.consumer", "com.gs.rpcsimulate.loadgen"},
+        excludeFilters = {
+                @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = ClientBootStrapApplication.class),
+                @ComponentScan.Filter(type = FilterType.REGEX, pattern = "com\\.gs\\.rpcsimulate\\.consumer\\.controller\\..*")
+        })
+public class LoadGeneratorApplication {
+
+    public static void main(String[] args) throws Exception {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(LoadGeneratorApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args);
+        int exitCode = 0;
+        try {
+            LoadReport report = context.getBean(LoadGenerator.class).run();
+            report.print();
+            String prefix = context.getBean(LoadGenConfig.class).report;
+            if (!prefix.isEmpty() && !LoadGenConfig.NO_REPORT.equals(prefix)) {
+                report.write(prefix);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            exitCode = 1;
+        } finally {
+            context.close();
+        }
+        System.exit(exitCode);
+    }
+}
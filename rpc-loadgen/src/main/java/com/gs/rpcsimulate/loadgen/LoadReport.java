@@ -0,0 +1,117 @@
+package com.gs.rpcsimulate.loadgen;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.Data;
+import org.HdrHistogram.Histogram;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压测结果：延迟都是毫秒，只统计测量阶段
+ * 写成三个文件：
+ * .json 汇总（参数、吞吐、百分位数、按方法和按原因的失败数）
+ * .csv  每秒一行，看压测过程中吞吐和延迟有没有抖动
+ * .hgrm HdrHistogram的完整百分位分布，可以拖进 HdrHistogram 的 plotFiles.html 里和别的结果画在一起比较
+ */
+@Data
+public class LoadReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private Map<String, Object> config;
+    // 延迟是否从计划发送时间算起（校正了协调遗漏）
+    private boolean coordinatedOmissionCorrected;
+    private double measureSeconds;
+    private long requests;
+    private long failures;
+    private double throughput;
+    private double meanMillis;
+    private Map<String, Double> percentilesMillis = new LinkedHashMap<>();
+    private double maxMillis;
+    // 方法名 -> 成功数、失败数
+    private Map<String, Map<String, Long>> methods = new LinkedHashMap<>();
+    // 失败的原因 -> 次数，overflow表示open模式下进行中的调用太多，没有发出去
+    private Map<String, Long> errors = new LinkedHashMap<>();
+    // 结束时还没回来的调用数
+    private int unfinished;
+
+    @JSONField(serialize = false)
+    private Histogram histogram;
+    @JSONField(serialize = false)
+    private List<String> seconds = new ArrayList<>();
+
+    public void setHistogram(Histogram histogram) {
+        this.histogram = histogram;
+        requests = histogram.getTotalCount();
+        throughput = measureSeconds > 0 ? requests / measureSeconds : 0;
+        meanMillis = histogram.getMean() / 1000.0;
+        for (double percentile : PERCENTILES) {
+            percentilesMillis.put("p" + (percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile)),
+                    histogram.getValueAtPercentile(percentile) / 1000.0);
+        }
+        maxMillis = histogram.getMaxValue() / 1000.0;
+    }
+
+    /**
+     * 测量阶段的一秒
+     */
+    public void addSecond(int second, Histogram interval, long errors) {
+        seconds.add(second + "," + interval.getTotalCount() + "," + errors + ","
+                + interval.getValueAtPercentile(50) / 1000.0 + "," + interval.getValueAtPercentile(90) / 1000.0 + ","
+                + interval.getValueAtPercentile(99) / 1000.0 + "," + interval.getValueAtPercentile(99.9) / 1000.0 + ","
+                + interval.getMaxValue() / 1000.0);
+    }
+
+    public void addMethod(String name, long success, long failed) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("success", success);
+        counts.put("failed", failed);
+        methods.put(name, counts);
+        failures += failed;
+    }
+
+    public void print() {
+        System.out.println("==================== 压测结果 ====================");
+        System.out.println("参数：" + config + (coordinatedOmissionCorrected ? "（延迟已校正协调遗漏）" : "（延迟未校正协调遗漏）"));
+        System.out.println(String.format("测量 %.1f 秒，成功 %d 次，失败 %d 次，吞吐 %.1f 次/秒", measureSeconds, requests, failures, throughput));
+        StringBuilder sb = new StringBuilder(String.format("延迟：mean %.3fms", meanMillis));
+        for (Map.Entry<String, Double> entry : percentilesMillis.entrySet()) {
+            sb.append(String.format("  %s %.3fms", entry.getKey(), entry.getValue()));
+        }
+        sb.append(String.format("  max %.3fms", maxMillis));
+        System.out.println(sb);
+        System.out.println("按方法：" + methods);
+        if (!errors.isEmpty()) {
+            System.out.println("失败原因：" + errors);
+        }
+        if (unfinished > 0) {
+            System.out.println("结束时还有 " + unfinished + " 个调用没有回来");
+        }
+    }
+
+    /**
+     * @param prefix 文件名前缀，生成 prefix.json、prefix.csv、prefix.hgrm
+     */
+    public void write(String prefix) throws IOException {
+        Files.write(Paths.get(prefix + ".json"), JSON.toJSONString(this, true).getBytes(StandardCharsets.UTF_8));
+        List<String> lines = new ArrayList<>(seconds.size() + 1);
+        lines.add("second,requests,errors,p50_ms,p90_ms,p99_ms,p999_ms,max_ms");
+        lines.addAll(seconds);
+        Files.write(Paths.get(prefix + ".csv"), lines, StandardCharsets.UTF_8);
+        try (PrintStream out = new PrintStream(new FileOutputStream(prefix + ".hgrm"), false, "UTF-8")) {
+            // 记录的是微秒，按毫秒输出
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+        System.out.println("报告已写入：" + prefix + ".json / .csv / .hgrm");
+    }
+}
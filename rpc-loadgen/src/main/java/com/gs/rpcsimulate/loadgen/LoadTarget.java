@@ -0,0 +1,123 @@
+package com.gs.rpcsimulate.loadgen;
+
+import com.gs.rpcsimulate.api.IEchoService;
+import com.gs.rpcsimulate.api.IUserService;
+import com.gs.rpcsimulate.consumer.proxy.ClientStub;
+import com.gs.rpcsimulate.consumer.proxy.RpcAsync;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * 要压的方法，都通过ClientStub生成的代理调用，和真实的调用方走的是同一条路径（负载均衡、并发限制、超时、指标都在）
+ * 所有方法都按异步来发：异步接口直接拿future，同步接口用RpcAsync.call，closed模式的调用方再自己等结果
+ * getById：同步接口，标了@RpcCacheable，命中客户端缓存时不会打到服务端
+ * getByIdAsync：异步接口，不走缓存
+ * echo、echoAsync：请求和响应都是loadgen.payload-bytes个字节
+ */
+@Component
+public class LoadTarget implements InitializingBean {
+
+    @Autowired
+    ClientStub clientStub;
+
+    @Autowired
+    LoadGenConfig config;
+
+    // 按loadgen.mix选出来的方法，weights是累加的权重，按随机数二分查找
+    private String[] names;
+    private Supplier<CompletableFuture<?>>[] calls;
+    private int[] weights;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void afterPropertiesSet() {
+        IUserService userService = (IUserService) clientStub.getProxy(IUserService.class);
+        IEchoService echoService = (IEchoService) clientStub.getProxy(IEchoService.class);
+        byte[] payload = new byte[config.payloadBytes];
+        ThreadLocalRandom.current().nextBytes(payload);
+        int idRange = config.idRange;
+
+        Map<String, Supplier<CompletableFuture<?>>> available = new LinkedHashMap<>();
+        available.put("getById", () -> RpcAsync.call(() -> userService.getById(nextId(idRange))));
+        available.put("getByIdAsync", () -> userService.getByIdAsync(nextId(idRange)));
+        available.put("echo", () -> RpcAsync.call(() -> echoService.echo(payload)));
+        available.put("echoAsync", () -> echoService.echoAsync(payload));
+
+        List<String> nameList = new ArrayList<>();
+        List<Supplier<CompletableFuture<?>>> callList = new ArrayList<>();
+        List<Integer> weightList = new ArrayList<>();
+        int total = 0;
+        for (String item : config.mix.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int index = item.indexOf(':');
+            String name = index < 0 ? item : item.substring(0, index).trim();
+            int weight = index < 0 ? 1 : Integer.parseInt(item.substring(index + 1).trim());
+            Supplier<CompletableFuture<?>> call = available.get(name);
+            if (call == null) {
+                throw new IllegalArgumentException("loadgen.mix里的方法不存在：" + name + "，可用的有" + available.keySet());
+            }
+            if (weight <= 0) {
+                continue;
+            }
+            total += weight;
+            nameList.add(name);
+            callList.add(call);
+            weightList.add(total);
+        }
+        if (nameList.isEmpty()) {
+            throw new IllegalArgumentException("loadgen.mix里没有可用的方法：" + config.mix);
+        }
+        names = nameList.toArray(new String[0]);
+        calls = callList.toArray(new Supplier[0]);
+        weights = weightList.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * 按权重随机选一个方法
+     * @return 方法在getNames()里的下标
+     */
+    public int pick() {
+        if (weights.length == 1) {
+            return 0;
+        }
+        int value = ThreadLocalRandom.current().nextInt(weights[weights.length - 1]);
+        int low = 0;
+        int high = weights.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (value < weights[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 发起一次调用，不等结果
+     */
+    public CompletableFuture<?> call(int method) {
+        return calls[method].get();
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    private static int nextId(int idRange) {
+        return ThreadLocalRandom.current().nextInt(idRange) + 1;
+    }
+}
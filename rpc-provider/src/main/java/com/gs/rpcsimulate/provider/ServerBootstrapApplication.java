@@ -2,6 +2,7 @@ package com.gs.rpcsimulate.provider;
 
 import com.gs.rpcsimulate.provider.server.NettyRpcServer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -15,13 +16,19 @@ public class ServerBootstrapApplication implements CommandLineRunner { //这里
     @Autowired
     NettyRpcServer nettyRpcServer;
 
+    // 服务端监听的地址，也是注册到注册中心、给客户端连接的地址
+    @Value("${rpc.host:127.0.0.1}")
+    String host;
+    @Value("${rpc.port:8899}")
+    int port;
+
     @Override
     public void run(String... args) throws Exception { // 接收的参数是String数组的。
         // 而ApplicationRunner接收的参数是ApplicationArguments，得这么用args.getOptionNames，args.getOptionValues("myOption")
         new Thread(new Runnable() {
             @Override
             public void run() {
-                nettyRpcServer.start("127.0.0.1", 8899);
+                nettyRpcServer.start(host, port);
             }
         }).start();
     }
@@ -0,0 +1,208 @@
+package com.gs.rpcsimulate.provider.admission;
+
+import com.gs.rpcsimulate.provider.anno.RpcService;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.util.AttributeKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务端的准入控制和背压
+ * 原来服务端来多少请求就接多少，流量一冲上来，线程池队列、待发送的响应、堆内存一起涨，延迟越来越高直到进程扛不住。
+ * 现在按两个维度限制正在处理（已收到、还没回响应）的请求数：
+ * 1 每个连接：到了上限就关掉这个连接的autoRead，不再从socket读数据，TCP窗口满了客户端自然就发不动了，
+ *   降到上限的一半再恢复读（pause）；也可以配置成直接回"服务端过载"（reject）
+ * 2 每个服务：到了上限直接回"服务端过载"，客户端马上就知道，可以换一个提供者重试
+ * 另外连接的写缓冲区超过高水位（isWritable为false）时也停止读，客户端不收响应，就不再接它的新请求，等缓冲区降到低水位再恢复
+ */
+@Component
+public class AdmissionControl {
+
+    public static final String ACTION_PAUSE = "pause";
+    public static final String ACTION_REJECT = "reject";
+
+    private static final AttributeKey<ConnectionState> CONNECTION_STATE = AttributeKey.valueOf("rpcConnectionState");
+
+    // 每个连接最多同时处理多少个请求，0表示不限制
+    @Value("${rpc.admission.max-in-flight-per-connection:1000}")
+    int maxInFlightPerConnection;
+
+    // 连接到了上限怎么办：pause（停止读）、reject（回过载错误）
+    @Value("${rpc.admission.connection-limit-action:" + ACTION_PAUSE + "}")
+    String connectionLimitAction;
+
+    // 每个服务最多同时处理多少个请求，0表示不限制，可以用@RpcService(maxInFlight)按服务指定
+    @Value("${rpc.admission.max-in-flight-per-service:0}")
+    int maxInFlightPerService;
+
+    private boolean rejectOnConnectionLimit;
+    // 接口名 -> 该服务正在处理的请求数和上限
+    private final Map<String, ServiceState> services = new HashMap<>();
+    // 因为过载被拒绝的请求数
+    private final LongAdder rejectedRequests = new LongAdder();
+
+    /**
+     * @param serviceMap 接口名 -> 服务bean
+     */
+    public synchronized void init(Map<String, Object> serviceMap) {
+        if (!ACTION_PAUSE.equals(connectionLimitAction) && !ACTION_REJECT.equals(connectionLimitAction)) {
+            throw new IllegalArgumentException("不支持的连接限流方式：" + connectionLimitAction);
+        }
+        rejectOnConnectionLimit = ACTION_REJECT.equals(connectionLimitAction);
+        for (Map.Entry<String, Object> entry : serviceMap.entrySet()) {
+            RpcService rpcService = entry.getValue().getClass().getAnnotation(RpcService.class);
+            int limit = rpcService != null && rpcService.maxInFlight() >= 0 ? rpcService.maxInFlight() : maxInFlightPerService;
+            services.put(entry.getKey(), new ServiceState(limit));
+        }
+    }
+
+    /**
+     * 新连接建立时调用
+     */
+    public void register(Channel channel) {
+        channel.attr(CONNECTION_STATE).set(new ConnectionState(channel));
+    }
+
+    /**
+     * 收到一个请求，在IO线程上调用
+     * @return null表示放行，处理完之后要调用release；否则是拒绝的原因
+     */
+    public String tryAcquire(Channel channel, String serviceName) {
+        ServiceState service = services.get(serviceName);
+        if (service != null && !service.tryAcquire()) {
+            rejectedRequests.increment();
+            return "服务端过载，服务的并发请求数已达上限" + service.limit + "：" + serviceName;
+        }
+        ConnectionState connection = channel.attr(CONNECTION_STATE).get();
+        if (connection != null && !connection.tryAcquire()) {
+            if (service != null) {
+                service.release();
+            }
+            rejectedRequests.increment();
+            return "服务端过载，连接的并发请求数已达上限" + maxInFlightPerConnection;
+        }
+        return null;
+    }
+
+    /**
+     * 请求处理完了（响应已经交给通道，或者请求被丢弃），可以在任意线程上调用
+     */
+    public void release(Channel channel, String serviceName) {
+        ServiceState service = services.get(serviceName);
+        if (service != null) {
+            service.release();
+        }
+        ConnectionState connection = channel.attr(CONNECTION_STATE).get();
+        if (connection != null) {
+            connection.release();
+        }
+    }
+
+    /**
+     * 通道可写状态变了，在IO线程上调用
+     */
+    public void writabilityChanged(Channel channel) {
+        ConnectionState connection = channel.attr(CONNECTION_STATE).get();
+        if (connection != null) {
+            connection.updateAutoRead();
+        }
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    /**
+     * 每个服务正在处理的请求数
+     */
+    public Map<String, Integer> getServiceInFlight() {
+        Map<String, Integer> inFlight = new HashMap<>();
+        for (Map.Entry<String, ServiceState> entry : services.entrySet()) {
+            inFlight.put(entry.getKey(), entry.getValue().inFlight.get());
+        }
+        return inFlight;
+    }
+
+    private static final class ServiceState {
+        private final int limit;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        ServiceState(int limit) {
+            this.limit = limit;
+        }
+
+        boolean tryAcquire() {
+            if (inFlight.incrementAndGet() > limit && limit > 0) {
+                inFlight.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        void release() {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * 一个连接的状态。只在跨过阈值、可写状态变化时才去改autoRead，平时只是一次原子加减
+     */
+    private final class ConnectionState {
+        private final Channel channel;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        ConnectionState(Channel channel) {
+            this.channel = channel;
+        }
+
+        boolean tryAcquire() {
+            int max = maxInFlightPerConnection;
+            int n = inFlight.incrementAndGet();
+            if (max > 0 && n >= max) {
+                if (rejectOnConnectionLimit) {
+                    if (n > max) {
+                        inFlight.decrementAndGet();
+                        return false;
+                    }
+                } else if (n == max) {
+                    // 解码器已经解出来的请求还会继续到达，所以停止读之后正在处理的请求数可能略微超过上限
+                    updateAutoRead();
+                }
+            }
+            return true;
+        }
+
+        void release() {
+            int n = inFlight.decrementAndGet();
+            if (!rejectOnConnectionLimit && maxInFlightPerConnection > 0 && n == resumeAt()) {
+                updateAutoRead();
+            }
+        }
+
+        private int resumeAt() {
+            return maxInFlightPerConnection / 2;
+        }
+
+        /**
+         * 按当前的请求数和可写状态决定要不要读，有滞后：到上限才停，降到一半才恢复，避免来回切换
+         * setAutoRead可以在任意线程上调用，真正的读操作会交给IO线程
+         */
+        synchronized void updateAutoRead() {
+            ChannelConfig config = channel.config();
+            boolean reading = config.isAutoRead();
+            int max = maxInFlightPerConnection;
+            int n = inFlight.get();
+            boolean limited = !rejectOnConnectionLimit && max > 0 && (reading ? n >= max : n > resumeAt());
+            boolean shouldRead = !limited && channel.isWritable();
+            if (shouldRead != reading) {
+                config.setAutoRead(shouldRead);
+            }
+        }
+    }
+}
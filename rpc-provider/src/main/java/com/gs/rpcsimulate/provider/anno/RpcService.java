@@ -14,4 +14,23 @@ import java.lang.annotation.Target;
 @Target(ElementType.TYPE) //先添加Target，表明该注解是放在类上的
 @Retention(RetentionPolicy.RUNTIME) // 表明注解在运行时能获取到
 public @interface RpcService {
+
+    /**
+     * 该服务独占的业务线程数（舱壁隔离），大于0时该服务用自己的线程池，慢服务不会拖垮其他服务；
+     * 默认0，和其他服务共用 rpc.executor 配置的线程池
+     */
+    int threads() default 0;
+
+    /**
+     * 该服务响应的压缩级别，客户端请求里带了压缩方式、并且响应超过 rpc.compression.threshold 时才压缩；
+     * lz4：小于等于0是快速模式，1~17是HC模式，越大压缩率越高越慢；snappy没有级别。
+     * 默认-1，用 rpc.compression.level
+     */
+    int compressLevel() default -1;
+
+    /**
+     * 该服务最多同时处理多少个请求，超过的直接回"服务端过载"，0表示不限制；
+     * 默认-1，用 rpc.admission.max-in-flight-per-service
+     */
+    int maxInFlight() default -1;
 }
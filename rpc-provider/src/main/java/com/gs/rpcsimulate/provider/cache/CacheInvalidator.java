@@ -0,0 +1,97 @@
+package com.gs.rpcsimulate.provider.cache;
+
+import com.gs.rpcsimulate.common.CacheInvalidation;
+import com.gs.rpcsimulate.protocol.MethodId;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import com.gs.rpcsimulate.transport.WriteQueue;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+
+/**
+ * 服务端推送缓存失效通知，客户端收到后清掉@RpcCacheable方法缓存的结果
+ * 业务代码修改了数据之后调用，例如修改了用户之后：
+ * cacheInvalidator.invalidate(IUserService.class, "getById", user.getId());
+ * 通知发给当前连着的所有客户端；推送是尽力而为的，连接断开期间错过的通知靠缓存的ttl兜底
+ */
+@Component
+public class CacheInvalidator {
+
+    // 所有客户端连接，连接关闭后自动移除
+    private final ChannelGroup clients = new DefaultChannelGroup("rpc-clients", GlobalEventExecutor.INSTANCE);
+
+    // 失效通知里的参数用哪种方式序列化，客户端两种都认识
+    private final byte serializer;
+
+    public CacheInvalidator(@Value("${rpc.cache.invalidation-serializer:kryo}") String serializer) {
+        this.serializer = SerializerFactory.getSerializer(serializer).getType();
+    }
+
+    /**
+     * 新的客户端连接建立时由NettyServerHandler调用
+     */
+    public void register(Channel channel) {
+        clients.add(channel);
+    }
+
+    /**
+     * 清掉某一次调用的缓存结果，方法按名字找，不能有重载
+     * @param args 和客户端调用时一样的参数
+     */
+    public void invalidate(Class<?> serviceInterface, String methodName, Object... args) {
+        invalidate(serviceInterface, findMethod(serviceInterface, methodName), args);
+    }
+
+    /**
+     * 清掉某一次调用的缓存结果
+     */
+    public void invalidate(Class<?> serviceInterface, Method method, Object... args) {
+        send(serviceInterface, method, args == null ? new Object[0] : args);
+    }
+
+    /**
+     * 清掉这个方法的全部缓存结果，方法按名字找，不能有重载
+     */
+    public void invalidateAll(Class<?> serviceInterface, String methodName) {
+        invalidateAll(serviceInterface, findMethod(serviceInterface, methodName));
+    }
+
+    /**
+     * 清掉这个方法的全部缓存结果
+     */
+    public void invalidateAll(Class<?> serviceInterface, Method method) {
+        send(serviceInterface, method, null);
+    }
+
+    private void send(Class<?> serviceInterface, Method method, Object[] args) {
+        CacheInvalidation invalidation = new CacheInvalidation();
+        invalidation.setSerializer(serializer);
+        // 客户端用代理的接口名算方法编号，这里也要用接口名
+        invalidation.setMethodId(MethodId.of(serviceInterface.getName(), method));
+        invalidation.setParameters(args);
+        for (Channel channel : clients) {
+            WriteQueue.write(channel, invalidation, null);
+        }
+    }
+
+    private Method findMethod(Class<?> serviceInterface, String methodName) {
+        Method found = null;
+        for (Method method : serviceInterface.getMethods()) {
+            if (method.getName().equals(methodName)) {
+                if (found != null) {
+                    throw new IllegalArgumentException("方法有重载，请直接传Method：" + serviceInterface.getName() + "#" + methodName);
+                }
+                found = method;
+            }
+        }
+        if (found == null) {
+            throw new IllegalArgumentException("接口上没有这个方法：" + serviceInterface.getName() + "#" + methodName);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,36 @@
+package com.gs.rpcsimulate.provider.config;
+
+import com.gs.rpcsimulate.transport.HeartbeatConfig;
+import com.gs.rpcsimulate.transport.TransportConfig;
+import com.gs.rpcsimulate.transport.WriteConfig;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Netty相关的配置，从application.yml绑定
+ * rpc.transport：传输方式（epoll/nio）、线程数、socket参数、水位、ByteBuf分配器
+ * rpc.write：写合并（写队列、FlushConsolidationHandler）
+ * rpc.heartbeat：心跳和空闲检测
+ */
+@Configuration
+public class NettyConfig {
+
+    @Bean
+    @ConfigurationProperties(prefix = "rpc.transport")
+    public TransportConfig transportConfig() {
+        return new TransportConfig();
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "rpc.write")
+    public WriteConfig writeConfig() {
+        return new WriteConfig();
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "rpc.heartbeat")
+    public HeartbeatConfig heartbeatConfig() {
+        return new HeartbeatConfig();
+    }
+}
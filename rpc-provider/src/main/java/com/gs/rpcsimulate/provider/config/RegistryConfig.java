@@ -0,0 +1,21 @@
+package com.gs.rpcsimulate.provider.config;
+
+import com.gs.rpcsimulate.registry.RegistryFactory;
+import com.gs.rpcsimulate.registry.ServiceRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 注册中心配置：rpc.registry.type选择file或zookeeper，rpc.registry.address是目录或zk连接串
+ * 容器关闭时会调用ServiceRegistry的close方法，注销所有服务
+ */
+@Configuration
+public class RegistryConfig {
+
+    @Bean
+    public ServiceRegistry serviceRegistry(@Value("${rpc.registry.type:file}") String type,
+                                           @Value("${rpc.registry.address:}") String address) {
+        return RegistryFactory.createRegistry(type, address);
+    }
+}
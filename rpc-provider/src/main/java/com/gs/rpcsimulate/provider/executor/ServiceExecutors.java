@@ -0,0 +1,121 @@
+package com.gs.rpcsimulate.provider.executor;
+
+import com.gs.rpcsimulate.provider.anno.RpcService;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端的业务线程池
+ * 原来业务方法直接在Netty的worker线程（IO线程）上执行，一个慢服务（比如查数据库）会卡住这个EventLoop上的所有连接。
+ * 现在IO线程只负责收发和编解码，业务方法丢到业务线程池里执行，执行完再通过通道写回响应。
+ * 支持的模式（rpc.executor.mode）：
+ * 1 platform：有界的平台线程池，默认
+ * 2 virtual：每个请求一个虚拟线程，需要运行在JDK21及以上，低版本自动退回platform
+ * 3 direct：不切线程，直接在IO线程上执行，只适合纯内存、非常快的服务
+ * 另外可以通过 @RpcService(threads = N) 给某个服务单独分配线程池（舱壁隔离）
+ */
+@Component
+public class ServiceExecutors implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServiceExecutors.class);
+
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+    public static final String MODE_DIRECT = "direct";
+
+    @Value("${rpc.executor.mode:platform}")
+    String mode;
+
+    // platform模式下共享线程池的线程数
+    @Value("${rpc.executor.threads:200}")
+    int threads;
+
+    // 线程池的队列长度，满了就拒绝，不能让请求在内存里无限堆积
+    @Value("${rpc.executor.queue-capacity:10000}")
+    int queueCapacity;
+
+    // 共享的线程池，direct模式下为null
+    private ExecutorService sharedExecutor;
+    // 接口名 -> 该服务独占的线程池
+    private final Map<String, ExecutorService> isolatedExecutors = new HashMap<>();
+    private final List<ExecutorService> allExecutors = new ArrayList<>();
+
+    /**
+     * 创建共享线程池，以及标了threads的服务独占的线程池
+     * @param serviceMap 接口名 -> 服务bean
+     */
+    public synchronized void init(Map<String, Object> serviceMap) {
+        if (MODE_VIRTUAL.equals(mode)) {
+            sharedExecutor = newVirtualThreadExecutor();
+            if (sharedExecutor == null) {
+                logger.warn("当前JDK不支持虚拟线程，业务线程池退回platform模式");
+                sharedExecutor = newThreadPool("rpc-biz", threads);
+            }
+        } else if (MODE_PLATFORM.equals(mode)) {
+            sharedExecutor = newThreadPool("rpc-biz", threads);
+        } else if (!MODE_DIRECT.equals(mode)) {
+            throw new IllegalArgumentException("不支持的业务线程池模式：" + mode);
+        }
+        if (sharedExecutor != null) {
+            allExecutors.add(sharedExecutor);
+        }
+        for (Map.Entry<String, Object> entry : serviceMap.entrySet()) {
+            RpcService rpcService = entry.getValue().getClass().getAnnotation(RpcService.class);
+            if (rpcService != null && rpcService.threads() > 0) {
+                String simpleName = entry.getKey().substring(entry.getKey().lastIndexOf('.') + 1);
+                ExecutorService executor = newThreadPool("rpc-biz-" + simpleName, rpcService.threads());
+                isolatedExecutors.put(entry.getKey(), executor);
+                allExecutors.add(executor);
+            }
+        }
+    }
+
+    /**
+     * 找到执行某个服务的线程池，返回null表示直接在IO线程上执行
+     * @param interfaceName 服务接口名
+     */
+    public Executor getExecutor(String interfaceName) {
+        ExecutorService executor = isolatedExecutors.get(interfaceName);
+        return executor != null ? executor : sharedExecutor;
+    }
+
+    private ExecutorService newThreadPool(String name, int poolSize) {
+        return new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new DefaultThreadFactory(name, true),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 代码按JDK8编译，虚拟线程的API只能通过反射调用
+     */
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (ExecutorService executor : allExecutors) {
+            executor.shutdown();
+        }
+    }
+}
@@ -1,10 +1,22 @@
 package com.gs.rpcsimulate.provider.handler;
 
-import com.alibaba.fastjson.JSON;
+import com.gs.rpcsimulate.common.CallTiming;
 import com.gs.rpcsimulate.common.RpcRequest;
 import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.common.TraceContext;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.provider.admission.AdmissionControl;
 import com.gs.rpcsimulate.provider.anno.RpcService;
+import com.gs.rpcsimulate.provider.cache.CacheInvalidator;
+import com.gs.rpcsimulate.provider.executor.ServiceExecutors;
+import com.gs.rpcsimulate.provider.metrics.MethodMetrics;
+import com.gs.rpcsimulate.provider.metrics.ServerMetrics;
+import com.gs.rpcsimulate.provider.proxy.MethodInvoker;
 import com.gs.rpcsimulate.provider.proxy.ServerSkeleton;
+import com.gs.rpcsimulate.provider.stream.ServerStream;
+import com.gs.rpcsimulate.provider.stream.ServerStreams;
+import com.gs.rpcsimulate.transport.WriteQueue;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -13,9 +25,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 自定义业务处理类，被Spring容器管理，要加上component，该服务端的处理器类需要做如下事情：
@@ -28,7 +47,7 @@ import java.util.Map;
 @Component
 @ChannelHandler.Sharable    // 设置通道共享，
 // 因为NettyServerHandler类交给了Spring容器管理之后，它是一个单例的，它只能被一个连接占用。那如果要被多个连接占用，需要将该处理器共享给其他通道。
-public class NettyServerHandler extends SimpleChannelInboundHandler<String> implements ApplicationContextAware {
+public class NettyServerHandler extends SimpleChannelInboundHandler<RpcRequest> implements ApplicationContextAware {
 
     public static Map<String, Object> SERVICE_INSTANCE_MAP = new HashMap<>();
 
@@ -55,34 +74,295 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<String> impl
             SERVICE_INSTANCE_MAP.put(interfaceName, serviceBean);
             System.out.println(SERVICE_INSTANCE_MAP);
         }
+        // 1.2 服务都找到之后，把所有方法建成调用器表，再按服务准备业务线程池
+        serverSkeleton.init(SERVICE_INSTANCE_MAP);
+        serviceExecutors.init(SERVICE_INSTANCE_MAP);
+        admissionControl.init(SERVICE_INSTANCE_MAP);
+        serverMetrics.init(serverSkeleton.getInvokers());
     }
 
     /*===============================================================================*/
     @Autowired
     private ServerSkeleton serverSkeleton;
+
+    @Autowired
+    private ServiceExecutors serviceExecutors;
+
+    @Autowired
+    private CacheInvalidator cacheInvalidator;
+
+    @Autowired
+    private AdmissionControl admissionControl;
+
+    @Autowired
+    private ServerMetrics serverMetrics;
+
+    @Autowired
+    private ServerStreams serverStreams;
+
+    // 因为调用方已经超时而没有处理的请求数
+    private final LongAdder expiredRequests = new LongAdder();
+
+    /**
+     * 记录下客户端连接，推送缓存失效通知时要发给所有客户端
+     */
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        cacheInvalidator.register(ctx.channel());
+        admissionControl.register(ctx.channel());
+        super.channelActive(ctx);
+    }
+
+    /**
+     * 响应写不出去（客户端不收、网络慢），写缓冲区超过高水位，就先不读这个连接的新请求，降到低水位再恢复
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        admissionControl.writabilityChanged(ctx.channel());
+        // 流式调用因为写不出去停下来的，可写了接着发
+        serverStreams.writabilityChanged(ctx.channel());
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * 流式调用的额度和取消不是请求，不经过channelRead0，直接交给对应的流
+     */
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof StreamFrame) {
+            serverStreams.onFrame(ctx.channel(), (StreamFrame) msg);
+            return;
+        }
+        super.channelRead(ctx, msg);
+    }
+
     /**
      * 通道读取就绪事件——读取客户端的消息
      * 那么如何知道哪些服务类上标了注解呢？需要判断。就要去实现Spring提供的接口ApplicationContextAware。只要设置了setApplicationContext，就可以知道哪些服务上标了注解
      * @param ctx           the {@link ChannelHandlerContext} which this {@link SimpleChannelInboundHandler}
      *                      belongs to
-     * @param msg           the message to handle
+     * @param rpcRequest    the message to handle
      * @throws Exception
      */
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
-        // 2 接收客户端的请求，接收的RpcRequest的json格式，要转换成原来的对象
-        RpcRequest rpcRequest = JSON.parseObject(msg, RpcRequest.class);
-        RpcResponse rpcResponse = new RpcResponse();
+    protected void channelRead0(ChannelHandlerContext ctx, RpcRequest rpcRequest) throws Exception {
+        // 2 接收客户端的请求，解码器已经按协议把一帧数据直接解成了RpcRequest对象
+        // 3 按方法编号查表，找到要调用的方法
+        MethodInvoker invoker = serverSkeleton.getInvoker(rpcRequest.getMethodId());
+        if (invoker == null) {
+            writeError(ctx, rpcRequest, RpcProtocol.STATUS_ERROR, "服务端没有找到方法：" + rpcRequest.getMethodId());
+            return;
+        }
+        MethodMetrics metrics = serverMetrics.get(rpcRequest.getMethodId());
+        if (metrics != null) {
+            metrics.received(rpcRequest.getFrameLength());
+        }
+        // 准入控制：服务或者连接正在处理的请求太多了，直接回过载，不让请求在内存里越堆越多
+        String rejectReason = admissionControl.tryAcquire(ctx.channel(), invoker.getServiceName());
+        if (rejectReason != null) {
+            if (metrics != null) {
+                metrics.overloaded();
+            }
+            writeError(ctx, rpcRequest, RpcProtocol.STATUS_OVERLOADED, rejectReason);
+            return;
+        }
+        if (metrics != null) {
+            metrics.accepted();
+        }
+        // 业务方法不在IO线程上执行，交给业务线程池，IO线程马上回去处理其他连接的读写
+        Executor executor = serviceExecutors.getExecutor(invoker.getServiceName());
+        // 流式方法在IO线程上先登记，客户端紧跟着请求发过来的额度要能找到它
+        ServerStream stream = invoker.isStreaming() ? serverStreams.register(ctx.channel(), rpcRequest.getRequestId(), executor) : null;
+        if (executor == null) {
+            handle(ctx, invoker, metrics, rpcRequest, stream);
+            return;
+        }
+        try {
+            executor.execute(() -> handle(ctx, invoker, metrics, rpcRequest, stream));
+        } catch (RejectedExecutionException e) {
+            // 线程池和队列都满了，直接告诉客户端服务端忙，不在IO线程上硬扛
+            if (stream != null) {
+                stream.discard();
+            }
+            release(ctx, invoker, metrics);
+            if (metrics != null) {
+                metrics.overloaded();
+            }
+            writeError(ctx, rpcRequest, RpcProtocol.STATUS_OVERLOADED, "服务端过载，业务线程池已满：" + invoker.getServiceName());
+        }
+    }
+
+    /**
+     * 请求不会被处理了，回一个错误；请求对象连同还没解析的参数一起放回对象池
+     * @param status STATUS_ERROR，或者STATUS_OVERLOADED（客户端会抛出单独的异常，可以换个提供者重试）
+     */
+    private void writeError(ChannelHandlerContext ctx, RpcRequest rpcRequest, byte status, String error) {
+        RpcResponse rpcResponse = RpcResponse.newInstance();
         rpcResponse.setRequestId(rpcRequest.getRequestId());
-        // 业务处理，真正业务处理可能会有异常
+        rpcResponse.setMethodId(rpcRequest.getMethodId());
+        rpcResponse.setSerializer(rpcRequest.getSerializer());
+        rpcResponse.setCompressor(rpcRequest.getCompressor());
+        rpcResponse.setStatus(status);
+        rpcResponse.setError(error);
+        rpcRequest.recycle();
+        write(ctx, rpcResponse);
+    }
+
+    /**
+     * 写回响应，经过写队列，同一个连接上同时完成的多个响应合并成一次flush
+     */
+    private void write(ChannelHandlerContext ctx, RpcResponse rpcResponse) {
+        WriteQueue.write(ctx.channel(), rpcResponse, null);
+    }
+
+    /**
+     * 执行业务方法并写回响应，在业务线程上执行；在非IO线程上写是安全的，写操作会交回IO线程
+     * 响应对象写出去之后由编码器放回对象池，请求对象在业务方法调用之后就放回对象池
+     * 在队列里等的时候调用方的截止时间已经过了，就不解参数、不调方法、也不回响应，调用方早就不等了，
+     * 服务端过载时不在没人要的结果上浪费CPU
+     * 响应交给通道（或者请求被丢弃）之后，这个请求就不算在准入控制的并发数里了
+     * 排队、解参数、执行业务方法的时间分开记，慢在哪一段一看就知道；
+     * 客户端采样到的请求还会把这几段耗时写回响应，业务方法执行期间调用链的上下文放在线程变量里，业务方法里再发起的调用接在同一条链上
+     * 流式方法返回的Iterator/Stream/Flux交给stream按客户端的额度一个一个发，全部发完才写回响应、才算处理完
+     */
+    private void handle(ChannelHandlerContext ctx, MethodInvoker invoker, MethodMetrics metrics, RpcRequest rpcRequest,
+                        ServerStream stream) {
+        long startNanos = System.nanoTime();
+        if (metrics != null) {
+            metrics.queued(startNanos - rpcRequest.getReceivedNanos());
+        }
+        if (rpcRequest.isExpired()) {
+            expiredRequests.increment();
+            if (metrics != null) {
+                metrics.expired();
+            }
+            rpcRequest.recycle();
+            if (stream != null) {
+                stream.discard();
+            }
+            release(ctx, invoker, metrics);
+            return;
+        }
+        RpcResponse rpcResponse = RpcResponse.newInstance();
+        rpcResponse.setRequestId(rpcRequest.getRequestId());
+        rpcResponse.setMethodId(rpcRequest.getMethodId());
+        // 客户端用什么方式序列化的请求，就用什么方式序列化响应
+        rpcResponse.setSerializer(rpcRequest.getSerializer());
+        // 客户端请求里带了压缩方式，响应够大时就用它压缩，级别按服务配置
+        rpcResponse.setCompressor(rpcRequest.getCompressor());
+        rpcResponse.setCompressLevel(invoker.getCompressLevel());
+        CallTiming timing = rpcRequest.getTiming();
+        if (timing != null) {
+            timing.setServerQueueNanos(startNanos - rpcRequest.getReceivedNanos());
+            rpcResponse.setTiming(timing);
+        }
+        // 4 业务处理，真正业务处理可能会有异常
+        Object result;
+        long invokeNanos = startNanos;
         try {
-            rpcResponse.setResult(serverSkeleton.process(rpcRequest));
+            Object[] parameters = serverSkeleton.decodeParameters(invoker, rpcRequest);
+            invokeNanos = System.nanoTime();
+            if (metrics != null) {
+                metrics.decoded(invokeNanos - startNanos);
+            }
+            if (timing != null) {
+                timing.setServerDecodeNanos(invokeNanos - startNanos);
+            }
+            TraceContext traceContext = TraceContext.fromAttachments(rpcRequest.getAttachments());
+            if (traceContext != null) {
+                TraceContext.setCurrent(traceContext);
+            }
+            try {
+                result = invoker.invoke(parameters);
+            } finally {
+                if (traceContext != null) {
+                    TraceContext.setCurrent(null);
+                }
+            }
         } catch (Exception e) {
             e.printStackTrace();
-            rpcResponse.setError(e.getMessage());
+            if (stream != null) {
+                stream.discard();
+            }
+            rpcResponse.setError(errorMessage(e));
+            finish(ctx, invoker, metrics, invokeNanos, rpcResponse);
+            return;
+        } finally {
+            rpcRequest.recycle();
+        }
+        if (stream != null) {
+            long streamInvokeNanos = invokeNanos;
+            stream.start(result, rpcResponse, succeeded -> {
+                if (metrics != null) {
+                    metrics.executed(System.nanoTime() - streamInvokeNanos, succeeded);
+                }
+                release(ctx, invoker, metrics);
+            });
+            return;
         }
+        // Mono和CompletableFuture一样处理：订阅它，不在这里阻塞等，空的Mono结果是null
+        if (result instanceof Mono) {
+            result = ((Mono<?>) result).toFuture();
+        }
+        // 异步的服务方法返回的是CompletableFuture，不能把future本身序列化回去，也不能阻塞在这里等，
+        // 等它完成的时候再把结果写回去
+        if (result instanceof CompletionStage) {
+            long asyncInvokeNanos = invokeNanos;
+            ((CompletionStage<?>) result).whenComplete((value, cause) -> {
+                if (cause != null) {
+                    rpcResponse.setError(errorMessage(cause));
+                } else {
+                    rpcResponse.setResult(value);
+                }
+                finish(ctx, invoker, metrics, asyncInvokeNanos, rpcResponse);
+            });
+            return;
+        }
+        rpcResponse.setResult(result);
         // 5 给客户端响应
-        ctx.writeAndFlush(JSON.toJSONString(rpcResponse));
+        finish(ctx, invoker, metrics, invokeNanos, rpcResponse);
+    }
+
+    /**
+     * 写回响应，并且把这个请求从准入控制的并发数里减掉
+     * 执行时间要在写之前记，响应交给通道之后就会被编码器放回对象池
+     */
+    private void finish(ChannelHandlerContext ctx, MethodInvoker invoker, MethodMetrics metrics, long invokeNanos,
+                        RpcResponse rpcResponse) {
+        long executeNanos = System.nanoTime() - invokeNanos;
+        if (metrics != null) {
+            metrics.executed(executeNanos, rpcResponse.getError() == null);
+        }
+        if (rpcResponse.getTiming() != null) {
+            rpcResponse.getTiming().setServerExecuteNanos(executeNanos);
+        }
+        write(ctx, rpcResponse);
+        release(ctx, invoker, metrics);
+    }
+
+    private void release(ChannelHandlerContext ctx, MethodInvoker invoker, MethodMetrics metrics) {
+        admissionControl.release(ctx.channel(), invoker.getServiceName());
+        if (metrics != null) {
+            metrics.completed();
+        }
+    }
+
+    /**
+     * @return 因为调用方已经超时而丢弃的请求数
+     */
+    public long getExpiredRequests() {
+        return expiredRequests.sum();
+    }
+
+    /**
+     * 反射调用、异步调用的异常都被包了一层，取出真正的业务异常；
+     * 有的异常没有message，直接用getMessage()会得到null，客户端就当成成功了，所以用toString
+     */
+    private String errorMessage(Throwable e) {
+        while ((e instanceof InvocationTargetException || e instanceof CompletionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e.toString();
     }
 
     /*===============================================================================*/
@@ -0,0 +1,113 @@
+package com.gs.rpcsimulate.provider.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个服务方法在服务端的指标，启动时按方法建好，请求来了直接记
+ * rpc.server.requests：业务方法的执行时间（参数解完之后到结果出来，异步方法到future完成，流式方法到最后一个元素发完），按结果分成success、error
+ * rpc.server.queue：从收到请求到开始处理的时间，主要是在业务线程池队列里等的时间
+ * rpc.server.dropped：没有执行的请求，reason=expired（调用方已经超时）、overloaded（准入控制、线程池满了）
+ * rpc.server.in.flight：已经接收、还没写回响应的请求数
+ * rpc.server.request.bytes / rpc.server.response.bytes：请求、响应的整帧字节数，流式方法的每个元素也算一个响应
+ * rpc.server.serialization：解参数（decode，业务线程上）和序列化结果（encode，IO线程上）的耗时
+ */
+public class MethodMetrics {
+
+    private final String name;
+    private final Timer success;
+    private final Timer error;
+    private final Timer queue;
+    private final Counter expired;
+    private final Counter overloaded;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final DistributionSummary requestBytes;
+    private final DistributionSummary responseBytes;
+    private final Timer decode;
+    private final Timer encode;
+
+    MethodMetrics(MeterRegistry registry, String serviceName, String methodName, double[] percentiles) {
+        name = serviceName + "#" + methodName;
+        Tags tags = Tags.of("service", serviceName, "method", methodName);
+        success = Timer.builder("rpc.server.requests").tags(tags).tag("outcome", "success")
+                .description("服务端业务方法的执行时间").publishPercentiles(percentiles).register(registry);
+        error = Timer.builder("rpc.server.requests").tags(tags).tag("outcome", "error")
+                .description("服务端业务方法的执行时间").publishPercentiles(percentiles).register(registry);
+        queue = Timer.builder("rpc.server.queue").tags(tags)
+                .description("从收到请求到开始处理的时间").publishPercentiles(percentiles).register(registry);
+        expired = Counter.builder("rpc.server.dropped").tags(tags).tag("reason", "expired").register(registry);
+        overloaded = Counter.builder("rpc.server.dropped").tags(tags).tag("reason", "overloaded").register(registry);
+        Gauge.builder("rpc.server.in.flight", inFlight, AtomicInteger::get).tags(tags).register(registry);
+        requestBytes = DistributionSummary.builder("rpc.server.request.bytes").tags(tags).baseUnit("bytes").register(registry);
+        responseBytes = DistributionSummary.builder("rpc.server.response.bytes").tags(tags).baseUnit("bytes").register(registry);
+        decode = Timer.builder("rpc.server.serialization").tags(tags).tag("phase", "decode")
+                .publishPercentiles(percentiles).register(registry);
+        encode = Timer.builder("rpc.server.serialization").tags(tags).tag("phase", "encode")
+                .publishPercentiles(percentiles).register(registry);
+    }
+
+    /**
+     * 收到请求，还没决定接不接
+     */
+    public void received(int frameLength) {
+        requestBytes.record(frameLength);
+    }
+
+    /**
+     * 请求被接收，交给业务线程
+     */
+    public void accepted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * 请求处理完（写回响应或者丢弃），和accepted成对调用
+     */
+    public void completed() {
+        inFlight.decrementAndGet();
+    }
+
+    public void overloaded() {
+        overloaded.increment();
+    }
+
+    public void expired() {
+        expired.increment();
+    }
+
+    public void queued(long nanos) {
+        queue.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void decoded(long nanos) {
+        decode.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void executed(long nanos, boolean succeeded) {
+        (succeeded ? success : error).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void encoded(int frameLength, long nanos) {
+        responseBytes.record(frameLength);
+        encode.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Timer getSuccess() {
+        return success;
+    }
+
+    Timer getQueue() {
+        return queue;
+    }
+}
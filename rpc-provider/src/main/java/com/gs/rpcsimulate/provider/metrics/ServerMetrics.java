@@ -0,0 +1,119 @@
+package com.gs.rpcsimulate.provider.metrics;
+
+import com.gs.rpcsimulate.codec.EncodeListener;
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.provider.admission.AdmissionControl;
+import com.gs.rpcsimulate.provider.proxy.MethodInvoker;
+import com.gs.rpcsimulate.provider.stream.ServerStreams;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端的指标，注册到Micrometer的MeterRegistry里
+ * 服务端不是web应用，通过JMX查看：jconsole连上之后在 org.springframework.boot / Endpoint / Metrics 下调用listNames、metric，
+ * 例如 metric("rpc.server.requests.percentile", ["phi:0.99"])；进程退出时也会在日志里输出一份每个方法的汇总
+ * rpc.metrics.enabled=false时什么都不记
+ */
+@Component
+public class ServerMetrics implements EncodeListener, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerMetrics.class);
+
+    @Autowired
+    MeterRegistry registry;
+
+    @Autowired
+    AdmissionControl admissionControl;
+
+    @Autowired
+    ServerStreams serverStreams;
+
+    @Value("${rpc.metrics.enabled:true}")
+    boolean enabled;
+
+    // 延迟要算哪些百分位数
+    @Value("${rpc.metrics.percentiles:0.5,0.9,0.99,0.999}")
+    double[] percentiles;
+
+    // 方法编号 -> 指标，启动时建好，之后只读
+    private volatile IntObjectMap<MethodMetrics> methodMetrics = new IntObjectHashMap<>();
+
+    /**
+     * 启动时按调用器表建好每个方法的指标，由NettyServerHandler在建好调用器表之后调用
+     */
+    public synchronized void init(IntObjectMap<MethodInvoker> invokers) {
+        if (!enabled) {
+            return;
+        }
+        IntObjectMap<MethodMetrics> metrics = new IntObjectHashMap<>(invokers.size());
+        for (IntObjectMap.PrimitiveEntry<MethodInvoker> entry : invokers.entries()) {
+            MethodInvoker invoker = entry.value();
+            metrics.put(entry.key(), new MethodMetrics(registry, invoker.getServiceName(), invoker.getMethodName(), percentiles));
+        }
+        methodMetrics = metrics;
+        FunctionCounter.builder("rpc.server.admission.rejected", admissionControl, AdmissionControl::getRejectedRequests)
+                .description("准入控制拒绝的请求数").register(registry);
+        Gauge.builder("rpc.server.streams.active", serverStreams, ServerStreams::getActiveStreams)
+                .description("进行中的流式调用数").register(registry);
+    }
+
+    /**
+     * @return 这个方法的指标，没有开启时返回null
+     */
+    public MethodMetrics get(int methodId) {
+        return methodMetrics.get(methodId);
+    }
+
+    /**
+     * @return 给编码器用的回调，没有开启时返回null，编码器就不计时
+     */
+    public EncodeListener getEncodeListener() {
+        return enabled ? this : null;
+    }
+
+    @Override
+    public void encoded(Object msg, int frameLength, long encodeNanos) {
+        if (msg instanceof RpcResponse) {
+            MethodMetrics metrics = methodMetrics.get(((RpcResponse) msg).getMethodId());
+            if (metrics != null) {
+                metrics.encoded(frameLength, encodeNanos);
+            }
+        } else if (msg instanceof StreamFrame) {
+            MethodMetrics metrics = methodMetrics.get(((StreamFrame) msg).getMethodId());
+            if (metrics != null) {
+                metrics.encoded(frameLength, encodeNanos);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (MethodMetrics m : methodMetrics.values()) {
+            Timer success = m.getSuccess();
+            if (success.count() == 0) {
+                continue;
+            }
+            sb.append("\n  ").append(m.getName()).append(" count=").append(success.count())
+                    .append(" mean=").append(String.format("%.3f", success.mean(TimeUnit.MILLISECONDS))).append("ms")
+                    .append(" max=").append(String.format("%.3f", success.max(TimeUnit.MILLISECONDS))).append("ms")
+                    .append(" queueMean=").append(String.format("%.3f", m.getQueue().mean(TimeUnit.MILLISECONDS))).append("ms");
+        }
+        if (sb.length() > 0) {
+            logger.info("RPC服务端执行统计（成功的调用）：{}", sb);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.gs.rpcsimulate.provider.proxy;
+
+import org.springframework.cglib.reflect.FastMethod;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Type;
+
+/**
+ * 一个服务方法的调用器，启动时创建好，请求来了直接调用
+ * 服务bean、cglib的FastMethod、参数类型都提前绑定好，调用时不用再查找
+ */
+public class MethodInvoker {
+
+    private final String serviceName;
+    private final String methodName;
+    private final Object serviceBean;
+    private final FastMethod fastMethod;
+    // 方法的泛型参数类型，json这种不带类型的序列化方式解参数时要用
+    private final Type[] parameterTypes;
+    // 该服务响应的压缩级别
+    private final int compressLevel;
+    // 流式方法，返回的Iterator、Stream按元素一帧一帧地发，见StreamingMethod
+    private final boolean streaming;
+
+    public MethodInvoker(String serviceName, Object serviceBean, FastMethod fastMethod, Type[] parameterTypes, int compressLevel,
+                         boolean streaming) {
+        this.serviceName = serviceName;
+        this.methodName = fastMethod.getName();
+        this.serviceBean = serviceBean;
+        this.fastMethod = fastMethod;
+        this.parameterTypes = parameterTypes;
+        this.compressLevel = compressLevel;
+        this.streaming = streaming;
+    }
+
+    public Object invoke(Object[] parameters) throws InvocationTargetException {
+        return fastMethod.invoke(serviceBean, parameters);
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public Type[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public int getCompressLevel() {
+        return compressLevel;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    @Override
+    public String toString() {
+        return serviceName + "#" + methodName;
+    }
+}
@@ -1,32 +1,104 @@
 package com.gs.rpcsimulate.provider.proxy;
 
 import com.gs.rpcsimulate.common.RpcRequest;
-import com.gs.rpcsimulate.provider.handler.NettyServerHandler;
+import com.gs.rpcsimulate.protocol.MethodId;
+import com.gs.rpcsimulate.protocol.StreamingMethod;
+import com.gs.rpcsimulate.provider.anno.RpcService;
+import com.gs.rpcsimulate.serializer.SerializerFactory;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cglib.reflect.FastClass;
 import org.springframework.cglib.reflect.FastMethod;
 import org.springframework.stereotype.Service;
 
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
 
 /* 为何要创建代理对象来调用方法？因为一个server会提供很多service，同一个service也会被不同的请求调用
 * 现在的需求是，根据过来的不同请求，选择IOC容器中的特定serviceBean，然后调用该bean的特定方法去执行，返回结果
 * 为了抽象出来，没人知道调用的是那个serviceBean，也没人实现知道调用的是哪个方法。都是从请求中来的，需要去容器中匹配的
 * 如何让这些bean自动找到去调用自己呢？用动态代理！根据请求的服务名获得serviceBean
 * 让它自己调用自己的方法，就是动态代理！（通过生成代理对象来间接调用自身的方法或对象）*/
+/* 原来每个请求都要FastClass.create、再按方法名和参数类型getMethod，热路径上反复生成/查找cglib类。
+ * 现在启动时把所有@RpcService的方法都建成调用器，按方法编号放进表里，请求来了查表直接调用。 */
 @Service
 public class ServerSkeleton {
-    /* 用java提供的原生的动态代理也可以实现。但spring提供的cglib更加方便 */
+
+    // 方法编号 -> 调用器，IntObjectHashMap是开放寻址的数组实现，int做key不用装箱
+    private final IntObjectMap<MethodInvoker> invokers = new IntObjectHashMap<>();
+
+    // 默认的响应压缩级别，@RpcService上没有指定时使用
+    @Value("${rpc.compression.level:0}")
+    private int defaultCompressLevel;
+
+    /**
+     * 启动时建表，由NettyServerHandler在找到所有服务之后调用
+     * @param serviceMap 接口名 -> 服务bean
+     */
+    public synchronized void init(Map<String, Object> serviceMap) {
+        Map<Integer, String> signatures = new HashMap<>();
+        for (Map.Entry<String, Object> entry : serviceMap.entrySet()) {
+            String serviceName = entry.getKey();
+            Object serviceBean = entry.getValue();
+            Class<?> serviceInterface = findInterface(serviceBean.getClass(), serviceName);
+            /* 用java提供的原生的动态代理也可以实现。但spring提供的cglib更加方便，每个bean只生成一次 */
+            FastClass fastClass = FastClass.create(serviceBean.getClass());
+            RpcService rpcService = serviceBean.getClass().getAnnotation(RpcService.class);
+            int compressLevel = rpcService != null && rpcService.compressLevel() >= 0 ? rpcService.compressLevel() : defaultCompressLevel;
+            for (Method method : serviceInterface.getMethods()) {
+                int methodId = MethodId.of(serviceName, method);
+                String signature = MethodId.signature(serviceName, method);
+                // 编号冲突了，两个方法分不开，启动就失败
+                String existing = signatures.put(methodId, signature);
+                if (existing != null) {
+                    throw new IllegalStateException("方法编号冲突：" + existing + " / " + signature);
+                }
+                FastMethod fastMethod = fastClass.getMethod(method.getName(), method.getParameterTypes());
+                invokers.put(methodId, new MethodInvoker(serviceName, serviceBean, fastMethod, method.getGenericParameterTypes(),
+                        compressLevel, StreamingMethod.isStreaming(method)));
+            }
+        }
+    }
+
+    private Class<?> findInterface(Class<?> beanClass, String serviceName) {
+        for (Class<?> anInterface : beanClass.getInterfaces()) {
+            if (anInterface.getName().equals(serviceName)) {
+                return anInterface;
+            }
+        }
+        throw new IllegalStateException(beanClass.getName() + "没有实现接口" + serviceName);
+    }
+
+    /**
+     * 3 根据请求里的方法编号查找调用器，找不到返回null
+     */
+    public MethodInvoker getInvoker(int methodId) {
+        return invokers.get(methodId);
+    }
+
+    /**
+     * @return 方法编号 -> 调用器，启动之后只读
+     */
+    public IntObjectMap<MethodInvoker> getInvokers() {
+        return invokers;
+    }
+
     public Object process(RpcRequest rpcRequest) throws InvocationTargetException { // processor抛出了异常，在channelRead0中做了捕获
-        // 3 根据传递过来的beanName从缓存中查找
-        Object serviceBean = NettyServerHandler.SERVICE_INSTANCE_MAP.get(rpcRequest.getClassName());
-        // 找到了serviceBean了，不用代理来调用方法，不能实现服务的被动调用！因为要的即使执行找到的这个服务的某个方法。
-        if (serviceBean == null) {
-            throw new RuntimeException("服务端没有找到服务");
+        MethodInvoker invoker = getInvoker(rpcRequest.getMethodId());
+        if (invoker == null) {
+            throw new RuntimeException("服务端没有找到方法：" + rpcRequest.getMethodId());
         }
-        // 4 通过反射调用bean的方法，这里使用cglib提供的方法，使用cglib获得动态代理对象
-        FastClass proxy = FastClass.create(serviceBean.getClass()); // serviceBean是UserServiceImpl，method是getUserById
-        FastMethod method = proxy.getMethod(rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
-        return method.invoke(serviceBean, rpcRequest.getParameters());
+        return process(invoker, rpcRequest);
+    }
+
+    /**
+     * 4 按方法的参数类型解出参数，通过提前绑定好的调用器调用bean的方法
+     */
+    public Object process(MethodInvoker invoker, RpcRequest rpcRequest) throws InvocationTargetException {
+        return invoker.invoke(decodeParameters(invoker, rpcRequest));
         /*
         选择使用JDK动态代理还是CGLIB代理通常取决于目标类是否实现了接口。
         如果实现了接口，通常会选择JDK动态代理，因为它简单且性能较好。
@@ -38,19 +110,23 @@ public class ServerSkeleton {
         代理的是UserServiceImpl，它实现了IUserService接口。
         Server端的代理，代理的是各式各样的服务！
          */
-        /** 上面是通过代理调用serviceBean，是被动调用，符合RPC框架的核心思想之一就是通过代理来实现远程方法调用的透明性和便捷性
-         * 毕竟放到MAP缓存之前，并没有检测这些bean有没有实现服务。
-         * 下面直接调用，有了serviceBean之后，不仅要判断实现的接口，也要知道接口下的方法，方法有多少个，就得写多少次。
-         * 用代理简介调用，直接抽象出了Method类，直接用它自己根据提供的名字调用即可。
-         *     if (SERVICE_INSTANCE_MAP.containsKey(rpcRequest.getClassName())) {
-         *         Object serviceBean = SERVICE_INSTANCE_MAP.get(rpcRequest.getClassName());
-         *         if (serviceBean != null) {
-         *             if (serviceBean instanceof IUserService) {
-         *                 IUserService userService = (IUserService) serviceBean;
-         *                 result = userService.getById(rpcRequest.getParameters()[0]);
-         *             }
-         *         }
-         *     }
-         */
+    }
+
+    /**
+     * 按方法的参数类型解出参数，单独拿出来是为了把解参数和执行业务方法的耗时分开统计
+     */
+    public Object[] decodeParameters(MethodInvoker invoker, RpcRequest rpcRequest) {
+        Object[] parameters = rpcRequest.getParameters();
+        if (parameters == null && rpcRequest.getData() != null) {
+            // 直接从收到的数据上解，解完马上释放，业务方法执行期间不占着接收缓冲区
+            try {
+                parameters = SerializerFactory.getSerializer(rpcRequest.getSerializer())
+                        .deserializeArguments(rpcRequest.getData(), invoker.getParameterTypes());
+            } finally {
+                rpcRequest.release();
+            }
+            rpcRequest.setParameters(parameters);
+        }
+        return parameters;
     }
 }
@@ -1,20 +1,30 @@
 package com.gs.rpcsimulate.provider.server;
 
+import com.gs.rpcsimulate.codec.RpcMessageDecoder;
+import com.gs.rpcsimulate.codec.RpcMessageEncoder;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
 import com.gs.rpcsimulate.provider.handler.NettyServerHandler;
+import com.gs.rpcsimulate.provider.metrics.ServerMetrics;
+import com.gs.rpcsimulate.registry.ServiceInstance;
+import com.gs.rpcsimulate.registry.ServiceRegistry;
+import com.gs.rpcsimulate.transport.HeartbeatConfig;
+import com.gs.rpcsimulate.transport.TransportConfig;
+import com.gs.rpcsimulate.transport.WriteConfig;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Netty服务端
  * 启动服务端监听端口
@@ -27,35 +37,79 @@ public class NettyRpcServer implements DisposableBean {
     @Autowired
     private NettyServerHandler nettyServerHandler;
 
+    // 消息体不小于这么多字节才压缩
+    @Value("${rpc.compression.threshold:" + RpcProtocol.DEFAULT_COMPRESS_THRESHOLD + "}")
+    private int compressThreshold;
+
+    @Autowired
+    private WriteConfig writeConfig;
+
+    @Autowired
+    private TransportConfig transportConfig;
+
+    @Autowired
+    private HeartbeatConfig heartbeatConfig;
+
+    @Autowired
+    private ServerMetrics serverMetrics;
+
+    @Autowired
+    private ServiceRegistry serviceRegistry;
+    private final List<String> registeredServices = new CopyOnWriteArrayList<>();
+    private volatile ServiceInstance registeredInstance;
+
+    // 注册到注册中心的权重，客户端加权轮询时按它分配流量
+    @Value("${rpc.weight:" + ServiceInstance.DEFAULT_WEIGHT + "}")
+    private int weight;
+
     EventLoopGroup bossGroup = null;
     EventLoopGroup workerGroup = null;
     public void start(String host, int port) {
         try {
-            bossGroup = new NioEventLoopGroup(1);
-            workerGroup = new NioEventLoopGroup();
+            // Linux上用epoll，其他系统用NIO；线程数和socket参数都来自配置
+            bossGroup = transportConfig.newEventLoopGroup(transportConfig.getBossThreads(), "rpc-server-boss");
+            workerGroup = transportConfig.newEventLoopGroup(transportConfig.getWorkerThreads(), "rpc-server-worker");
             ServerBootstrap serverBootstrap = new ServerBootstrap();
+            // 编码器没有状态，所有通道共享一个；每写完一个响应，按方法记下响应大小和序列化耗时
+            RpcMessageEncoder rpcMessageEncoder = new RpcMessageEncoder(compressThreshold, serverMetrics.getEncodeListener());
+            transportConfig.applyServerOptions(serverBootstrap);
 
             serverBootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transportConfig.serverChannelClass())
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         // pipeline底层就是双向链表，放的就是类似编解码器等处理器
                         // 使用rpc通信，因为rpc的效率比较高
+                        // 编解码用自定义的二进制协议，解码器有状态，每个通道new一个；编码器无状态，共享一个
                         @Override
                         protected void initChannel(SocketChannel socketChannel) throws Exception {
                             ChannelPipeline pipeline = socketChannel.pipeline();
-                            pipeline.addLast(new StringDecoder())
-                                    .addLast(new StringEncoder())
-                                    .addLast(nettyServerHandler);
+                            pipeline.addLast(new RpcMessageDecoder())
+                                    .addLast(rpcMessageEncoder);
+                            // 回应客户端的PING，长时间什么都收不到的连接（对端已经不在了）直接关掉
+                            heartbeatConfig.apply(socketChannel, true);
+                            pipeline.addLast(nettyServerHandler);
+                            // 响应多是从业务线程写回来的，合并成一批再flush，减少系统调用
+                            writeConfig.apply(socketChannel);
                         }
                     });
 
             // 如果出现异常，还需要释放之前的资源——bossGroup,workerGroup，所以处理办法是整个方法的处理办法
-            ChannelFuture channelFuture = serverBootstrap.bind(host, port).sync();
+            // 开启SO_REUSEPORT时同一个端口绑定多个监听通道，每次bind会分到bossGroup里的下一个线程，内核把新连接分散到这些通道上
+            List<ChannelFuture> channelFutures = new ArrayList<>();
+            for (int i = 0; i < transportConfig.acceptorCount(); i++) {
+                channelFutures.add(serverBootstrap.bind(host, port).sync());
+            }
 
             System.out.println("============Netty server starts===============");
+            System.out.println("传输层：" + transportConfig);
+
+            // 端口绑定成功后，再把所有服务注册到注册中心，客户端才能发现这个服务端
+            registerServices(host, port);
 
             // 需要监听通道关闭的状态
-            channelFuture.channel().closeFuture().sync();
+            for (ChannelFuture channelFuture : channelFutures) {
+                channelFuture.channel().closeFuture().sync();
+            }
         } catch (InterruptedException e) {
             e.printStackTrace();
             if (bossGroup != null) {
@@ -67,8 +121,25 @@ public class NettyRpcServer implements DisposableBean {
         }
     }
 
+    private void registerServices(String host, int port) {
+        ServiceInstance instance = new ServiceInstance(host, port, weight);
+        for (String serviceName : NettyServerHandler.SERVICE_INSTANCE_MAP.keySet()) {
+            serviceRegistry.register(serviceName, instance);
+            registeredServices.add(serviceName);
+            System.out.println("注册服务：" + serviceName + " -> " + instance);
+        }
+        registeredInstance = instance;
+    }
+
     @Override
     public void destroy() throws Exception {
+        // 先从注册中心下线，客户端不再往这里发新请求，再关闭线程组
+        if (registeredInstance != null) {
+            for (String serviceName : registeredServices) {
+                serviceRegistry.unregister(serviceName, registeredInstance);
+            }
+            registeredServices.clear();
+        }
         if (bossGroup != null) {
             bossGroup.shutdownGracefully();
         }
@@ -0,0 +1,22 @@
+package com.gs.rpcsimulate.provider.service;
+
+import com.gs.rpcsimulate.api.IEchoService;
+import com.gs.rpcsimulate.provider.anno.RpcService;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+@RpcService // 压测用，见rpc-loadgen
+@Service
+public class EchoServiceImpl implements IEchoService {
+
+    @Override
+    public byte[] echo(byte[] payload) {
+        return payload;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> echoAsync(byte[] payload) {
+        return CompletableFuture.completedFuture(payload);
+    }
+}
@@ -4,9 +4,14 @@ import com.gs.rpcsimulate.api.IUserService;
 import com.gs.rpcsimulate.pojo.User;
 import com.gs.rpcsimulate.provider.anno.RpcService;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @RpcService // 标识该服务是对外暴露的一个服务的接口
 @Service
@@ -28,4 +33,40 @@ public class UserServiceImpl implements IUserService {
         }
         return userMap.get(id);
     }
+
+    @Override
+    public CompletableFuture<User> getByIdAsync(int id) {
+        return CompletableFuture.completedFuture(getById(id));
+    }
+
+    /**
+     * 懒生成，框架取一个才生成一个，相当于从数据库游标里一行一行地读
+     */
+    @Override
+    public Stream<User> exportUsers(int count) {
+        return IntStream.rangeClosed(1, count).mapToObj(id -> {
+            User user = new User();
+            user.setId(id);
+            user.setName("用户" + id);
+            return user;
+        });
+    }
+
+    @Override
+    public Mono<User> getByIdReactive(int id) {
+        return Mono.fromSupplier(() -> getById(id));
+    }
+
+    /**
+     * 框架按客户端的额度request，Flux.range按request的个数生成
+     */
+    @Override
+    public Flux<User> streamUsers(int count) {
+        return Flux.range(1, count).map(id -> {
+            User user = new User();
+            user.setId(id);
+            user.setName("用户" + id);
+            return user;
+        });
+    }
 }
@@ -0,0 +1,374 @@
+package com.gs.rpcsimulate.provider.stream;
+
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.transport.WriteQueue;
+import io.netty.channel.Channel;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 服务端的一个流式调用
+ * 业务方法返回的Iterator/Stream是懒的，这里按客户端给的额度一个一个地取、一个一个地发：
+ * 1 额度用完了就停下来，把线程还给线程池，不再从Iterator里取，客户端消费慢，服务端就跟着慢（背压）；
+ *   额度到了再提交到业务线程池接着发。进行中的元素最多就是客户端给的额度那么多，内存是有界的
+ * 2 连接不可写（写缓冲区超过高水位）也停下来，等可写了再接着发
+ * 3 客户端取消、连接断开，停止取元素，关掉Stream（数据库游标之类的资源跟着释放），不回响应
+ * 4 客户端很久不给额度（拿了流不用也不关），服务端主动结束，回一个错误，不一直占着资源
+ * 同一时间只有一个线程在发（wip计数，和Reactive Streams实现里常见的drain循环一样），额度、取消可以在任意线程上到达
+ * 业务方法返回Flux（Publisher）时不从里面取，而是订阅它：客户端给了多少额度就向它request多少，
+ * 元素在它自己的线程上推过来就直接写出去，不占业务线程等它
+ */
+public class ServerStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerStream.class);
+
+    private final ServerStreams owner;
+    private final Channel channel;
+    private final long requestId;
+    // 额度用完的时候在哪里接着发：业务线程池，direct模式下是连接的EventLoop
+    private final Executor executor;
+    private final long idleTimeoutNanos;
+
+    // 客户端给的额度减去已经发出去的元素个数
+    private final AtomicLong credits = new AtomicLong();
+    // 客户端一共给了多少额度，Publisher：向它request的总数不超过这个
+    private final AtomicLong granted = new AtomicLong();
+    // 要求发送的次数，从0变成1的那个线程负责发，发的过程中别的线程来的请求只加计数
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+
+    // 客户端取消了，或者连接断了
+    private volatile boolean cancelled;
+    // 服务端主动结束的原因
+    private volatile String failure;
+    private volatile long lastCreditNanos = System.nanoTime();
+    private final AtomicBoolean idleCheckScheduled = new AtomicBoolean();
+
+    // 以下在业务方法返回之后由start设置，只在drain里用
+    private volatile boolean started;
+    private Iterator<?> iterator;
+    private AutoCloseable resource;
+    // 业务方法返回的是Publisher时用下面这些，subscription在订阅成功后设置，upstreamDone在它结束时设置
+    private boolean publisher;
+    private volatile Subscription subscription;
+    private volatile boolean upstreamDone;
+    private volatile String upstreamError;
+    // 已经向Publisher request的总数，只在drain里用
+    private long requested;
+    // 结束时写回的响应，状态、错误信息在结束时才填
+    private RpcResponse terminal;
+    private Consumer<Boolean> onFinish;
+    private long sent;
+
+    ServerStream(ServerStreams owner, Channel channel, long requestId, Executor executor, long idleTimeoutNanos) {
+        this.owner = owner;
+        this.channel = channel;
+        this.requestId = requestId;
+        this.executor = executor;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+    }
+
+    /**
+     * 业务方法返回了，在业务线程上调用，接着就在当前线程上开始发
+     * @param result   业务方法的返回值，Iterator、Stream或者Publisher（Flux），null当成空的
+     * @param terminal 发完之后写回的响应，用它的序列化、压缩方式发元素
+     * @param onFinish 流结束（发完、出错、被取消）时回调一次，参数是有没有成功
+     */
+    public void start(Object result, RpcResponse terminal, Consumer<Boolean> onFinish) {
+        this.terminal = terminal;
+        this.onFinish = onFinish;
+        if (result instanceof Stream) {
+            resource = (Stream<?>) result;
+            iterator = ((Stream<?>) result).iterator();
+        } else if (result instanceof Iterator) {
+            if (result instanceof AutoCloseable) {
+                resource = (AutoCloseable) result;
+            }
+            iterator = (Iterator<?>) result;
+        } else if (result instanceof Publisher) {
+            publisher = true;
+        } else if (result == null) {
+            iterator = Collections.emptyIterator();
+        } else {
+            terminal.setError("流式方法的返回值不是Iterator、Stream或Flux：" + result.getClass().getName());
+            iterator = Collections.emptyIterator();
+        }
+        started = true;
+        if (publisher) {
+            // 订阅成功后onSubscribe会触发drain，按额度request
+            ((Publisher<?>) result).subscribe(new Upstream());
+            return;
+        }
+        if (wip.getAndIncrement() == 0) {
+            drain();
+        }
+    }
+
+    /**
+     * 收到客户端的额度，在IO线程上调用
+     */
+    void addCredits(int n) {
+        if (n <= 0) {
+            return;
+        }
+        lastCreditNanos = System.nanoTime();
+        granted.addAndGet(n);
+        credits.addAndGet(n);
+        signal();
+    }
+
+    /**
+     * 客户端取消，或者连接断开，不会再回响应
+     */
+    void cancel() {
+        cancelled = true;
+        signal();
+    }
+
+    /**
+     * 请求还没开始处理就不处理了（调用方已经超时、线程池满了、业务方法抛了异常），由调用方自己回响应，这里只是注销
+     */
+    public void discard() {
+        if (finished.compareAndSet(false, true)) {
+            owner.remove(this);
+        }
+    }
+
+    /**
+     * 连接又可写了，接着发
+     */
+    void resume() {
+        if (credits.get() > 0) {
+            signal();
+        }
+    }
+
+    private void signal() {
+        if (wip.getAndIncrement() == 0) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                // 线程池满了或者已经关闭，这个流没法接着发了，就在当前线程上结束它（还没start的话由start来结束）
+                failure = "服务端过载，流式调用无法继续：" + e;
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        for (;;) {
+            pump();
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void pump() {
+        if (finished.get() || !started) {
+            // 业务方法还没返回，取消也要等start，结束时才能通知到调用方
+            return;
+        }
+        try {
+            if (publisher) {
+                pumpPublisher();
+            } else {
+                pumpIterator();
+            }
+        } catch (Throwable e) {
+            logger.error("流式调用发送元素失败，requestId={}，客户端：{}", requestId, channel.remoteAddress(), e);
+            finish(e.toString());
+        }
+    }
+
+    /**
+     * 有额度就一直发，没额度、不可写、发完了、出错了、被取消了就返回
+     * 先问hasNext再看额度：最后一个元素发完时额度正好用完，也能马上发现已经结束了，不用等客户端再给额度
+     */
+    private void pumpIterator() {
+        while (!cancelled && failure == null) {
+            if (!iterator.hasNext()) {
+                finish(terminal.getError());
+                return;
+            }
+            if (credits.get() <= 0) {
+                scheduleIdleCheck();
+                return;
+            }
+            if (!channel.isWritable()) {
+                return;
+            }
+            Object element = iterator.next();
+            credits.decrementAndGet();
+            write(element);
+        }
+        finish(cancelled ? null : failure);
+    }
+
+    /**
+     * Publisher：不在这里发元素，只是把客户端新给的额度request给它；不可写的时候先不request，已经request的照常发
+     * request、cancel都只在drain里调用，满足Reactive Streams要求的串行调用
+     */
+    private void pumpPublisher() {
+        if (cancelled || failure != null) {
+            finish(cancelled ? null : failure);
+            return;
+        }
+        if (upstreamDone) {
+            finish(upstreamError != null ? upstreamError : terminal.getError());
+            return;
+        }
+        Subscription subscription = this.subscription;
+        if (subscription == null) {
+            return;
+        }
+        if (credits.get() <= 0) {
+            scheduleIdleCheck();
+            return;
+        }
+        long want = granted.get() - requested;
+        if (want > 0 && channel.isWritable()) {
+            requested += want;
+            subscription.request(want);
+        }
+    }
+
+    private void write(Object element) {
+        StreamFrame frame = StreamFrame.newInstance(RpcProtocol.TYPE_STREAM_DATA, requestId, terminal.getSerializer());
+        frame.setCompressor(terminal.getCompressor());
+        frame.setCompressLevel(terminal.getCompressLevel());
+        frame.setMethodId(terminal.getMethodId());
+        frame.setElement(element);
+        sent++;
+        WriteQueue.write(channel, frame, null);
+    }
+
+    /**
+     * 停下来等额度的时候，定时看一下客户端是不是很久都没给额度了
+     */
+    private void scheduleIdleCheck() {
+        if (idleTimeoutNanos <= 0 || !idleCheckScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = idleTimeoutNanos - (System.nanoTime() - lastCreditNanos);
+        channel.eventLoop().schedule(this::checkIdle, Math.max(delay, 0), TimeUnit.NANOSECONDS);
+    }
+
+    private void checkIdle() {
+        idleCheckScheduled.set(false);
+        if (finished.get() || credits.get() > 0) {
+            return;
+        }
+        if (System.nanoTime() - lastCreditNanos >= idleTimeoutNanos) {
+            failure = "流式调用空闲超时，客户端" + TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) + "ms没有取数据，已发送"
+                    + sent + "个元素";
+            signal();
+        } else {
+            scheduleIdleCheck();
+        }
+    }
+
+    /**
+     * 结束这个流：关掉资源，没被取消就写回结束的响应，只执行一次
+     * @param error 出错时的错误信息，正常结束为null
+     */
+    private void finish(String error) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        owner.remove(this);
+        // 没发完就结束了（取消、出错、空闲超时），Publisher那边也停下来
+        Subscription subscription = this.subscription;
+        if (subscription != null && !upstreamDone) {
+            subscription.cancel();
+        }
+        if (resource != null) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                logger.warn("关闭流式调用的资源失败，requestId={}", requestId, e);
+            }
+        }
+        RpcResponse terminal = this.terminal;
+        if (terminal != null) {
+            if (cancelled) {
+                // 客户端已经不要了，不用回
+                terminal.recycle();
+            } else {
+                terminal.setError(error);
+                WriteQueue.write(channel, terminal, null);
+            }
+        }
+        if (onFinish != null) {
+            onFinish.accept(error == null);
+        }
+    }
+
+    /**
+     * 订阅业务方法返回的Publisher，元素在它自己的线程上推过来，按request的个数来，不会超过客户端给的额度
+     */
+    private final class Upstream implements Subscriber<Object> {
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+            if (finished.get()) {
+                s.cancel();
+                return;
+            }
+            signal();
+        }
+
+        @Override
+        public void onNext(Object element) {
+            if (finished.get()) {
+                return;
+            }
+            write(element);
+            // 额度用完了，让drain去登记空闲检查
+            if (credits.decrementAndGet() <= 0) {
+                signal();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            upstreamError = t.toString();
+            upstreamDone = true;
+            signal();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            signal();
+        }
+    }
+
+    long getRequestId() {
+        return requestId;
+    }
+
+    Channel getChannel() {
+        return channel;
+    }
+}
@@ -0,0 +1,103 @@
+package com.gs.rpcsimulate.provider.stream;
+
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 服务端所有进行中的流式调用，按连接分开登记：requestId -> 流
+ * 客户端的额度、取消按requestId找到对应的流；连接可写了、连接断了，这个连接上的流一起处理
+ */
+@Component
+public class ServerStreams {
+
+    private static final AttributeKey<Map<Long, ServerStream>> STREAMS = AttributeKey.valueOf("rpcServerStreams");
+
+    // 停下来等额度超过这么久，就认为客户端不会再取了，结束这个流，毫秒，0表示一直等
+    @Value("${rpc.stream.idle-timeout-millis:60000}")
+    long idleTimeoutMillis;
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    /**
+     * 收到流式方法的请求时在IO线程上登记，客户端紧跟着请求发过来的额度要能找到它
+     * @param executor 这个服务的业务线程池，为null时在连接的EventLoop上发
+     */
+    public ServerStream register(Channel channel, long requestId, Executor executor) {
+        Map<Long, ServerStream> streams = channel.attr(STREAMS).get();
+        if (streams == null) {
+            streams = new ConcurrentHashMap<>();
+            channel.attr(STREAMS).set(streams);
+            // 连接断了，上面的流都不会再有人要了
+            Map<Long, ServerStream> closing = streams;
+            channel.closeFuture().addListener(future -> {
+                for (ServerStream stream : closing.values()) {
+                    stream.cancel();
+                }
+            });
+        }
+        ServerStream stream = new ServerStream(this, channel, requestId, executor == null ? channel.eventLoop() : executor,
+                TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis));
+        streams.put(requestId, stream);
+        activeStreams.incrementAndGet();
+        if (!channel.isActive()) {
+            stream.cancel();
+        }
+        return stream;
+    }
+
+    /**
+     * 客户端发来的额度或者取消，在IO线程上调用；流已经结束了就忽略
+     */
+    public void onFrame(Channel channel, StreamFrame frame) {
+        try {
+            Map<Long, ServerStream> streams = channel.attr(STREAMS).get();
+            ServerStream stream = streams == null ? null : streams.get(frame.getRequestId());
+            if (stream == null) {
+                return;
+            }
+            if (frame.getType() == RpcProtocol.TYPE_STREAM_CREDIT) {
+                stream.addCredits(frame.getCredits());
+            } else if (frame.getType() == RpcProtocol.TYPE_STREAM_CANCEL) {
+                stream.cancel();
+            }
+        } finally {
+            frame.recycle();
+        }
+    }
+
+    /**
+     * 连接又可写了，因为不可写而停下来的流接着发
+     */
+    public void writabilityChanged(Channel channel) {
+        Map<Long, ServerStream> streams = channel.attr(STREAMS).get();
+        if (streams != null && channel.isWritable()) {
+            for (ServerStream stream : streams.values()) {
+                stream.resume();
+            }
+        }
+    }
+
+    void remove(ServerStream stream) {
+        Map<Long, ServerStream> streams = stream.getChannel().attr(STREAMS).get();
+        if (streams != null && streams.remove(stream.getRequestId(), stream)) {
+            activeStreams.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return 进行中的流式调用数
+     */
+    public int getActiveStreams() {
+        return activeStreams.get();
+    }
+}
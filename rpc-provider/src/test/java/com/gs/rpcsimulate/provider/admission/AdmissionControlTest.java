@@ -0,0 +1,190 @@
+package com.gs.rpcsimulate.provider.admission;
+
+import com.gs.rpcsimulate.provider.anno.RpcService;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 准入控制：连接到了上限停止读、降到一半恢复读，或者直接回过载；服务到了上限回过载；写缓冲区满了停止读
+ */
+public class AdmissionControlTest {
+
+    private static final String LIMITED = "com.gs.rpcsimulate.api.ILimitedService";
+    private static final String UNLIMITED = "com.gs.rpcsimulate.api.IUnlimitedService";
+
+    private AdmissionControl admissionControl;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        admissionControl = new AdmissionControl();
+        channel = new EmbeddedChannel();
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * pause：正在处理的请求数到了上限就停止读，之后解码器已经解出来的请求照样放行；降到上限的一半才恢复读
+     */
+    @Test
+    public void pausesAtLimitAndResumesAtHalf() {
+        init(4, AdmissionControl.ACTION_PAUSE);
+        for (int i = 1; i <= 3; i++) {
+            assertNull(admissionControl.tryAcquire(channel, UNLIMITED));
+            assertTrue(channel.config().isAutoRead());
+        }
+        assertNull(admissionControl.tryAcquire(channel, UNLIMITED));
+        assertFalse("到了上限停止读", channel.config().isAutoRead());
+        assertNull("停止读之前已经解出来的请求照样放行", admissionControl.tryAcquire(channel, UNLIMITED));
+        assertEquals(0, admissionControl.getRejectedRequests());
+
+        // 5 -> 3，还在一半之上，不恢复
+        admissionControl.release(channel, UNLIMITED);
+        admissionControl.release(channel, UNLIMITED);
+        assertFalse(channel.config().isAutoRead());
+        // 3 -> 2，降到一半恢复读
+        admissionControl.release(channel, UNLIMITED);
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    /**
+     * reject：到了上限直接回过载，不停止读；有请求处理完了又能放行
+     */
+    @Test
+    public void rejectModeRepliesOverloadedWithoutPausing() {
+        init(2, AdmissionControl.ACTION_REJECT);
+        assertNull(admissionControl.tryAcquire(channel, UNLIMITED));
+        assertNull(admissionControl.tryAcquire(channel, UNLIMITED));
+        String reason = admissionControl.tryAcquire(channel, UNLIMITED);
+        assertNotNull(reason);
+        assertTrue(reason, reason.contains("连接"));
+        assertTrue("reject模式不停止读", channel.config().isAutoRead());
+        assertEquals(1, admissionControl.getRejectedRequests());
+
+        admissionControl.release(channel, UNLIMITED);
+        assertNull(admissionControl.tryAcquire(channel, UNLIMITED));
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    /**
+     * @RpcService(maxInFlight)指定的服务上限：超过的回过载，其他服务不受影响
+     */
+    @Test
+    public void serviceLimitRejectsOnlyThatService() {
+        init(0, AdmissionControl.ACTION_PAUSE);
+        assertNull(admissionControl.tryAcquire(channel, LIMITED));
+        assertNull(admissionControl.tryAcquire(channel, LIMITED));
+        String reason = admissionControl.tryAcquire(channel, LIMITED);
+        assertNotNull(reason);
+        assertTrue(reason, reason.contains(LIMITED));
+        for (int i = 0; i < 10; i++) {
+            assertNull(admissionControl.tryAcquire(channel, UNLIMITED));
+        }
+        assertEquals(2, (int) admissionControl.getServiceInFlight().get(LIMITED));
+        assertEquals(10, (int) admissionControl.getServiceInFlight().get(UNLIMITED));
+        assertEquals(1, admissionControl.getRejectedRequests());
+
+        admissionControl.release(channel, LIMITED);
+        assertNull(admissionControl.tryAcquire(channel, LIMITED));
+    }
+
+    /**
+     * 服务放行了、连接拒绝了：服务占的名额要退回去，否则服务的计数只增不减，最后整个服务都被拒绝
+     */
+    @Test
+    public void serviceSlotIsRolledBackWhenConnectionRejects() {
+        init(1, AdmissionControl.ACTION_REJECT);
+        assertNull(admissionControl.tryAcquire(channel, LIMITED));
+        assertNotNull(admissionControl.tryAcquire(channel, LIMITED));
+        assertEquals(1, (int) admissionControl.getServiceInFlight().get(LIMITED));
+
+        admissionControl.release(channel, LIMITED);
+        assertEquals(0, (int) admissionControl.getServiceInFlight().get(LIMITED));
+        assertNull(admissionControl.tryAcquire(channel, LIMITED));
+    }
+
+    /**
+     * 写缓冲区超过高水位（客户端不收响应）时停止读，降到低水位再恢复
+     */
+    @Test
+    public void pausesWhileChannelIsUnwritable() {
+        init(100, AdmissionControl.ACTION_PAUSE);
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        channel.write(Unpooled.wrappedBuffer(new byte[32]));
+        assertFalse(channel.isWritable());
+        admissionControl.writabilityChanged(channel);
+        assertFalse(channel.config().isAutoRead());
+
+        channel.flush();
+        assertTrue(channel.isWritable());
+        admissionControl.writabilityChanged(channel);
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    /**
+     * 请求数降到一半时通道还不可写，不能恢复读
+     */
+    @Test
+    public void staysPausedWhileUnwritableEvenBelowHalf() {
+        init(2, AdmissionControl.ACTION_PAUSE);
+        admissionControl.tryAcquire(channel, UNLIMITED);
+        admissionControl.tryAcquire(channel, UNLIMITED);
+        assertFalse(channel.config().isAutoRead());
+
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        channel.write(Unpooled.wrappedBuffer(new byte[32]));
+        admissionControl.release(channel, UNLIMITED);
+        assertFalse("还不可写，不恢复读", channel.config().isAutoRead());
+
+        channel.flush();
+        admissionControl.writabilityChanged(channel);
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void unknownActionIsRejected() {
+        admissionControl.connectionLimitAction = "drop";
+        try {
+            admissionControl.init(new HashMap<>());
+            fail("配置写错了应该报错");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("drop"));
+        }
+    }
+
+    private void init(int maxInFlightPerConnection, String action) {
+        admissionControl.maxInFlightPerConnection = maxInFlightPerConnection;
+        admissionControl.connectionLimitAction = action;
+        Map<String, Object> serviceMap = new HashMap<>();
+        serviceMap.put(LIMITED, new LimitedService());
+        serviceMap.put(UNLIMITED, new UnlimitedService());
+        admissionControl.init(serviceMap);
+        admissionControl.register(channel);
+    }
+
+    @RpcService(maxInFlight = 2)
+    static class LimitedService {
+    }
+
+    // 没有指定，用rpc.admission.max-in-flight-per-service，默认0不限制
+    @RpcService
+    static class UnlimitedService {
+    }
+}
@@ -0,0 +1,163 @@
+package com.gs.rpcsimulate.provider.stream;
+
+import com.gs.rpcsimulate.common.RpcResponse;
+import com.gs.rpcsimulate.common.StreamFrame;
+import com.gs.rpcsimulate.protocol.RpcProtocol;
+import com.gs.rpcsimulate.serializer.KryoSerializer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 服务端的流式调用：客户端给多少额度就发多少个元素，收到取消就停下来，不再回结束的响应
+ */
+public class ServerStreamTest {
+
+    private static final long REQUEST_ID = 1;
+
+    private final byte serializer = new KryoSerializer().getType();
+
+    private ServerStreams streams;
+    private EmbeddedChannel channel;
+    private final AtomicReference<Boolean> finished = new AtomicReference<>();
+
+    @Before
+    public void setUp() {
+        streams = new ServerStreams();
+        channel = new EmbeddedChannel();
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void sendsNoMoreElementsThanCredited() {
+        AtomicBoolean closed = new AtomicBoolean();
+        ServerStream stream = streams.register(channel, REQUEST_ID, null);
+        stream.start(IntStream.rangeClosed(1, 5).boxed().onClose(() -> closed.set(true)), terminal(), finished::set);
+        assertEquals("还没有额度，什么都不发", 0, sentElements().size());
+
+        credit(3);
+        assertEquals(Arrays.asList(1, 2, 3), sentElements());
+
+        credit(10);
+        assertEquals(Arrays.asList(4, 5), sentElements());
+        RpcResponse end = channel.readOutbound();
+        try {
+            assertEquals(REQUEST_ID, end.getRequestId());
+            assertNull(end.getError());
+        } finally {
+            end.recycle();
+        }
+        assertTrue(finished.get());
+        assertTrue("发完要关闭业务方法返回的Stream", closed.get());
+        assertEquals(0, streams.getActiveStreams());
+    }
+
+    /**
+     * 客户端取消：停在当前位置，关闭业务方法返回的Stream，不回结束的响应，之后的额度被忽略
+     */
+    @Test
+    public void cancelStopsTheStream() {
+        AtomicBoolean closed = new AtomicBoolean();
+        ServerStream stream = streams.register(channel, REQUEST_ID, null);
+        stream.start(Stream.iterate(1, i -> i + 1).onClose(() -> closed.set(true)), terminal(), finished::set);
+        credit(2);
+        assertEquals(Arrays.asList(1, 2), sentElements());
+
+        streams.onFrame(channel, StreamFrame.cancel(REQUEST_ID, serializer));
+        channel.runPendingTasks();
+        assertTrue(closed.get());
+        assertNull("取消了就不回响应", channel.readOutbound());
+        assertEquals(0, streams.getActiveStreams());
+
+        credit(5);
+        assertNull(channel.readOutbound());
+    }
+
+    /**
+     * 业务方法返回Flux时，向它request的总数不超过客户端给的额度
+     */
+    @Test
+    public void publisherIsRequestedOnlyWhatWasCredited() {
+        AtomicLong requested = new AtomicLong();
+        ServerStream stream = streams.register(channel, REQUEST_ID, null);
+        stream.start(Flux.range(1, 100).doOnRequest(requested::addAndGet), terminal(), finished::set);
+        channel.runPendingTasks();
+        assertEquals(0, requested.get());
+
+        credit(4);
+        assertEquals(Arrays.asList(1, 2, 3, 4), sentElements());
+        assertEquals(4, requested.get());
+
+        credit(2);
+        assertEquals(Arrays.asList(5, 6), sentElements());
+        assertEquals(6, requested.get());
+        assertNull("还没发完", finished.get());
+    }
+
+    /**
+     * 连接断了，上面的流都取消
+     */
+    @Test
+    public void connectionCloseCancelsStreams() {
+        AtomicBoolean closed = new AtomicBoolean();
+        ServerStream stream = streams.register(channel, REQUEST_ID, null);
+        stream.start(Stream.iterate(1, i -> i + 1).onClose(() -> closed.set(true)), terminal(), finished::set);
+
+        channel.close();
+        channel.runPendingTasks();
+        assertTrue(closed.get());
+        assertEquals(0, streams.getActiveStreams());
+    }
+
+    private RpcResponse terminal() {
+        RpcResponse terminal = RpcResponse.newInstance();
+        terminal.setRequestId(REQUEST_ID);
+        terminal.setSerializer(serializer);
+        return terminal;
+    }
+
+    /**
+     * 客户端发来额度，在IO线程上处理，接着发的任务排在EventLoop上
+     */
+    private void credit(int credits) {
+        streams.onFrame(channel, StreamFrame.credit(REQUEST_ID, serializer, credits));
+        channel.runPendingTasks();
+    }
+
+    /**
+     * 取出已经写出去的元素帧，遇到别的消息（结束的响应）就停下，留给调用方取
+     */
+    private List<Object> sentElements() {
+        List<Object> elements = new ArrayList<>();
+        while (channel.outboundMessages().peek() instanceof StreamFrame) {
+            StreamFrame frame = channel.readOutbound();
+            try {
+                assertEquals(RpcProtocol.TYPE_STREAM_DATA, frame.getType());
+                assertEquals(REQUEST_ID, frame.getRequestId());
+                elements.add(frame.getElement());
+            } finally {
+                frame.recycle();
+            }
+        }
+        return elements;
+    }
+}